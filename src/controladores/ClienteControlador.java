@@ -2,26 +2,44 @@ package controladores;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Comparator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
 
 import modelos.Cliente;
 import modelos.ClienteFisico;
 import modelos.ClienteJuridico;
 import modelos.Cuenta;
+import servicios.BitacoraNoConfirmadaException;
+import servicios.IndiceClientes;
+import servicios.IndiceContactos;
+import servicios.IndiceNombres;
+import servicios.MotorCuentas;
 import servicios.PersistenciaDatos;
+import servicios.RegistroCuentas;
 
 public class ClienteControlador {
 
     private List<Cliente> clientes;
+    // Las altas agregan a la lista mientras el checkpoint la recorre desde otro hilo
+    private final Object candadoClientes = new Object();
+    private IndiceClientes indiceClientes;
+    private IndiceContactos indiceContactos;
+    private IndiceNombres indiceNombres;
+    private RegistroCuentas registroCuentas;
     private CuentaControlador cuentaControlador;
     private TransaccionesControlador transaccionesControlador;
 
     public ClienteControlador() {
         this.clientes = new ArrayList<>();
-        this.cuentaControlador = new CuentaControlador(clientes);
-        this.transaccionesControlador = new TransaccionesControlador(clientes);
+        this.indiceClientes = new IndiceClientes();
+        this.indiceContactos = new IndiceContactos();
+        this.indiceNombres = new IndiceNombres();
+        this.registroCuentas = new RegistroCuentas();
+        // Los cambios de saldo se anotan sin candado y el índice por saldo los aplica al consultarlo
+        Cuenta.setObservadorSaldo(registroCuentas.getIndiceSaldos()::marcarCambio);
+        this.cuentaControlador = new CuentaControlador(registroCuentas);
+        this.transaccionesControlador = new TransaccionesControlador(registroCuentas);
     }
 
     public CuentaControlador getCuentaControlador() {
@@ -32,30 +50,60 @@ public class ClienteControlador {
         return transaccionesControlador;
     }
 
+    // Motor que aplica las operaciones sobre las cuentas de este controlador
+    public MotorCuentas getMotor() {
+        return registroCuentas.getMotor();
+    }
+
     public boolean crearClienteFisico(String nombre, long identificacion, String numTelefono, String correoElectronico,
             LocalDate fechaNacimiento, int maxCuentas) {
-        if (buscarClientePorIdentificacion(identificacion).isEmpty()) {
-            Cliente nuevoCliente = new ClienteFisico(nombre, identificacion, numTelefono, correoElectronico,
-                    fechaNacimiento, maxCuentas);
-            clientes.add(nuevoCliente);
-            PersistenciaDatos.guardarDatos(clientes);
-            return true;
-        } else {
+        if (indiceClientes.buscar(identificacion) != null) {
             return false;
         }
+        Cliente nuevoCliente = new ClienteFisico(nombre, identificacion, numTelefono, correoElectronico,
+                fechaNacimiento, maxCuentas);
+        return agregarCliente(nuevoCliente);
     }
 
     public boolean crearClienteJuridico(String nombre, long identificacion, String numTelefono,
             String correoElectronico, String tipoNegocio, String razonSocial) {
-        if (buscarClientePorIdentificacion(identificacion).isEmpty()) {
-            Cliente nuevoCliente = new ClienteJuridico(nombre, identificacion, numTelefono, correoElectronico,
-                    tipoNegocio, razonSocial);
-            clientes.add(nuevoCliente);
-            PersistenciaDatos.guardarDatos(clientes);
-            return true;
-        } else {
+        if (indiceClientes.buscar(identificacion) != null) {
             return false;
         }
+        Cliente nuevoCliente = new ClienteJuridico(nombre, identificacion, numTelefono, correoElectronico,
+                tipoNegocio, razonSocial);
+        return agregarCliente(nuevoCliente);
+    }
+
+    // Los índices deciden si la identificación, el teléfono o el correo ya existen, también entre altas simultáneas
+    private boolean agregarCliente(Cliente nuevoCliente) {
+        synchronized (indiceContactos) {
+            if (!indiceContactos.telefonoDisponible(nuevoCliente.getNumTelefono(), nuevoCliente)
+                    || !indiceContactos.correoDisponible(nuevoCliente.getCorreoElectronico(), nuevoCliente)
+                    || !indiceClientes.agregar(nuevoCliente)) {
+                return false;
+            }
+            indiceContactos.agregar(nuevoCliente);
+        }
+        indiceNombres.agregar(nuevoCliente);
+        synchronized (candadoClientes) {
+            clientes.add(nuevoCliente);
+        }
+        try {
+            PersistenciaDatos.registrarAltaCliente(nuevoCliente);
+        } catch (BitacoraNoConfirmadaException e) {
+            // El alta no quedó en la bitácora: el cliente sale de la lista y de los índices
+            synchronized (candadoClientes) {
+                clientes.removeIf(cliente -> cliente == nuevoCliente);
+            }
+            indiceNombres.quitar(nuevoCliente);
+            synchronized (indiceContactos) {
+                indiceContactos.quitar(nuevoCliente);
+                indiceClientes.quitar(nuevoCliente);
+            }
+            throw e;
+        }
+        return true;
     }
 
     public boolean agregarCuentaACliente(long identificacion, Cuenta nuevaCuenta) {
@@ -63,30 +111,57 @@ public class ClienteControlador {
 
         if (clienteOpt.isPresent()) {
             Cliente cliente = clienteOpt.get();
-            cliente.agregarCuenta(nuevaCuenta);
-            PersistenciaDatos.guardarDatos(clientes);
+            // Un cliente que llegó a su máximo de cuentas la rechaza, y no se registra
+            if (!registroCuentas.agregar(cliente, nuevaCuenta)) {
+                return false;
+            }
+            try {
+                PersistenciaDatos.registrarAltaCuenta(nuevaCuenta);
+            } catch (BitacoraNoConfirmadaException e) {
+                registroCuentas.quitar(cliente, nuevaCuenta);
+                throw e;
+            }
             return true;
         }
         return false;
     }
 
     public Optional<Cliente> buscarClientePorIdentificacion(long identificacion) {
-        for (Cliente cliente : clientes) {
-            if (cliente.getIdentificacion() == identificacion) {
-                return Optional.of(cliente);
-            }
-        }
-        return Optional.empty();
+        return Optional.ofNullable(indiceClientes.buscar(identificacion));
+    }
+
+    public List<Cliente> buscarClientesPorTelefono(String numTelefono) {
+        return indiceContactos.buscarPorTelefono(numTelefono);
     }
 
+    public List<Cliente> buscarClientesPorCorreo(String correoElectronico) {
+        return indiceContactos.buscarPorCorreo(correoElectronico);
+    }
+
+    // Indica si el teléfono está libre o ya es del cliente con esa identificación
+    public boolean telefonoDisponible(String numTelefono, long identificacion) {
+        return indiceContactos.telefonoDisponible(numTelefono, indiceClientes.buscar(identificacion));
+    }
+
+    public boolean correoDisponible(String correoElectronico, long identificacion) {
+        return indiceContactos.correoDisponible(correoElectronico, indiceClientes.buscar(identificacion));
+    }
+
+    // Copia de la lista, que se puede recorrer mientras llegan altas de clientes
     public List<Cliente> obtenerClientes() {
-        return clientes;
+        synchronized (candadoClientes) {
+            return new ArrayList<>(clientes);
+        }
     }
 
     public void setClientes(List<Cliente> clientes) {
-        this.clientes = clientes;
-        this.cuentaControlador.setClientes(clientes);
-        this.transaccionesControlador.setClientes(clientes);
+        synchronized (candadoClientes) {
+            this.clientes = clientes;
+        }
+        this.indiceClientes.reconstruir(clientes);
+        this.indiceContactos.reconstruir(clientes);
+        this.indiceNombres.reconstruir(clientes);
+        this.registroCuentas.reconstruir(clientes);
     }
 
     public boolean actualizarTelefono(long identificacion, String nuevoTelefono) {
@@ -94,8 +169,30 @@ public class ClienteControlador {
         if (clienteOpt.isPresent()) {
             try {
                 Cliente cliente = clienteOpt.get();
-                cliente.setNumTelefono(nuevoTelefono); // Esto puede lanzar una excepción
-                PersistenciaDatos.guardarDatos(clientes);
+                String telefonoAnterior;
+                String telefonoNuevo;
+                synchronized (indiceContactos) {
+                    if (!indiceContactos.telefonoDisponible(nuevoTelefono, cliente)) {
+                        System.err.println("Error al actualizar el número de teléfono: pertenece a otro cliente.");
+                        return false;
+                    }
+                    telefonoAnterior = cliente.getNumTelefono();
+                    cliente.setNumTelefono(nuevoTelefono); // Esto puede lanzar una excepción
+                    telefonoNuevo = cliente.getNumTelefono();
+                    indiceContactos.telefonoCambiado(cliente, telefonoAnterior);
+                }
+                try {
+                    PersistenciaDatos.registrarCambioTelefono(cliente);
+                } catch (BitacoraNoConfirmadaException e) {
+                    // El cambio no quedó en la bitácora: vuelve el teléfono anterior si nadie lo cambió después
+                    synchronized (indiceContactos) {
+                        if (Objects.equals(telefonoNuevo, cliente.getNumTelefono())) {
+                            cliente.setNumTelefono(telefonoAnterior);
+                            indiceContactos.telefonoCambiado(cliente, telefonoNuevo);
+                        }
+                    }
+                    throw e;
+                }
                 return true;
             } catch (IllegalArgumentException e) {
                 System.err.println("Error al actualizar el número de teléfono: " + e.getMessage());
@@ -111,8 +208,29 @@ public class ClienteControlador {
         if (clienteOpt.isPresent()) {
             try {
                 Cliente cliente = clienteOpt.get();
-                cliente.setCorreoElectronico(nuevoCorreo); // Esto puede lanzar una excepción
-                PersistenciaDatos.guardarDatos(clientes);
+                String correoAnterior;
+                String correoNuevo;
+                synchronized (indiceContactos) {
+                    if (!indiceContactos.correoDisponible(nuevoCorreo, cliente)) {
+                        System.err.println("Error al actualizar el correo electrónico: pertenece a otro cliente.");
+                        return false;
+                    }
+                    correoAnterior = cliente.getCorreoElectronico();
+                    cliente.setCorreoElectronico(nuevoCorreo); // Esto puede lanzar una excepción
+                    correoNuevo = cliente.getCorreoElectronico();
+                    indiceContactos.correoCambiado(cliente, correoAnterior);
+                }
+                try {
+                    PersistenciaDatos.registrarCambioCorreo(cliente);
+                } catch (BitacoraNoConfirmadaException e) {
+                    synchronized (indiceContactos) {
+                        if (Objects.equals(correoNuevo, cliente.getCorreoElectronico())) {
+                            cliente.setCorreoElectronico(correoAnterior);
+                            indiceContactos.correoCambiado(cliente, correoNuevo);
+                        }
+                    }
+                    throw e;
+                }
                 return true;
             } catch (IllegalArgumentException e) {
                 System.err.println("Error al actualizar el correo electrónico: " + e.getMessage());
@@ -125,14 +243,29 @@ public class ClienteControlador {
 
     /**
      * Obtiene la lista de clientes registrados ordenados ascendentemente por
-     * nombre.
+     * nombre, tomada del índice por nombre (sin ordenar en cada llamada).
      * 
      * @return Lista ordenada de clientes.
      */
     public List<Cliente> obtenerClientesRegistrados() {
-        List<Cliente> clientesOrdenados = new ArrayList<>(clientes);
-        clientesOrdenados.sort(Comparator.comparing(Cliente::getNombre, String.CASE_INSENSITIVE_ORDER));
-        return clientesOrdenados;
+        return indiceNombres.listar(null, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Devuelve una página de clientes ordenados por nombre.
+     *
+     * @param despues  identificación del último cliente de la página anterior,
+     *                 o null para empezar desde el principio
+     * @param cantidad cantidad máxima de clientes
+     */
+    public List<Cliente> listarClientesPorNombre(Long despues, int cantidad) {
+        return indiceNombres.listar(despues != null ? indiceClientes.buscar(despues) : null, cantidad);
+    }
+
+    // Igual que listarClientesPorNombre, solo con los nombres que empiezan con el prefijo
+    public List<Cliente> buscarClientesPorNombre(String prefijo, Long despues, int cantidad) {
+        return indiceNombres.buscarPorPrefijo(prefijo, despues != null ? indiceClientes.buscar(despues) : null,
+                cantidad);
     }
 
 }
\ No newline at end of file
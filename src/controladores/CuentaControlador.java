@@ -10,30 +10,36 @@ import java.util.Optional;
 import modelos.Cliente;
 import modelos.ClienteFisico;
 import modelos.Cuenta;
-import modelos.Transaccion;
+import servicios.BitacoraNoConfirmadaException;
 import servicios.PersistenciaDatos;
+import servicios.RegistroCuentas;
 import servicios.TipoDeCambioBCCR;
 
 public class CuentaControlador {
-    private List<Cliente> clientes;
+    private final RegistroCuentas registroCuentas;
 
-    public CuentaControlador(List<Cliente> clientes) {
-        this.clientes = clientes;
+    public CuentaControlador(RegistroCuentas registroCuentas) {
+        this.registroCuentas = registroCuentas;
     }
 
-    public void setClientes(List<Cliente> clientes) {
-        this.clientes = clientes;
+    public Optional<Cuenta> obtenerCuentaPorNumero(String numeroCuenta) {
+        return Optional.ofNullable(registroCuentas.buscar(numeroCuenta));
     }
 
-    public Optional<Cuenta> obtenerCuentaPorNumero(String numeroCuenta) {
-        for (Cliente cliente : clientes) {
-            for (Cuenta cuenta : cliente.getMisCuentas()) {
-                if (cuenta.getCodigo().equals(numeroCuenta)) {
-                    return Optional.of(cuenta);
-                }
-            }
-        }
-        return Optional.empty();
+    /**
+     * Devuelve una página de las cuentas del sistema ordenadas por saldo (y
+     * por código entre saldos iguales), sin ordenar todas las cuentas.
+     *
+     * @param desde       posición de la primera cuenta de la página
+     * @param cantidad    cantidad máxima de cuentas
+     * @param descendente true para empezar por el mayor saldo
+     */
+    public List<Cuenta> listarCuentasPorSaldo(int desde, int cantidad, boolean descendente) {
+        return registroCuentas.getIndiceSaldos().pagina(desde, cantidad, descendente);
+    }
+
+    public int contarCuentas() {
+        return registroCuentas.getIndiceSaldos().getCantidad();
     }
 
     public String crearCuenta(double saldoInicial, String pin, Cliente cliente) {
@@ -48,8 +54,17 @@ public class CuentaControlador {
             }
 
             Cuenta nuevaCuenta = new Cuenta(saldoInicial, pin, cliente);
-            cliente.agregarCuenta(nuevaCuenta);
-            PersistenciaDatos.guardarDatos(clientes);
+            // Si el cliente no aceptó la cuenta no se registra nada en la bitácora
+            if (!registroCuentas.agregar(cliente, nuevaCuenta)) {
+                return null;
+            }
+            try {
+                PersistenciaDatos.registrarAltaCuenta(nuevaCuenta);
+            } catch (BitacoraNoConfirmadaException e) {
+                // El alta no quedó en la bitácora: la cuenta sale del cliente y de los índices
+                registroCuentas.quitar(cliente, nuevaCuenta);
+                throw e;
+            }
             return nuevaCuenta.getCodigo();
         } catch (Exception e) {
             // System.err.println("Error al crear la cuenta: " + e.getMessage());
@@ -59,8 +74,11 @@ public class CuentaControlador {
 
     public boolean cambiarPinCuenta(Cuenta cuenta, String nuevoPin) {
         try {
-            cuenta.setPin(nuevoPin);
-            PersistenciaDatos.guardarDatos(clientes);
+            PersistenciaDatos.aplicar(registroCuentas.getMotor(), cuenta, () -> {
+                cuenta.setPin(nuevoPin);
+                PersistenciaDatos.registrarCambioPin(cuenta);
+                return null;
+            });
             return true;
         } catch (Exception e) {
             System.err.println("Error al cambiar el PIN: " + e.getMessage());
@@ -152,15 +170,7 @@ public class CuentaControlador {
     }
 
     public String estadoCuentaDolares(String numeroCuenta, String pin) {
-        Cuenta cuenta = null;
-        for (Cliente cliente : clientes) {
-            for (Cuenta c : cliente.getMisCuentas()) {
-                if (c.getCodigo().equals(numeroCuenta)) {
-                    cuenta = c;
-                    break;
-                }
-            }
-        }
+        Cuenta cuenta = registroCuentas.buscar(numeroCuenta);
 
         if (cuenta == null) {
             return "Cuenta no encontrada.";
@@ -211,20 +221,10 @@ public class CuentaControlador {
     }
 
     public String transferir(String cuentaOrigenId, String cuentaDestinoId, double monto) {
-        Cuenta cuentaOrigen = null;
-        Cuenta cuentaDestino = null;
-
-        for (Cliente cliente : clientes) {
-            for (Cuenta c : cliente.getMisCuentas()) {
-                if (c.getCodigo().equals(cuentaOrigenId)) {
-                    cuentaOrigen = c;
-                } else if (c.getCodigo().equals(cuentaDestinoId)) {
-                    cuentaDestino = c;
-                }
-            }
-        }
+        Cuenta cuentaOrigen = registroCuentas.buscar(cuentaOrigenId);
+        Cuenta cuentaDestino = registroCuentas.buscar(cuentaDestinoId);
 
-        if (cuentaOrigen == null || cuentaDestino == null) {
+        if (cuentaOrigen == null || cuentaDestino == null || cuentaOrigen == cuentaDestino) {
             return "Error: Cuenta de origen o destino no encontrada.";
         }
 
@@ -232,44 +232,31 @@ public class CuentaControlador {
             return "Error: El monto de transferencia debe ser mayor a cero.";
         }
 
-        if (cuentaOrigen.getSaldo() >= monto) {
+        // Verificar fondos, aplicar los dos lados y registrarlos en una sola operación del motor
+        return PersistenciaDatos.aplicar(registroCuentas.getMotor(), cuentaOrigen, cuentaDestino, () -> {
+            if (cuentaOrigen.getSaldo() < monto) {
+                return "Error: Saldo insuficiente en la cuenta de origen.";
+            }
             cuentaOrigen.retirar(monto, 0);
             cuentaDestino.depositar(monto, 0);
-            PersistenciaDatos.guardarDatos(clientes);
+            PersistenciaDatos.registrarTransferencia(cuentaOrigen, null, cuentaDestino, null);
             return "Transferencia realizada con éxito.";
-        } else {
-            return "Error: Saldo insuficiente en la cuenta de origen.";
-        }
+        });
     }
 
     public boolean eliminarCuenta(String numeroCuenta) {
-        for (Cliente cliente : clientes) {
-            for (Cuenta cuenta : cliente.getMisCuentas()) {
-                if (cuenta.getCodigo().equals(numeroCuenta)) {
-                    cuenta.setEstatus("Eliminada");
-                    cuenta.setSaldo(0);
-                    eliminarTransaccionesAsociadas(numeroCuenta);
-                    PersistenciaDatos.guardarDatos(clientes);
-                    return true;
-                }
-            }
-        }
-
-        return false;
-    }
-
-    private void eliminarTransaccionesAsociadas(String numeroCuenta) {
-
-        for (Cliente cliente : clientes) {
-            for (Cuenta cuenta : cliente.getMisCuentas()) {
-                if (cuenta.getCodigo().equals(numeroCuenta)) {
-                    for (Transaccion transaccion : cuenta.getTransacciones()) {
-                        cuenta.getTransacciones().remove(transaccion);
-                    }
-                }
-            }
+        Cuenta cuenta = registroCuentas.buscar(numeroCuenta);
+        if (cuenta == null) {
+            return false;
         }
-        PersistenciaDatos.guardarDatos(clientes);
+        // Si la bitácora no confirma la eliminación, la cuenta recupera su saldo y su historial
+        return PersistenciaDatos.aplicarConHistorial(registroCuentas.getMotor(), cuenta, () -> {
+            cuenta.setEstatus("Eliminada");
+            cuenta.setSaldo(0);
+            cuenta.eliminarTransacciones();
+            PersistenciaDatos.registrarEliminacionCuenta(cuenta);
+            return true;
+        });
     }
 
 }
\ No newline at end of file
@@ -1,72 +1,101 @@
 package controladores;
 
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
-import modelos.Cliente;
 import modelos.Cuenta;
 import modelos.Transaccion;
 import servicios.MensajeSMS;
+import servicios.MotorCuentas;
+import servicios.PaginaHistorial;
 import servicios.PersistenciaDatos;
+import servicios.RegistroCuentas;
+import servicios.ResumenTransacciones;
 import servicios.TipoDeCambioBCCR;
 
 public class TransaccionesControlador {
 
-    private List<Cliente> clientes;
+    private final RegistroCuentas registroCuentas;
     private String palabraGenerada;
 
-    public TransaccionesControlador(List<Cliente> clientes) {
-        this.clientes = clientes;
+    public TransaccionesControlador(RegistroCuentas registroCuentas) {
+        this.registroCuentas = registroCuentas;
     }
 
-    public void setClientes(List<Cliente> clientes) {
-        this.clientes = clientes;
+    // Incluye el historial de meses anteriores que está archivado en disco
+    public List<Transaccion> obtenerTransaccionesPorCuenta(String numeroCuenta) {
+        Cuenta cuenta = obtenerCuenta(numeroCuenta);
+        if (cuenta == null) {
+            return new ArrayList<>();
+        }
+        return PersistenciaDatos.obtenerHistorial(cuenta);
     }
 
-    public List<Transaccion> obtenerTransaccionesPorCuenta(String numeroCuenta) {
-        List<Transaccion> transaccionesPorCuenta;
-        transaccionesPorCuenta = new ArrayList<>();
-        for (Cliente cliente : clientes) {
-            for (Cuenta cuenta : cliente.getMisCuentas()) {
-                if (cuenta.getCodigo().equals(numeroCuenta)) {
-                    transaccionesPorCuenta = cuenta.getTransacciones();
-                    break;
-                }
-            }
+    /**
+     * Devuelve una página de las transacciones de la cuenta entre dos fechas
+     * (incluidas). La página indica la posición desde la que sigue la próxima.
+     */
+    public PaginaHistorial consultarTransaccionesEntre(String numeroCuenta, LocalDate desde, LocalDate hasta,
+            int posicion, int cantidad) {
+        Cuenta cuenta = obtenerCuenta(numeroCuenta);
+        if (cuenta == null) {
+            return new PaginaHistorial(new ArrayList<>(), -1);
         }
-        return transaccionesPorCuenta;
+        return PersistenciaDatos.obtenerHistorialEntre(cuenta, desde, hasta, posicion, cantidad);
+    }
+
+    /**
+     * Reporte de las transacciones de todo el banco (o de una cuenta si
+     * {@code numeroCuenta} no es null) entre dos fechas, con la cantidad y el
+     * monto por tipo. Con {@code tipos} null incluye todos los tipos.
+     */
+    public Map<String, ResumenTransacciones> reportarTransacciones(Collection<String> tipos, LocalDate desde,
+            LocalDate hasta, String numeroCuenta) {
+        return PersistenciaDatos.resumirTransacciones(tipos, desde, hasta, numeroCuenta);
     }
 
     private void actualizarSaldo(Cuenta cuenta, double monto, double montoComision, String tipoTransaccion) {
-        if (tipoTransaccion.equals("Depósito en Colones") || tipoTransaccion.equals("Depósito en Dólares")) {
-            double montoNeto = monto - montoComision;
-            cuenta.setSaldo(cuenta.getSaldo() + montoNeto);
-        } else if (tipoTransaccion.equals("Retiro en Colones") || tipoTransaccion.equals("Retiro en Dólares")) {
-            double montoTotal = monto + montoComision;
-            cuenta.setSaldo(cuenta.getSaldo() - montoTotal);
-        }
-        PersistenciaDatos.guardarDatos(clientes);
+        PersistenciaDatos.aplicar(motor(), cuenta, () -> {
+            if (tipoTransaccion.equals("Depósito en Colones") || tipoTransaccion.equals("Depósito en Dólares")) {
+                double montoNeto = monto - montoComision;
+                cuenta.setSaldo(cuenta.getSaldo() + montoNeto);
+            } else if (tipoTransaccion.equals("Retiro en Colones") || tipoTransaccion.equals("Retiro en Dólares")) {
+                double montoTotal = monto + montoComision;
+                cuenta.setSaldo(cuenta.getSaldo() - montoTotal);
+            }
+            return null;
+        });
     }
 
     private void actualizarSaldoRetiro(Cuenta cuenta, double monto) {
-        if (monto > 0 && monto <= cuenta.getSaldo()) {
-            double nuevoSaldo = cuenta.getSaldo() - monto;
-            cuenta.setSaldo(nuevoSaldo);
-            PersistenciaDatos.guardarDatos(clientes);
-        } else {
-            throw new IllegalArgumentException("El monto debe ser positivo y no puede exceder el saldo actual.");
-        }
+        PersistenciaDatos.aplicar(motor(), cuenta, () -> {
+            if (monto > 0 && monto <= cuenta.getSaldo()) {
+                double nuevoSaldo = cuenta.getSaldo() - monto;
+                cuenta.setSaldo(nuevoSaldo);
+                PersistenciaDatos.registrarMovimiento(cuenta, null);
+            } else {
+                throw new IllegalArgumentException("El monto debe ser positivo y no puede exceder el saldo actual.");
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Motor que aplica los cambios de saldo y de historial de las cuentas,
+     * junto con su registro en la bitácora, para que dos solicitudes sobre la
+     * misma cuenta no se pisen (candados por franjas o secuenciador). Las
+     * operaciones entran por {@link PersistenciaDatos#aplicar}, que las
+     * deshace si la bitácora no las confirma.
+     */
+    private MotorCuentas motor() {
+        return registroCuentas.getMotor();
     }
 
     public Cuenta obtenerCuenta(String numeroCuenta) {
-        for (Cliente cliente : clientes) {
-            for (Cuenta cuenta : cliente.getMisCuentas()) {
-                if (cuenta.getCodigo().equals(numeroCuenta)) {
-                    return cuenta;
-                }
-            }
-        }
-        return null;
+        return registroCuentas.buscar(numeroCuenta);
     }
 
     public String realizarDepositoColones(String numeroCuenta, int monto) {
@@ -82,17 +111,20 @@ public class TransaccionesControlador {
             return "Error: No se encontró la cuenta.";
         }
 
-        int cantidadTransacciones = cuenta.getCantidadTransacciones() + 1;
-        boolean comision = cantidadTransacciones > 5;
+        Transaccion transaccion = PersistenciaDatos.aplicar(motor(), cuenta, () -> {
+            int cantidadTransacciones = cuenta.getCantidadTransacciones() + 1;
+            boolean comision = cantidadTransacciones > 5;
 
-        Transaccion transaccion = new Transaccion("Depósito en Colones", monto, numeroCuenta, comision);
-        cuenta.agregarTransaccion(transaccion);
+            Transaccion deposito = new Transaccion("Depósito en Colones", monto, numeroCuenta, comision);
+            cuenta.agregarTransaccion(deposito);
 
-        // Ajustar el saldo
-        double montoNeto = monto - transaccion.getMontoComision();
-        cuenta.depositar(monto, transaccion.getMontoComision());
+            // Ajustar el saldo
+            cuenta.depositar(monto, deposito.getMontoComision());
 
-        PersistenciaDatos.guardarDatos(clientes);
+            PersistenciaDatos.registrarMovimiento(cuenta, deposito);
+            return deposito;
+        });
+        double montoNeto = monto - transaccion.getMontoComision();
 
         return String.format(
                 "<p>Depósito realizado exitosamente de <strong>%d</strong> colones.</p>" +
@@ -108,16 +140,7 @@ public class TransaccionesControlador {
 
     public String realizarDepositoDolares(String numeroCuenta, double montoUSD) {
 
-        Cuenta cuenta = null;
-
-        for (Cliente cliente : clientes) {
-            for (Cuenta c : cliente.getMisCuentas()) {
-                if (c.getCodigo().equals(numeroCuenta)) {
-                    cuenta = c;
-                    break;
-                }
-            }
-        }
+        Cuenta cuenta = obtenerCuenta(numeroCuenta);
         if (montoUSD <= 0 || montoUSD % 1 != 0) {
             return "Error: El monto debe ser un número entero mayor a cero.";
         }
@@ -133,7 +156,6 @@ public class TransaccionesControlador {
         // Crear la transacción
         Transaccion transaccion = new Transaccion("Depósito en Colones", montoColones, numeroCuenta, comision);
         registrarTransaccion("Depósito en Dólares", montoColones, numeroCuenta, cuenta);
-        PersistenciaDatos.guardarDatos(clientes);
         return String.format(
                 "<p>Depósito realizado exitosamente de <strong>%.2f</strong> dólares.</p>" +
                         "<p>El monto real depositado a su cuenta <strong>%s</strong> es de <strong>%.2f</strong> colones.</p>"
@@ -147,18 +169,9 @@ public class TransaccionesControlador {
 
     public String enviarPalabraVerificacion(String numeroCuenta) {
 
-        Cuenta cuenta = null;
-
-        for (Cliente cliente : clientes) {
-            for (Cuenta c : cliente.getMisCuentas()) {
-                if (c.getCodigo().equals(numeroCuenta)) {
-                    cuenta = c;
-                    break;
-                }
-            }
-            if (cuenta != null) {
-                break;
-            }
+        Cuenta cuenta = obtenerCuenta(numeroCuenta);
+        if (cuenta == null) {
+            return null;
         }
         MensajeSMS mensajeSMS = new MensajeSMS();
         this.palabraGenerada = mensajeSMS.generarPalabraVerificacion();
@@ -191,18 +204,7 @@ public class TransaccionesControlador {
     public String realizarRetiroEnColones(String numeroCuenta, String pin, String palabraIngresada,
             double montoRetiro) {
 
-        Cuenta cuenta = null;
-        for (Cliente cliente : clientes) {
-            for (Cuenta c : cliente.getMisCuentas()) {
-                if (c.getCodigo().equals(numeroCuenta)) {
-                    cuenta = c;
-                    break;
-                }
-            }
-            if (cuenta != null) {
-                break;
-            }
-        }
+        Cuenta cuenta = obtenerCuenta(numeroCuenta);
 
         if (!validarPinCuenta(numeroCuenta, pin)) {
             return "Error: PIN incorrecto.";
@@ -215,12 +217,19 @@ public class TransaccionesControlador {
         if (montoRetiro <= 0 || montoRetiro % 1 != 0) {
             return "Error: El monto de retiro debe ser un número entero mayor a cero.";
         }
-        if (montoRetiro > cuenta.getSaldo()) {
+        // La verificación de fondos y el retiro van juntos para no gastar dos veces el mismo saldo
+        boolean retirado = PersistenciaDatos.aplicar(motor(), cuenta, () -> {
+            if (montoRetiro > cuenta.getSaldo()) {
+                return false;
+            }
+
+            registrarTransaccion("Retiro en Colones", montoRetiro, numeroCuenta, cuenta);
+            return true;
+        });
+        if (!retirado) {
             return "Error: Fondos insuficientes para realizar el retiro.";
         }
 
-        registrarTransaccion("Retiro en Colones", montoRetiro, numeroCuenta, cuenta);
-
         return "<p>Estimado usuario: " + cuenta.getNombreCompleto() + "</p>" +
                 "<p>El monto de este retiro de su cuenta <strong>" + numeroCuenta + "</strong> es de <strong>"
                 + montoRetiro + "</strong> colones, por favor tome el dinero dispensado.</p>" +
@@ -228,18 +237,7 @@ public class TransaccionesControlador {
     }
 
     public String realizarRetiroEnDolares(String numeroCuenta, String pin, String palabraIngresada, int montoRetiro) {
-        Cuenta cuenta = null;
-        for (Cliente cliente : clientes) {
-            for (Cuenta c : cliente.getMisCuentas()) {
-                if (c.getCodigo().equals(numeroCuenta)) {
-                    cuenta = c;
-                    break;
-                }
-            }
-            if (cuenta != null) {
-                break;
-            }
-        }
+        Cuenta cuenta = obtenerCuenta(numeroCuenta);
 
         if (!validarPinCuenta(numeroCuenta, pin)) {
             return "Error: PIN incorrecto.";
@@ -256,13 +254,19 @@ public class TransaccionesControlador {
         double tipoCambio = TipoDeCambioBCCR.getTipoCambioVenta();
         double montoEnColones = montoRetiro * tipoCambio;
 
-        if (montoEnColones > cuenta.getSaldo()) {
+        Transaccion transaccion = PersistenciaDatos.aplicar(motor(), cuenta, () -> {
+            if (montoEnColones > cuenta.getSaldo()) {
+                return null;
+            }
+            boolean comision = (cuenta.getCantidadTransacciones() > 5);
+            Transaccion retiro = new Transaccion("Retiro en Dólares", montoEnColones, numeroCuenta, comision);
+
+            registrarTransaccion("Retiro en Dólares", montoEnColones, numeroCuenta, cuenta);
+            return retiro;
+        });
+        if (transaccion == null) {
             return "Error: Fondos insuficientes para realizar el retiro.";
         }
-        boolean comision = (cuenta.getCantidadTransacciones() > 5);
-        Transaccion transaccion = new Transaccion("Retiro en Dólares", montoEnColones, numeroCuenta, comision);
-
-        registrarTransaccion("Retiro en Dólares", montoEnColones, numeroCuenta, cuenta);
 
         return "<p>Estimado usuario: " + cuenta.getNombreCompleto() + "</p>" +
                 "<p>El monto de este retiro de su cuenta <strong>" + numeroCuenta + "</strong> es de <strong>"
@@ -278,18 +282,9 @@ public class TransaccionesControlador {
 
     public String validarCuentaDestino(String numeroCuentaOrigen, String numeroCuentaDestino) {
 
-        Cuenta cuentaOrigen = null;
-        Cuenta cuentaDestino = null;
         // Validar cuentas
-        for (Cliente cliente : clientes) {
-            for (Cuenta cuenta : cliente.getMisCuentas()) {
-                if (cuenta.getCodigo().equals(numeroCuentaOrigen)) {
-                    cuentaOrigen = cuenta;
-                } else if (cuenta.getCodigo().equals(numeroCuentaDestino)) {
-                    cuentaDestino = cuenta;
-                }
-            }
-        }
+        Cuenta cuentaOrigen = obtenerCuenta(numeroCuentaOrigen);
+        Cuenta cuentaDestino = obtenerCuenta(numeroCuentaDestino);
 
         if (cuentaOrigen.getMiCliente().getIdentificacion() != cuentaDestino.getMiCliente().getIdentificacion()) {
             return "La cuenta destino no pertenece al mismo dueño de la cuenta origen.";
@@ -305,17 +300,11 @@ public class TransaccionesControlador {
             return "Error: PIN incorrecto.";
         }
 
-        Cuenta cuentaOrigen = null;
-        Cuenta cuentaDestino = null;
         // Validar cuentas
-        for (Cliente cliente : clientes) {
-            for (Cuenta cuenta : cliente.getMisCuentas()) {
-                if (cuenta.getCodigo().equals(numeroCuentaOrigen)) {
-                    cuentaOrigen = cuenta;
-                } else if (cuenta.getCodigo().equals(numeroCuentaDestino)) {
-                    cuentaDestino = cuenta;
-                }
-            }
+        Cuenta cuentaOrigen = obtenerCuenta(numeroCuentaOrigen);
+        Cuenta cuentaDestino = obtenerCuenta(numeroCuentaDestino);
+        if (cuentaDestino == null) {
+            return "Error: La cuenta destino no existe.";
         }
 
         // Validar que sean del mismo dueño
@@ -328,42 +317,45 @@ public class TransaccionesControlador {
             return "Error: El monto debe ser un número entero mayor a cero.";
         }
 
-        // Validar fondos suficientes
-        if (montoTransferencia > cuentaOrigen.getSaldo()) {
-            return "Error: Fondos insuficientes en la cuenta de origen.";
-        }
+        // En una sola operación del motor (las dos cuentas bloqueadas en orden de
+        // franja, o el hilo del secuenciador) se validan los fondos, se aplican los
+        // dos lados y se registran juntos
+        return PersistenciaDatos.aplicar(motor(), cuentaOrigen, cuentaDestino, () -> {
+            // Calcular comisión si aplica (ejemplo de 2% de comisión)
+            double comision = cuentaOrigen.getCantidadTransacciones() >= 5 ? montoTransferencia * 0.02 : 0;
+            double montoTotalDebitado = montoTransferencia + comision;
 
-        // Calcular comisión si aplica
-        double comision = cuentaOrigen.getCantidadTransacciones() >= 5 ? montoTransferencia * 0.02 : 0; // Ejemplo de 2%
-                                                                                                        // de
-        // comisión
-        double montoTotalDebitado = montoTransferencia + comision;
-
-        // Actualizar saldos
-        cuentaOrigen.setSaldo(cuentaOrigen.getSaldo() - montoTotalDebitado);
-        cuentaDestino.setSaldo(cuentaDestino.getSaldo() + montoTransferencia);
-
-        // Registrar transacciones
-        registrarTransaccion("Transferencia", montoTransferencia, numeroCuentaDestino,
-                cuentaOrigen);
-        registrarTransaccion("Transferencia", montoTransferencia, numeroCuentaOrigen,
-                cuentaDestino);
-
-        // Guardar cambios en persistencia
-        PersistenciaDatos.guardarDatos(clientes);
-
-        // Formatear mensaje de respuesta
-        String mensaje = String.format(
-                "<p>Estimado usuario: %s, la transferencia de fondos se ejecutó satisfactoriamente.</p>" +
-                        "<p>El monto retirado de la cuenta origen <strong>%s</strong> y depositado en la cuenta destino <strong>%s</strong> es de <strong>%.2f</strong> colones.</p>"
-                        +
-                        "<p>El monto cobrado por concepto de comisión a la cuenta origen fue de <strong>%.2f</strong> colones, que fueron rebajados automáticamente de su saldo actual.</p>",
-                cuentaOrigen.getNombreCompleto(),
-                numeroCuentaOrigen,
-                numeroCuentaDestino,
-                montoTransferencia,
-                comision);
-        return mensaje;
+            // Validar fondos suficientes, incluida la comisión
+            if (montoTotalDebitado > cuentaOrigen.getSaldo()) {
+                return "Error: Fondos insuficientes en la cuenta de origen.";
+            }
+
+            // Actualizar saldos
+            cuentaOrigen.setSaldo(cuentaOrigen.getSaldo() - montoTotalDebitado);
+            cuentaDestino.setSaldo(cuentaDestino.getSaldo() + montoTransferencia);
+
+            // Registrar transacciones
+            Transaccion transaccionOrigen = crearTransaccion("Transferencia", montoTransferencia, numeroCuentaDestino,
+                    cuentaOrigen);
+            Transaccion transaccionDestino = crearTransaccion("Transferencia", montoTransferencia, numeroCuentaOrigen,
+                    cuentaDestino);
+
+            // Guardar ambos lados de la transferencia en un solo registro
+            PersistenciaDatos.registrarTransferencia(cuentaOrigen, transaccionOrigen, cuentaDestino,
+                    transaccionDestino);
+
+            // Formatear mensaje de respuesta
+            return String.format(
+                    "<p>Estimado usuario: %s, la transferencia de fondos se ejecutó satisfactoriamente.</p>" +
+                            "<p>El monto retirado de la cuenta origen <strong>%s</strong> y depositado en la cuenta destino <strong>%s</strong> es de <strong>%.2f</strong> colones.</p>"
+                            +
+                            "<p>El monto cobrado por concepto de comisión a la cuenta origen fue de <strong>%.2f</strong> colones, que fueron rebajados automáticamente de su saldo actual.</p>",
+                    cuentaOrigen.getNombreCompleto(),
+                    numeroCuentaOrigen,
+                    numeroCuentaDestino,
+                    montoTransferencia,
+                    comision);
+        });
     }
 
     public List<Transaccion> consultarTransacciones(String numeroCuenta, String pin, String palabraIngresada) {
@@ -391,6 +383,15 @@ public class TransaccionesControlador {
     }
 
     private void registrarTransaccion(String tipo, double monto, String numeroCuenta, Cuenta cuenta) {
+        PersistenciaDatos.aplicar(motor(), cuenta, () -> {
+            Transaccion transaccion = crearTransaccion(tipo, monto, numeroCuenta, cuenta);
+            PersistenciaDatos.registrarMovimiento(cuenta, transaccion);
+            return transaccion;
+        });
+    }
+
+    // Crea la transacción y la aplica a la cuenta sin persistirla
+    private Transaccion crearTransaccion(String tipo, double monto, String numeroCuenta, Cuenta cuenta) {
         int cantidadTransacciones = cuenta.getCantidadTransacciones() + 1;
         boolean comision = cantidadTransacciones > 5;
 
@@ -400,38 +401,20 @@ public class TransaccionesControlador {
 
         // Actualizar el saldo considerando la comisión
         actualizarSaldo(cuenta, transaccion.getMonto(), transaccion.getMontoComision(), transaccion.getTipo());
-        PersistenciaDatos.guardarDatos(clientes);
+        return transaccion;
     }
 
     public boolean validarPinCuenta(String numeroCuenta, String pin) {
         System.out.println("Verificando PIN para cuenta: " + numeroCuenta);
-        if (clientes == null || clientes.isEmpty()) {
+        if (registroCuentas.getCantidad() == 0) {
             System.out.println("No hay clientes registrados.");
         }
-        for (Cliente cliente : clientes) {
-            // System.out.println("Verificando cliente: " + cliente.getNombre());
-            for (Cuenta cuenta : cliente.getMisCuentas()) {
-                // System.out.println("Verificando cuenta: " + cuenta.getCodigo());
-                // System.out.println("Verificando PIN: " + cuenta.getPin());
-                if (cuenta.getCodigo().equals(numeroCuenta) && cuenta.verificarPin(pin)) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
-
+        Cuenta cuenta = obtenerCuenta(numeroCuenta);
+        return cuenta != null && cuenta.verificarPin(pin);
     }
 
     public boolean verificarCuenta(String numeroCuenta) {
-        for (Cliente cliente : clientes) {
-            for (Cuenta cuenta : cliente.getMisCuentas()) {
-                if (cuenta.getCodigo().equals(numeroCuenta)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return obtenerCuenta(numeroCuenta) != null;
     }
 
 }
@@ -5,7 +5,7 @@ import static spark.Spark.*;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -17,11 +17,15 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 
 import controladores.ClienteControlador;
+import controladores.CuentaControlador;
 import modelos.Cliente;
 import modelos.Cuenta;
 import modelos.Transaccion;
+import servicios.BitacoraNoConfirmadaException;
 import servicios.LocalDateAdapter;
+import servicios.PaginaHistorial;
 import servicios.PersistenciaDatos;
+import servicios.ResumenTransacciones;
 import servicios.TipoDeCambioBCCR;
 
 public class App {
@@ -29,6 +33,8 @@ public class App {
     public static void main(String[] args) {
         ClienteControlador clienteControlador = new ClienteControlador();
         PersistenciaDatos.cargarDatos(clienteControlador);
+        // Escribir los registros pendientes de la bitácora al apagar el servidor
+        Runtime.getRuntime().addShutdownHook(new Thread(PersistenciaDatos::cerrar));
         TipoDeCambioBCCR.obtenerTipoCambioHoy();
         // Llamar al método para iniciar el servidor
         iniciarServidor(clienteControlador);
@@ -76,6 +82,14 @@ public class App {
             return "OK";
         });
 
+        // Una operación que no quedó en la bitácora no se confirma al cliente
+        exception(BitacoraNoConfirmadaException.class, (e, req, res) -> {
+            res.status(500);
+            res.type("application/json");
+            res.body(gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                    "No se pudo registrar la operación: " + e.getMessage())));
+        });
+
         // Endpoint para crear cliente físico
         post("/clientes/fisico", (req, res) -> {
             res.type("application/json");
@@ -99,6 +113,14 @@ public class App {
                 return gson.toJson(new StandardResponse(StatusResponse.ERROR,
                         "El correo electrónico no tiene un formato válido."));
             }
+            if (!clienteControlador.telefonoDisponible(data.numTelefono, data.identificacion)) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                        "El número de teléfono ya está registrado a nombre de otro cliente."));
+            }
+            if (!clienteControlador.correoDisponible(data.correoElectronico, data.identificacion)) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                        "El correo electrónico ya está registrado a nombre de otro cliente."));
+            }
             if (data.fechaNacimiento == null || data.fechaNacimiento.isEmpty()) {
                 return gson
                         .toJson(new StandardResponse(StatusResponse.ERROR, "La fecha de nacimiento es obligatoria."));
@@ -171,6 +193,14 @@ public class App {
                 return gson.toJson(new StandardResponse(StatusResponse.ERROR,
                         "El correo electrónico no tiene un formato válido."));
             }
+            if (!clienteControlador.telefonoDisponible(data.numTelefono, data.identificacion)) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                        "El número de teléfono ya está registrado a nombre de otro cliente."));
+            }
+            if (!clienteControlador.correoDisponible(data.correoElectronico, data.identificacion)) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                        "El correo electrónico ya está registrado a nombre de otro cliente."));
+            }
             if (data.tipoNegocio == null || data.tipoNegocio.isEmpty()) {
                 return gson.toJson(new StandardResponse(StatusResponse.ERROR, "El tipo de negocio es obligatorio."));
             }
@@ -226,6 +256,10 @@ public class App {
                 Optional<Cliente> clienteOpt = clienteControlador.buscarClientePorIdentificacion(data.identificacion);
                 if (clienteOpt.isPresent()) {
                     Cliente cliente = clienteOpt.get();
+                    if (!clienteControlador.telefonoDisponible(data.nuevoTelefono, data.identificacion)) {
+                        return gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                                "El número de teléfono ya está registrado a nombre de otro cliente."));
+                    }
                     String telefonoAnterior = cliente.getNumTelefono(); // Guardamos el número antiguo
                     boolean actualizado = clienteControlador.actualizarTelefono(data.identificacion,
                             data.nuevoTelefono);
@@ -266,6 +300,10 @@ public class App {
             Optional<Cliente> clienteOpt = clienteControlador.buscarClientePorIdentificacion(data.identificacion);
             if (clienteOpt.isPresent()) {
                 Cliente cliente = clienteOpt.get();
+                if (!clienteControlador.correoDisponible(data.nuevoCorreo, data.identificacion)) {
+                    return gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                            "El correo electrónico ya está registrado a nombre de otro cliente."));
+                }
                 String correoAnterior = cliente.getCorreoElectronico(); // Guardar correo anterior para la respuesta
                 boolean actualizado = clienteControlador.actualizarCorreo(data.identificacion, data.nuevoCorreo);
 
@@ -664,6 +702,94 @@ public class App {
                     new StandardResponse(StatusResponse.SUCCESS, "Consulta de transacciones exitosa.", respuesta));
         });
 
+        // Endpoint para consultar las transacciones de una cuenta entre dos fechas
+        // (AAAA-MM-DD, incluidas), por páginas. La primera página se pide con
+        // posicion 0 (o sin posicion); la respuesta trae en "siguiente" la
+        // posición de la próxima página, o -1 si no hay más.
+        post("/cuentas/transacciones/rango", (req, res) -> {
+            res.type("application/json");
+            ConsultaRangoTransaccionesData data = gson.fromJson(req.body(), ConsultaRangoTransaccionesData.class);
+
+            if (!clienteControlador.getTransaccionesControlador().validarPinCuenta(data.numeroCuenta, data.pin)) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR, "Número de cuenta o PIN incorrectos."));
+            }
+            if (!clienteControlador.getTransaccionesControlador().validarPalabraClave(data.palabraIngresada)) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR, "La palabra ingresada no coincide."));
+            }
+
+            LocalDate desde;
+            LocalDate hasta;
+            try {
+                desde = data.desde != null ? LocalDate.parse(data.desde) : LocalDate.MIN;
+                hasta = data.hasta != null ? LocalDate.parse(data.hasta) : LocalDate.MAX;
+            } catch (DateTimeParseException e) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                        "Las fechas deben tener el formato AAAA-MM-DD."));
+            }
+            if (desde.isAfter(hasta) || data.posicion < 0) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR, "Rango de consulta inválido."));
+            }
+            int cantidad = data.cantidad > 0 ? data.cantidad : 50;
+
+            PaginaHistorial pagina = clienteControlador.getTransaccionesControlador()
+                    .consultarTransaccionesEntre(data.numeroCuenta, desde, hasta, data.posicion, cantidad);
+            List<Map<String, Object>> transaccionesData = new ArrayList<>();
+            for (Transaccion transaccion : pagina.getTransacciones()) {
+                Map<String, Object> transaccionData = new HashMap<>();
+                transaccionData.put("tipo", transaccion.getTipo());
+                transaccionData.put("monto", transaccion.getMonto());
+                transaccionData.put("fecha", transaccion.getFecha().toString());
+                transaccionData.put("comision", transaccion.getComision());
+                transaccionesData.add(transaccionData);
+            }
+
+            Map<String, Object> respuesta = new HashMap<>();
+            respuesta.put("transacciones", transaccionesData);
+            respuesta.put("siguiente", pagina.getSiguiente());
+            return gson.toJson(
+                    new StandardResponse(StatusResponse.SUCCESS, "Consulta de transacciones exitosa.", respuesta));
+        });
+
+        // Endpoint de reporte de transacciones de todo el banco. Parámetros
+        // opcionales: tipos (separados por coma), desde y hasta (AAAA-MM-DD,
+        // incluidas) y cuenta. Devuelve la cantidad, el monto y las comisiones
+        // por tipo y el total.
+        get("/reportes/transacciones", (req, res) -> {
+            res.type("application/json");
+            LocalDate desde;
+            LocalDate hasta;
+            try {
+                desde = req.queryParams("desde") != null ? LocalDate.parse(req.queryParams("desde")) : null;
+                hasta = req.queryParams("hasta") != null ? LocalDate.parse(req.queryParams("hasta")) : null;
+            } catch (DateTimeParseException e) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                        "Las fechas deben tener el formato AAAA-MM-DD."));
+            }
+            if (desde != null && hasta != null && desde.isAfter(hasta)) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR, "Rango de consulta inválido."));
+            }
+            List<String> tipos = req.queryParams("tipos") != null
+                    ? Arrays.asList(req.queryParams("tipos").split("\\s*,\\s*"))
+                    : null;
+
+            Map<String, ResumenTransacciones> porTipo = clienteControlador.getTransaccionesControlador()
+                    .reportarTransacciones(tipos, desde, hasta, req.queryParams("cuenta"));
+            long cantidad = 0;
+            double monto = 0;
+            double comisiones = 0;
+            for (ResumenTransacciones resumen : porTipo.values()) {
+                cantidad += resumen.getCantidad();
+                monto += resumen.getMonto();
+                comisiones += resumen.getComisiones();
+            }
+
+            Map<String, Object> respuesta = new HashMap<>();
+            respuesta.put("porTipo", porTipo);
+            respuesta.put("total", new ResumenTransacciones(cantidad, monto, comisiones));
+            return gson.toJson(
+                    new StandardResponse(StatusResponse.SUCCESS, "Reporte de transacciones generado.", respuesta));
+        });
+
         // 2. Consultar tipo de cambio de compra
         // Endpoint para obtener el tipo de cambio de compra
         get("/tipoCambio/compra", (req, res) -> {
@@ -721,20 +847,12 @@ public class App {
             res.type("application/json");
             String numeroCuenta = req.params(":numeroCuenta");
 
-            Cuenta cuentaConsulta = null;
-            for (Cliente cliente : clienteControlador.obtenerClientes()) {
-                for (Cuenta cuenta : cliente.getMisCuentas()) {
-                    if (cuenta.getCodigo().equals(numeroCuenta)) {
-                        cuentaConsulta = cuenta;
-                        break;
-                    }
-                }
-                if (cuentaConsulta != null) {
-                    break;
-                }
-
+            Optional<Cuenta> cuentaOpt = clienteControlador.getCuentaControlador().obtenerCuentaPorNumero(numeroCuenta);
+            if (!cuentaOpt.isPresent()) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                        "Error: La cuenta número " + numeroCuenta + " no está registrada en el sistema."));
             }
-            String resultado = cuentaConsulta.getEstatus();
+            String resultado = cuentaOpt.get().getEstatus();
 
             if (resultado.startsWith("Error:")) {
                 return gson.toJson(new StandardResponse(StatusResponse.ERROR, resultado));
@@ -780,10 +898,22 @@ public class App {
             return gson.toJson(new StandardResponse(StatusResponse.SUCCESS, "Consulta de cuentas exitosa.", respuesta));
         });
 
-        // Endpoint para listar todos los clientes registrados ordenados por nombre
+        // Endpoint para listar los clientes registrados ordenados por nombre.
+        // Parámetros opcionales: cantidad y despues (identificación del último
+        // cliente de la página anterior)
         get("/clientes/listar", (req, res) -> {
             res.type("application/json");
-            List<Cliente> clientesOrdenados = clienteControlador.obtenerClientesRegistrados();
+            Long despues;
+            int cantidad;
+            try {
+                despues = req.queryParams("despues") != null ? Long.valueOf(req.queryParams("despues")) : null;
+                cantidad = req.queryParams("cantidad") != null ? Integer.parseInt(req.queryParams("cantidad"))
+                        : Integer.MAX_VALUE;
+            } catch (NumberFormatException e) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                        "Los parámetros despues y cantidad deben ser números enteros."));
+            }
+            List<Cliente> clientesOrdenados = clienteControlador.listarClientesPorNombre(despues, cantidad);
             ArrayList<ClienteData> clientesData = new ArrayList<>();
             for (Cliente cliente : clientesOrdenados) {
                 clientesData.add(new ClienteData(cliente.getNombre(), cliente.getIdentificacion(),
@@ -793,21 +923,74 @@ public class App {
                     new StandardResponse(StatusResponse.SUCCESS, "Listado de clientes exitoso.", clientesData));
         });
 
-        // Endpoint para listar todas las cuentas del sistema ordenadas por saldo
-        // ascendente
-        get("/cuentas/listar", (req, res) -> {
+        // Endpoint para buscar clientes cuyo nombre empieza con un prefijo, sin
+        // distinguir mayúsculas. Parámetros opcionales: cantidad (20 por
+        // defecto) y despues, igual que en /clientes/listar
+        get("/clientes/buscar/:prefijo", (req, res) -> {
             res.type("application/json");
-            // Obtener la lista de cuentas del controlador
-            List<Cuenta> cuentas = new ArrayList<>();
+            String prefijo = req.params(":prefijo");
+            Long despues;
+            int cantidad;
+            try {
+                despues = req.queryParams("despues") != null ? Long.valueOf(req.queryParams("despues")) : null;
+                cantidad = req.queryParams("cantidad") != null ? Integer.parseInt(req.queryParams("cantidad")) : 20;
+            } catch (NumberFormatException e) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                        "Los parámetros despues y cantidad deben ser números enteros."));
+            }
+            List<Cliente> encontrados = clienteControlador.buscarClientesPorNombre(prefijo, despues, cantidad);
+            ArrayList<ClienteData> clientesData = new ArrayList<>();
+            for (Cliente cliente : encontrados) {
+                clientesData.add(new ClienteData(cliente.getNombre(), cliente.getIdentificacion(),
+                        cliente.getNumTelefono(), cliente.getCorreoElectronico(), cliente.getTipo()));
+            }
+            return gson.toJson(new StandardResponse(StatusResponse.SUCCESS,
+                    "Se encontraron " + clientesData.size() + " clientes.", clientesData));
+        });
 
-            for (Cliente cliente : clienteControlador.obtenerClientes()) {
-                if (cliente.getMisCuentas() != null) {
-                    cuentas.addAll(cliente.getMisCuentas());
-                }
+        // Endpoint para buscar los clientes que usan un teléfono o un correo
+        // electrónico, con el parámetro telefono o correo (uno de los dos)
+        get("/clientes/contacto", (req, res) -> {
+            res.type("application/json");
+            String telefono = req.queryParams("telefono");
+            String correo = req.queryParams("correo");
+            List<Cliente> encontrados;
+            if (telefono != null) {
+                encontrados = clienteControlador.buscarClientesPorTelefono(telefono);
+            } else if (correo != null) {
+                encontrados = clienteControlador.buscarClientesPorCorreo(correo);
+            } else {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                        "Debe indicar el parámetro telefono o correo."));
+            }
+            ArrayList<ClienteData> clientesData = new ArrayList<>();
+            for (Cliente cliente : encontrados) {
+                clientesData.add(new ClienteData(cliente.getNombre(), cliente.getIdentificacion(),
+                        cliente.getNumTelefono(), cliente.getCorreoElectronico(), cliente.getTipo()));
+            }
+            return gson.toJson(new StandardResponse(StatusResponse.SUCCESS,
+                    "Se encontraron " + clientesData.size() + " clientes.", clientesData));
+        });
 
+        // Endpoint para listar las cuentas del sistema ordenadas por saldo
+        // ascendente. Parámetros opcionales: desde (posición), cantidad y
+        // orden=desc (por ejemplo, las K cuentas de mayor saldo con
+        // ?orden=desc&cantidad=K)
+        get("/cuentas/listar", (req, res) -> {
+            res.type("application/json");
+            CuentaControlador cuentaControlador = clienteControlador.getCuentaControlador();
+            int desde;
+            int cantidad;
+            try {
+                desde = req.queryParams("desde") != null ? Integer.parseInt(req.queryParams("desde")) : 0;
+                cantidad = req.queryParams("cantidad") != null ? Integer.parseInt(req.queryParams("cantidad"))
+                        : cuentaControlador.contarCuentas();
+            } catch (NumberFormatException e) {
+                return gson.toJson(new StandardResponse(StatusResponse.ERROR,
+                        "Los parámetros desde y cantidad deben ser números enteros."));
             }
-            // Ordenar las cuentas por saldo ascendente
-            cuentas.sort(Comparator.comparingDouble(Cuenta::getSaldo));
+            boolean descendente = "desc".equalsIgnoreCase(req.queryParams("orden"));
+            List<Cuenta> cuentas = cuentaControlador.listarCuentasPorSaldo(desde, cantidad, descendente);
 
             // Convertir la lista de cuentas a CuentasData
             ArrayList<CuentasData> cuentasData = new ArrayList<>();
@@ -878,6 +1061,17 @@ public class App {
         String nuevoTelefono;
     }
 
+    // Clase para consultar transacciones por rango de fechas
+    private static class ConsultaRangoTransaccionesData {
+        String numeroCuenta;
+        String pin;
+        String palabraIngresada;
+        String desde;
+        String hasta;
+        int posicion;
+        int cantidad;
+    }
+
     // Clase para actualizar correo electrónico
     private static class ActualizarCorreoData {
         long identificacion;
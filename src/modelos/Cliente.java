@@ -1,14 +1,14 @@
 package modelos;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public abstract class Cliente {
-    private static int cantidadCuentasDelSistema;
     private String nombre;
     private long identificacion;
     private String numTelefono;
     private String correoElectronico;
+    // Los checkpoints la recorren desde otro hilo mientras se agregan cuentas
     protected transient List<Cuenta> misCuentas;
 
     public Cliente(String nombre, long identificacion, String numTelefono, String correoElectronico) {
@@ -16,15 +16,7 @@ public abstract class Cliente {
         this.identificacion = identificacion;
         this.numTelefono = numTelefono;
         this.correoElectronico = correoElectronico;
-        this.misCuentas = new ArrayList<>();
-    }
-
-    public static int getCantidadCuentasDelSistema() {
-        return cantidadCuentasDelSistema;
-    }
-
-    public static void setCantidadCuentasDelSistema(int cantidadCuentasDelSistema) {
-        Cliente.cantidadCuentasDelSistema = cantidadCuentasDelSistema;
+        this.misCuentas = new CopyOnWriteArrayList<>();
     }
 
     public List<Cuenta> getMisCuentas() {
@@ -3,35 +3,53 @@ package modelos;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
 
 public class Cuenta implements Comparable<Cuenta> {
     private String codigo;
-    private static int cantidadCuentas;
+    // Números de las cuentas nuevas; sin persistencia hasta que se instale otro generador
+    private static volatile IntSupplier generadorNumeros = new AtomicInteger()::incrementAndGet;
+    // Se avisa después de cada cambio de saldo (por ejemplo, para reordenar un índice por saldo)
+    private static volatile Consumer<Cuenta> observadorSaldo = cuenta -> {
+    };
     private transient LocalDate fechaCreacion;
     private String estatus;
     private double saldo;
     private String pin;
+    private transient String pinCifrado; // Cache del PIN cifrado para no cifrarlo en cada guardado
     private transient Cliente miCliente;
     private transient List<Transaccion> transacciones;
+    // Transacciones de meses anteriores que quedaron en los segmentos y no se cargaron en memoria
+    private transient int transaccionesArchivadas;
 
     private int intentosValidacion = 0;
     private int usosPin = 0;
     private double sumaRetiros = 0; // Verificar uso
 
     public Cuenta(double saldo, String pin, Cliente cliente) {
-        this.codigo = "cta-" + String.valueOf(Cliente.getCantidadCuentasDelSistema() + 1);
-        Cliente.setCantidadCuentasDelSistema(Cliente.getCantidadCuentasDelSistema() + 1);
+        this(saldo, "cta-" + generadorNumeros.getAsInt(), pin, cliente, "Activa");
+    }
+
+    // Cuenta ya existente (cargada o reproducida de la bitácora): conserva su código
+    public Cuenta(double saldo, String codigo, String pin, Cliente cliente, String estatus) {
+        this.codigo = codigo;
         this.saldo = saldo;
         this.pin = pin;
         this.miCliente = cliente;
         this.transacciones = new ArrayList<>();
-        this.estatus = "Activa";
+        this.estatus = estatus;
         this.fechaCreacion = LocalDate.now();
     }
 
-    public Cuenta(double saldo, String codigo, String pin, Cliente cliente, String estatus) {
-        this(saldo, pin, cliente);
-        this.estatus = estatus;
+    // Cambia de dónde salen los números de las cuentas nuevas
+    public static void setGeneradorNumeros(IntSupplier generador) {
+        generadorNumeros = generador;
+    }
+
+    public static void setObservadorSaldo(Consumer<Cuenta> observador) {
+        observadorSaldo = observador;
     }
 
     public List<Transaccion> getTransacciones() {
@@ -39,7 +57,21 @@ public class Cuenta implements Comparable<Cuenta> {
     }
 
     public int getCantidadTransacciones() {
-        return transacciones.size();
+        return transaccionesArchivadas + transacciones.size();
+    }
+
+    public int getTransaccionesArchivadas() {
+        return transaccionesArchivadas;
+    }
+
+    public void setTransaccionesArchivadas(int transaccionesArchivadas) {
+        this.transaccionesArchivadas = transaccionesArchivadas;
+    }
+
+    // Elimina todo el historial, incluido el archivado
+    public void eliminarTransacciones() {
+        transacciones.clear();
+        transaccionesArchivadas = 0;
     }
 
     public LocalDate getFechaCreacion() {
@@ -52,6 +84,15 @@ public class Cuenta implements Comparable<Cuenta> {
 
     public void setPin(String pin) {
         this.pin = pin;
+        this.pinCifrado = null;
+    }
+
+    public String getPinCifrado() {
+        return pinCifrado;
+    }
+
+    public void setPinCifrado(String pinCifrado) {
+        this.pinCifrado = pinCifrado;
     }
 
     public String getCodigo() {
@@ -76,6 +117,7 @@ public class Cuenta implements Comparable<Cuenta> {
 
     public void setSaldo(double saldo) {
         this.saldo = saldo;
+        observadorSaldo.accept(this);
     }
 
     public Cliente getMiCliente() {
@@ -98,8 +140,17 @@ public class Cuenta implements Comparable<Cuenta> {
         return miCliente != null ? miCliente.getNumTelefono() : "Teléfono no disponible";
     }
 
+    // Mantiene el historial ordenado por fecha; normalmente la nueva es la más reciente y va al final
     public void agregarTransaccion(Transaccion transaccion) {
-        transacciones.add(transaccion);
+        int posicion = transacciones.size();
+        while (posicion > 0 && esPosterior(transacciones.get(posicion - 1), transaccion)) {
+            posicion--;
+        }
+        transacciones.add(posicion, transaccion);
+    }
+
+    private static boolean esPosterior(Transaccion una, Transaccion otra) {
+        return una.getFecha() != null && otra.getFecha() != null && una.getFecha().isAfter(otra.getFecha());
     }
 
     public boolean verificarPin(String pin) {
@@ -112,10 +163,12 @@ public class Cuenta implements Comparable<Cuenta> {
 
     public void depositar(double monto, double montoComision) {
         this.saldo += (monto - montoComision);
+        observadorSaldo.accept(this);
     }
 
     public void retirar(double monto, double montoComision) {
         this.saldo -= (monto + montoComision);
+        observadorSaldo.accept(this);
     }
 
     // Implementación del método compareTo para ordenar por saldo ascendente
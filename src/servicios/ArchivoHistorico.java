@@ -0,0 +1,482 @@
+package servicios;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import modelos.Transaccion;
+
+/**
+ * Historial frío: las transacciones anteriores a una fecha límite se guardan
+ * comprimidas en un archivo por mes ({@code AAAA-MM.hist}) que no se vuelve a
+ * modificar, salvo para quitar cuentas eliminadas.
+ *
+ * Cada archivo tiene las transacciones ordenadas por cuenta y fecha,
+ * agrupadas en bloques de unos {@value #TAMANO_BLOQUE} bytes comprimidos por
+ * separado con {@link Deflater}. Al final del archivo va el índice: la
+ * posición, tamaño y rango de fechas de cada bloque y, por cuenta, el primer
+ * y último bloque y la cantidad de transacciones. Una consulta por cuenta y
+ * rango de fechas descomprime solo los bloques que le corresponden.
+ *
+ * La fecha límite se guarda en el archivo {@code limite} y se publica después
+ * de escribir los meses, así que lo archivado solo cuenta una vez que el
+ * límite avanzó; las transacciones anteriores al límite que sigan en el
+ * almacenamiento de transacciones recientes se ignoran y se limpian.
+ */
+public class ArchivoHistorico {
+
+    private static final String EXTENSION = ".hist";
+    private static final String ARCHIVO_LIMITE = "limite";
+    private static final String SUFIJO_TEMPORAL = ".tmp";
+    private static final int MAGICO = 0x43424148; // "CBAH"
+    private static final short VERSION = 1;
+    private static final int TAMANO_PIE = Long.BYTES + Integer.BYTES;
+    private static final int TAMANO_BLOQUE = 64 * 1024;
+
+    private final File directorio;
+    private final TreeMap<YearMonth, Indice> indices = new TreeMap<>();
+    // Las transacciones anteriores a esta fecha están en este archivo; null si no hay nada archivado
+    private LocalDate limite;
+
+    public ArchivoHistorico(String directorio) {
+        this.directorio = new File(directorio);
+    }
+
+    // Lee el límite y los índices de todos los meses archivados
+    public synchronized void abrir() throws IOException {
+        indices.clear();
+        limite = null;
+        File archivoLimite = new File(directorio, ARCHIVO_LIMITE);
+        if (!archivoLimite.exists()) {
+            return;
+        }
+        String texto = new String(Files.readAllBytes(archivoLimite.toPath()), StandardCharsets.UTF_8);
+        limite = LocalDate.parse(texto.trim());
+
+        File[] archivos = directorio.listFiles((dir, nombre) -> nombre.endsWith(EXTENSION));
+        if (archivos == null) {
+            return;
+        }
+        for (File archivo : archivos) {
+            String nombre = archivo.getName();
+            YearMonth mes;
+            try {
+                mes = YearMonth.parse(nombre.substring(0, nombre.length() - EXTENSION.length()));
+            } catch (DateTimeParseException e) {
+                System.err.println("Advertencia: archivo histórico con nombre inválido: " + nombre);
+                continue;
+            }
+            // Un mes igual o posterior al límite quedó de un archivado que no llegó a publicarse
+            if (!mes.atDay(1).isBefore(limite)) {
+                continue;
+            }
+            indices.put(mes, leerIndice(mes));
+        }
+    }
+
+    public synchronized LocalDate getLimite() {
+        return limite;
+    }
+
+    // Acumula en archivadasPorCuenta la cantidad de transacciones archivadas de cada cuenta
+    public synchronized void contar(Map<String, Integer> archivadasPorCuenta) {
+        for (Indice indice : indices.values()) {
+            for (Map.Entry<String, Rango> cuenta : indice.cuentas.entrySet()) {
+                archivadasPorCuenta.merge(cuenta.getKey(), cuenta.getValue().cantidad, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Devuelve las transacciones archivadas de la cuenta entre {@code desde} y
+     * {@code hasta} (ambas inclusive; null para no limitar), en orden
+     * cronológico.
+     */
+    public synchronized List<Transaccion> leer(String codigoCuenta, LocalDate desde, LocalDate hasta) {
+        List<Transaccion> transacciones = new ArrayList<>();
+        NavigableMap<YearMonth, Indice> meses = indices;
+        if (desde != null) {
+            meses = meses.tailMap(YearMonth.from(desde), true);
+        }
+        if (hasta != null) {
+            meses = meses.headMap(YearMonth.from(hasta), true);
+        }
+
+        Inflater inflater = new Inflater();
+        Map<String, String> textos = new HashMap<>();
+        try {
+            for (Map.Entry<YearMonth, Indice> entrada : meses.entrySet()) {
+                Rango rango = entrada.getValue().cuentas.get(codigoCuenta);
+                if (rango == null) {
+                    continue;
+                }
+                try (FileChannel canal = FileChannel.open(rutaMes(entrada.getKey()), StandardOpenOption.READ)) {
+                    for (int i = rango.primerBloque; i <= rango.ultimoBloque; i++) {
+                        Bloque bloque = entrada.getValue().bloques.get(i);
+                        if ((desde != null && bloque.hasta.isBefore(desde))
+                                || (hasta != null && bloque.desde.isAfter(hasta))) {
+                            continue;
+                        }
+                        ByteBuffer registros = descomprimir(canal, bloque, inflater);
+                        while (registros.hasRemaining()) {
+                            Transaccion transaccion = leerRegistro(registros, textos);
+                            LocalDate fecha = transaccion.getFecha();
+                            if (transaccion.getCodigoCuenta().equals(codigoCuenta)
+                                    && (desde == null || !fecha.isBefore(desde))
+                                    && (hasta == null || !fecha.isAfter(hasta))) {
+                                transacciones.add(transaccion);
+                            }
+                        }
+                    }
+                } catch (IOException | DataFormatException e) {
+                    System.err.println("Error al leer el historial archivado de " + entrada.getKey() + ": "
+                            + e.getMessage());
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+        return transacciones;
+    }
+
+    // Entrega todas las transacciones archivadas; las de cada cuenta salen en orden cronológico
+    public synchronized void recorrer(Consumer<Transaccion> destino) {
+        Inflater inflater = new Inflater();
+        Map<String, String> textos = new HashMap<>();
+        try {
+            for (Map.Entry<YearMonth, Indice> entrada : indices.entrySet()) {
+                try (FileChannel canal = FileChannel.open(rutaMes(entrada.getKey()), StandardOpenOption.READ)) {
+                    for (Bloque bloque : entrada.getValue().bloques) {
+                        ByteBuffer registros = descomprimir(canal, bloque, inflater);
+                        while (registros.hasRemaining()) {
+                            destino.accept(leerRegistro(registros, textos));
+                        }
+                    }
+                } catch (IOException | DataFormatException e) {
+                    System.err.println("Error al leer el historial archivado de " + entrada.getKey() + ": "
+                            + e.getMessage());
+                }
+            }
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Archiva las transacciones (todas anteriores a {@code nuevoLimite}) en
+     * un archivo por mes y después publica el nuevo límite. Devuelve la
+     * cantidad de bytes escritos.
+     */
+    public synchronized long archivar(List<Transaccion> transacciones, LocalDate nuevoLimite) throws IOException {
+        if (!directorio.exists()) {
+            directorio.mkdirs();
+        }
+        long bytes = 0;
+        for (Map.Entry<YearMonth, List<Transaccion>> entrada : agruparPorMes(transacciones).entrySet()) {
+            bytes += escribirMes(entrada.getKey(), entrada.getValue());
+        }
+
+        String destino = new File(directorio, ARCHIVO_LIMITE).getPath();
+        String temporal = destino + SUFIJO_TEMPORAL;
+        try (FileOutputStream salida = new FileOutputStream(temporal)) {
+            salida.write(nuevoLimite.toString().getBytes(StandardCharsets.UTF_8));
+            salida.getChannel().force(true);
+        }
+        RepositorioArchivos.reemplazarAtomicamente(temporal, destino);
+        limite = nuevoLimite;
+        return bytes;
+    }
+
+    /**
+     * Vuelve a escribir los meses que tienen transacciones de cuentas para
+     * las que {@code conservar} es falso, sin esas transacciones. Devuelve la
+     * cantidad de bytes escritos.
+     */
+    public synchronized long reescribir(Predicate<String> conservar) throws IOException {
+        long bytes = 0;
+        Inflater inflater = new Inflater();
+        try {
+            for (Map.Entry<YearMonth, Indice> entrada : new ArrayList<>(indices.entrySet())) {
+                Indice indice = entrada.getValue();
+                if (indice.cuentas.keySet().stream().allMatch(conservar)) {
+                    continue;
+                }
+                List<Transaccion> conservadas = new ArrayList<>();
+                Map<String, String> textos = new HashMap<>();
+                try (FileChannel canal = FileChannel.open(rutaMes(entrada.getKey()), StandardOpenOption.READ)) {
+                    for (Bloque bloque : indice.bloques) {
+                        ByteBuffer registros = descomprimir(canal, bloque, inflater);
+                        while (registros.hasRemaining()) {
+                            Transaccion transaccion = leerRegistro(registros, textos);
+                            if (conservar.test(transaccion.getCodigoCuenta())) {
+                                conservadas.add(transaccion);
+                            }
+                        }
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Bloque comprimido dañado en " + entrada.getKey(), e);
+                }
+                bytes += escribirMes(entrada.getKey(), conservadas);
+            }
+        } finally {
+            inflater.end();
+        }
+        return bytes;
+    }
+
+    // Escribe el archivo completo de un mes y lo publica con un renombrado atómico
+    private long escribirMes(YearMonth mes, List<Transaccion> transacciones) throws IOException {
+        Path ruta = rutaMes(mes);
+        if (transacciones.isEmpty()) {
+            Files.deleteIfExists(ruta);
+            indices.remove(mes);
+            return 0;
+        }
+
+        List<Transaccion> ordenadas = new ArrayList<>(transacciones);
+        ordenadas.sort(Comparator.comparing(Transaccion::getCodigoCuenta).thenComparing(Transaccion::getFecha));
+
+        Indice indice = new Indice();
+        String temporal = ruta + SUFIJO_TEMPORAL;
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (FileOutputStream archivo = new FileOutputStream(temporal)) {
+            DataOutputStream salida = new DataOutputStream(archivo);
+            ByteArrayOutputStream bufferBloque = new ByteArrayOutputStream(TAMANO_BLOQUE + 256);
+            DataOutputStream bloque = new DataOutputStream(bufferBloque);
+            ByteArrayOutputStream bufferRegistro = new ByteArrayOutputStream();
+            DataOutputStream registro = new DataOutputStream(bufferRegistro);
+            Bloque actual = null;
+            long posicion = 0;
+
+            for (Transaccion transaccion : ordenadas) {
+                if (actual == null) {
+                    actual = new Bloque();
+                    actual.desde = transaccion.getFecha();
+                    actual.hasta = transaccion.getFecha();
+                }
+                bufferRegistro.reset();
+                FormatoBinario.escribirTransaccion(registro, transaccion);
+                bloque.writeInt(bufferRegistro.size());
+                bufferRegistro.writeTo(bloque);
+                actual.registros++;
+                if (transaccion.getFecha().isBefore(actual.desde)) {
+                    actual.desde = transaccion.getFecha();
+                }
+                if (transaccion.getFecha().isAfter(actual.hasta)) {
+                    actual.hasta = transaccion.getFecha();
+                }
+                indice.agregar(transaccion.getCodigoCuenta(), indice.bloques.size());
+
+                if (bufferBloque.size() >= TAMANO_BLOQUE) {
+                    posicion += escribirBloque(salida, actual, bufferBloque, deflater, posicion);
+                    indice.bloques.add(actual);
+                    actual = null;
+                }
+            }
+            if (actual != null) {
+                posicion += escribirBloque(salida, actual, bufferBloque, deflater, posicion);
+                indice.bloques.add(actual);
+            }
+
+            escribirIndice(salida, indice);
+            salida.writeLong(posicion);
+            salida.writeInt(MAGICO);
+            salida.flush();
+            archivo.getChannel().force(true);
+        } finally {
+            deflater.end();
+        }
+        RepositorioArchivos.reemplazarAtomicamente(temporal, ruta.toString());
+        indices.put(mes, indice);
+        return Files.size(ruta);
+    }
+
+    private static int escribirBloque(DataOutputStream salida, Bloque bloque, ByteArrayOutputStream datos,
+            Deflater deflater, long posicion) throws IOException {
+        byte[] original = datos.toByteArray();
+        datos.reset();
+        deflater.reset();
+        deflater.setInput(original);
+        deflater.finish();
+        byte[] comprimido = new byte[Math.max(64, original.length + original.length / 100 + 64)];
+        int longitud = 0;
+        while (!deflater.finished()) {
+            if (longitud == comprimido.length) {
+                comprimido = Arrays.copyOf(comprimido, comprimido.length * 2);
+            }
+            longitud += deflater.deflate(comprimido, longitud, comprimido.length - longitud);
+        }
+        salida.write(comprimido, 0, longitud);
+        bloque.posicion = posicion;
+        bloque.comprimido = longitud;
+        bloque.original = original.length;
+        return longitud;
+    }
+
+    private static ByteBuffer descomprimir(FileChannel canal, Bloque bloque, Inflater inflater)
+            throws IOException, DataFormatException {
+        ByteBuffer comprimido = ByteBuffer.allocate(bloque.comprimido);
+        while (comprimido.hasRemaining()) {
+            if (canal.read(comprimido, bloque.posicion + comprimido.position()) < 0) {
+                throw new IOException("Bloque incompleto en la posición " + bloque.posicion);
+            }
+        }
+        byte[] original = new byte[bloque.original];
+        inflater.reset();
+        inflater.setInput(comprimido.array());
+        int longitud = 0;
+        while (longitud < original.length && !inflater.finished()) {
+            int leidos = inflater.inflate(original, longitud, original.length - longitud);
+            if (leidos == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Bloque comprimido incompleto");
+            }
+            longitud += leidos;
+        }
+        return ByteBuffer.wrap(original, 0, longitud);
+    }
+
+    private static Transaccion leerRegistro(ByteBuffer registros, Map<String, String> textos) {
+        int longitud = registros.getInt();
+        ByteBuffer registro = registros.slice();
+        registro.limit(longitud);
+        registros.position(registros.position() + longitud);
+        return FormatoBinario.leerTransaccion(registro, textos);
+    }
+
+    private static Map<YearMonth, List<Transaccion>> agruparPorMes(List<Transaccion> transacciones) {
+        Map<YearMonth, List<Transaccion>> porMes = new TreeMap<>();
+        for (Transaccion transaccion : transacciones) {
+            porMes.computeIfAbsent(YearMonth.from(transaccion.getFecha()), k -> new ArrayList<>()).add(transaccion);
+        }
+        return porMes;
+    }
+
+    // Métodos para manejar índices
+
+    private static void escribirIndice(DataOutputStream salida, Indice indice) throws IOException {
+        salida.writeShort(VERSION);
+        salida.writeInt(indice.bloques.size());
+        for (Bloque bloque : indice.bloques) {
+            salida.writeLong(bloque.posicion);
+            salida.writeInt(bloque.comprimido);
+            salida.writeInt(bloque.original);
+            salida.writeInt(bloque.registros);
+            salida.writeLong(bloque.desde.toEpochDay());
+            salida.writeLong(bloque.hasta.toEpochDay());
+        }
+        salida.writeInt(indice.cuentas.size());
+        for (Map.Entry<String, Rango> entrada : indice.cuentas.entrySet()) {
+            salida.writeUTF(entrada.getKey());
+            salida.writeInt(entrada.getValue().primerBloque);
+            salida.writeInt(entrada.getValue().ultimoBloque);
+            salida.writeInt(entrada.getValue().cantidad);
+        }
+    }
+
+    private Indice leerIndice(YearMonth mes) throws IOException {
+        try (FileChannel canal = FileChannel.open(rutaMes(mes), StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            ByteBuffer pie = ByteBuffer.allocate(TAMANO_PIE);
+            if (tamano < TAMANO_PIE || canal.read(pie, tamano - TAMANO_PIE) != TAMANO_PIE
+                    || pie.getInt(Long.BYTES) != MAGICO) {
+                throw new IOException("Archivo histórico dañado: " + rutaMes(mes));
+            }
+            long posicionIndice = pie.getLong(0);
+            ByteBuffer datos = ByteBuffer.allocate((int) (tamano - TAMANO_PIE - posicionIndice));
+            while (datos.hasRemaining()) {
+                canal.read(datos, posicionIndice + datos.position());
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(datos.array()));
+            if (in.readShort() != VERSION) {
+                throw new IOException("Versión de archivo histórico no soportada: " + rutaMes(mes));
+            }
+            Indice indice = new Indice();
+            int bloques = in.readInt();
+            for (int i = 0; i < bloques; i++) {
+                Bloque bloque = new Bloque();
+                bloque.posicion = in.readLong();
+                bloque.comprimido = in.readInt();
+                bloque.original = in.readInt();
+                bloque.registros = in.readInt();
+                bloque.desde = LocalDate.ofEpochDay(in.readLong());
+                bloque.hasta = LocalDate.ofEpochDay(in.readLong());
+                indice.bloques.add(bloque);
+            }
+            int cuentas = in.readInt();
+            for (int i = 0; i < cuentas; i++) {
+                Rango rango = new Rango();
+                String codigo = in.readUTF();
+                rango.primerBloque = in.readInt();
+                rango.ultimoBloque = in.readInt();
+                rango.cantidad = in.readInt();
+                indice.cuentas.put(codigo, rango);
+            }
+            return indice;
+        }
+    }
+
+    private Path rutaMes(YearMonth mes) {
+        return new File(directorio, mes + EXTENSION).toPath();
+    }
+
+    // Bloques de un mes y rango de bloques de cada cuenta
+    private static class Indice {
+        private final List<Bloque> bloques = new ArrayList<>();
+        private final Map<String, Rango> cuentas = new LinkedHashMap<>();
+
+        // Las transacciones llegan ordenadas por cuenta, así que cada cuenta ocupa bloques contiguos
+        void agregar(String codigoCuenta, int bloque) {
+            Rango rango = cuentas.get(codigoCuenta);
+            if (rango == null) {
+                rango = new Rango();
+                rango.primerBloque = bloque;
+                cuentas.put(codigoCuenta, rango);
+            }
+            rango.ultimoBloque = bloque;
+            rango.cantidad++;
+        }
+    }
+
+    private static class Bloque {
+        private long posicion;
+        private int comprimido;
+        private int original;
+        private int registros;
+        private LocalDate desde;
+        private LocalDate hasta;
+    }
+
+    private static class Rango {
+        private int primerBloque;
+        private int ultimoBloque;
+        private int cantidad;
+    }
+}
@@ -0,0 +1,821 @@
+package servicios;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+import modelos.Cliente;
+import modelos.ClienteFisico;
+import modelos.ClienteJuridico;
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Bitácora de solo escritura al final (write-ahead log) con un registro
+ * compacto por cada mutación del banco. Los archivos XML funcionan como
+ * instantánea y la bitácora guarda los cambios posteriores, de modo que el
+ * costo de cada escritura depende del tamaño del cambio y no del tamaño del
+ * banco.
+ *
+ * El archivo inicia con una cabecera [mágico (int)][versión (short)]
+ * [secuencia inicial (long)] y cada registro se escribe como
+ * [longitud (int)][secuencia (long)][CRC32C (int)][contenido], donde el
+ * contenido inicia con el tipo de registro seguido de sus campos. El CRC
+ * cubre la secuencia y el contenido; al reproducir, el primer registro
+ * incompleto, con CRC inválido o fuera de secuencia marca el final de la
+ * bitácora válida.
+ *
+ * Las escrituras a disco las hace un único hilo escritor que agrupa los
+ * registros de solicitudes concurrentes en un solo write + fsync (group
+ * commit).
+ */
+public class Bitacora {
+
+    // Tipos de registro
+    private static final byte ALTA_CLIENTE_FISICO = 1;
+    private static final byte ALTA_CLIENTE_JURIDICO = 2;
+    private static final byte ALTA_CUENTA = 3;
+    private static final byte MOVIMIENTO = 4;
+    private static final byte TRANSFERENCIA = 5;
+    private static final byte CAMBIO_PIN = 6;
+    private static final byte CAMBIO_TELEFONO = 7;
+    private static final byte CAMBIO_CORREO = 8;
+    private static final byte ELIMINACION_CUENTA = 9;
+
+    private static final int MAGICO = 0x43424C47; // "CBLG"
+    private static final short VERSION = 2;
+    private static final int TAMANO_CABECERA = Integer.BYTES + Short.BYTES + Long.BYTES;
+    private static final int TAMANO_MARCO = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int TAMANO_MARCO_LEGADO = Integer.BYTES;
+    // Una longitud mayor solo puede venir de un registro dañado
+    private static final int MAX_REGISTRO = 16 * 1024 * 1024;
+
+    private final File archivo;
+    private final Durabilidad durabilidad;
+    private final int maxLote;
+    private final long maxEsperaNanos;
+
+    private final BlockingQueue<Pendiente> cola = new LinkedBlockingQueue<>();
+    private Thread hiloEscritor;
+    private FileChannel canal;
+    private ByteBuffer bufferLote = ByteBuffer.allocate(64 * 1024);
+    private final CRC32C crc = new CRC32C();
+    // Secuencia del próximo registro; la asigna el hilo escritor
+    private long siguienteSecuencia = 1;
+
+    /**
+     * Modo de confirmación de una escritura: FSYNC confirma cuando el registro
+     * ya está en disco; ENCOLAR confirma apenas el registro entra en la cola
+     * del hilo escritor.
+     */
+    public enum Durabilidad {
+        FSYNC, ENCOLAR;
+
+        // Un valor desconocido no debe impedir que arranque el banco: se usa FSYNC
+        static Durabilidad segun(String nombre) {
+            for (Durabilidad durabilidad : values()) {
+                if (durabilidad.name().equalsIgnoreCase(nombre.trim())) {
+                    return durabilidad;
+                }
+            }
+            System.err.println("Durabilidad de bitácora desconocida: " + nombre + ", se usa fsync.");
+            return FSYNC;
+        }
+    }
+
+    // Operaciones que procesa el hilo escritor, en orden de llegada
+    private static class Pendiente {
+        static final int REGISTRO = 0;
+        static final int TRUNCAR = 1;
+        static final int CERRAR = 2;
+        static final int CORTE = 3;
+        static final int TRUNCAR_HASTA = 4;
+
+        final int operacion;
+        final byte[] contenido;
+        final Corte corte;
+        final CompletableFuture<Void> completado = new CompletableFuture<>();
+
+        Pendiente(int operacion) {
+            this(operacion, null, null);
+        }
+
+        Pendiente(int operacion, byte[] contenido) {
+            this(operacion, contenido, null);
+        }
+
+        Pendiente(int operacion, Corte corte) {
+            this(operacion, null, corte);
+        }
+
+        private Pendiente(int operacion, byte[] contenido, Corte corte) {
+            this.operacion = operacion;
+            this.contenido = contenido;
+            this.corte = corte;
+        }
+    }
+
+    /**
+     * Punto de la bitácora marcado con {@link #marcarCorte}: los registros
+     * encolados antes quedan antes del corte. Solo el hilo escritor lee y
+     * escribe sus campos.
+     */
+    public static final class Corte {
+        // Posición en el archivo y secuencia del primer registro después del corte; -1 si no se llegó a marcar
+        private long posicion = -1;
+        private long secuencia;
+    }
+
+    // Escribe los campos de un registro
+    private interface Contenido {
+        void escribir(DataOutputStream out) throws IOException;
+    }
+
+    public Bitacora(String rutaArchivo) {
+        this(rutaArchivo, Durabilidad.segun(Configuracion.obtener("banco.bitacora.durabilidad", "fsync")),
+                Configuracion.obtenerEntero("banco.bitacora.maxLote", 256),
+                Configuracion.obtenerLargo("banco.bitacora.maxEsperaMs", 0));
+    }
+
+    /**
+     * @param rutaArchivo  archivo de la bitácora
+     * @param durabilidad  cuándo se confirma una escritura
+     * @param maxLote      cantidad máxima de registros por escritura a disco
+     * @param maxEsperaMs  tiempo máximo que el escritor espera para juntar más
+     *                     registros en un lote (0 = solo los que ya esperan)
+     */
+    public Bitacora(String rutaArchivo, Durabilidad durabilidad, int maxLote, long maxEsperaMs) {
+        this.archivo = new File(rutaArchivo);
+        this.durabilidad = durabilidad;
+        this.maxLote = Math.max(1, maxLote);
+        this.maxEsperaNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxEsperaMs));
+    }
+
+    // Métodos para registrar mutaciones. Cada uno devuelve un futuro que se
+    // completa cuando el registro queda escrito y sincronizado en disco.
+
+    public CompletableFuture<Void> registrarAltaCliente(Cliente cliente) {
+        return registrar(out -> {
+            if (cliente instanceof ClienteFisico) {
+                ClienteFisico clienteFisico = (ClienteFisico) cliente;
+                out.writeByte(ALTA_CLIENTE_FISICO);
+                escribirDatosCliente(out, cliente);
+                out.writeUTF(clienteFisico.getFechaNacimiento().toString());
+                out.writeInt(clienteFisico.getMaxCuentas());
+            } else {
+                ClienteJuridico clienteJuridico = (ClienteJuridico) cliente;
+                out.writeByte(ALTA_CLIENTE_JURIDICO);
+                escribirDatosCliente(out, cliente);
+                out.writeUTF(clienteJuridico.getTipoNegocio());
+                out.writeUTF(clienteJuridico.getRazonSocial());
+            }
+        });
+    }
+
+    public CompletableFuture<Void> registrarAltaCuenta(Cuenta cuenta) {
+        return registrar(out -> {
+            out.writeByte(ALTA_CUENTA);
+            out.writeUTF(cuenta.getCodigo());
+            out.writeLong(cuenta.getIdentificacionCliente());
+            out.writeDouble(cuenta.getSaldo());
+            out.writeUTF(cifrarPin(cuenta));
+            out.writeUTF(cuenta.getEstatus());
+        });
+    }
+
+    // Depósitos y retiros: saldo resultante de la cuenta y la transacción (si hay)
+    public CompletableFuture<Void> registrarMovimiento(Cuenta cuenta, Transaccion transaccion) {
+        return registrar(out -> {
+            out.writeByte(MOVIMIENTO);
+            escribirAsiento(out, cuenta, transaccion);
+        });
+    }
+
+    // Ambos lados de una transferencia se guardan en un solo registro
+    public CompletableFuture<Void> registrarTransferencia(Cuenta cuentaOrigen, Transaccion transaccionOrigen,
+            Cuenta cuentaDestino, Transaccion transaccionDestino) {
+        return registrar(out -> {
+            out.writeByte(TRANSFERENCIA);
+            escribirAsiento(out, cuentaOrigen, transaccionOrigen);
+            escribirAsiento(out, cuentaDestino, transaccionDestino);
+        });
+    }
+
+    public CompletableFuture<Void> registrarCambioPin(Cuenta cuenta) {
+        return registrar(out -> {
+            out.writeByte(CAMBIO_PIN);
+            out.writeUTF(cuenta.getCodigo());
+            out.writeUTF(cifrarPin(cuenta));
+        });
+    }
+
+    public CompletableFuture<Void> registrarCambioTelefono(Cliente cliente) {
+        return registrar(out -> {
+            out.writeByte(CAMBIO_TELEFONO);
+            out.writeLong(cliente.getIdentificacion());
+            out.writeUTF(cliente.getNumTelefono());
+        });
+    }
+
+    public CompletableFuture<Void> registrarCambioCorreo(Cliente cliente) {
+        return registrar(out -> {
+            out.writeByte(CAMBIO_CORREO);
+            out.writeLong(cliente.getIdentificacion());
+            out.writeUTF(cliente.getCorreoElectronico());
+        });
+    }
+
+    public CompletableFuture<Void> registrarEliminacionCuenta(Cuenta cuenta) {
+        return registrar(out -> {
+            out.writeByte(ELIMINACION_CUENTA);
+            out.writeUTF(cuenta.getCodigo());
+        });
+    }
+
+    // Serializa el registro en el hilo que llama y lo encola para el escritor
+    private CompletableFuture<Void> registrar(Contenido contenido) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            contenido.escribir(out);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return CompletableFuture.failedFuture(e);
+        }
+        return encolar(new Pendiente(Pendiente.REGISTRO, buffer.toByteArray()));
+    }
+
+    private synchronized CompletableFuture<Void> encolar(Pendiente pendiente) {
+        if (hiloEscritor == null) {
+            hiloEscritor = new Thread(this::ejecutarEscritor, "escritor-bitacora");
+            hiloEscritor.setDaemon(true);
+            hiloEscritor.start();
+        }
+        cola.add(pendiente);
+        return pendiente.completado;
+    }
+
+    /**
+     * Ciclo del hilo escritor: toma el primer pendiente, junta los que ya
+     * esperan (o los que lleguen durante maxEspera) hasta maxLote, los escribe
+     * con una sola escritura y un solo fsync, y confirma a todos juntos.
+     */
+    private void ejecutarEscritor() {
+        List<Pendiente> lote = new ArrayList<>(maxLote);
+        while (true) {
+            try {
+                lote.add(cola.take());
+                long limite = System.nanoTime() + maxEsperaNanos;
+                while (lote.size() < maxLote) {
+                    long restante = limite - System.nanoTime();
+                    Pendiente siguiente = restante > 0 ? cola.poll(restante, TimeUnit.NANOSECONDS) : cola.poll();
+                    if (siguiente == null) {
+                        break;
+                    }
+                    lote.add(siguiente);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            boolean cerrar = procesarLote(lote);
+            lote.clear();
+            if (cerrar) {
+                return;
+            }
+        }
+    }
+
+    private boolean procesarLote(List<Pendiente> lote) {
+        boolean cerrar = false;
+        try {
+            abrirCanal();
+            bufferLote.clear();
+            for (Pendiente pendiente : lote) {
+                if (pendiente.operacion == Pendiente.REGISTRO) {
+                    agregarAlBuffer(pendiente.contenido);
+                } else {
+                    // Lo anterior a un truncado o cierre se escribe primero
+                    vaciarBuffer();
+                    if (pendiente.operacion == Pendiente.TRUNCAR) {
+                        canal.truncate(0);
+                        canal.position(0);
+                        escribirCabecera(canal, siguienteSecuencia);
+                    } else if (pendiente.operacion == Pendiente.CORTE) {
+                        pendiente.corte.posicion = canal.position();
+                        pendiente.corte.secuencia = siguienteSecuencia;
+                    } else if (pendiente.operacion == Pendiente.TRUNCAR_HASTA) {
+                        descartarHasta(pendiente.corte);
+                    } else {
+                        cerrar = true;
+                    }
+                }
+            }
+            vaciarBuffer();
+            canal.force(false);
+            if (cerrar) {
+                canal.close();
+                canal = null;
+            }
+            for (Pendiente pendiente : lote) {
+                pendiente.completado.complete(null);
+            }
+        } catch (IOException | RuntimeException e) {
+            // Un error inesperado también falla el lote: nadie se queda esperando su confirmación
+            e.printStackTrace();
+            for (Pendiente pendiente : lote) {
+                pendiente.completado.completeExceptionally(e);
+            }
+        }
+        return cerrar;
+    }
+
+    private void abrirCanal() throws IOException {
+        if (canal == null) {
+            if (archivo.getParentFile() != null && !archivo.getParentFile().exists()) {
+                archivo.getParentFile().mkdirs();
+            }
+            canal = FileChannel.open(archivo.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            canal.position(canal.size());
+            if (canal.size() == 0) {
+                escribirCabecera(canal, siguienteSecuencia);
+            }
+        }
+    }
+
+    // La cabecera guarda la secuencia inicial para que la numeración continúe después de un truncado
+    private static void escribirCabecera(FileChannel destino, long secuencia) throws IOException {
+        ByteBuffer cabecera = ByteBuffer.allocate(TAMANO_CABECERA);
+        cabecera.putInt(MAGICO).putShort(VERSION).putLong(secuencia).flip();
+        while (cabecera.hasRemaining()) {
+            destino.write(cabecera);
+        }
+    }
+
+    /**
+     * Descarta lo anterior al corte. Si después del corte no hay registros el
+     * archivo se vacía como en {@link #truncar}; si los hay, se copian con su
+     * cabecera a un archivo nuevo que reemplaza al anterior de una vez, para
+     * que una caída a mitad de la copia no los pierda.
+     */
+    private void descartarHasta(Corte corte) throws IOException {
+        if (corte.posicion < 0) {
+            System.err.println("Bitácora: el corte no se llegó a marcar, no se trunca.");
+            return;
+        }
+        long tamano = canal.size();
+        if (corte.posicion >= tamano) {
+            canal.truncate(0);
+            canal.position(0);
+            escribirCabecera(canal, siguienteSecuencia);
+            return;
+        }
+        File temporal = new File(archivo.getPath() + ".tmp");
+        try (FileChannel nuevo = FileChannel.open(temporal.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            escribirCabecera(nuevo, corte.secuencia);
+            for (long posicion = corte.posicion; posicion < tamano;) {
+                posicion += canal.transferTo(posicion, tamano - posicion, nuevo);
+            }
+            nuevo.force(true);
+        }
+        canal.close();
+        canal = null;
+        Files.move(temporal.toPath(), archivo.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        abrirCanal();
+    }
+
+    // Cada registro se escribe como [longitud][secuencia][CRC32C][contenido]
+    private void agregarAlBuffer(byte[] contenido) throws IOException {
+        int necesario = TAMANO_MARCO + contenido.length;
+        if (bufferLote.remaining() < necesario) {
+            vaciarBuffer();
+            if (bufferLote.capacity() < necesario) {
+                bufferLote = ByteBuffer.allocate(necesario);
+            }
+        }
+        bufferLote.putInt(contenido.length);
+        int inicio = bufferLote.position();
+        bufferLote.putLong(siguienteSecuencia++);
+        crc.reset();
+        crc.update(bufferLote.array(), inicio, Long.BYTES);
+        crc.update(contenido);
+        bufferLote.putInt((int) crc.getValue());
+        bufferLote.put(contenido);
+    }
+
+    private void vaciarBuffer() throws IOException {
+        bufferLote.flip();
+        while (bufferLote.hasRemaining()) {
+            canal.write(bufferLote);
+        }
+        bufferLote.clear();
+    }
+
+    /**
+     * Espera a que el registro sea confirmado según el modo de durabilidad:
+     * en FSYNC hasta que esté en disco, en ENCOLAR no espera.
+     *
+     * @throws BitacoraNoConfirmadaException en FSYNC, si el registro no se
+     *                                        pudo escribir; la operación no
+     *                                        debe darse por hecha
+     */
+    public void confirmar(CompletableFuture<Void> escritura) {
+        if (durabilidad == Durabilidad.ENCOLAR) {
+            return;
+        }
+        try {
+            escritura.join();
+        } catch (CompletionException e) {
+            System.err.println("Error al escribir en la bitácora: " + e.getCause());
+            throw new BitacoraNoConfirmadaException("No se pudo escribir la operación en la bitácora", e.getCause());
+        }
+    }
+
+    private static void escribirDatosCliente(DataOutputStream out, Cliente cliente) throws IOException {
+        out.writeUTF(cliente.getNombre());
+        out.writeLong(cliente.getIdentificacion());
+        out.writeUTF(cliente.getNumTelefono());
+        out.writeUTF(cliente.getCorreoElectronico());
+    }
+
+    private static void escribirAsiento(DataOutputStream out, Cuenta cuenta, Transaccion transaccion)
+            throws IOException {
+        out.writeUTF(cuenta.getCodigo());
+        out.writeDouble(cuenta.getSaldo());
+        out.writeBoolean(transaccion != null);
+        if (transaccion != null) {
+            out.writeUTF(transaccion.getTipo());
+            out.writeDouble(transaccion.getMonto());
+            out.writeUTF(transaccion.getCodigoCuenta());
+            out.writeBoolean(transaccion.getComision());
+            out.writeUTF(transaccion.getFecha().toString());
+            // Cantidad de transacciones de la cuenta con esta incluida, para no duplicarla al reproducir
+            out.writeInt(cuenta.getCantidadTransacciones());
+        }
+    }
+
+    // Un registro sin PIN no se escribe: la operación queda sin confirmar
+    private static String cifrarPin(Cuenta cuenta) throws IOException {
+        try {
+            return CryptoUtils.encriptar(cuenta.getPin());
+        } catch (Exception e) {
+            throw new IOException("No se pudo cifrar el PIN de la cuenta " + cuenta.getCodigo(), e);
+        }
+    }
+
+    // Un PIN vacío dejaría la cuenta inutilizable: la reproducción se detiene en el registro
+    private static String descifrarPin(String codigo, String pinCifrado) throws IOException {
+        try {
+            return CryptoUtils.desencriptar(pinCifrado);
+        } catch (Exception e) {
+            throw new IOException("No se pudo descifrar el PIN de la cuenta " + codigo, e);
+        }
+    }
+
+    // Métodos para reproducir la bitácora
+
+    /**
+     * Aplica sobre los clientes cargados desde la instantánea todos los
+     * registros válidos de la bitácora, en el mismo orden en que se
+     * escribieron. La lectura se detiene en el primer registro incompleto o
+     * dañado y el archivo se trunca en ese punto, para que los registros
+     * nuevos queden a continuación de la parte válida.
+     *
+     * Los asientos llevan la cantidad de transacciones de la cuenta, así que
+     * si la instantánea ya incluía una transacción (por una caída entre el
+     * guardado y el truncado de la bitácora) no se vuelve a agregar.
+     *
+     * @param clientes lista de clientes cargada desde la instantánea
+     * @param cambios   registro donde se marcan las entidades afectadas
+     * @return cantidad de registros aplicados
+     */
+    public int reproducir(List<Cliente> clientes, RegistroCambios cambios) {
+        if (!archivo.exists()) {
+            return 0;
+        }
+
+        Map<Long, Cliente> clientesPorId = new HashMap<>();
+        Map<String, Cuenta> cuentasPorCodigo = new HashMap<>();
+        for (Cliente cliente : clientes) {
+            clientesPorId.put(cliente.getIdentificacion(), cliente);
+            for (Cuenta cuenta : cliente.getMisCuentas()) {
+                cuentasPorCodigo.put(cuenta.getCodigo(), cuenta);
+            }
+        }
+
+        long inicio = System.nanoTime();
+        int aplicados = 0;
+        try (FileChannel lectura = FileChannel.open(archivo.toPath(), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long tamano = lectura.size();
+            Ventana lector = new Ventana(lectura);
+            lector.asegurar(TAMANO_CABECERA);
+            ByteBuffer ventana = lector.buffer();
+
+            // Bitácoras de la versión anterior: sin cabecera, secuencia ni CRC
+            boolean legado = ventana.remaining() < Integer.BYTES || ventana.getInt(0) != MAGICO;
+            long posicionValida = 0;
+            long secuenciaEsperada = siguienteSecuencia;
+            if (!legado) {
+                if (ventana.remaining() < TAMANO_CABECERA) {
+                    throw new IOException("cabecera incompleta");
+                }
+                ventana.getInt();
+                short version = ventana.getShort();
+                if (version != VERSION) {
+                    throw new IOException("versión de bitácora no soportada: " + version);
+                }
+                secuenciaEsperada = ventana.getLong();
+                posicionValida = TAMANO_CABECERA;
+            }
+            int tamanoMarco = legado ? TAMANO_MARCO_LEGADO : TAMANO_MARCO;
+
+            EntradaReutilizable entrada = new EntradaReutilizable();
+            DataInputStream in = new DataInputStream(entrada);
+            while (lector.asegurar(tamanoMarco)) {
+                ventana = lector.buffer();
+                int longitud = ventana.getInt(ventana.position());
+                if (longitud <= 0 || longitud > MAX_REGISTRO || !lector.asegurar(tamanoMarco + longitud)) {
+                    break;
+                }
+                ventana = lector.buffer();
+                int posicion = ventana.position();
+                byte[] datos = ventana.array();
+                if (!legado) {
+                    long secuencia = ventana.getLong(posicion + Integer.BYTES);
+                    int crcGuardado = ventana.getInt(posicion + Integer.BYTES + Long.BYTES);
+                    crc.reset();
+                    crc.update(datos, posicion + Integer.BYTES, Long.BYTES);
+                    crc.update(datos, posicion + tamanoMarco, longitud);
+                    if ((int) crc.getValue() != crcGuardado || secuencia != secuenciaEsperada) {
+                        break;
+                    }
+                    secuenciaEsperada++;
+                }
+                entrada.reiniciar(datos, posicion + tamanoMarco, longitud);
+                aplicarRegistro(in, !legado, clientes, clientesPorId, cuentasPorCodigo, cambios);
+                ventana.position(posicion + tamanoMarco + longitud);
+                posicionValida += tamanoMarco + longitud;
+                aplicados++;
+            }
+
+            siguienteSecuencia = secuenciaEsperada;
+            if (posicionValida < tamano) {
+                System.err.println("Bitácora: registro incompleto o dañado en la posición " + posicionValida
+                        + ", se descartan " + (tamano - posicionValida) + " bytes.");
+                lectura.truncate(legado && aplicados == 0 ? 0 : posicionValida);
+                lectura.force(true);
+            }
+        } catch (IOException e) {
+            System.err.println("Error al reproducir la bitácora: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        long nanos = System.nanoTime() - inicio;
+        if (aplicados > 0) {
+            System.out.printf("Bitácora: %d registros leídos en %d ms (%.0f registros/s)%n", aplicados,
+                    nanos / 1_000_000, aplicados * 1e9 / Math.max(1, nanos));
+        }
+        return aplicados;
+    }
+
+    // Lectura secuencial del archivo con un buffer que crece si un registro no cabe
+    private static class Ventana {
+        private final FileChannel canal;
+        private ByteBuffer buffer = ByteBuffer.allocate(1024 * 1024);
+
+        Ventana(FileChannel canal) {
+            this.canal = canal;
+            buffer.flip();
+        }
+
+        ByteBuffer buffer() {
+            return buffer;
+        }
+
+        /**
+         * Deja en el buffer al menos {@code necesarios} bytes sin leer,
+         * leyendo más del archivo si hace falta. Devuelve false si el archivo
+         * se acaba antes.
+         */
+        boolean asegurar(int necesarios) throws IOException {
+            if (buffer.remaining() >= necesarios) {
+                return true;
+            }
+            if (buffer.capacity() < necesarios) {
+                ByteBuffer mayor = ByteBuffer.allocate(Math.max(necesarios, buffer.capacity() * 2));
+                mayor.put(buffer);
+                buffer = mayor;
+            } else {
+                buffer.compact();
+            }
+            while (buffer.position() < necesarios) {
+                if (canal.read(buffer) < 0) {
+                    break;
+                }
+            }
+            buffer.flip();
+            return buffer.remaining() >= necesarios;
+        }
+    }
+
+    // Flujo sobre un arreglo que se reutiliza para todos los registros
+    private static class EntradaReutilizable extends ByteArrayInputStream {
+        EntradaReutilizable() {
+            super(new byte[0]);
+        }
+
+        void reiniciar(byte[] datos, int desde, int longitud) {
+            this.buf = datos;
+            this.pos = desde;
+            this.count = desde + longitud;
+            this.mark = desde;
+        }
+    }
+
+    private static void aplicarRegistro(DataInputStream in, boolean conConteo, List<Cliente> clientes,
+            Map<Long, Cliente> clientesPorId, Map<String, Cuenta> cuentasPorCodigo, RegistroCambios cambios)
+            throws IOException {
+        byte tipo = in.readByte();
+        switch (tipo) {
+            case ALTA_CLIENTE_FISICO:
+            case ALTA_CLIENTE_JURIDICO: {
+                String nombre = in.readUTF();
+                long identificacion = in.readLong();
+                String numTelefono = in.readUTF();
+                String correoElectronico = in.readUTF();
+                Cliente cliente;
+                if (tipo == ALTA_CLIENTE_FISICO) {
+                    LocalDate fechaNacimiento = LocalDate.parse(in.readUTF());
+                    int maxCuentas = in.readInt();
+                    cliente = new ClienteFisico(nombre, identificacion, numTelefono, correoElectronico,
+                            fechaNacimiento, maxCuentas);
+                } else {
+                    String tipoNegocio = in.readUTF();
+                    String razonSocial = in.readUTF();
+                    cliente = new ClienteJuridico(nombre, identificacion, numTelefono, correoElectronico,
+                            tipoNegocio, razonSocial);
+                }
+                if (!clientesPorId.containsKey(identificacion)) {
+                    clientes.add(cliente);
+                    clientesPorId.put(identificacion, cliente);
+                    cambios.marcarCliente(cliente);
+                }
+                break;
+            }
+            case ALTA_CUENTA: {
+                String codigo = in.readUTF();
+                long identificacion = in.readLong();
+                double saldo = in.readDouble();
+                String pin = descifrarPin(codigo, in.readUTF());
+                String estatus = in.readUTF();
+                Cliente cliente = clientesPorId.get(identificacion);
+                if (cliente != null && !cuentasPorCodigo.containsKey(codigo)) {
+                    Cuenta cuenta = new Cuenta(saldo, codigo, pin, cliente, estatus);
+                    cliente.agregarCuenta(cuenta);
+                    cuentasPorCodigo.put(codigo, cuenta);
+                    cambios.marcarCuenta(cuenta);
+                }
+                break;
+            }
+            case MOVIMIENTO:
+                aplicarAsiento(in, conConteo, cuentasPorCodigo, cambios);
+                break;
+            case TRANSFERENCIA:
+                aplicarAsiento(in, conConteo, cuentasPorCodigo, cambios);
+                aplicarAsiento(in, conConteo, cuentasPorCodigo, cambios);
+                break;
+            case CAMBIO_PIN: {
+                String codigo = in.readUTF();
+                Cuenta cuenta = cuentasPorCodigo.get(codigo);
+                String pin = descifrarPin(codigo, in.readUTF());
+                if (cuenta != null) {
+                    cuenta.setPin(pin);
+                    cambios.marcarCuenta(cuenta);
+                }
+                break;
+            }
+            case CAMBIO_TELEFONO:
+            case CAMBIO_CORREO: {
+                Cliente cliente = clientesPorId.get(in.readLong());
+                String valor = in.readUTF();
+                if (cliente != null && tipo == CAMBIO_TELEFONO) {
+                    cliente.setNumTelefono(valor);
+                    cambios.marcarCliente(cliente);
+                } else if (cliente != null) {
+                    cliente.setCorreoElectronico(valor);
+                    cambios.marcarCliente(cliente);
+                }
+                break;
+            }
+            case ELIMINACION_CUENTA: {
+                Cuenta cuenta = cuentasPorCodigo.get(in.readUTF());
+                if (cuenta != null) {
+                    cuenta.setEstatus("Eliminada");
+                    cuenta.setSaldo(0);
+                    cuenta.eliminarTransacciones();
+                    cambios.marcarCuenta(cuenta);
+                    cambios.marcarReescrituraTransacciones();
+                }
+                break;
+            }
+            default:
+                System.err.println("Advertencia: tipo de registro desconocido en la bitácora: " + tipo);
+        }
+    }
+
+    private static void aplicarAsiento(DataInputStream in, boolean conConteo, Map<String, Cuenta> cuentasPorCodigo,
+            RegistroCambios cambios) throws IOException {
+        Cuenta cuenta = cuentasPorCodigo.get(in.readUTF());
+        double saldo = in.readDouble();
+        Transaccion transaccion = null;
+        if (in.readBoolean()) {
+            String tipo = in.readUTF();
+            double monto = in.readDouble();
+            String codigoCuenta = in.readUTF();
+            boolean comision = in.readBoolean();
+            LocalDate fecha = LocalDate.parse(in.readUTF());
+            transaccion = new Transaccion(tipo, monto, codigoCuenta, comision);
+            transaccion.setFecha(fecha);
+            // Si la instantánea ya tiene esa cantidad de transacciones, esta ya estaba guardada
+            int cantidad = conConteo ? in.readInt() : -1;
+            if (cantidad >= 0 && cuenta != null && cuenta.getCantidadTransacciones() >= cantidad) {
+                transaccion = null;
+            }
+        }
+        if (cuenta != null) {
+            cuenta.setSaldo(saldo);
+            cambios.marcarCuenta(cuenta);
+            if (transaccion != null) {
+                cuenta.agregarTransaccion(transaccion);
+                cambios.agregarTransaccion(transaccion);
+            }
+        }
+    }
+
+    /**
+     * Vacía la bitácora. Se llama después de escribir una instantánea completa,
+     * ya que a partir de ese momento los registros anteriores son redundantes.
+     * El truncado se encola detrás de los registros pendientes, así que los
+     * registros que lleguen después se conservan.
+     */
+    public void truncar() {
+        encolar(new Pendiente(Pendiente.TRUNCAR));
+    }
+
+    /**
+     * Marca el punto de la bitácora que cubre una instantánea: se encola
+     * detrás de los registros pendientes, así que quien lo llama con el mismo
+     * candado con el que se registran las mutaciones sabe exactamente qué
+     * registros quedan antes.
+     */
+    public Corte marcarCorte() {
+        Corte corte = new Corte();
+        encolar(new Pendiente(Pendiente.CORTE, corte));
+        return corte;
+    }
+
+    /**
+     * Descarta los registros anteriores al corte y conserva los que llegaron
+     * después, por ejemplo mientras se escribía la instantánea.
+     */
+    public void truncarHasta(Corte corte) {
+        encolar(new Pendiente(Pendiente.TRUNCAR_HASTA, corte));
+    }
+
+    // Escribe lo pendiente, sincroniza y detiene el hilo escritor
+    public void cerrar() {
+        Thread hilo;
+        synchronized (this) {
+            hilo = hiloEscritor;
+        }
+        if (hilo != null && hilo.isAlive()) {
+            encolar(new Pendiente(Pendiente.CERRAR)).join();
+            synchronized (this) {
+                hiloEscritor = null;
+            }
+        }
+    }
+}
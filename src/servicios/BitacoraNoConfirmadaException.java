@@ -0,0 +1,13 @@
+package servicios;
+
+/**
+ * La bitácora no pudo escribir el registro de una operación en modo FSYNC.
+ * La operación no debe darse por hecha: quien la aplicó deshace sus cambios
+ * en memoria antes de dejar pasar la excepción hasta la solicitud.
+ */
+public class BitacoraNoConfirmadaException extends RuntimeException {
+
+    public BitacoraNoConfirmadaException(String mensaje, Throwable causa) {
+        super(mensaje, causa);
+    }
+}
@@ -0,0 +1,92 @@
+package servicios;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Historial archivado de las cuentas consultadas recientemente. Guarda como
+ * máximo {@code capacidad} cuentas y descarta la usada hace más tiempo.
+ *
+ * Una entrada solo se usa si tiene al menos tantas transacciones como las
+ * archivadas de la cuenta; si tiene menos (por ejemplo, porque se guardaron
+ * transacciones nuevas y no se agregaron a la entrada) se vuelve a leer.
+ */
+public class CacheHistorial {
+    private final Map<String, List<Transaccion>> historiales;
+
+    public CacheHistorial(int capacidad) {
+        this.historiales = new LinkedHashMap<String, List<Transaccion>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Transaccion>> mayor) {
+                return size() > capacidad;
+            }
+        };
+    }
+
+    /**
+     * Devuelve las primeras {@code archivadas} transacciones archivadas de la
+     * cuenta, leyéndolas con {@code lector} si no están en la caché. La
+     * lectura se hace fuera del candado de la caché.
+     */
+    public List<Transaccion> obtener(Cuenta cuenta, int archivadas, Function<Cuenta, List<Transaccion>> lector) {
+        List<Transaccion> historial;
+        synchronized (this) {
+            historial = historiales.get(cuenta.getCodigo());
+            if (historial != null && historial.size() >= archivadas) {
+                return new ArrayList<>(historial.subList(0, archivadas));
+            }
+        }
+        historial = lector.apply(cuenta);
+        synchronized (this) {
+            historiales.put(cuenta.getCodigo(), historial);
+            return new ArrayList<>(historial.subList(0, Math.min(archivadas, historial.size())));
+        }
+    }
+
+    /**
+     * Aplica la consulta a las primeras {@code archivadas} transacciones
+     * archivadas sin copiarlas, con el candado de la caché tomado. Si la
+     * cuenta no está en la caché se lee primero, fuera del candado.
+     */
+    public <R> R consultar(Cuenta cuenta, int archivadas, Function<Cuenta, List<Transaccion>> lector,
+            Function<List<Transaccion>, R> consulta) {
+        synchronized (this) {
+            List<Transaccion> historial = historiales.get(cuenta.getCodigo());
+            if (historial != null && historial.size() >= archivadas) {
+                return consulta.apply(historial.subList(0, archivadas));
+            }
+        }
+        List<Transaccion> historial = lector.apply(cuenta);
+        synchronized (this) {
+            historiales.put(cuenta.getCodigo(), historial);
+            return consulta.apply(historial.subList(0, Math.min(archivadas, historial.size())));
+        }
+    }
+
+    /**
+     * Agrega al final de la entrada de la cuenta las transacciones que
+     * acaban de pasar a disco. Si la entrada no coincide con las
+     * {@code archivadasAntes} se descarta.
+     */
+    public synchronized void agregar(String codigoCuenta, int archivadasAntes, List<Transaccion> liberadas) {
+        List<Transaccion> historial = historiales.get(codigoCuenta);
+        if (historial == null) {
+            return;
+        }
+        if (historial.size() == archivadasAntes) {
+            historial.addAll(liberadas);
+        } else {
+            historiales.remove(codigoCuenta);
+        }
+    }
+
+    public synchronized void descartar(String codigoCuenta) {
+        historiales.remove(codigoCuenta);
+    }
+}
@@ -0,0 +1,77 @@
+package servicios;
+
+import java.util.function.Supplier;
+
+/**
+ * Motor por defecto: tabla de candados por franjas para las operaciones
+ * sobre cuentas, tomados por el hilo de cada solicitud. Cada
+ * código de cuenta cae siempre en la misma franja, así que las operaciones
+ * sobre una cuenta quedan en serie mientras que las de cuentas en franjas
+ * distintas corren en paralelo, sin un candado global y sin un objeto por
+ * cuenta.
+ *
+ * Las cuentas {@code cta-N} se reparten por N, de modo que cuentas con
+ * números consecutivos nunca comparten franja. La cantidad de franjas se
+ * configura con -Dbanco.cuentas.candados (por defecto 256) y se redondea a
+ * una potencia de dos.
+ */
+public class CandadosCuentas implements MotorCuentas {
+    private final Object[] franjas;
+    private final int mascara;
+
+    public CandadosCuentas() {
+        this(Configuracion.obtenerEntero("banco.cuentas.candados", 256));
+    }
+
+    public CandadosCuentas(int cantidad) {
+        int franjasNecesarias = Integer.highestOneBit(Math.max(1, Math.min(cantidad, 1 << 16)) * 2 - 1);
+        franjas = new Object[franjasNecesarias];
+        for (int i = 0; i < franjas.length; i++) {
+            franjas[i] = new Object();
+        }
+        mascara = franjas.length - 1;
+    }
+
+    // Candado de la franja de la cuenta; se usa con synchronized
+    public Object candado(String codigo) {
+        return franjas[franja(codigo)];
+    }
+
+    @Override
+    public <T> T ejecutar(String codigo, Supplier<T> operacion) {
+        synchronized (candado(codigo)) {
+            return operacion.get();
+        }
+    }
+
+    /**
+     * Ejecuta la operación con los candados de las dos cuentas tomados, por
+     * ejemplo para aplicar los dos lados de una transferencia. Los candados
+     * se toman siempre en orden de franja, así que dos transferencias en
+     * sentidos opuestos no pueden esperarse una a la otra; si las cuentas
+     * comparten franja se toma uno solo.
+     */
+    @Override
+    public <T> T ejecutar(String codigoA, String codigoB, Supplier<T> operacion) {
+        int franjaA = franja(codigoA);
+        int franjaB = franja(codigoB);
+        synchronized (franjas[Math.min(franjaA, franjaB)]) {
+            synchronized (franjas[Math.max(franjaA, franjaB)]) {
+                return operacion.get();
+            }
+        }
+    }
+
+    public int franja(String codigo) {
+        int numero = GeneradorCodigosCuenta.numero(codigo);
+        if (numero >= 0) {
+            return numero & mascara;
+        }
+        int hash = codigo == null ? 0 : codigo.hashCode();
+        return (hash ^ (hash >>> 16)) & mascara;
+    }
+
+    public int getCantidad() {
+        return franjas.length;
+    }
+}
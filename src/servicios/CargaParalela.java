@@ -0,0 +1,92 @@
+package servicios;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Pool fork-join de la carga inicial. Los archivos de clientes, cuentas y
+ * transacciones se leen al mismo tiempo, y los archivos grandes se dividen
+ * en partes que se leen en paralelo y se juntan en orden.
+ *
+ * La cantidad de hilos se configura con -Dbanco.carga.hilos (por defecto,
+ * la cantidad de procesadores).
+ */
+public class CargaParalela {
+    // Por debajo de este tamaño no vale la pena dividir un archivo
+    private static final long TAMANO_MINIMO_PARTE = 1024 * 1024;
+    private static final int PARTES_POR_HILO = 4;
+
+    private static final ForkJoinPool pool = new ForkJoinPool(Math.max(1,
+            Configuracion.obtenerEntero("banco.carga.hilos", Runtime.getRuntime().availableProcessors())));
+
+    private CargaParalela() {
+    }
+
+    public static int getHilos() {
+        return pool.getParallelism();
+    }
+
+    // Ejecuta la carga en el pool sin bloquear al hilo que la pide
+    public static <T> CompletableFuture<T> iniciar(Supplier<T> carga) {
+        return CompletableFuture.supplyAsync(carga, pool);
+    }
+
+    // Cantidad de partes en las que conviene dividir un archivo del tamaño indicado
+    public static int partesPara(long bytes) {
+        long partes = Math.min((long) getHilos() * PARTES_POR_HILO, bytes / TAMANO_MINIMO_PARTE);
+        return (int) Math.max(1, partes);
+    }
+
+    /**
+     * Lee cada parte en el pool y devuelve los resultados concatenados en el
+     * orden de las partes. Con una sola parte se lee en el hilo actual.
+     *
+     * El hilo que llama lee también las partes que el pool todavía no tomó,
+     * así la lectura termina aunque todos los hilos del pool estén ocupados
+     * (por ejemplo esperando un candado que tiene quien llama).
+     */
+    public static <T> List<T> leerPorPartes(int partes, IntFunction<List<T>> lector) {
+        if (partes <= 1) {
+            return lector.apply(0);
+        }
+        List<FutureTask<List<T>>> tareas = new ArrayList<>(partes);
+        for (int i = 0; i < partes; i++) {
+            int parte = i;
+            FutureTask<List<T>> tarea = new FutureTask<>(() -> lector.apply(parte));
+            tareas.add(tarea);
+            pool.execute(tarea);
+        }
+        // Una parte que ya empezó o terminó en el pool no se vuelve a leer
+        for (FutureTask<List<T>> tarea : tareas) {
+            tarea.run();
+        }
+
+        List<List<T>> resultados = new ArrayList<>(partes);
+        int total = 0;
+        try {
+            for (Future<List<T>> resultado : tareas) {
+                List<T> lista = resultado.get();
+                resultados.add(lista);
+                total += lista.size();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Carga interrumpida", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Error al leer una parte del archivo", e.getCause());
+        }
+
+        List<T> todos = new ArrayList<>(total);
+        for (List<T> lista : resultados) {
+            todos.addAll(lista);
+        }
+        return todos;
+    }
+}
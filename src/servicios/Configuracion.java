@@ -0,0 +1,32 @@
+package servicios;
+
+/**
+ * Parámetros de arranque del banco. Se leen de las propiedades del sistema
+ * (por ejemplo {@code java -Dbanco.bitacora.durabilidad=encolar ...}) y cada
+ * uno tiene un valor por defecto.
+ */
+public class Configuracion {
+
+    public static String obtener(String clave, String valorPorDefecto) {
+        String valor = System.getProperty(clave);
+        return (valor == null || valor.isBlank()) ? valorPorDefecto : valor.trim();
+    }
+
+    public static int obtenerEntero(String clave, int valorPorDefecto) {
+        try {
+            return Integer.parseInt(obtener(clave, String.valueOf(valorPorDefecto)));
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para " + clave + ", se usa " + valorPorDefecto);
+            return valorPorDefecto;
+        }
+    }
+
+    public static long obtenerLargo(String clave, long valorPorDefecto) {
+        try {
+            return Long.parseLong(obtener(clave, String.valueOf(valorPorDefecto)));
+        } catch (NumberFormatException e) {
+            System.err.println("Valor inválido para " + clave + ", se usa " + valorPorDefecto);
+            return valorPorDefecto;
+        }
+    }
+}
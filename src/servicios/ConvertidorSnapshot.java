@@ -0,0 +1,29 @@
+package servicios;
+
+/**
+ * Convierte la instantánea de datos entre formatos. Uso:
+ *
+ * <pre>
+ * java servicios.ConvertidorSnapshot xml binario
+ * java servicios.ConvertidorSnapshot binario xml
+ * </pre>
+ *
+ * Debe ejecutarse con el banco detenido, desde el mismo directorio de
+ * trabajo que la aplicación.
+ */
+public class ConvertidorSnapshot {
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("Uso: java servicios.ConvertidorSnapshot <xml|binario> <xml|binario>");
+            System.exit(1);
+        }
+        FormatoSnapshot origen = FormatoSnapshot.segun(args[0]);
+        FormatoSnapshot destino = FormatoSnapshot.segun(args[1]);
+        if (origen.getNombre().equals(destino.getNombre())) {
+            System.err.println("El formato de origen y el de destino son el mismo.");
+            System.exit(1);
+        }
+        RepositorioArchivos.convertirFormato(origen, destino);
+    }
+}
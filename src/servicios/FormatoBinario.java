@@ -0,0 +1,377 @@
+package servicios;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import modelos.Cliente;
+import modelos.ClienteFisico;
+import modelos.ClienteJuridico;
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Formato binario compacto para la instantánea. Cada archivo empieza con una
+ * cabecera (número mágico + versión) seguida de registros
+ * {@code [int longitud][datos]}. Los textos se guardan como
+ * {@code [short longitud][bytes UTF-8]}, los montos como double sin formatear
+ * y las fechas como día de época, así que la carga no tiene que interpretar
+ * texto. Los archivos se leen mapeándolos en memoria con
+ * {@link MappedByteBuffer}.
+ */
+public class FormatoBinario implements FormatoSnapshot {
+
+    private static final int MAGICO = 0x43424E4B; // "CBNK"
+    private static final short VERSION = 1;
+    private static final int TAMANO_CABECERA = 6;
+    private static final int TAMANO_BUFFER = 64 * 1024;
+
+    private static final byte CLIENTE_FISICO = 1;
+    private static final byte CLIENTE_JURIDICO = 2;
+
+    @Override
+    public String getNombre() {
+        return "binario";
+    }
+
+    @Override
+    public String getExtension() {
+        return ".bin";
+    }
+
+    // Métodos de lectura
+
+    @Override
+    public List<Cliente> leerClientes(String rutaArchivo) {
+        List<Cliente> clientes = new ArrayList<>();
+        leerRegistros(rutaArchivo, registro -> {
+            byte tipo = registro.get();
+            String nombre = leerTexto(registro);
+            long identificacion = registro.getLong();
+            String numTelefono = leerTexto(registro);
+            String correoElectronico = leerTexto(registro);
+            if (tipo == CLIENTE_FISICO) {
+                LocalDate fechaNacimiento = LocalDate.ofEpochDay(registro.getLong());
+                int maxCuentas = registro.getInt();
+                clientes.add(new ClienteFisico(nombre, identificacion, numTelefono, correoElectronico,
+                        fechaNacimiento, maxCuentas));
+            } else if (tipo == CLIENTE_JURIDICO) {
+                String tipoNegocio = leerTexto(registro);
+                String razonSocial = leerTexto(registro);
+                clientes.add(new ClienteJuridico(nombre, identificacion, numTelefono, correoElectronico,
+                        tipoNegocio, razonSocial));
+            }
+        });
+        return clientes;
+    }
+
+    @Override
+    public Map<Long, List<Cuenta>> leerCuentas(String rutaArchivo) {
+        Map<Long, List<Cuenta>> cuentasPorCliente = new LinkedHashMap<>();
+        leerRegistros(rutaArchivo, registro -> {
+            String codigo = leerTexto(registro);
+            String estatus = leerTexto(registro);
+            double saldo = registro.getDouble();
+            long identificacion = registro.getLong();
+            String pinEncriptado = leerTexto(registro);
+            String pin = "";
+            try {
+                pin = CryptoUtils.desencriptar(pinEncriptado);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+            Cuenta cuenta = new Cuenta(saldo, codigo, pin, null, estatus);
+            cuenta.setPinCifrado(pinEncriptado);
+            cuentasPorCliente.computeIfAbsent(identificacion, k -> new ArrayList<>()).add(cuenta);
+        });
+        return cuentasPorCliente;
+    }
+
+    /**
+     * Lee las transacciones. Si el archivo es grande, primero se recorren solo
+     * los prefijos de longitud para dividirlo en partes y luego cada parte se
+     * decodifica en paralelo (ver {@link CargaParalela}).
+     */
+    @Override
+    public List<Transaccion> leerTransacciones(String rutaArchivo) {
+        ByteBuffer mapa = mapear(rutaArchivo);
+        if (mapa == null) {
+            return new ArrayList<>();
+        }
+        int[] limites = dividirEnRegistros(mapa, CargaParalela.partesPara(mapa.remaining()));
+        return CargaParalela.leerPorPartes(limites.length - 1, parte -> {
+            List<Transaccion> transacciones = new ArrayList<>();
+            // Los tipos y códigos de cuenta se repiten mucho; se comparte una sola instancia de cada uno
+            Map<String, String> textos = new HashMap<>();
+            ByteBuffer region = mapa.duplicate();
+            region.limit(limites[parte + 1]).position(limites[parte]);
+            recorrer(region, rutaArchivo, registro -> transacciones.add(leerTransaccion(registro, textos)));
+            return transacciones;
+        });
+    }
+
+    // Posiciones de inicio de cada parte (siempre al comienzo de un registro) seguidas del final
+    private static int[] dividirEnRegistros(ByteBuffer mapa, int partes) {
+        List<Integer> limites = new ArrayList<>();
+        limites.add(mapa.position());
+        if (partes > 1) {
+            long tamanoParte = mapa.remaining() / partes;
+            long siguiente = mapa.position() + tamanoParte;
+            int posicion = mapa.position();
+            while (posicion <= mapa.limit() - Integer.BYTES && limites.size() < partes) {
+                int longitud = mapa.getInt(posicion);
+                if (longitud < 0 || longitud > mapa.limit() - posicion - Integer.BYTES) {
+                    break;
+                }
+                posicion += Integer.BYTES + longitud;
+                if (posicion >= siguiente && posicion < mapa.limit()) {
+                    limites.add(posicion);
+                    siguiente = posicion + tamanoParte;
+                }
+            }
+        }
+        limites.add(mapa.limit());
+        return limites.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    // Decodifica una transacción; también lo usan los segmentos mensuales de transacciones
+    static Transaccion leerTransaccion(ByteBuffer registro, Map<String, String> textos) {
+        LocalDate fecha = LocalDate.ofEpochDay(registro.getLong());
+        String tipo = textos.computeIfAbsent(leerTexto(registro), t -> t);
+        double monto = registro.getDouble();
+        boolean comision = registro.get() != 0;
+        String numeroCuenta = textos.computeIfAbsent(leerTexto(registro), t -> t);
+
+        Transaccion transaccion = new Transaccion(tipo, monto, numeroCuenta, comision);
+        transaccion.setFecha(fecha);
+        return transaccion;
+    }
+
+    /**
+     * Mapea el archivo en memoria y entrega cada registro al lector como una
+     * vista limitada a sus bytes. Un registro incompleto al final (por
+     * ejemplo, tras una caída a mitad de una escritura) se ignora.
+     */
+    private static void leerRegistros(String rutaArchivo, LectorRegistro lector) {
+        ByteBuffer mapa = mapear(rutaArchivo);
+        if (mapa != null) {
+            recorrer(mapa, rutaArchivo, lector);
+        }
+    }
+
+    // Mapea el archivo y verifica la cabecera; devuelve el buffer ubicado en el primer registro
+    private static ByteBuffer mapear(String rutaArchivo) {
+        File archivo = new File(rutaArchivo);
+        if (!archivo.exists()) {
+            return null;
+        }
+        try (FileChannel canal = FileChannel.open(archivo.toPath(), StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            if (tamano < TAMANO_CABECERA) {
+                return null;
+            }
+            MappedByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamano);
+            if (mapa.getInt() != MAGICO) {
+                throw new IOException("El archivo " + rutaArchivo + " no tiene formato binario de instantánea");
+            }
+            short version = mapa.getShort();
+            if (version != VERSION) {
+                throw new IOException("Versión de instantánea no soportada: " + version);
+            }
+            return mapa;
+        } catch (IOException e) {
+            System.err.println("Error al leer el archivo binario: " + e.getMessage());
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    private static void recorrer(ByteBuffer mapa, String rutaArchivo, LectorRegistro lector) {
+        while (mapa.remaining() >= Integer.BYTES) {
+            int longitud = mapa.getInt();
+            if (longitud < 0 || longitud > mapa.remaining()) {
+                System.err.println("Registro incompleto al final de " + rutaArchivo + ", se ignora.");
+                break;
+            }
+            ByteBuffer registro = mapa.slice();
+            registro.limit(longitud);
+            lector.leer(registro);
+            mapa.position(mapa.position() + longitud);
+        }
+    }
+
+    private static String leerTexto(ByteBuffer registro) {
+        int longitud = registro.getShort() & 0xFFFF;
+        byte[] bytes = new byte[longitud];
+        registro.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Métodos de escritura
+
+    @Override
+    public void escribirClientes(List<Cliente> clientes, String rutaArchivo) throws IOException {
+        try (EscritorBinario escritor = new EscritorBinario(rutaArchivo, false)) {
+            for (Cliente cliente : clientes) {
+                DataOutputStream registro = escritor.iniciarRegistro();
+                if (cliente instanceof ClienteFisico) {
+                    registro.writeByte(CLIENTE_FISICO);
+                } else if (cliente instanceof ClienteJuridico) {
+                    registro.writeByte(CLIENTE_JURIDICO);
+                } else {
+                    continue;
+                }
+                escribirTexto(registro, cliente.getNombre());
+                registro.writeLong(cliente.getIdentificacion());
+                escribirTexto(registro, cliente.getNumTelefono());
+                escribirTexto(registro, cliente.getCorreoElectronico());
+                if (cliente instanceof ClienteFisico) {
+                    ClienteFisico clienteFisico = (ClienteFisico) cliente;
+                    registro.writeLong(clienteFisico.getFechaNacimiento().toEpochDay());
+                    registro.writeInt(clienteFisico.getMaxCuentas());
+                } else {
+                    ClienteJuridico clienteJuridico = (ClienteJuridico) cliente;
+                    escribirTexto(registro, clienteJuridico.getTipoNegocio());
+                    escribirTexto(registro, clienteJuridico.getRazonSocial());
+                }
+                escritor.terminarRegistro();
+            }
+        }
+    }
+
+    @Override
+    public void escribirCuentas(List<Cuenta> cuentas, String rutaArchivo) throws IOException {
+        try (EscritorBinario escritor = new EscritorBinario(rutaArchivo, false)) {
+            for (Cuenta cuenta : cuentas) {
+                DataOutputStream registro = escritor.iniciarRegistro();
+                escribirTexto(registro, cuenta.getCodigo());
+                escribirTexto(registro, cuenta.getEstatus());
+                registro.writeDouble(cuenta.getSaldo());
+                registro.writeLong(cuenta.getMiCliente().getIdentificacion());
+
+                String pinEncriptado = cuenta.getPinCifrado();
+                if (pinEncriptado == null) {
+                    try {
+                        pinEncriptado = CryptoUtils.encriptar(cuenta.getPin());
+                    } catch (Exception e) {
+                        throw new IOException("No se pudo cifrar el PIN de la cuenta " + cuenta.getCodigo(), e);
+                    }
+                    cuenta.setPinCifrado(pinEncriptado);
+                }
+                escribirTexto(registro, pinEncriptado);
+                escritor.terminarRegistro();
+            }
+        }
+    }
+
+    @Override
+    public void escribirTransacciones(List<Transaccion> transacciones, String rutaArchivo) throws IOException {
+        try (EscritorBinario escritor = new EscritorBinario(rutaArchivo, false)) {
+            escribirTransacciones(escritor, transacciones);
+        }
+    }
+
+    // Los registros son independientes entre sí, así que agregar es escribir al final del archivo
+    @Override
+    public void agregarTransacciones(List<Transaccion> transacciones, String rutaArchivo) throws IOException {
+        try (EscritorBinario escritor = new EscritorBinario(rutaArchivo, true)) {
+            escribirTransacciones(escritor, transacciones);
+        }
+    }
+
+    private static void escribirTransacciones(EscritorBinario escritor, List<Transaccion> transacciones)
+            throws IOException {
+        for (Transaccion transaccion : transacciones) {
+            escribirTransaccion(escritor.iniciarRegistro(), transaccion);
+            escritor.terminarRegistro();
+        }
+    }
+
+    static void escribirTransaccion(DataOutputStream registro, Transaccion transaccion) throws IOException {
+        registro.writeLong(transaccion.getFecha().toEpochDay());
+        escribirTexto(registro, transaccion.getTipo());
+        registro.writeDouble(transaccion.getMonto());
+        registro.writeByte(transaccion.getComision() ? 1 : 0);
+        escribirTexto(registro, transaccion.getCodigoCuenta());
+    }
+
+    private static void escribirTexto(DataOutputStream salida, String texto) throws IOException {
+        byte[] bytes = (texto == null ? "" : texto).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IOException("Texto demasiado largo para el formato binario: " + bytes.length + " bytes");
+        }
+        salida.writeShort(bytes.length);
+        salida.write(bytes);
+    }
+
+    private interface LectorRegistro {
+        void leer(ByteBuffer registro);
+    }
+
+    /**
+     * Escribe registros con prefijo de longitud sobre un canal con buffer.
+     * Cada registro se arma primero en un buffer reutilizable para conocer su
+     * longitud. Al cerrar sincroniza el archivo en disco.
+     */
+    private static class EscritorBinario implements AutoCloseable {
+        private final FileChannel canal;
+        private final DataOutputStream salida;
+        private final ByteArrayOutputStream bufferRegistro = new ByteArrayOutputStream();
+        private final DataOutputStream registro = new DataOutputStream(bufferRegistro);
+
+        EscritorBinario(String rutaArchivo, boolean agregar) throws IOException {
+            File archivo = new File(rutaArchivo);
+            boolean continuar = agregar && archivo.length() >= TAMANO_CABECERA;
+            if (continuar) {
+                canal = FileChannel.open(archivo.toPath(), StandardOpenOption.WRITE);
+                canal.position(canal.size());
+            } else {
+                canal = FileChannel.open(Paths.get(rutaArchivo), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            this.salida = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(canal),
+                    TAMANO_BUFFER));
+            if (!continuar) {
+                salida.writeInt(MAGICO);
+                salida.writeShort(VERSION);
+            }
+        }
+
+        DataOutputStream iniciarRegistro() {
+            bufferRegistro.reset();
+            return registro;
+        }
+
+        void terminarRegistro() throws IOException {
+            salida.writeInt(bufferRegistro.size());
+            bufferRegistro.writeTo(salida);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                salida.flush();
+                // Asegurar que el contenido quede en disco antes de publicarlo
+                canal.force(true);
+            } finally {
+                salida.close();
+            }
+        }
+    }
+}
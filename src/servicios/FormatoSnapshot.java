@@ -0,0 +1,54 @@
+package servicios;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import modelos.Cliente;
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Formato de los archivos de instantánea (clientes, cuentas y
+ * transacciones). Las escrituras deben dejar el archivo sincronizado en disco
+ * para que PersistenciaDatos pueda publicarlo con un renombrado atómico, y
+ * lanzar la excepción si algo falla: un archivo a medio escribir nunca se
+ * debe publicar.
+ */
+public interface FormatoSnapshot {
+
+    String getNombre();
+
+    // Extensión de los archivos, por ejemplo ".xml"
+    String getExtension();
+
+    List<Cliente> leerClientes(String rutaArchivo);
+
+    // Cuentas agrupadas por la identificación de su cliente, todavía sin asociar
+    Map<Long, List<Cuenta>> leerCuentas(String rutaArchivo);
+
+    List<Transaccion> leerTransacciones(String rutaArchivo);
+
+    void escribirClientes(List<Cliente> clientes, String rutaArchivo) throws IOException;
+
+    void escribirCuentas(List<Cuenta> cuentas, String rutaArchivo) throws IOException;
+
+    void escribirTransacciones(List<Transaccion> transacciones, String rutaArchivo) throws IOException;
+
+    // Agrega transacciones al final de un archivo existente (o lo crea)
+    void agregarTransacciones(List<Transaccion> transacciones, String rutaArchivo) throws IOException;
+
+    /**
+     * Devuelve el formato correspondiente al nombre indicado: "xml" o
+     * "binario".
+     */
+    static FormatoSnapshot segun(String nombre) {
+        if (nombre.equalsIgnoreCase("binario") || nombre.equalsIgnoreCase("bin")) {
+            return new FormatoBinario();
+        }
+        if (!nombre.equalsIgnoreCase("xml")) {
+            System.err.println("Formato de instantánea desconocido: " + nombre + ", se usa XML.");
+        }
+        return new FormatoXML();
+    }
+}
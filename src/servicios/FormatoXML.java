@@ -0,0 +1,58 @@
+package servicios;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import modelos.Cliente;
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+// Formato original de los archivos de datos, implementado en XMLUtils
+public class FormatoXML implements FormatoSnapshot {
+
+    @Override
+    public String getNombre() {
+        return "xml";
+    }
+
+    @Override
+    public String getExtension() {
+        return ".xml";
+    }
+
+    @Override
+    public List<Cliente> leerClientes(String rutaArchivo) {
+        return XMLUtils.leerClientesDesdeArchivoXML(rutaArchivo);
+    }
+
+    @Override
+    public Map<Long, List<Cuenta>> leerCuentas(String rutaArchivo) {
+        return XMLUtils.leerCuentasDesdeArchivoXML(rutaArchivo);
+    }
+
+    @Override
+    public List<Transaccion> leerTransacciones(String rutaArchivo) {
+        return XMLUtils.leerTransaccionesDesdeArchivoXML(rutaArchivo);
+    }
+
+    @Override
+    public void escribirClientes(List<Cliente> clientes, String rutaArchivo) throws IOException {
+        XMLUtils.escribirClientesAArchivoXML(clientes, rutaArchivo);
+    }
+
+    @Override
+    public void escribirCuentas(List<Cuenta> cuentas, String rutaArchivo) throws IOException {
+        XMLUtils.escribirCuentasAArchivoXML(cuentas, rutaArchivo);
+    }
+
+    @Override
+    public void escribirTransacciones(List<Transaccion> transacciones, String rutaArchivo) throws IOException {
+        XMLUtils.escribirTransaccionesAArchivoXML(transacciones, rutaArchivo);
+    }
+
+    @Override
+    public void agregarTransacciones(List<Transaccion> transacciones, String rutaArchivo) throws IOException {
+        XMLUtils.agregarTransaccionesAArchivoXML(transacciones, rutaArchivo);
+    }
+}
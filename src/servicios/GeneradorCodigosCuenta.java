@@ -0,0 +1,115 @@
+package servicios;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.function.IntSupplier;
+
+/**
+ * Entrega los números de las cuentas nuevas ({@code "cta-" + n}) reservando
+ * bloques en disco. Antes de entregar el primer número de un bloque se guarda
+ * el mayor número reservado, así que después de una caída se sigue desde el
+ * final del bloque y nunca se repite un código (a lo sumo quedan números sin
+ * usar). Al cerrar se guarda el último número entregado para no dejar huecos.
+ *
+ * El tamaño del bloque se configura con -Dbanco.codigos.bloque (por defecto
+ * 64).
+ */
+public class GeneradorCodigosCuenta implements IntSupplier {
+    public static final String PREFIJO = "cta-";
+    private static final String SUFIJO_TEMPORAL = ".tmp";
+
+    private final File archivo;
+    private final int tamanoBloque;
+    // Último número entregado y mayor número reservado en disco
+    private int ultimo;
+    private int reservado;
+    private boolean iniciado;
+
+    public GeneradorCodigosCuenta(String ruta) {
+        this.archivo = new File(ruta);
+        this.tamanoBloque = Math.max(1, Configuracion.obtenerEntero("banco.codigos.bloque", 64));
+    }
+
+    /**
+     * Continúa después del mayor número guardado o cargado, lo que sea mayor.
+     * Los datos anteriores a este archivo solo tienen los códigos cargados.
+     */
+    public synchronized void iniciar(int mayorCargado) {
+        int guardado = 0;
+        if (archivo.exists()) {
+            try {
+                String texto = new String(Files.readAllBytes(archivo.toPath()), StandardCharsets.UTF_8);
+                guardado = Integer.parseInt(texto.trim());
+            } catch (IOException | NumberFormatException e) {
+                System.err.println("Advertencia: no se pudo leer " + archivo + ": " + e.getMessage()
+                        + ". Se continúa desde el mayor código cargado.");
+            }
+        }
+        ultimo = Math.max(guardado, mayorCargado);
+        reservado = ultimo;
+        iniciado = true;
+    }
+
+    @Override
+    public synchronized int getAsInt() {
+        if (ultimo >= reservado) {
+            try {
+                guardar(ultimo + tamanoBloque);
+            } catch (IOException e) {
+                throw new IllegalStateException("No se pudo reservar códigos de cuenta: " + e.getMessage(), e);
+            }
+            reservado = ultimo + tamanoBloque;
+        }
+        return ++ultimo;
+    }
+
+    // Devuelve el resto del bloque guardando el último número entregado
+    public synchronized void cerrar() {
+        if (!iniciado) {
+            return;
+        }
+        try {
+            guardar(ultimo);
+            reservado = ultimo;
+        } catch (IOException e) {
+            System.err.println("Error al guardar el último código de cuenta: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Número de un código {@code cta-N}, o -1 si el código no tiene esa forma
+     * (incluidos los ceros a la izquierda, para que cada número tenga un solo
+     * código).
+     */
+    public static int numero(String codigo) {
+        int largo = codigo == null ? 0 : codigo.length();
+        if (largo <= PREFIJO.length() || largo > PREFIJO.length() + 9 || !codigo.startsWith(PREFIJO)
+                || codigo.charAt(PREFIJO.length()) == '0') {
+            return -1;
+        }
+        int numero = 0;
+        for (int i = PREFIJO.length(); i < largo; i++) {
+            char c = codigo.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            numero = numero * 10 + (c - '0');
+        }
+        return numero;
+    }
+
+    private void guardar(int valor) throws IOException {
+        if (archivo.getParentFile() != null && !archivo.getParentFile().exists()) {
+            archivo.getParentFile().mkdirs();
+        }
+        String temporal = archivo.getPath() + SUFIJO_TEMPORAL;
+        try (FileOutputStream salida = new FileOutputStream(temporal)) {
+            salida.write(Integer.toString(valor).getBytes(StandardCharsets.UTF_8));
+            salida.getChannel().force(true);
+        }
+        RepositorioArchivos.reemplazarAtomicamente(temporal, archivo.getPath());
+    }
+}
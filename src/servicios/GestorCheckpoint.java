@@ -0,0 +1,91 @@
+package servicios;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ejecuta checkpoints (instantánea + truncado de la bitácora) cada cierto
+ * tiempo o después de una cantidad de mutaciones, lo que ocurra primero. Así
+ * la bitácora que hay que reproducir al reiniciar se mantiene acotada sin
+ * importar cuánto tiempo lleve el proceso en ejecución.
+ */
+public class GestorCheckpoint {
+
+    private final Runnable checkpoint;
+    private final long intervaloSegundos;
+    private final int umbralMutaciones;
+
+    private final AtomicInteger mutacionesPendientes = new AtomicInteger();
+    private final AtomicBoolean enCurso = new AtomicBoolean(false);
+    private ScheduledExecutorService programador;
+
+    /**
+     * @param checkpoint        acción que escribe la instantánea y trunca la bitácora
+     * @param intervaloSegundos cada cuánto se ejecuta (0 = sin programación por tiempo)
+     * @param umbralMutaciones  mutaciones que disparan un checkpoint (0 = sin umbral)
+     */
+    public GestorCheckpoint(Runnable checkpoint, long intervaloSegundos, int umbralMutaciones) {
+        this.checkpoint = checkpoint;
+        this.intervaloSegundos = intervaloSegundos;
+        this.umbralMutaciones = umbralMutaciones;
+    }
+
+    public synchronized void iniciar() {
+        if (programador != null) {
+            return;
+        }
+        programador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread hilo = new Thread(r, "checkpoint");
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        if (intervaloSegundos > 0) {
+            programador.scheduleWithFixedDelay(this::ejecutar, intervaloSegundos, intervaloSegundos,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    // Se llama después de cada mutación registrada
+    public void registrarMutacion() {
+        if (umbralMutaciones > 0 && mutacionesPendientes.incrementAndGet() >= umbralMutaciones
+                && !enCurso.get()) {
+            ScheduledExecutorService actual;
+            synchronized (this) {
+                actual = programador;
+            }
+            if (actual != null) {
+                actual.execute(this::ejecutar);
+            }
+        }
+    }
+
+    private void ejecutar() {
+        if (!enCurso.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            mutacionesPendientes.set(0);
+            checkpoint.run();
+        } catch (RuntimeException e) {
+            System.err.println("Error durante el checkpoint: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            enCurso.set(false);
+        }
+    }
+
+    public synchronized void detener() {
+        if (programador != null) {
+            programador.shutdown();
+            try {
+                programador.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            programador = null;
+        }
+    }
+}
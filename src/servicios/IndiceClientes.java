@@ -0,0 +1,137 @@
+package servicios;
+
+import java.util.List;
+
+import modelos.Cliente;
+
+/**
+ * Índice de clientes por identificación con direccionamiento abierto y
+ * sondeo lineal sobre arreglos de {@code long}, sin crear un {@code Long} por
+ * cliente ni por búsqueda. Una posición está libre si su cliente es null, así
+ * que cualquier identificación (incluido 0) es una llave válida.
+ *
+ * Los clientes no se eliminan del sistema; solo se quita el de un alta que
+ * no quedó en la bitácora, corriendo hacia atrás los que venían después en
+ * su secuencia de sondeo para no dejar huecos.
+ */
+public class IndiceClientes {
+    private static final int CAPACIDAD_INICIAL = 16;
+
+    private long[] identificaciones;
+    private Cliente[] clientes;
+    private int cantidad;
+
+    public IndiceClientes() {
+        this(0);
+    }
+
+    public IndiceClientes(int esperados) {
+        int capacidad = CAPACIDAD_INICIAL;
+        // Factor de carga máximo de 1/2
+        while (capacidad < esperados * 2L) {
+            capacidad <<= 1;
+        }
+        identificaciones = new long[capacidad];
+        clientes = new Cliente[capacidad];
+    }
+
+    public synchronized Cliente buscar(long identificacion) {
+        int mascara = clientes.length - 1;
+        for (int i = posicion(identificacion, mascara);; i = (i + 1) & mascara) {
+            Cliente cliente = clientes[i];
+            if (cliente == null || identificaciones[i] == identificacion) {
+                return cliente;
+            }
+        }
+    }
+
+    /**
+     * Agrega el cliente si su identificación no está en el índice.
+     *
+     * @return false si ya había un cliente con esa identificación
+     */
+    public synchronized boolean agregar(Cliente cliente) {
+        long identificacion = cliente.getIdentificacion();
+        int mascara = clientes.length - 1;
+        int i = posicion(identificacion, mascara);
+        while (clientes[i] != null) {
+            if (identificaciones[i] == identificacion) {
+                return false;
+            }
+            i = (i + 1) & mascara;
+        }
+        identificaciones[i] = identificacion;
+        clientes[i] = cliente;
+        if (++cantidad * 2 > clientes.length) {
+            crecer();
+        }
+        return true;
+    }
+
+    /**
+     * Quita el cliente si es el que está indexado con su identificación.
+     *
+     * @return false si no estaba
+     */
+    public synchronized boolean quitar(Cliente cliente) {
+        int mascara = clientes.length - 1;
+        int i = posicion(cliente.getIdentificacion(), mascara);
+        while (clientes[i] != cliente) {
+            if (clientes[i] == null) {
+                return false;
+            }
+            i = (i + 1) & mascara;
+        }
+        // Cada siguiente de la secuencia se mueve al hueco si su posición ideal no queda entre el hueco y él
+        int hueco = i;
+        for (int j = (i + 1) & mascara; clientes[j] != null; j = (j + 1) & mascara) {
+            int ideal = posicion(identificaciones[j], mascara);
+            if (((j - ideal) & mascara) >= ((j - hueco) & mascara)) {
+                identificaciones[hueco] = identificaciones[j];
+                clientes[hueco] = clientes[j];
+                hueco = j;
+            }
+        }
+        clientes[hueco] = null;
+        cantidad--;
+        return true;
+    }
+
+    public synchronized void reconstruir(List<Cliente> lista) {
+        IndiceClientes nuevo = new IndiceClientes(lista.size());
+        for (Cliente cliente : lista) {
+            nuevo.agregar(cliente);
+        }
+        identificaciones = nuevo.identificaciones;
+        clientes = nuevo.clientes;
+        cantidad = nuevo.cantidad;
+    }
+
+    public synchronized int getCantidad() {
+        return cantidad;
+    }
+
+    private void crecer() {
+        long[] anterioresIds = identificaciones;
+        Cliente[] anteriores = clientes;
+        identificaciones = new long[anteriores.length * 2];
+        clientes = new Cliente[anteriores.length * 2];
+        int mascara = clientes.length - 1;
+        for (int j = 0; j < anteriores.length; j++) {
+            if (anteriores[j] != null) {
+                int i = posicion(anterioresIds[j], mascara);
+                while (clientes[i] != null) {
+                    i = (i + 1) & mascara;
+                }
+                identificaciones[i] = anterioresIds[j];
+                clientes[i] = anteriores[j];
+            }
+        }
+    }
+
+    // Mezcla los bits para que identificaciones consecutivas no queden juntas
+    private static int posicion(long identificacion, int mascara) {
+        long h = identificacion * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mascara;
+    }
+}
@@ -0,0 +1,130 @@
+package servicios;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import modelos.Cliente;
+
+/**
+ * Índices secundarios de los clientes por número de teléfono y por correo
+ * electrónico. Los teléfonos se comparan sin espacios ni guiones y los
+ * correos sin distinguir mayúsculas.
+ *
+ * Los datos anteriores pueden tener teléfonos o correos repetidos, así que
+ * cada llave guarda una lista; las altas y los cambios nuevos no pueden usar
+ * un teléfono o correo que ya tenga otro cliente.
+ */
+public class IndiceContactos {
+    private final Map<String, List<Cliente>> porTelefono = new HashMap<>();
+    private final Map<String, List<Cliente>> porCorreo = new HashMap<>();
+
+    public synchronized void reconstruir(List<Cliente> clientes) {
+        porTelefono.clear();
+        porCorreo.clear();
+        for (Cliente cliente : clientes) {
+            indexar(porTelefono, llaveTelefono(cliente.getNumTelefono()), cliente);
+            indexar(porCorreo, llaveCorreo(cliente.getCorreoElectronico()), cliente);
+        }
+    }
+
+    /**
+     * Indexa un cliente nuevo. Igual que con los cambios de teléfono o correo,
+     * quien lo llama sincroniza sobre el índice desde que verifica que el
+     * teléfono y el correo están libres hasta este aviso.
+     */
+    public synchronized void agregar(Cliente cliente) {
+        indexar(porTelefono, llaveTelefono(cliente.getNumTelefono()), cliente);
+        indexar(porCorreo, llaveCorreo(cliente.getCorreoElectronico()), cliente);
+    }
+
+    // Deshace el alta de un cliente que no quedó en la bitácora
+    public synchronized void quitar(Cliente cliente) {
+        quitar(porTelefono, llaveTelefono(cliente.getNumTelefono()), cliente);
+        quitar(porCorreo, llaveCorreo(cliente.getCorreoElectronico()), cliente);
+    }
+
+    public synchronized List<Cliente> buscarPorTelefono(String telefono) {
+        return copia(porTelefono.get(llaveTelefono(telefono)));
+    }
+
+    public synchronized List<Cliente> buscarPorCorreo(String correo) {
+        return copia(porCorreo.get(llaveCorreo(correo)));
+    }
+
+    // Libre si nadie lo usa o si solo lo usa el mismo cliente
+    public synchronized boolean telefonoDisponible(String telefono, Cliente cliente) {
+        return disponible(porTelefono, llaveTelefono(telefono), cliente);
+    }
+
+    public synchronized boolean correoDisponible(String correo, Cliente cliente) {
+        return disponible(porCorreo, llaveCorreo(correo), cliente);
+    }
+
+    /**
+     * Reindexa al cliente después de cambiarle el teléfono. Quien lo llama
+     * sincroniza sobre el índice desde la verificación hasta este aviso, para
+     * que otro cliente no tome el mismo teléfono en medio.
+     */
+    public synchronized void telefonoCambiado(Cliente cliente, String anterior) {
+        quitar(porTelefono, llaveTelefono(anterior), cliente);
+        indexar(porTelefono, llaveTelefono(cliente.getNumTelefono()), cliente);
+    }
+
+    public synchronized void correoCambiado(Cliente cliente, String anterior) {
+        quitar(porCorreo, llaveCorreo(anterior), cliente);
+        indexar(porCorreo, llaveCorreo(cliente.getCorreoElectronico()), cliente);
+    }
+
+    private static boolean disponible(Map<String, List<Cliente>> indice, String llave, Cliente cliente) {
+        List<Cliente> clientes = llave == null ? null : indice.get(llave);
+        if (clientes == null) {
+            return true;
+        }
+        for (Cliente otro : clientes) {
+            if (otro != cliente) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void indexar(Map<String, List<Cliente>> indice, String llave, Cliente cliente) {
+        if (llave != null) {
+            indice.computeIfAbsent(llave, k -> new ArrayList<>(1)).add(cliente);
+        }
+    }
+
+    private static void quitar(Map<String, List<Cliente>> indice, String llave, Cliente cliente) {
+        List<Cliente> clientes = llave == null ? null : indice.get(llave);
+        if (clientes != null) {
+            clientes.remove(cliente);
+            if (clientes.isEmpty()) {
+                indice.remove(llave);
+            }
+        }
+    }
+
+    private static List<Cliente> copia(List<Cliente> clientes) {
+        return clientes == null ? Collections.emptyList() : new ArrayList<>(clientes);
+    }
+
+    private static String llaveTelefono(String telefono) {
+        if (telefono == null) {
+            return null;
+        }
+        String llave = telefono.replaceAll("[\\s-]", "");
+        return llave.isEmpty() ? null : llave;
+    }
+
+    private static String llaveCorreo(String correo) {
+        if (correo == null) {
+            return null;
+        }
+        String llave = correo.trim().toLowerCase(Locale.ROOT);
+        return llave.isEmpty() ? null : llave;
+    }
+}
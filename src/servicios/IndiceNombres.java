@@ -0,0 +1,84 @@
+package servicios;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import modelos.Cliente;
+
+/**
+ * Clientes ordenados por nombre sin distinguir mayúsculas, en una skip list
+ * que se puede leer sin candado mientras se agregan clientes. La llave es el
+ * nombre en minúsculas seguido de la identificación, para que los nombres
+ * repetidos no se pisen.
+ *
+ * Las páginas continúan después de un cliente (el último de la página
+ * anterior) en lugar de contar posiciones, así que cada página cuesta
+ * O(log n + k) sin importar qué tan adelante esté.
+ */
+public class IndiceNombres {
+    private static final char SEPARADOR = '\u0000';
+    private static final char MAXIMO = '\uffff';
+
+    private final ConcurrentSkipListMap<String, Cliente> clientesPorNombre = new ConcurrentSkipListMap<>();
+
+    public void reconstruir(List<Cliente> clientes) {
+        clientesPorNombre.clear();
+        for (Cliente cliente : clientes) {
+            agregar(cliente);
+        }
+    }
+
+    public void agregar(Cliente cliente) {
+        clientesPorNombre.put(llave(cliente), cliente);
+    }
+
+    public void quitar(Cliente cliente) {
+        clientesPorNombre.remove(llave(cliente), cliente);
+    }
+
+    /**
+     * Devuelve hasta {@code cantidad} clientes en orden de nombre, empezando
+     * después de {@code despues} (o desde el principio si es null).
+     */
+    public List<Cliente> listar(Cliente despues, int cantidad) {
+        NavigableMap<String, Cliente> rango = despues == null ? clientesPorNombre
+                : clientesPorNombre.tailMap(llave(despues), false);
+        return primeros(rango, cantidad);
+    }
+
+    // Igual que listar, pero solo con los clientes cuyo nombre empieza con el prefijo
+    public List<Cliente> buscarPorPrefijo(String prefijo, Cliente despues, int cantidad) {
+        String inicio = normalizar(prefijo);
+        NavigableMap<String, Cliente> rango = clientesPorNombre.subMap(inicio, true, inicio + MAXIMO, false);
+        if (despues != null) {
+            rango = rango.tailMap(llave(despues), false);
+        }
+        return primeros(rango, cantidad);
+    }
+
+    public int getCantidad() {
+        return clientesPorNombre.size();
+    }
+
+    private static List<Cliente> primeros(NavigableMap<String, Cliente> rango, int cantidad) {
+        List<Cliente> resultado = new ArrayList<>();
+        for (Cliente cliente : rango.values()) {
+            if (resultado.size() >= cantidad) {
+                break;
+            }
+            resultado.add(cliente);
+        }
+        return resultado;
+    }
+
+    private static String llave(Cliente cliente) {
+        return normalizar(cliente.getNombre()) + SEPARADOR + cliente.getIdentificacion();
+    }
+
+    private static String normalizar(String nombre) {
+        return nombre == null ? "" : nombre.toLowerCase(Locale.ROOT);
+    }
+}
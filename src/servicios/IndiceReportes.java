@@ -0,0 +1,207 @@
+package servicios;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Índice de todas las transacciones del banco para reportes. Cada
+ * transacción recibe un número de secuencia global y aparece en un
+ * {@link MapaBits} por tipo, otro por día y otro por cuenta; filtrar es
+ * intersecar mapas y contar es sumar bits, sin recorrer clientes, cuentas
+ * ni historiales.
+ *
+ * El índice se pone al día por cuenta: guarda cuántas transacciones de cada
+ * historial ya indexó y, cuando una cuenta tiene movimientos nuevos, lee solo
+ * las que siguen. Como el historial solo crece al final (lo archivado es
+ * siempre el principio), una transacción nunca se indexa dos veces. Las
+ * cuentas eliminadas se descartan quitando sus bits del mapa de
+ * transacciones vigentes.
+ *
+ * Al cargar, lo archivado de todas las cuentas se indexa de una sola pasada
+ * por el repositorio (ver {@link #indexarArchivadas}); después cada cuenta
+ * solo aporta lo que tiene en memoria.
+ */
+public class IndiceReportes {
+    private final Map<String, MapaBits> porTipo = new HashMap<>();
+    private final TreeMap<LocalDate, MapaBits> porDia = new TreeMap<>();
+    private final Map<String, MapaBits> porCuenta = new HashMap<>();
+    private final Map<String, Integer> indexadas = new HashMap<>();
+    private MapaBits vigentes = new MapaBits();
+    private double[] montos = new double[1024];
+    private double[] comisiones = new double[1024];
+    private int siguienteSecuencia;
+    // Cuentas cargadas cuyo historial archivado todavía no se recorrió
+    private final Set<String> sinRecorrer = new HashSet<>();
+
+    // Los avisos llegan con el candado de PersistenciaDatos tomado, así que no usan el del índice
+    private final Set<Cuenta> pendientes = ConcurrentHashMap.newKeySet();
+    private final Queue<Cuenta> descartadas = new ConcurrentLinkedQueue<>();
+
+    // Vacía el índice y deja todas las cuentas pendientes de indexar
+    public synchronized void reiniciar(Collection<Cuenta> cuentas) {
+        porTipo.clear();
+        porDia.clear();
+        porCuenta.clear();
+        indexadas.clear();
+        vigentes = new MapaBits();
+        siguienteSecuencia = 0;
+        descartadas.clear();
+        pendientes.clear();
+        pendientes.addAll(cuentas);
+        sinRecorrer.clear();
+        for (Cuenta cuenta : cuentas) {
+            sinRecorrer.add(cuenta.getCodigo());
+        }
+    }
+
+    // La cuenta tiene transacciones nuevas
+    public void marcarPendiente(Cuenta cuenta) {
+        pendientes.add(cuenta);
+    }
+
+    // La cuenta perdió su historial; se vuelve a indexar desde cero
+    public void descartar(Cuenta cuenta) {
+        descartadas.add(cuenta);
+    }
+
+    /**
+     * Indexa de una pasada lo archivado de las cuentas cargadas, en lugar de
+     * leer el historial de cada una. {@code recorrido} entrega las
+     * transacciones archivadas de todas las cuentas, las de cada cuenta en el
+     * orden de su historial. Se saltan las cuentas que una consulta ya puso
+     * al día y las transacciones de cuentas que no existen.
+     */
+    public synchronized void indexarArchivadas(Consumer<Consumer<Transaccion>> recorrido) {
+        sinRecorrer.removeAll(indexadas.keySet());
+        recorrido.accept(transaccion -> {
+            String codigo = transaccion.getCodigoCuenta();
+            if (sinRecorrer.contains(codigo)) {
+                agregar(transaccion, porCuenta.computeIfAbsent(codigo, k -> new MapaBits()));
+                indexadas.merge(codigo, 1, Integer::sum);
+            }
+        });
+        sinRecorrer.clear();
+    }
+
+    /**
+     * Indexa las transacciones que faltan de las cuentas pendientes.
+     * {@code lector} devuelve el historial de una cuenta desde una posición.
+     */
+    public synchronized void ponerAlDia(BiFunction<Cuenta, Integer, List<Transaccion>> lector) {
+        for (Cuenta cuenta = descartadas.poll(); cuenta != null; cuenta = descartadas.poll()) {
+            MapaBits deCuenta = porCuenta.remove(cuenta.getCodigo());
+            if (deCuenta != null) {
+                vigentes = vigentes.sin(deCuenta);
+            }
+            indexadas.remove(cuenta.getCodigo());
+            pendientes.add(cuenta);
+        }
+        for (Cuenta cuenta : pendientes) {
+            // Se quita antes de leer para que un movimiento que llegue mientras tanto la vuelva a marcar
+            pendientes.remove(cuenta);
+            try {
+                indexar(cuenta, lector);
+            } catch (RuntimeException e) {
+                pendientes.add(cuenta);
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Resume las transacciones vigentes de los tipos indicados (todos si es
+     * null), con fecha entre {@code desde} y {@code hasta} (incluidas, sin
+     * límite si son null) y de la cuenta indicada (todas si es null).
+     */
+    public synchronized Map<String, ResumenTransacciones> consultar(Collection<String> tipos, LocalDate desde,
+            LocalDate hasta, String codigoCuenta) {
+        MapaBits filtro = vigentes;
+        if (codigoCuenta != null) {
+            filtro = filtro.y(porCuenta.getOrDefault(codigoCuenta, new MapaBits()));
+        }
+        if (!porDia.isEmpty() && (desde != null && desde.isAfter(porDia.firstKey())
+                || hasta != null && hasta.isBefore(porDia.lastKey()))) {
+            filtro = filtro.y(dias(desde, hasta));
+        }
+
+        Map<String, ResumenTransacciones> resumen = new LinkedHashMap<>();
+        for (String tipo : tipos != null ? tipos : porTipo.keySet()) {
+            MapaBits deTipo = porTipo.get(tipo);
+            resumen.put(tipo, deTipo == null ? new ResumenTransacciones(0, 0, 0) : resumir(deTipo.y(filtro)));
+        }
+        return resumen;
+    }
+
+    private void indexar(Cuenta cuenta, BiFunction<Cuenta, Integer, List<Transaccion>> lector) {
+        String codigo = cuenta.getCodigo();
+        int desde = indexadas.getOrDefault(codigo, 0);
+        if (cuenta.getCantidadTransacciones() <= desde) {
+            return;
+        }
+        List<Transaccion> nuevas = lector.apply(cuenta, desde);
+        MapaBits deCuenta = porCuenta.computeIfAbsent(codigo, k -> new MapaBits());
+        for (Transaccion transaccion : nuevas) {
+            agregar(transaccion, deCuenta);
+        }
+        indexadas.put(codigo, desde + nuevas.size());
+    }
+
+    private void agregar(Transaccion transaccion, MapaBits deCuenta) {
+        int secuencia = siguienteSecuencia++;
+        if (secuencia == montos.length) {
+            montos = Arrays.copyOf(montos, secuencia * 2);
+            comisiones = Arrays.copyOf(comisiones, secuencia * 2);
+        }
+        montos[secuencia] = transaccion.getMonto();
+        comisiones[secuencia] = transaccion.getMontoComision();
+        if (transaccion.getTipo() != null) {
+            porTipo.computeIfAbsent(transaccion.getTipo(), k -> new MapaBits()).agregar(secuencia);
+        }
+        if (transaccion.getFecha() != null) {
+            porDia.computeIfAbsent(transaccion.getFecha(), k -> new MapaBits()).agregar(secuencia);
+        }
+        deCuenta.agregar(secuencia);
+        vigentes.agregar(secuencia);
+    }
+
+    private MapaBits dias(LocalDate desde, LocalDate hasta) {
+        NavigableMap<LocalDate, MapaBits> rango = porDia;
+        if (desde != null) {
+            rango = rango.tailMap(desde, true);
+        }
+        if (hasta != null) {
+            rango = rango.headMap(hasta, true);
+        }
+        MapaBits resultado = new MapaBits();
+        for (MapaBits dia : rango.values()) {
+            resultado = resultado.o(dia);
+        }
+        return resultado;
+    }
+
+    private ResumenTransacciones resumir(MapaBits seleccion) {
+        double[] monto = new double[2];
+        seleccion.recorrer(secuencia -> {
+            monto[0] += montos[secuencia];
+            monto[1] += comisiones[secuencia];
+        });
+        return new ResumenTransacciones(seleccion.getCantidad(), monto[0], monto[1]);
+    }
+}
@@ -0,0 +1,233 @@
+package servicios;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import modelos.Cuenta;
+
+/**
+ * Cuentas ordenadas por (saldo, código) en un treap donde cada nodo guarda
+ * el tamaño de su subárbol. Insertar, quitar y ubicar la cuenta en una
+ * posición cuestan O(log n); una página de k cuentas desde cualquier
+ * posición, en cualquiera de los dos sentidos, cuesta O(log n + k).
+ *
+ * Cada nodo guarda el saldo con el que se insertó, así que al cambiar el
+ * saldo de una cuenta basta con avisar con {@link #actualizar} para moverla.
+ *
+ * Los depósitos y retiros avisan con {@link #marcarCambio}, que no toma el
+ * candado del índice: solo anota la cuenta, y las cuentas anotadas se
+ * reubican todas juntas antes de la siguiente consulta. Así el candado del
+ * índice nunca se toma dentro de la operación sobre una cuenta.
+ */
+public class IndiceSaldos {
+    private static class Nodo {
+        final Cuenta cuenta;
+        final String codigo;
+        final double saldo;
+        final int prioridad = ThreadLocalRandom.current().nextInt();
+        int tamano = 1;
+        Nodo izquierdo;
+        Nodo derecho;
+
+        Nodo(Cuenta cuenta) {
+            this.cuenta = cuenta;
+            this.codigo = cuenta.getCodigo();
+            this.saldo = cuenta.getSaldo();
+        }
+    }
+
+    private Nodo raiz;
+    private final Map<Cuenta, Nodo> nodos = new IdentityHashMap<>();
+    // Cuentas con el saldo cambiado que todavía no se reubicaron
+    private final Set<Cuenta> cambiadas = ConcurrentHashMap.newKeySet();
+
+    public synchronized void reconstruir(List<Cuenta> cuentas) {
+        // Las cuentas se insertan con su saldo actual, así que lo anotado ya no hace falta
+        cambiadas.clear();
+        raiz = null;
+        nodos.clear();
+        for (Cuenta cuenta : cuentas) {
+            agregar(cuenta);
+        }
+    }
+
+    public synchronized void agregar(Cuenta cuenta) {
+        aplicarCambios();
+        if (nodos.containsKey(cuenta)) {
+            actualizar(cuenta);
+            return;
+        }
+        insertar(new Nodo(cuenta));
+    }
+
+    // Vuelve a ubicar la cuenta según su saldo actual; las cuentas que no están en el índice se ignoran
+    public synchronized void actualizar(Cuenta cuenta) {
+        Nodo anterior = nodos.get(cuenta);
+        if (anterior == null || Double.compare(anterior.saldo, cuenta.getSaldo()) == 0) {
+            return;
+        }
+        raiz = quitar(raiz, anterior);
+        insertar(new Nodo(cuenta));
+    }
+
+    // Saca la cuenta del índice, por ejemplo si su alta no quedó en la bitácora
+    public synchronized void quitar(Cuenta cuenta) {
+        aplicarCambios();
+        Nodo nodo = nodos.get(cuenta);
+        if (nodo != null) {
+            raiz = quitar(raiz, nodo);
+        }
+    }
+
+    // Anota que cambió el saldo de la cuenta; se reubica antes de la próxima consulta
+    public void marcarCambio(Cuenta cuenta) {
+        cambiadas.add(cuenta);
+    }
+
+    public synchronized int getCantidad() {
+        aplicarCambios();
+        return tamano(raiz);
+    }
+
+    /**
+     * Devuelve hasta {@code cantidad} cuentas a partir de la posición
+     * {@code desde}, de menor a mayor saldo o al revés.
+     */
+    public synchronized List<Cuenta> pagina(int desde, int cantidad, boolean descendente) {
+        aplicarCambios();
+        int total = tamano(raiz);
+        if (desde < 0 || desde >= total || cantidad <= 0) {
+            return new ArrayList<>();
+        }
+        List<Cuenta> resultado = new ArrayList<>(Math.min(cantidad, total - desde));
+
+        // Bajar hasta la posición dejando en la pila los nodos que faltan por visitar
+        Deque<Nodo> pendientes = new ArrayDeque<>();
+        Nodo nodo = raiz;
+        int posicion = desde;
+        while (nodo != null) {
+            int antes = tamano(primero(nodo, descendente));
+            if (posicion < antes) {
+                pendientes.push(nodo);
+                nodo = primero(nodo, descendente);
+            } else if (posicion == antes) {
+                pendientes.push(nodo);
+                break;
+            } else {
+                posicion -= antes + 1;
+                nodo = segundo(nodo, descendente);
+            }
+        }
+
+        while (!pendientes.isEmpty() && resultado.size() < cantidad) {
+            Nodo actual = pendientes.pop();
+            resultado.add(actual.cuenta);
+            for (Nodo siguiente = segundo(actual, descendente); siguiente != null; siguiente = primero(siguiente,
+                    descendente)) {
+                pendientes.push(siguiente);
+            }
+        }
+        return resultado;
+    }
+
+    // Se quita la marca antes de leer el saldo: un cambio posterior vuelve a marcar la cuenta
+    private void aplicarCambios() {
+        for (Iterator<Cuenta> iterador = cambiadas.iterator(); iterador.hasNext();) {
+            Cuenta cuenta = iterador.next();
+            iterador.remove();
+            actualizar(cuenta);
+        }
+    }
+
+    private void insertar(Nodo nuevo) {
+        nodos.put(nuevo.cuenta, nuevo);
+        Nodo[] partes = dividir(raiz, nuevo);
+        raiz = unir(unir(partes[0], nuevo), partes[1]);
+    }
+
+    // Separa en los nodos menores que la llave y los mayores o iguales
+    private static Nodo[] dividir(Nodo nodo, Nodo llave) {
+        if (nodo == null) {
+            return new Nodo[] { null, null };
+        }
+        if (comparar(nodo, llave) < 0) {
+            Nodo[] partes = dividir(nodo.derecho, llave);
+            nodo.derecho = partes[0];
+            recalcular(nodo);
+            partes[0] = nodo;
+            return partes;
+        }
+        Nodo[] partes = dividir(nodo.izquierdo, llave);
+        nodo.izquierdo = partes[1];
+        recalcular(nodo);
+        partes[1] = nodo;
+        return partes;
+    }
+
+    // Une dos árboles donde todo lo de la izquierda es menor que lo de la derecha
+    private static Nodo unir(Nodo izquierdo, Nodo derecho) {
+        if (izquierdo == null) {
+            return derecho;
+        }
+        if (derecho == null) {
+            return izquierdo;
+        }
+        if (izquierdo.prioridad > derecho.prioridad) {
+            izquierdo.derecho = unir(izquierdo.derecho, derecho);
+            recalcular(izquierdo);
+            return izquierdo;
+        }
+        derecho.izquierdo = unir(izquierdo, derecho.izquierdo);
+        recalcular(derecho);
+        return derecho;
+    }
+
+    private Nodo quitar(Nodo nodo, Nodo objetivo) {
+        if (nodo == null) {
+            return null;
+        }
+        if (nodo == objetivo) {
+            nodos.remove(objetivo.cuenta);
+            return unir(nodo.izquierdo, nodo.derecho);
+        }
+        int comparacion = comparar(objetivo, nodo);
+        if (comparacion <= 0) {
+            nodo.izquierdo = quitar(nodo.izquierdo, objetivo);
+        }
+        // Con llaves iguales (dos cuentas con el mismo código) puede estar de cualquier lado
+        if (comparacion > 0 || (comparacion == 0 && nodos.containsKey(objetivo.cuenta))) {
+            nodo.derecho = quitar(nodo.derecho, objetivo);
+        }
+        recalcular(nodo);
+        return nodo;
+    }
+
+    private static int comparar(Nodo a, Nodo b) {
+        int porSaldo = Double.compare(a.saldo, b.saldo);
+        return porSaldo != 0 ? porSaldo : a.codigo.compareTo(b.codigo);
+    }
+
+    private static Nodo primero(Nodo nodo, boolean descendente) {
+        return descendente ? nodo.derecho : nodo.izquierdo;
+    }
+
+    private static Nodo segundo(Nodo nodo, boolean descendente) {
+        return descendente ? nodo.izquierdo : nodo.derecho;
+    }
+
+    private static int tamano(Nodo nodo) {
+        return nodo == null ? 0 : nodo.tamano;
+    }
+
+    private static void recalcular(Nodo nodo) {
+        nodo.tamano = 1 + tamano(nodo.izquierdo) + tamano(nodo.derecho);
+    }
+}
@@ -0,0 +1,306 @@
+package servicios;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Conjunto comprimido de enteros no negativos, al estilo de los mapas de bits
+ * "roaring": los números se agrupan por sus 16 bits altos y cada grupo se
+ * guarda como un arreglo ordenado mientras tiene pocos elementos, o como un
+ * mapa de 65536 bits cuando tiene muchos. La intersección, la unión y la
+ * diferencia trabajan grupo por grupo, y contar es sumar las cantidades (o
+ * hacer popcount sobre los mapas).
+ *
+ * No es seguro para usar desde varios hilos; {@link IndiceReportes} lo
+ * protege con su candado.
+ */
+public class MapaBits {
+    // A partir de esta cantidad un grupo ocupa menos como mapa de bits
+    private static final int LIMITE_ARREGLO = 4096;
+    private static final int PALABRAS = 65536 / 64;
+
+    private int[] claves = new int[4];
+    private Grupo[] grupos = new Grupo[4];
+    private int tamano;
+
+    private static final class Grupo {
+        char[] valores;
+        long[] bits;
+        int cantidad;
+
+        static Grupo arreglo(char[] valores, int cantidad) {
+            Grupo grupo = new Grupo();
+            grupo.valores = valores;
+            grupo.cantidad = cantidad;
+            return grupo;
+        }
+
+        static Grupo mapa(long[] bits) {
+            int cantidad = 0;
+            for (long palabra : bits) {
+                cantidad += Long.bitCount(palabra);
+            }
+            if (cantidad == 0) {
+                return null;
+            }
+            if (cantidad <= LIMITE_ARREGLO) {
+                char[] valores = new char[cantidad];
+                int n = 0;
+                for (int i = 0; i < PALABRAS; i++) {
+                    for (long palabra = bits[i]; palabra != 0; palabra &= palabra - 1) {
+                        valores[n++] = (char) (i * 64 + Long.numberOfTrailingZeros(palabra));
+                    }
+                }
+                return arreglo(valores, cantidad);
+            }
+            Grupo grupo = new Grupo();
+            grupo.bits = bits;
+            grupo.cantidad = cantidad;
+            return grupo;
+        }
+
+        void agregar(char valor) {
+            if (bits != null) {
+                long mascara = 1L << valor;
+                if ((bits[valor >>> 6] & mascara) == 0) {
+                    bits[valor >>> 6] |= mascara;
+                    cantidad++;
+                }
+                return;
+            }
+            // Lo normal es agregar en orden creciente, al final del arreglo
+            int posicion = cantidad > 0 && valores[cantidad - 1] < valor ? -cantidad - 1
+                    : Arrays.binarySearch(valores, 0, cantidad, valor);
+            if (posicion >= 0) {
+                return;
+            }
+            posicion = -posicion - 1;
+            if (cantidad == LIMITE_ARREGLO) {
+                bits = aBits();
+                valores = null;
+                bits[valor >>> 6] |= 1L << valor;
+                cantidad++;
+                return;
+            }
+            if (cantidad == valores.length) {
+                valores = Arrays.copyOf(valores, Math.min(LIMITE_ARREGLO, Math.max(4, cantidad * 2)));
+            }
+            System.arraycopy(valores, posicion, valores, posicion + 1, cantidad - posicion);
+            valores[posicion] = valor;
+            cantidad++;
+        }
+
+        boolean contiene(char valor) {
+            if (bits != null) {
+                return (bits[valor >>> 6] & (1L << valor)) != 0;
+            }
+            return Arrays.binarySearch(valores, 0, cantidad, valor) >= 0;
+        }
+
+        long[] aBits() {
+            if (bits != null) {
+                return bits.clone();
+            }
+            long[] resultado = new long[PALABRAS];
+            for (int i = 0; i < cantidad; i++) {
+                resultado[valores[i] >>> 6] |= 1L << valores[i];
+            }
+            return resultado;
+        }
+
+        Grupo y(Grupo otro) {
+            if (bits != null && otro.bits != null) {
+                long[] resultado = new long[PALABRAS];
+                for (int i = 0; i < PALABRAS; i++) {
+                    resultado[i] = bits[i] & otro.bits[i];
+                }
+                return mapa(resultado);
+            }
+            // Al menos uno es arreglo: recorrerlo y quedarse con lo que está en el otro
+            Grupo arreglo = bits == null ? this : otro;
+            Grupo resto = arreglo == this ? otro : this;
+            char[] valoresComunes = new char[arreglo.cantidad];
+            int n = 0;
+            for (int i = 0; i < arreglo.cantidad; i++) {
+                if (resto.contiene(arreglo.valores[i])) {
+                    valoresComunes[n++] = arreglo.valores[i];
+                }
+            }
+            return n == 0 ? null : arreglo(valoresComunes, n);
+        }
+
+        Grupo o(Grupo otro) {
+            long[] resultado = aBits();
+            if (otro.bits != null) {
+                for (int i = 0; i < PALABRAS; i++) {
+                    resultado[i] |= otro.bits[i];
+                }
+            } else {
+                for (int i = 0; i < otro.cantidad; i++) {
+                    resultado[otro.valores[i] >>> 6] |= 1L << otro.valores[i];
+                }
+            }
+            return mapa(resultado);
+        }
+
+        Grupo sin(Grupo otro) {
+            if (bits == null) {
+                char[] restantes = new char[cantidad];
+                int n = 0;
+                for (int i = 0; i < cantidad; i++) {
+                    if (!otro.contiene(valores[i])) {
+                        restantes[n++] = valores[i];
+                    }
+                }
+                return n == 0 ? null : arreglo(restantes, n);
+            }
+            long[] resultado = bits.clone();
+            if (otro.bits != null) {
+                for (int i = 0; i < PALABRAS; i++) {
+                    resultado[i] &= ~otro.bits[i];
+                }
+            } else {
+                for (int i = 0; i < otro.cantidad; i++) {
+                    resultado[otro.valores[i] >>> 6] &= ~(1L << otro.valores[i]);
+                }
+            }
+            return mapa(resultado);
+        }
+
+        Grupo copia() {
+            Grupo grupo = new Grupo();
+            grupo.valores = valores != null ? Arrays.copyOf(valores, cantidad) : null;
+            grupo.bits = bits != null ? bits.clone() : null;
+            grupo.cantidad = cantidad;
+            return grupo;
+        }
+
+        void recorrer(int base, IntConsumer accion) {
+            if (bits == null) {
+                for (int i = 0; i < cantidad; i++) {
+                    accion.accept(base | valores[i]);
+                }
+                return;
+            }
+            for (int i = 0; i < PALABRAS; i++) {
+                for (long palabra = bits[i]; palabra != 0; palabra &= palabra - 1) {
+                    accion.accept(base | (i * 64 + Long.numberOfTrailingZeros(palabra)));
+                }
+            }
+        }
+    }
+
+    public void agregar(int valor) {
+        int clave = valor >>> 16;
+        int posicion = tamano > 0 && claves[tamano - 1] == clave ? tamano - 1 : buscarClave(clave);
+        if (posicion < 0) {
+            posicion = -posicion - 1;
+            insertarGrupo(posicion, clave, Grupo.arreglo(new char[4], 0));
+        }
+        grupos[posicion].agregar((char) valor);
+    }
+
+    public boolean contiene(int valor) {
+        int posicion = buscarClave(valor >>> 16);
+        return posicion >= 0 && grupos[posicion].contiene((char) valor);
+    }
+
+    public long getCantidad() {
+        long cantidad = 0;
+        for (int i = 0; i < tamano; i++) {
+            cantidad += grupos[i].cantidad;
+        }
+        return cantidad;
+    }
+
+    public boolean estaVacio() {
+        return tamano == 0;
+    }
+
+    // Intersección: los valores que están en los dos
+    public MapaBits y(MapaBits otro) {
+        MapaBits resultado = new MapaBits();
+        int i = 0;
+        int j = 0;
+        while (i < tamano && j < otro.tamano) {
+            if (claves[i] < otro.claves[j]) {
+                i++;
+            } else if (claves[i] > otro.claves[j]) {
+                j++;
+            } else {
+                resultado.agregarGrupo(claves[i], grupos[i].y(otro.grupos[j]));
+                i++;
+                j++;
+            }
+        }
+        return resultado;
+    }
+
+    // Unión: los valores que están en alguno de los dos
+    public MapaBits o(MapaBits otro) {
+        MapaBits resultado = new MapaBits();
+        int i = 0;
+        int j = 0;
+        while (i < tamano || j < otro.tamano) {
+            if (j >= otro.tamano || (i < tamano && claves[i] < otro.claves[j])) {
+                resultado.agregarGrupo(claves[i], grupos[i].copia());
+                i++;
+            } else if (i >= tamano || claves[i] > otro.claves[j]) {
+                resultado.agregarGrupo(otro.claves[j], otro.grupos[j].copia());
+                j++;
+            } else {
+                resultado.agregarGrupo(claves[i], grupos[i].o(otro.grupos[j]));
+                i++;
+                j++;
+            }
+        }
+        return resultado;
+    }
+
+    // Diferencia: los valores de este que no están en el otro
+    public MapaBits sin(MapaBits otro) {
+        MapaBits resultado = new MapaBits();
+        int j = 0;
+        for (int i = 0; i < tamano; i++) {
+            while (j < otro.tamano && otro.claves[j] < claves[i]) {
+                j++;
+            }
+            if (j < otro.tamano && otro.claves[j] == claves[i]) {
+                resultado.agregarGrupo(claves[i], grupos[i].sin(otro.grupos[j]));
+            } else {
+                resultado.agregarGrupo(claves[i], grupos[i].copia());
+            }
+        }
+        return resultado;
+    }
+
+    // Recorre los valores en orden creciente
+    public void recorrer(IntConsumer accion) {
+        for (int i = 0; i < tamano; i++) {
+            grupos[i].recorrer(claves[i] << 16, accion);
+        }
+    }
+
+    private int buscarClave(int clave) {
+        return Arrays.binarySearch(claves, 0, tamano, clave);
+    }
+
+    // Los resultados se arman en orden de clave, así que siempre se agrega al final
+    private void agregarGrupo(int clave, Grupo grupo) {
+        if (grupo != null) {
+            insertarGrupo(tamano, clave, grupo);
+        }
+    }
+
+    private void insertarGrupo(int posicion, int clave, Grupo grupo) {
+        if (tamano == claves.length) {
+            claves = Arrays.copyOf(claves, tamano * 2);
+            grupos = Arrays.copyOf(grupos, tamano * 2);
+        }
+        System.arraycopy(claves, posicion, claves, posicion + 1, tamano - posicion);
+        System.arraycopy(grupos, posicion, grupos, posicion + 1, tamano - posicion);
+        claves[posicion] = clave;
+        grupos[posicion] = grupo;
+        tamano++;
+    }
+}
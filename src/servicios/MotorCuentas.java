@@ -0,0 +1,46 @@
+package servicios;
+
+import java.util.function.Supplier;
+
+/**
+ * Forma en que se aplican las operaciones que cambian saldos e historiales.
+ * Los controladores envuelven cada depósito, retiro o transferencia (la
+ * verificación de fondos, los cambios y su registro en la bitácora) en una
+ * llamada a {@link #ejecutar}, y el motor garantiza que las operaciones
+ * sobre una misma cuenta no se mezclen.
+ *
+ * Una operación puede llamar a {@link #ejecutar} sobre las mismas cuentas
+ * que ya tiene (por ejemplo un retiro que usa un método que también es
+ * seguro por sí solo).
+ *
+ * Todo lo que toca el estado de una cuenta cargada pasa por el motor, no solo
+ * las solicitudes: el cambio de PIN, las copias del historial que toman las
+ * consultas y los guardados, y la liberación de lo ya guardado que hace
+ * {@link PersistenciaDatos} después de cada checkpoint. La única excepción es
+ * la carga inicial y la reproducción de la bitácora, que ocurren antes de que
+ * las cuentas estén disponibles para las solicitudes.
+ */
+public interface MotorCuentas {
+
+    // Ejecuta la operación sobre una cuenta y devuelve su resultado
+    <T> T ejecutar(String codigo, Supplier<T> operacion);
+
+    // Ejecuta una operación sobre dos cuentas (una transferencia) de forma atómica
+    <T> T ejecutar(String codigoA, String codigoB, Supplier<T> operacion);
+
+    /**
+     * Devuelve el motor indicado con -Dbanco.motor: "bloqueos" (por defecto,
+     * candados por franjas tomados por cada hilo de solicitud) o
+     * "secuenciador" (un solo hilo aplica las operaciones en orden).
+     */
+    static MotorCuentas segunConfiguracion() {
+        String nombre = Configuracion.obtener("banco.motor", "bloqueos");
+        if (nombre.equalsIgnoreCase("secuenciador")) {
+            return new SecuenciadorLibro(Configuracion.obtenerEntero("banco.secuenciador.capacidad", 1024));
+        }
+        if (!nombre.equalsIgnoreCase("bloqueos")) {
+            System.err.println("Motor desconocido: " + nombre + ", se usan bloqueos.");
+        }
+        return new CandadosCuentas();
+    }
+}
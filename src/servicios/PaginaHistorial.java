@@ -0,0 +1,28 @@
+package servicios;
+
+import java.util.List;
+
+import modelos.Transaccion;
+
+/**
+ * Página de una consulta del historial por rango de fechas. {@code siguiente}
+ * es la posición desde la que continúa la próxima página, o -1 si ya no hay
+ * más transacciones en el rango.
+ */
+public class PaginaHistorial {
+    private final List<Transaccion> transacciones;
+    private final int siguiente;
+
+    public PaginaHistorial(List<Transaccion> transacciones, int siguiente) {
+        this.transacciones = transacciones;
+        this.siguiente = siguiente;
+    }
+
+    public List<Transaccion> getTransacciones() {
+        return transacciones;
+    }
+
+    public int getSiguiente() {
+        return siguiente;
+    }
+}
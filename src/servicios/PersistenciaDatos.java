@@ -1,8 +1,18 @@
 package servicios;
 
-import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 
 import controladores.ClienteControlador;
 import modelos.Cliente;
@@ -10,130 +20,819 @@ import modelos.Cuenta;
 import modelos.Transaccion;
 
 public class PersistenciaDatos {
-    private static final String RUTA_CUENTAS_XML = "src/data/cuentas.xml";
-    private static final String RUTA_CLIENTES_XML = "src/data/clientes.xml";
-    private static final String RUTA_TRANSACCIONES_XML = "src/data/transacciones.xml";
+    private static final String RUTA_BITACORA = "src/data/bitacora.log";
+    private static final String RUTA_CODIGOS_CUENTA = "src/data/codigos_cuentas.txt";
+
+    private static final Bitacora bitacora = new Bitacora(RUTA_BITACORA);
+    private static final RegistroCambios registroCambios = new RegistroCambios();
+    private static final GeneradorCodigosCuenta generadorCodigos = new GeneradorCodigosCuenta(RUTA_CODIGOS_CUENTA);
+    private static final IndiceReportes indiceReportes = new IndiceReportes();
+    // Escrituras que el hilo actual deja sin confirmar (ver ejecutarSinConfirmar)
+    private static final ThreadLocal<List<CompletableFuture<Void>>> escriturasSinConfirmar = new ThreadLocal<>();
+    // Transacciones que registra la operación en curso del hilo (ver aplicar)
+    private static final ThreadLocal<Set<Transaccion>> transaccionesDeOperacion = new ThreadLocal<>();
+    private static volatile GestorCheckpoint gestorCheckpoint;
+    // Almacenamiento elegido al arrancar con -Dbanco.repositorio=archivos|jdbc
+    private static volatile RepositorioBanco repositorio = RepositorioBanco.segunConfiguracion();
+    // Historial archivado de las cuentas consultadas hace poco (-Dbanco.historial.cache=cuentas)
+    private static final CacheHistorial cacheHistorial = new CacheHistorial(
+            Configuracion.obtenerEntero("banco.historial.cache", 256));
+    // Motor de las cuentas cargadas: las lecturas del historial y lo que se libera al guardar pasan por él
+    private static volatile MotorCuentas motor = new CandadosCuentas();
+    // Pone los guardados en serie; se toma antes que el motor y que el candado de la clase
+    private static final Object candadoGuardado = new Object();
+
+    // Contadores de escritura de los guardados
+    private static int archivosEscritosUltimoGuardado;
+    private static long bytesEscritosUltimoGuardado;
+    private static long archivosEscritosTotales;
+    private static long bytesEscritosTotales;
 
     // Métodos para manejar datos
 
+    /**
+     * Carga la instantánea y enlaza el grafo de objetos en tiempo lineal.
+     * Clientes, cuentas y transacciones se leen al mismo tiempo en el pool de
+     * {@link CargaParalela} (el archivo de transacciones, además, por partes);
+     * después los clientes se indexan por identificación, las cuentas se
+     * asocian a su cliente y las transacciones se agrupan por código de
+     * cuenta, en lugar de recorrer clientes x cuentas x transacciones.
+     */
     public static void cargarDatos(ClienteControlador clienteControlador) {
-        List<Cliente> clientes = PersistenciaDatos.cargarClientes();
+        long inicio = System.nanoTime();
+        motor = clienteControlador.getMotor();
+        abrirRepositorio();
+        long finApertura = System.nanoTime();
+
+        // Duración de la lectura de cada archivo, medida en su propio hilo
+        long[] tiempos = new long[3];
+        Map<String, Integer> archivadasPorCuenta = new HashMap<>();
+        CompletableFuture<List<Cliente>> lecturaClientes = CargaParalela.iniciar(() -> {
+            long desde = System.nanoTime();
+            List<Cliente> clientes = repositorio.cargarClientes();
+            tiempos[0] = System.nanoTime() - desde;
+            return clientes;
+        });
+        CompletableFuture<Map<Long, List<Cuenta>>> lecturaCuentas = CargaParalela.iniciar(() -> {
+            long desde = System.nanoTime();
+            Map<Long, List<Cuenta>> cuentas = repositorio.cargarCuentas();
+            tiempos[1] = System.nanoTime() - desde;
+            return cuentas;
+        });
+        CompletableFuture<List<Transaccion>> lecturaTransacciones = CargaParalela.iniciar(() -> {
+            long desde = System.nanoTime();
+            List<Transaccion> transacciones = repositorio.cargarTransacciones(archivadasPorCuenta);
+            tiempos[2] = System.nanoTime() - desde;
+            return transacciones;
+        });
+        List<Cliente> clientes = lecturaClientes.join();
+        Map<Long, List<Cuenta>> cuentasPorCliente = lecturaCuentas.join();
+        List<Transaccion> transacciones = lecturaTransacciones.join();
+        long finLectura = System.nanoTime();
+
+        List<Cuenta> cuentas = RepositorioBanco.enlazarCuentas(cuentasPorCliente, clientes);
+
+        Map<String, List<Transaccion>> transaccionesPorCuenta = new HashMap<>();
+        for (Transaccion transaccion : transacciones) {
+            transaccionesPorCuenta.computeIfAbsent(transaccion.getCodigoCuenta(), k -> new ArrayList<>())
+                    .add(transaccion);
+        }
+        for (Cuenta cuenta : cuentas) {
+            cuenta.setTransaccionesArchivadas(archivadasPorCuenta.getOrDefault(cuenta.getCodigo(), 0));
+            List<Transaccion> transaccionesCuenta = transaccionesPorCuenta.get(cuenta.getCodigo());
+            if (transaccionesCuenta != null) {
+                for (Transaccion transaccion : transaccionesCuenta) {
+                    cuenta.agregarTransaccion(transaccion);
+                }
+            }
+        }
+        long finEnlace = System.nanoTime();
+
+        // Aplicar los cambios registrados en la bitácora después de la instantánea
+        int registrosAplicados = bitacora.reproducir(clientes, registroCambios);
+        if (registrosAplicados > 0) {
+            System.out.println("Bitácora reproducida: " + registrosAplicados + " registros aplicados.");
+            guardarCambios(clientes);
+            System.out.println("Guardado incremental: " + archivosEscritosUltimoGuardado + " archivos, "
+                    + bytesEscritosUltimoGuardado + " bytes escritos.");
+        }
+        long finBitacora = System.nanoTime();
+
+        // Las cuentas nuevas siguen después de los códigos cargados y de los ya reservados
+        generadorCodigos.iniciar(mayorNumeroCuenta(cuentas, clientes));
+        Cuenta.setGeneradorNumeros(generadorCodigos);
+        // Los controladores indexan las cuentas ya con los cambios de la bitácora
         clienteControlador.setClientes(clientes);
+        iniciarCheckpoints(clienteControlador);
+        // El índice de reportes se arma en segundo plano; la primera consulta espera lo que falte
+        indiceReportes.reiniciar(obtenerCuentas(clientes));
+        CargaParalela.iniciar(() -> {
+            // Lo archivado sale de una pasada por el repositorio y no del historial de cada cuenta
+            indiceReportes.indexarArchivadas(repositorio::recorrerTransaccionesArchivadas);
+            indiceReportes.ponerAlDia(PersistenciaDatos::historialDesde);
+            return null;
+        }).exceptionally(e -> {
+            System.err.println("Error al indexar las transacciones para reportes: " + e.getMessage());
+            return null;
+        });
 
-        PersistenciaDatos.cargarCuentas(clienteControlador);
-        List<Transaccion> transacciones = PersistenciaDatos.cargarTransacciones();
+        System.out.println("Tiempos de carga (ms): apertura=" + milisegundos(inicio, finApertura)
+                + ", clientes=" + tiempos[0] / 1_000_000
+                + ", cuentas=" + tiempos[1] / 1_000_000
+                + ", transacciones=" + tiempos[2] / 1_000_000
+                + ", lectura en paralelo=" + milisegundos(finApertura, finLectura)
+                + " (" + CargaParalela.getHilos() + " hilos)"
+                + ", enlace=" + milisegundos(finLectura, finEnlace)
+                + ", bitácora=" + milisegundos(finEnlace, finBitacora)
+                + ", total=" + milisegundos(inicio, finBitacora));
+    }
 
-        for (Cliente cliente : clienteControlador.obtenerClientes()) {
+    // Incluye las cuentas sin cliente y las que se agregaron al reproducir la bitácora
+    private static int mayorNumeroCuenta(List<Cuenta> cuentas, List<Cliente> clientes) {
+        int mayor = 0;
+        for (Cuenta cuenta : cuentas) {
+            mayor = Math.max(mayor, GeneradorCodigosCuenta.numero(cuenta.getCodigo()));
+        }
+        for (Cliente cliente : clientes) {
             for (Cuenta cuenta : cliente.getMisCuentas()) {
-                for (Transaccion transaccion : transacciones) {
-                    if (transaccion.getCodigoCuenta().equals(cuenta.getCodigo())) {
-                        cuenta.agregarTransaccion(transaccion);
+                mayor = Math.max(mayor, GeneradorCodigosCuenta.numero(cuenta.getCodigo()));
+            }
+        }
+        return mayor;
+    }
+
+    /**
+     * Abre el repositorio configurado. Si no se puede abrir se usan los
+     * archivos; si está vacío y hay datos en archivos, se importan.
+     */
+    private static synchronized void abrirRepositorio() {
+        try {
+            repositorio.abrir();
+        } catch (IOException e) {
+            System.err.println(e.getMessage() + ". Se usan los archivos de datos.");
+            RepositorioArchivos archivos = new RepositorioArchivos();
+            archivos.abrir();
+            repositorio = archivos;
+        }
+        if (!(repositorio instanceof RepositorioArchivos) && repositorio.estaVacio()) {
+            RepositorioArchivos archivos = new RepositorioArchivos();
+            archivos.abrir();
+            if (!archivos.estaVacio()) {
+                try {
+                    importar(archivos, repositorio);
+                } catch (IOException e) {
+                    System.err.println("Error al importar los datos de los archivos: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        }
+        System.out.println("Repositorio de datos: " + repositorio.getNombre());
+    }
+
+    // Copia todos los datos de un repositorio a otro, incluido el historial archivado
+    private static void importar(RepositorioBanco origen, RepositorioBanco destino) throws IOException {
+        List<Cliente> clientes = origen.cargarClientes();
+        List<Cuenta> cuentas = RepositorioBanco.enlazarCuentas(origen.cargarCuentas(), clientes);
+        Map<String, Integer> archivadasPorCuenta = new HashMap<>();
+        List<Transaccion> transacciones = origen.cargarTransacciones(archivadasPorCuenta);
+        List<Transaccion> todas = new ArrayList<>();
+        for (Cuenta cuenta : cuentas) {
+            if (archivadasPorCuenta.getOrDefault(cuenta.getCodigo(), 0) > 0) {
+                todas.addAll(origen.leerTransaccionesArchivadas(cuenta));
+            }
+        }
+        todas.addAll(transacciones);
+
+        destino.guardarClientes(clientes, clientes);
+        destino.guardarCuentas(cuentas, cuentas);
+        destino.agregarTransacciones(todas);
+        System.out.println("Datos importados desde " + origen.getNombre() + ": " + clientes.size() + " clientes, "
+                + cuentas.size() + " cuentas, " + todas.size() + " transacciones.");
+    }
+
+    /**
+     * Saca de memoria las transacciones ya guardadas que quedan antes del
+     * inicio en memoria del repositorio (todas, con el historial perezoso) y
+     * las suma a las archivadas de su cuenta.
+     *
+     * El historial de cada cuenta se cambia por el motor, como un movimiento
+     * más, así que nunca se mezcla con un depósito o una consulta de la misma
+     * cuenta. Se llama sin el candado de la clase, porque las operaciones del
+     * motor lo toman al registrarse en la bitácora.
+     */
+    private static void liberarGuardadas(Collection<Cuenta> cuentas, Predicate<Transaccion> guardada) {
+        LocalDate inicio = repositorio.getInicioEnMemoria();
+        if (inicio == null) {
+            return;
+        }
+        for (Cuenta cuenta : cuentas) {
+            motor.ejecutar(cuenta.getCodigo(), () -> {
+                List<Transaccion> liberadas = new ArrayList<>();
+                cuenta.getTransacciones().removeIf(transaccion -> {
+                    if (guardada.test(transaccion) && transaccion.getFecha().isBefore(inicio)) {
+                        liberadas.add(transaccion);
+                        return true;
                     }
+                    return false;
+                });
+                if (!liberadas.isEmpty()) {
+                    cacheHistorial.agregar(cuenta.getCodigo(), cuenta.getTransaccionesArchivadas(), liberadas);
+                    cuenta.setTransaccionesArchivadas(cuenta.getTransaccionesArchivadas() + liberadas.size());
                 }
+                return null;
+            });
+        }
+    }
+
+    // Lo archivado y lo que está en memoria de una cuenta, tomados juntos por el motor
+    private static final class VistaHistorial {
+        final int archivadas;
+        final int inicioRecientes;
+        final List<Transaccion> recientes;
+
+        VistaHistorial(int archivadas, int inicioRecientes, List<Transaccion> recientes) {
+            this.archivadas = archivadas;
+            this.inicioRecientes = inicioRecientes;
+            this.recientes = recientes;
+        }
+    }
+
+    // Copia de lo que la cuenta tiene en memoria, tomada por el motor entre dos operaciones
+    private static VistaHistorial vista(Cuenta cuenta) {
+        return motor.ejecutar(cuenta.getCodigo(), () -> new VistaHistorial(cuenta.getTransaccionesArchivadas(), 0,
+                new ArrayList<>(cuenta.getTransacciones())));
+    }
+
+    /**
+     * Devuelve el historial completo de la cuenta: lo archivado (desde la
+     * caché o leído bajo demanda desde el repositorio) seguido de lo que está
+     * en memoria.
+     */
+    public static List<Transaccion> obtenerHistorial(Cuenta cuenta) {
+        // Contador y lista en memoria se toman juntos para no perder ni repetir lo que se libera al guardar
+        VistaHistorial vista = vista(cuenta);
+        List<Transaccion> historial = new ArrayList<>();
+        if (vista.archivadas > 0) {
+            historial.addAll(
+                    cacheHistorial.obtener(cuenta, vista.archivadas, repositorio::leerTransaccionesArchivadas));
+        }
+        historial.addAll(vista.recientes);
+        return historial;
+    }
+
+    /**
+     * Devuelve hasta {@code cantidad} transacciones de la cuenta con fecha
+     * entre {@code desde} y {@code hasta} (incluidas), continuando desde la
+     * posición {@code posicion} del historial (0 para la primera página).
+     *
+     * El historial está ordenado por fecha, así que el inicio del rango se
+     * ubica con búsqueda binaria tanto en lo archivado (sin copiarlo de la
+     * caché) como en lo que está en memoria, y cada página cuesta
+     * O(log n + k).
+     */
+    public static PaginaHistorial obtenerHistorialEntre(Cuenta cuenta, LocalDate desde, LocalDate hasta,
+            int posicion, int cantidad) {
+        // Igual que en obtenerHistorial, el contador y la parte en memoria se toman juntos
+        VistaHistorial vista = motor.ejecutar(cuenta.getCodigo(), () -> {
+            int archivadasCuenta = cuenta.getTransaccionesArchivadas();
+            List<Transaccion> enMemoria = cuenta.getTransacciones();
+            int inicio = Math.max(primeraDesde(enMemoria, desde), posicion - archivadasCuenta);
+            // Una más de las necesarias para saber si hay otra página
+            int fin = (int) Math.min(enMemoria.size(), (long) inicio + cantidad + 1);
+            return new VistaHistorial(archivadasCuenta, inicio,
+                    inicio < fin ? new ArrayList<>(enMemoria.subList(inicio, fin)) : new ArrayList<>());
+        });
+        int archivadas = vista.archivadas;
+        int inicioRecientes = vista.inicioRecientes;
+        List<Transaccion> recientes = vista.recientes;
+
+        List<Transaccion> pagina = new ArrayList<>();
+        if (archivadas > 0 && posicion < archivadas) {
+            int siguiente = cacheHistorial.consultar(cuenta, archivadas, repositorio::leerTransaccionesArchivadas,
+                    archivo -> tomar(archivo, Math.max(posicion, primeraDesde(archivo, desde)), hasta, cantidad,
+                            pagina));
+            if (siguiente < archivadas) {
+                return new PaginaHistorial(pagina, siguiente);
             }
         }
+        int siguiente = tomar(recientes, 0, hasta, cantidad, pagina);
+        return new PaginaHistorial(pagina,
+                siguiente >= 0 && siguiente < recientes.size() ? archivadas + inicioRecientes + siguiente : -1);
     }
 
-    public static void guardarDatos(List<Cliente> clientes) {
-        PersistenciaDatos.guardarClientes(clientes);
+    // Historial de la cuenta desde la posición indicada hasta el final
+    private static List<Transaccion> historialDesde(Cuenta cuenta, int posicion) {
+        return obtenerHistorialEntre(cuenta, LocalDate.MIN, LocalDate.MAX, posicion, Integer.MAX_VALUE)
+                .getTransacciones();
+    }
 
-        List<Cuenta> cuentas = new ArrayList<>();
-        for (Cliente cliente : clientes) {
-            cuentas.addAll(cliente.getMisCuentas());
+    /**
+     * Cuenta y suma las transacciones de todo el banco por tipo (todos si
+     * {@code tipos} es null), entre dos fechas incluidas y, opcionalmente,
+     * de una sola cuenta. Antes de consultar se indexan los movimientos que
+     * falten.
+     */
+    public static Map<String, ResumenTransacciones> resumirTransacciones(Collection<String> tipos, LocalDate desde,
+            LocalDate hasta, String codigoCuenta) {
+        indiceReportes.ponerAlDia(PersistenciaDatos::historialDesde);
+        return indiceReportes.consultar(tipos, desde, hasta, codigoCuenta);
+    }
+
+    // Posición de la primera transacción con fecha igual o posterior a la indicada
+    private static int primeraDesde(List<Transaccion> transacciones, LocalDate desde) {
+        int bajo = 0;
+        int alto = transacciones.size();
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (transacciones.get(medio).getFecha().isBefore(desde)) {
+                bajo = medio + 1;
+            } else {
+                alto = medio;
+            }
         }
-        PersistenciaDatos.guardarCuentas(cuentas);
+        return bajo;
+    }
 
-        List<Transaccion> transacciones = new ArrayList<>();
-        for (Cliente cliente : clientes) {
-            for (Cuenta cuenta : cliente.getMisCuentas()) {
-                transacciones.addAll(cuenta.getTransacciones());
+    /**
+     * Agrega a la página las transacciones desde {@code inicio} hasta llenarla.
+     * Devuelve la posición de la siguiente transacción del rango si la página
+     * se llenó, -1 si se pasó de {@code hasta}, o el tamaño de la lista si se
+     * terminó.
+     */
+    private static int tomar(List<Transaccion> transacciones, int inicio, LocalDate hasta, int cantidad,
+            List<Transaccion> pagina) {
+        for (int i = inicio; i < transacciones.size(); i++) {
+            if (transacciones.get(i).getFecha().isAfter(hasta)) {
+                return -1;
             }
+            if (pagina.size() >= cantidad) {
+                return i;
+            }
+            pagina.add(transacciones.get(i));
         }
-        PersistenciaDatos.guardarTransacciones(transacciones);
+        return transacciones.size();
     }
 
-    public static void guardarCuentas(List<Cuenta> cuentas) {
-        try {
-            File archivoCuentas = new File(RUTA_CUENTAS_XML);
-            if (!archivoCuentas.getParentFile().exists()) {
-                archivoCuentas.getParentFile().mkdirs();
+    // Programa checkpoints por tiempo y por cantidad de mutaciones
+    private static synchronized void iniciarCheckpoints(ClienteControlador clienteControlador) {
+        if (gestorCheckpoint != null) {
+            gestorCheckpoint.detener();
+        }
+        gestorCheckpoint = new GestorCheckpoint(
+                () -> guardarCambios(clienteControlador::obtenerClientes),
+                Configuracion.obtenerLargo("banco.checkpoint.intervaloSeg", 60),
+                Configuracion.obtenerEntero("banco.checkpoint.mutaciones", 1000));
+        gestorCheckpoint.iniciar();
+    }
+
+    private static long milisegundos(long desde, long hasta) {
+        return (hasta - desde) / 1_000_000;
+    }
+
+    /**
+     * Escribe una instantánea completa y vacía la bitácora.
+     *
+     * @return false si el guardado falló; en ese caso la bitácora se conserva
+     */
+    public static boolean guardarDatos(List<Cliente> clientes) {
+        synchronized (candadoGuardado) {
+            Map<String, VistaHistorial> vistas = vistas(obtenerCuentas(clientes));
+            Set<Transaccion> guardadas = Collections.newSetFromMap(new IdentityHashMap<>());
+            RegistroCambios.Cambios cambios;
+            List<Cuenta> cuentas;
+            Bitacora.Corte corte;
+            synchronized (PersistenciaDatos.class) {
+                cambios = registroCambios.extraer();
+                cuentas = obtenerCuentas(clientes);
+                corte = bitacora.marcarCorte();
+            }
+            long bytes;
+            try {
+                bytes = repositorio.guardarClientes(clientes, clientes);
+                bytes += repositorio.guardarCuentas(cuentas, cuentas);
+                bytes += reescribirTransacciones(cuentas, vistas, cambios.getTransaccionesNuevas(), guardadas);
+            } catch (IOException e) {
+                descartarGuardado(cambios, e);
+                return false;
             }
+            registrarEscritura(3, bytes);
+            bitacora.truncarHasta(corte);
+            liberarGuardadas(cuentas, guardadas::contains);
+            return true;
+        }
+    }
+
+    /**
+     * Guarda solo lo que cambió desde el último guardado: los clientes o
+     * cuentas se guardan únicamente si hubo cambios en ese tipo de entidad, y
+     * las transacciones nuevas se agregan al final del historial (solo se
+     * reescribe completo si se eliminaron transacciones). Después vacía la
+     * bitácora.
+     *
+     * Si alguna escritura falla no se libera nada de memoria ni se vacía la
+     * bitácora, y los cambios vuelven al registro para el próximo guardado.
+     *
+     * Con el candado de la clase tomado solo se sacan los cambios del
+     * registro y se marca un corte en la bitácora, así los registros
+     * anteriores al corte son exactamente los de los cambios sacados. La
+     * escritura ocurre después, sin ese candado, para no detener los
+     * depósitos ni las transferencias, y al terminar la bitácora se vacía
+     * solo hasta el corte: lo registrado mientras tanto se conserva para el
+     * próximo guardado. Lo guardado se libera de memoria a través del motor
+     * de las cuentas. Para reescribir el historial, las copias de las
+     * cuentas se toman antes por el motor (ver
+     * {@link #reescribirTransacciones}).
+     *
+     * @return false si el guardado falló
+     */
+    public static boolean guardarCambios(List<Cliente> clientes) {
+        return guardarCambios(() -> clientes);
+    }
+
+    /**
+     * Igual que {@link #guardarCambios(List)}, pero la lista de clientes se
+     * pide después de sacar los cambios del registro: un cliente o una cuenta
+     * que se agrega durante el guardado ya está en la lista antes de quedar
+     * marcado, así que no se pierde al vaciar la bitácora.
+     */
+    private static boolean guardarCambios(Supplier<List<Cliente>> listaClientes) {
+        synchronized (candadoGuardado) {
+            Map<String, VistaHistorial> vistas = null;
+            Collection<Cuenta> liberar;
+            Set<Transaccion> guardadas = Collections.newSetFromMap(new IdentityHashMap<>());
+            while (true) {
+                if (vistas == null && registroCambios.requiereReescritura()) {
+                    vistas = vistas(obtenerCuentas(listaClientes.get()));
+                }
+                RegistroCambios.Cambios cambios;
+                List<Cliente> clientes;
+                Bitacora.Corte corte;
+                synchronized (PersistenciaDatos.class) {
+                    cambios = registroCambios.extraer();
+                    // Se eliminó una cuenta después de mirar el registro: se devuelven los cambios y se toman las copias
+                    if (cambios.isReescribirTransacciones() && vistas == null) {
+                        registroCambios.restaurar(cambios);
+                        continue;
+                    }
+                    clientes = listaClientes.get();
+                    corte = bitacora.marcarCorte();
+                }
+                int archivos = 0;
+                long bytes = 0;
+
+                try {
+                    if (!cambios.getClientes().isEmpty()) {
+                        bytes += repositorio.guardarClientes(cambios.getClientes(), clientes);
+                        archivos++;
+                    }
+
+                    if (!cambios.getCuentas().isEmpty()) {
+                        bytes += repositorio.guardarCuentas(cambios.getCuentas(), obtenerCuentas(clientes));
+                        archivos++;
+                    }
 
-            XMLUtils.escribirCuentasAArchivoXML(cuentas, RUTA_CUENTAS_XML);
-        } catch (Exception e) {
-            e.printStackTrace();
+                    if (cambios.isReescribirTransacciones()) {
+                        archivos++;
+                        bytes += reescribirTransacciones(obtenerCuentas(clientes), vistas,
+                                cambios.getTransaccionesNuevas(), guardadas);
+                    } else if (!cambios.getTransaccionesNuevas().isEmpty()) {
+                        archivos++;
+                        bytes += repositorio.agregarTransacciones(cambios.getTransaccionesNuevas());
+                    }
+                } catch (IOException e) {
+                    descartarGuardado(cambios, e);
+                    return false;
+                }
+
+                if (cambios.isReescribirTransacciones()) {
+                    liberar = obtenerCuentas(clientes);
+                } else {
+                    liberar = cambios.getCuentas();
+                    guardadas.addAll(cambios.getTransaccionesNuevas());
+                }
+                registrarEscritura(archivos, bytes);
+                bitacora.truncarHasta(corte);
+                break;
+            }
+            if (!guardadas.isEmpty()) {
+                liberarGuardadas(liberar, guardadas::contains);
+            }
+            return true;
         }
     }
 
-    // Método para cargar cuentas
-    public static void cargarCuentas(ClienteControlador clienteControlador) {
-        try {
-            XMLUtils.leerCuentasDesdeArchivoXML(RUTA_CUENTAS_XML, clienteControlador);
-        } catch (Exception e) {
-            System.err.println("Error al cargar las cuentas desde el archivo XML: " + e.getMessage());
+    // Copias de las cuentas para reescribir el historial, tomadas sin el candado de la clase
+    private static Map<String, VistaHistorial> vistas(List<Cuenta> cuentas) {
+        Map<String, VistaHistorial> vistas = new HashMap<>();
+        for (Cuenta cuenta : cuentas) {
+            vistas.put(cuenta.getCodigo(), vista(cuenta));
         }
+        return vistas;
     }
 
-    // Métodos para manejar clientes
-    // Método para guardar clientes
-    public static void guardarClientes(List<Cliente> clientes) {
-        try {
-            File archivoClientes = new File(RUTA_CLIENTES_XML);
-            if (!archivoClientes.getParentFile().exists()) {
-                archivoClientes.getParentFile().mkdirs();
+    /**
+     * Reescribe el historial de las cuentas actuales a partir de sus copias
+     * más las transacciones registradas después de tomarlas, y deja en
+     * {@code guardadas} todo lo escrito.
+     *
+     * Las copias se toman por el motor, así que no incluyen un movimiento que
+     * ya entró a la lista de la cuenta pero todavía no se registró en la
+     * bitácora: ese llegará al registro después y se agregará en el próximo
+     * guardado, sin quedar repetido en el archivo. Lo registrado después de
+     * la copia sí se escribe, porque la bitácora se vacía al terminar.
+     */
+    private static long reescribirTransacciones(List<Cuenta> cuentas, Map<String, VistaHistorial> vistas,
+            List<Transaccion> nuevas, Set<Transaccion> guardadas) throws IOException {
+        Map<String, List<Transaccion>> nuevasPorCuenta = new HashMap<>();
+        for (Transaccion transaccion : nuevas) {
+            nuevasPorCuenta.computeIfAbsent(transaccion.getCodigoCuenta(), k -> new ArrayList<>()).add(transaccion);
+        }
+        List<Transaccion> enMemoria = new ArrayList<>();
+        Map<String, Integer> archivadasPorCuenta = new HashMap<>();
+        for (Cuenta cuenta : cuentas) {
+            // Una cuenta sin copia se creó después de tomarlas: todo lo suyo está entre lo registrado
+            VistaHistorial vista = vistas.get(cuenta.getCodigo());
+            if (vista != null) {
+                enMemoria.addAll(vista.recientes);
+                guardadas.addAll(vista.recientes);
+            }
+            archivadasPorCuenta.put(cuenta.getCodigo(), vista != null ? vista.archivadas : 0);
+            for (Transaccion transaccion : nuevasPorCuenta.getOrDefault(cuenta.getCodigo(), List.of())) {
+                if (guardadas.add(transaccion)) {
+                    enMemoria.add(transaccion);
+                }
             }
+        }
+        return repositorio.reescribirTransacciones(enMemoria, archivadasPorCuenta);
+    }
 
-            XMLUtils.escribirClientesAArchivoXML(clientes, RUTA_CLIENTES_XML);
-        } catch (Exception e) {
-            e.printStackTrace();
+    // Un guardado fallido conserva la bitácora y devuelve sus cambios al registro para el siguiente intento
+    private static void descartarGuardado(RegistroCambios.Cambios cambios, IOException error) {
+        registroCambios.restaurar(cambios);
+        System.err.println("Error al guardar los datos, se reintentará en el próximo guardado: " + error.getMessage());
+        error.printStackTrace();
+    }
+
+    private static List<Cuenta> obtenerCuentas(List<Cliente> clientes) {
+        List<Cuenta> cuentas = new ArrayList<>();
+        for (Cliente cliente : clientes) {
+            cuentas.addAll(cliente.getMisCuentas());
         }
+        return cuentas;
+    }
+
+    private static synchronized void registrarEscritura(int archivos, long bytes) {
+        archivosEscritosUltimoGuardado = archivos;
+        bytesEscritosUltimoGuardado = bytes;
+        archivosEscritosTotales += archivos;
+        bytesEscritosTotales += bytes;
+    }
+
+    // Contadores de escritura
+
+    public static synchronized int getArchivosEscritosUltimoGuardado() {
+        return archivosEscritosUltimoGuardado;
     }
 
-    // Método para cargar clientes
-    public static List<Cliente> cargarClientes() {
+    public static synchronized long getBytesEscritosUltimoGuardado() {
+        return bytesEscritosUltimoGuardado;
+    }
+
+    public static synchronized long getArchivosEscritosTotales() {
+        return archivosEscritosTotales;
+    }
+
+    public static synchronized long getBytesEscritosTotales() {
+        return bytesEscritosTotales;
+    }
+
+    // Métodos para registrar mutaciones en la bitácora. El registro se encola y
+    // se marca como cambio bajo el mismo candado que los guardados; la espera
+    // por la escritura a disco ocurre fuera del candado para que el hilo
+    // escritor pueda agrupar solicitudes concurrentes.
+
+    public static void registrarAltaCliente(Cliente cliente) {
+        CompletableFuture<Void> escritura;
+        synchronized (PersistenciaDatos.class) {
+            escritura = bitacora.registrarAltaCliente(cliente);
+            registroCambios.marcarCliente(cliente);
+        }
+        confirmar(escritura);
+    }
+
+    public static void registrarAltaCuenta(Cuenta cuenta) {
+        CompletableFuture<Void> escritura;
+        synchronized (PersistenciaDatos.class) {
+            escritura = bitacora.registrarAltaCuenta(cuenta);
+            registroCambios.marcarCuenta(cuenta);
+        }
+        confirmar(escritura);
+    }
+
+    public static void registrarMovimiento(Cuenta cuenta, Transaccion transaccion) {
+        CompletableFuture<Void> escritura;
+        synchronized (PersistenciaDatos.class) {
+            escritura = bitacora.registrarMovimiento(cuenta, transaccion);
+            marcarAsiento(cuenta, transaccion);
+        }
+        confirmar(escritura);
+    }
+
+    public static void registrarTransferencia(Cuenta cuentaOrigen, Transaccion transaccionOrigen,
+            Cuenta cuentaDestino, Transaccion transaccionDestino) {
+        CompletableFuture<Void> escritura;
+        synchronized (PersistenciaDatos.class) {
+            escritura = bitacora.registrarTransferencia(cuentaOrigen, transaccionOrigen, cuentaDestino,
+                    transaccionDestino);
+            marcarAsiento(cuentaOrigen, transaccionOrigen);
+            marcarAsiento(cuentaDestino, transaccionDestino);
+        }
+        confirmar(escritura);
+    }
+
+    public static void registrarCambioPin(Cuenta cuenta) {
+        CompletableFuture<Void> escritura;
+        synchronized (PersistenciaDatos.class) {
+            escritura = bitacora.registrarCambioPin(cuenta);
+            registroCambios.marcarCuenta(cuenta);
+        }
+        confirmar(escritura);
+    }
+
+    public static void registrarCambioTelefono(Cliente cliente) {
+        CompletableFuture<Void> escritura;
+        synchronized (PersistenciaDatos.class) {
+            escritura = bitacora.registrarCambioTelefono(cliente);
+            registroCambios.marcarCliente(cliente);
+        }
+        confirmar(escritura);
+    }
+
+    public static void registrarCambioCorreo(Cliente cliente) {
+        CompletableFuture<Void> escritura;
+        synchronized (PersistenciaDatos.class) {
+            escritura = bitacora.registrarCambioCorreo(cliente);
+            registroCambios.marcarCliente(cliente);
+        }
+        confirmar(escritura);
+    }
+
+    public static void registrarEliminacionCuenta(Cuenta cuenta) {
+        CompletableFuture<Void> escritura;
+        synchronized (PersistenciaDatos.class) {
+            escritura = bitacora.registrarEliminacionCuenta(cuenta);
+            registroCambios.marcarCuenta(cuenta);
+            registroCambios.marcarReescrituraTransacciones();
+            cacheHistorial.descartar(cuenta.getCodigo());
+            indiceReportes.descartar(cuenta);
+        }
+        confirmar(escritura);
+    }
+
+    // Detiene los checkpoints y escribe los registros pendientes de la bitácora (por ejemplo al apagar)
+    public static void cerrar() {
+        GestorCheckpoint gestor;
+        synchronized (PersistenciaDatos.class) {
+            gestor = gestorCheckpoint;
+            gestorCheckpoint = null;
+        }
+        if (gestor != null) {
+            gestor.detener();
+        }
+        bitacora.cerrar();
+        generadorCodigos.cerrar();
+        synchronized (PersistenciaDatos.class) {
+            repositorio.cerrar();
+        }
+    }
+
+    /**
+     * Ejecuta la acción sin esperar las escrituras de la bitácora que
+     * registre: quedan encoladas en orden y se devuelven para que otro hilo
+     * las confirme con {@link #confirmarEscrituras}. Lo usa el
+     * {@link SecuenciadorLibro} para que su hilo no espere al disco.
+     */
+    public static List<CompletableFuture<Void>> ejecutarSinConfirmar(Runnable accion) {
+        List<CompletableFuture<Void>> escrituras = new ArrayList<>();
+        escriturasSinConfirmar.set(escrituras);
         try {
-            List<Cliente> clientes = XMLUtils.leerClientesDesdeArchivoXML(RUTA_CLIENTES_XML);
-            if (clientes == null || clientes.isEmpty()) {
-                System.out.println("No se encontraron clientes en el archivo XML.");
-            } else {
-                System.out.println("Clientes cargados correctamente: " + clientes.size() + " clientes encontrados.");
+            accion.run();
+        } finally {
+            escriturasSinConfirmar.remove();
+        }
+        return escrituras;
+    }
+
+    public static void confirmarEscrituras(List<CompletableFuture<Void>> escrituras) {
+        if (escrituras != null) {
+            for (CompletableFuture<Void> escritura : escrituras) {
+                confirmar(escritura);
             }
-            return clientes;
-        } catch (Exception e) {
-            System.err.println("Error al cargar los clientes desde el archivo XML: " + e.getMessage());
-            e.printStackTrace();
-            return new ArrayList<>();
         }
     }
 
-    // Métodos para manejar transacciones
-    // Método para guardar transacciones
-    public static void guardarTransacciones(List<Transaccion> transacciones) {
+    /**
+     * Ejecuta en el motor una operación sobre la cuenta y la deshace si la
+     * bitácora no confirma sus registros: con FSYNC la operación falla con
+     * {@link BitacoraNoConfirmadaException} y la cuenta queda como si no se
+     * hubiera aplicado (saldo, transacciones agregadas, PIN y estatus).
+     */
+    public static <T> T aplicar(MotorCuentas motor, Cuenta cuenta, Supplier<T> operacion) {
+        return aplicar(motor, new Cuenta[] { cuenta }, false, operacion);
+    }
+
+    // Igual, para una operación sobre dos cuentas (una transferencia)
+    public static <T> T aplicar(MotorCuentas motor, Cuenta cuentaA, Cuenta cuentaB, Supplier<T> operacion) {
+        Cuenta[] cuentas = cuentaA == cuentaB ? new Cuenta[] { cuentaA } : new Cuenta[] { cuentaA, cuentaB };
+        return aplicar(motor, cuentas, false, operacion);
+    }
+
+    // Igual, para una operación que borra el historial: se copia el que está en memoria para devolverlo
+    public static <T> T aplicarConHistorial(MotorCuentas motor, Cuenta cuenta, Supplier<T> operacion) {
+        return aplicar(motor, new Cuenta[] { cuenta }, true, operacion);
+    }
+
+    /**
+     * El respaldo se toma y se cierra dentro del motor, en el hilo que aplica
+     * la operación. Con bloqueos la confirmación falla dentro de la operación
+     * y con el secuenciador al volver de ella; en los dos casos se deshace
+     * después, con otra operación del motor. Una operación que ya corre dentro
+     * de otra se ejecuta sin respaldo propio: la deshace la de afuera.
+     */
+    private static <T> T aplicar(MotorCuentas motor, Cuenta[] cuentas, boolean conHistorial,
+            Supplier<T> operacion) {
+        if (transaccionesDeOperacion.get() != null) {
+            return ejecutarEnMotor(motor, cuentas, operacion);
+        }
+        RespaldoCuenta[] respaldos = new RespaldoCuenta[cuentas.length];
+        Set<Transaccion> agregadas = Collections.newSetFromMap(new IdentityHashMap<>());
         try {
-            File archivoTransacciones = new File(RUTA_TRANSACCIONES_XML);
-            if (!archivoTransacciones.getParentFile().exists()) {
-                archivoTransacciones.getParentFile().mkdirs();
-            }
+            return ejecutarEnMotor(motor, cuentas, () -> {
+                for (int i = 0; i < cuentas.length; i++) {
+                    respaldos[i] = new RespaldoCuenta(cuentas[i], conHistorial);
+                }
+                transaccionesDeOperacion.set(agregadas);
+                try {
+                    return operacion.get();
+                } finally {
+                    transaccionesDeOperacion.remove();
+                    for (RespaldoCuenta respaldo : respaldos) {
+                        respaldo.terminar();
+                    }
+                }
+            });
+        } catch (BitacoraNoConfirmadaException e) {
+            ejecutarEnMotor(motor, cuentas, () -> {
+                for (RespaldoCuenta respaldo : respaldos) {
+                    respaldo.deshacer(agregadas);
+                }
+                synchronized (PersistenciaDatos.class) {
+                    registroCambios.descartarTransacciones(agregadas);
+                    for (RespaldoCuenta respaldo : respaldos) {
+                        registroCambios.marcarCuenta(respaldo.getCuenta());
+                        // Lo indexado de las transacciones quitadas se descarta volviendo a indexar la cuenta
+                        if (!agregadas.isEmpty() || conHistorial) {
+                            indiceReportes.descartar(respaldo.getCuenta());
+                        }
+                    }
+                }
+                return null;
+            });
+            System.err.println("Operación deshecha: " + e.getMessage());
+            throw e;
+        }
+    }
 
-            XMLUtils.escribirTransaccionesAArchivoXML(transacciones, RUTA_TRANSACCIONES_XML);
-        } catch (Exception e) {
-            e.printStackTrace();
+    private static <T> T ejecutarEnMotor(MotorCuentas motor, Cuenta[] cuentas, Supplier<T> operacion) {
+        if (cuentas.length == 1) {
+            return motor.ejecutar(cuentas[0].getCodigo(), operacion);
         }
+        return motor.ejecutar(cuentas[0].getCodigo(), cuentas[1].getCodigo(), operacion);
     }
 
-    // Método para cargar transacciones
-    public static List<Transaccion> cargarTransacciones() {
-        List<Transaccion> transacciones = new ArrayList<>();
-        try {
-            File archivoTransacciones = new File(RUTA_TRANSACCIONES_XML);
-            if (!archivoTransacciones.exists()) {
-                return transacciones;
-            }
+    // Espera la confirmación de la bitácora y avisa al gestor de checkpoints
+    private static void confirmar(CompletableFuture<Void> escritura) {
+        List<CompletableFuture<Void>> pendientes = escriturasSinConfirmar.get();
+        if (pendientes != null) {
+            pendientes.add(escritura);
+            return;
+        }
+        bitacora.confirmar(escritura);
+        GestorCheckpoint gestor = gestorCheckpoint;
+        if (gestor != null) {
+            gestor.registrarMutacion();
+        }
+    }
 
-            transacciones = XMLUtils.leerTransaccionesDesdeArchivoXML(RUTA_TRANSACCIONES_XML);
-        } catch (Exception e) {
-            e.printStackTrace();
+    private static void marcarAsiento(Cuenta cuenta, Transaccion transaccion) {
+        registroCambios.marcarCuenta(cuenta);
+        if (transaccion != null) {
+            registroCambios.agregarTransaccion(transaccion);
+            indiceReportes.marcarPendiente(cuenta);
+            Set<Transaccion> deOperacion = transaccionesDeOperacion.get();
+            if (deOperacion != null) {
+                deOperacion.add(transaccion);
+            }
         }
-        return transacciones;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,109 @@
+package servicios;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import modelos.Cliente;
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Conjunto de entidades modificadas desde el último guardado. Permite que un
+ * guardado reescriba solo los archivos cuyo tipo de entidad cambió, y que las
+ * transacciones nuevas se agreguen al final en lugar de reescribir todo el
+ * historial.
+ */
+public class RegistroCambios {
+
+    private Set<Cliente> clientesModificados = Collections.newSetFromMap(new IdentityHashMap<>());
+    private Set<Cuenta> cuentasModificadas = Collections.newSetFromMap(new IdentityHashMap<>());
+    private List<Transaccion> transaccionesNuevas = new ArrayList<>();
+    private boolean reescribirTransacciones;
+
+    public synchronized void marcarCliente(Cliente cliente) {
+        clientesModificados.add(cliente);
+    }
+
+    public synchronized void marcarCuenta(Cuenta cuenta) {
+        cuentasModificadas.add(cuenta);
+    }
+
+    public synchronized void agregarTransaccion(Transaccion transaccion) {
+        transaccionesNuevas.add(transaccion);
+    }
+
+    // Quita transacciones de una operación que se deshizo; el conjunto compara por identidad
+    public synchronized void descartarTransacciones(Set<Transaccion> transacciones) {
+        transaccionesNuevas.removeIf(transacciones::contains);
+    }
+
+    // Se usa cuando se eliminan transacciones y ya no basta con agregar al final
+    public synchronized void marcarReescrituraTransacciones() {
+        reescribirTransacciones = true;
+    }
+
+    // Indica si el próximo guardado tendrá que reescribir el historial
+    public synchronized boolean requiereReescritura() {
+        return reescribirTransacciones;
+    }
+
+    /**
+     * Devuelve los cambios acumulados y deja el registro vacío, de modo que
+     * las mutaciones que lleguen durante el guardado queden para el siguiente.
+     */
+    public synchronized Cambios extraer() {
+        Cambios cambios = new Cambios(clientesModificados, cuentasModificadas, transaccionesNuevas,
+                reescribirTransacciones);
+        clientesModificados = Collections.newSetFromMap(new IdentityHashMap<>());
+        cuentasModificadas = Collections.newSetFromMap(new IdentityHashMap<>());
+        transaccionesNuevas = new ArrayList<>();
+        reescribirTransacciones = false;
+        return cambios;
+    }
+
+    /**
+     * Devuelve al registro unos cambios que no se pudieron guardar. Sus
+     * transacciones son anteriores a las registradas mientras tanto, así que
+     * van adelante.
+     */
+    public synchronized void restaurar(Cambios cambios) {
+        clientesModificados.addAll(cambios.getClientes());
+        cuentasModificadas.addAll(cambios.getCuentas());
+        transaccionesNuevas.addAll(0, cambios.getTransaccionesNuevas());
+        reescribirTransacciones |= cambios.isReescribirTransacciones();
+    }
+
+    public static class Cambios {
+        private final Set<Cliente> clientes;
+        private final Set<Cuenta> cuentas;
+        private final List<Transaccion> transaccionesNuevas;
+        private final boolean reescribirTransacciones;
+
+        private Cambios(Set<Cliente> clientes, Set<Cuenta> cuentas, List<Transaccion> transaccionesNuevas,
+                boolean reescribirTransacciones) {
+            this.clientes = clientes;
+            this.cuentas = cuentas;
+            this.transaccionesNuevas = transaccionesNuevas;
+            this.reescribirTransacciones = reescribirTransacciones;
+        }
+
+        public Set<Cliente> getClientes() {
+            return clientes;
+        }
+
+        public Set<Cuenta> getCuentas() {
+            return cuentas;
+        }
+
+        public List<Transaccion> getTransaccionesNuevas() {
+            return transaccionesNuevas;
+        }
+
+        public boolean isReescribirTransacciones() {
+            return reescribirTransacciones;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package servicios;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import modelos.Cliente;
+import modelos.Cuenta;
+
+/**
+ * Índice de todas las cuentas del sistema por código, compartido por los
+ * controladores para no recorrer las cuentas de cada cliente en cada
+ * solicitud.
+ *
+ * Las cuentas con código {@code cta-N} se guardan en un arreglo denso en la
+ * posición N, así que buscarlas es leer el número y acceder al arreglo. Los
+ * códigos con otra forma (o números demasiado grandes para el arreglo) van a
+ * un mapa aparte. Las lecturas no toman candado; las escrituras sí.
+ *
+ * También mantiene el {@link IndiceSaldos} con las mismas cuentas y guarda
+ * el {@link MotorCuentas} que comparten los controladores.
+ *
+ * Las cuentas eliminadas se quedan en el índice, igual que en la lista de
+ * cuentas de su cliente: solo cambian de estatus.
+ */
+public class RegistroCuentas {
+    private static final int CAPACIDAD_INICIAL = 1024;
+    // Un código suelto como cta-999999999 no debe reservar un arreglo enorme
+    private static final int MAXIMO_DENSO = 1 << 24;
+
+    private volatile AtomicReferenceArray<Cuenta> cuentasPorNumero = new AtomicReferenceArray<>(CAPACIDAD_INICIAL);
+    private final Map<String, Cuenta> otrasCuentas = new ConcurrentHashMap<>();
+    private final IndiceSaldos indiceSaldos = new IndiceSaldos();
+    private final MotorCuentas motor = MotorCuentas.segunConfiguracion();
+    private int cantidad;
+
+    // Vuelve a indexar las cuentas de los clientes, por ejemplo después de la carga
+    public synchronized void reconstruir(List<Cliente> clientes) {
+        cuentasPorNumero = new AtomicReferenceArray<>(CAPACIDAD_INICIAL);
+        otrasCuentas.clear();
+        cantidad = 0;
+        List<Cuenta> cuentas = new ArrayList<>();
+        for (Cliente cliente : clientes) {
+            for (Cuenta cuenta : cliente.getMisCuentas()) {
+                indexar(cuenta);
+                cuentas.add(cuenta);
+            }
+        }
+        indiceSaldos.reconstruir(cuentas);
+    }
+
+    /**
+     * Agrega la cuenta a su cliente y la indexa si el cliente la aceptó.
+     *
+     * @return true si la cuenta quedó en la lista del cliente
+     */
+    public synchronized boolean agregar(Cliente cliente, Cuenta cuenta) {
+        int antes = cliente.getMisCuentas().size();
+        cliente.agregarCuenta(cuenta);
+        if (cliente.getMisCuentas().size() == antes) {
+            return false;
+        }
+        indexar(cuenta);
+        indiceSaldos.agregar(cuenta);
+        return true;
+    }
+
+    // Deshace un alta que no quedó en la bitácora: la cuenta sale del cliente y de los índices
+    public synchronized void quitar(Cliente cliente, Cuenta cuenta) {
+        cliente.getMisCuentas().removeIf(otra -> otra == cuenta);
+        int numero = GeneradorCodigosCuenta.numero(cuenta.getCodigo());
+        boolean quitada;
+        if (numero >= 0 && numero < MAXIMO_DENSO) {
+            AtomicReferenceArray<Cuenta> cuentas = cuentasPorNumero;
+            quitada = numero < cuentas.length() && cuentas.compareAndSet(numero, cuenta, null);
+        } else {
+            quitada = otrasCuentas.remove(cuenta.getCodigo(), cuenta);
+        }
+        if (quitada) {
+            cantidad--;
+        }
+        indiceSaldos.quitar(cuenta);
+    }
+
+    public Cuenta buscar(String codigo) {
+        int numero = GeneradorCodigosCuenta.numero(codigo);
+        if (numero >= 0 && numero < MAXIMO_DENSO) {
+            AtomicReferenceArray<Cuenta> cuentas = cuentasPorNumero;
+            return numero < cuentas.length() ? cuentas.get(numero) : null;
+        }
+        return codigo == null ? null : otrasCuentas.get(codigo);
+    }
+
+    public IndiceSaldos getIndiceSaldos() {
+        return indiceSaldos;
+    }
+
+    public MotorCuentas getMotor() {
+        return motor;
+    }
+
+    public synchronized int getCantidad() {
+        return cantidad;
+    }
+
+    private void indexar(Cuenta cuenta) {
+        int numero = GeneradorCodigosCuenta.numero(cuenta.getCodigo());
+        Cuenta anterior;
+        if (numero >= 0 && numero < MAXIMO_DENSO) {
+            AtomicReferenceArray<Cuenta> cuentas = cuentasPorNumero;
+            if (numero >= cuentas.length()) {
+                cuentas = crecer(cuentas, numero);
+            }
+            anterior = cuentas.getAndSet(numero, cuenta);
+        } else {
+            anterior = otrasCuentas.put(cuenta.getCodigo(), cuenta);
+        }
+        if (anterior == null) {
+            cantidad++;
+        }
+    }
+
+    // Copia el arreglo a uno que alcance para el número y lo publica
+    private AtomicReferenceArray<Cuenta> crecer(AtomicReferenceArray<Cuenta> cuentas, int numero) {
+        int capacidad = cuentas.length();
+        while (capacidad <= numero) {
+            capacidad = Math.min(capacidad * 2, MAXIMO_DENSO);
+        }
+        AtomicReferenceArray<Cuenta> nuevas = new AtomicReferenceArray<>(capacidad);
+        for (int i = 0; i < cuentas.length(); i++) {
+            nuevas.set(i, cuentas.get(i));
+        }
+        cuentasPorNumero = nuevas;
+        return nuevas;
+    }
+}
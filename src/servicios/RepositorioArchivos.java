@@ -0,0 +1,535 @@
+package servicios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import modelos.Cliente;
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Repositorio sobre los archivos de {@code src/data}: clientes y cuentas en el
+ * formato de instantánea elegido (XML o binario) y transacciones en un
+ * archivo único o en segmentos mensuales. Cada archivo se escribe completo en
+ * un temporal y se publica con un renombrado atómico; si la escritura falla,
+ * el temporal se borra y el archivo anterior queda intacto. Las
+ * transacciones nuevas se agregan al final del archivo existente, protegidas
+ * por un registro para deshacer (ver {@link #agregarTransacciones}).
+ */
+public class RepositorioArchivos implements RepositorioBanco {
+    private static final String DIRECTORIO_DATOS = "src/data/";
+    private static final String SUFIJO_TEMPORAL = ".tmp";
+    private static final String SUFIJO_DESHACER = ".deshacer";
+    // Final del archivo que una escritura al final puede reemplazar (el cierre del XML)
+    private static final int TAMANO_COLA = 4096;
+
+    // Escribe el contenido de un archivo en la ruta temporal indicada
+    private interface EscrituraArchivo {
+        void escribir(String rutaTemporal) throws IOException;
+    }
+
+    private final FormatoSnapshot formato;
+    private final String rutaCuentas;
+    private final String rutaClientes;
+    private final String rutaTransacciones;
+    private final SegmentosTransacciones segmentos;
+    private final boolean historialPerezoso;
+    private final ArchivoHistorico historico;
+    // Antigüedad desde la cual las transacciones pasan al historial comprimido; 0 para no archivar
+    private final int diasHistorico;
+
+    public RepositorioArchivos() {
+        // Formato de la instantánea, elegido al arrancar con -Dbanco.formato=xml|binario
+        this.formato = FormatoSnapshot.segun(Configuracion.obtener("banco.formato", "xml"));
+        this.rutaCuentas = rutaDatos("cuentas", formato);
+        this.rutaClientes = rutaDatos("clientes", formato);
+        this.rutaTransacciones = rutaDatos("transacciones", formato);
+        // Con -Dbanco.transacciones=segmentos las transacciones se guardan en segmentos mensuales
+        this.segmentos = Configuracion.obtener("banco.transacciones", "archivo").equalsIgnoreCase("segmentos")
+                ? new SegmentosTransacciones(DIRECTORIO_DATOS + "transacciones")
+                : null;
+        // El archivo único no tiene índice por cuenta: ahí el historial perezoso hay que pedirlo
+        this.historialPerezoso = RepositorioBanco.historialPerezoso(segmentos != null);
+        this.historico = new ArchivoHistorico(DIRECTORIO_DATOS + "historico");
+        this.diasHistorico = Configuracion.obtenerEntero("banco.historico.dias", 0);
+    }
+
+    @Override
+    public String getNombre() {
+        return "archivos (" + formato.getNombre() + (segmentos != null ? ", segmentos" : "")
+                + (historialPerezoso ? ", historial perezoso" : "") + ")";
+    }
+
+    @Override
+    public void abrir() {
+        prepararFormato();
+        try {
+            recuperarAgregado();
+        } catch (IOException e) {
+            System.err.println("Error al deshacer una escritura incompleta de transacciones: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean estaVacio() {
+        return !new File(rutaClientes).exists();
+    }
+
+    @Override
+    public void cerrar() {
+        // Cada guardado deja sus archivos cerrados y sincronizados
+    }
+
+    /**
+     * Si todavía no existe la instantánea en el formato elegido pero sí en el
+     * otro (por ejemplo, al pasar de XML a binario por primera vez), la
+     * convierte antes de cargar.
+     */
+    private void prepararFormato() {
+        if (new File(rutaClientes).exists()) {
+            return;
+        }
+        FormatoSnapshot otro = FormatoSnapshot.segun(formato instanceof FormatoXML ? "binario" : "xml");
+        if (new File(rutaDatos("clientes", otro)).exists()) {
+            System.out.println("Convirtiendo la instantánea de " + otro.getNombre() + " a " + formato.getNombre()
+                    + "...");
+            convertirFormato(otro, formato);
+        }
+    }
+
+    /**
+     * Convierte los tres archivos de la instantánea de un formato a otro. Se
+     * usa al arrancar y desde {@link ConvertidorSnapshot}.
+     */
+    public static synchronized void convertirFormato(FormatoSnapshot origen, FormatoSnapshot destino) {
+        try {
+            List<Cliente> clientes = origen.leerClientes(rutaDatos("clientes", origen));
+            List<Cuenta> cuentas = RepositorioBanco.enlazarCuentas(origen.leerCuentas(rutaDatos("cuentas", origen)),
+                    clientes);
+            List<Transaccion> transacciones = new ArrayList<>();
+            if (new File(rutaDatos("transacciones", origen)).exists()) {
+                transacciones = origen.leerTransacciones(rutaDatos("transacciones", origen));
+            }
+
+            escribirAtomicamente(rutaDatos("clientes", destino), temporal -> destino.escribirClientes(clientes, temporal));
+            escribirAtomicamente(rutaDatos("cuentas", destino), temporal -> destino.escribirCuentas(cuentas, temporal));
+            List<Transaccion> transaccionesLeidas = transacciones;
+            escribirAtomicamente(rutaDatos("transacciones", destino),
+                    temporal -> destino.escribirTransacciones(transaccionesLeidas, temporal));
+            System.out.println("Instantánea convertida: " + clientes.size() + " clientes, " + cuentas.size()
+                    + " cuentas, " + transacciones.size() + " transacciones.");
+        } catch (IOException e) {
+            System.err.println("Error al convertir la instantánea: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static String rutaDatos(String nombre, FormatoSnapshot formatoArchivo) {
+        return DIRECTORIO_DATOS + nombre + formatoArchivo.getExtension();
+    }
+
+    // Métodos para manejar clientes
+
+    @Override
+    public List<Cliente> cargarClientes() {
+        try {
+            List<Cliente> clientes = formato.leerClientes(rutaClientes);
+            if (clientes == null || clientes.isEmpty()) {
+                System.out.println("No se encontraron clientes en el archivo " + rutaClientes + ".");
+            } else {
+                System.out.println("Clientes cargados correctamente: " + clientes.size() + " clientes encontrados.");
+            }
+            return clientes;
+        } catch (Exception e) {
+            System.err.println("Error al cargar los clientes: " + e.getMessage());
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    // El archivo se reescribe completo, sin importar cuántos clientes cambiaron
+    @Override
+    public long guardarClientes(Collection<Cliente> modificados, List<Cliente> todos) throws IOException {
+        escribirAtomicamente(rutaClientes, temporal -> formato.escribirClientes(todos, temporal));
+        return tamanoArchivo(rutaClientes);
+    }
+
+    // Métodos para manejar cuentas
+
+    @Override
+    public Map<Long, List<Cuenta>> cargarCuentas() {
+        try {
+            return formato.leerCuentas(rutaCuentas);
+        } catch (Exception e) {
+            System.err.println("Error al cargar las cuentas: " + e.getMessage());
+            return new HashMap<>();
+        }
+    }
+
+    @Override
+    public long guardarCuentas(Collection<Cuenta> modificadas, List<Cuenta> todas) throws IOException {
+        escribirAtomicamente(rutaCuentas, temporal -> formato.escribirCuentas(todas, temporal));
+        return tamanoArchivo(rutaCuentas);
+    }
+
+    // Métodos para manejar transacciones
+
+    @Override
+    public synchronized List<Transaccion> cargarTransacciones(Map<String, Integer> archivadasPorCuenta) {
+        try {
+            historico.abrir();
+            // La primera vez se migra el archivo de transacciones existente a segmentos
+            if (segmentos != null && !segmentos.existe() && new File(rutaTransacciones).exists()) {
+                List<Transaccion> existentes = leerArchivoTransacciones();
+                segmentos.agregar(existentes);
+                System.out.println("Transacciones migradas a segmentos mensuales: " + existentes.size());
+            }
+            if (diasHistorico > 0) {
+                archivarAntiguas(YearMonth.from(LocalDate.now().minusDays(diasHistorico)).atDay(1));
+            }
+            historico.contar(archivadasPorCuenta);
+        } catch (IOException e) {
+            System.err.println("Error al preparar el historial de transacciones: " + e.getMessage());
+            e.printStackTrace();
+        }
+        if (segmentos != null) {
+            return cargarSegmentos(archivadasPorCuenta);
+        }
+        List<Transaccion> transacciones = leerArchivoTransacciones();
+        if (!historialPerezoso) {
+            return transacciones;
+        }
+        // Con el historial perezoso solo se cuentan; el archivo se vuelve a leer al consultar una cuenta
+        for (Transaccion transaccion : transacciones) {
+            archivadasPorCuenta.merge(transaccion.getCodigoCuenta(), 1, Integer::sum);
+        }
+        return new ArrayList<>();
+    }
+
+    private List<Transaccion> leerArchivoTransacciones() {
+        List<Transaccion> transacciones = new ArrayList<>();
+        try {
+            File archivoTransacciones = new File(rutaTransacciones);
+            if (!archivoTransacciones.exists()) {
+                return transacciones;
+            }
+
+            transacciones = formato.leerTransacciones(rutaTransacciones);
+            // Lo anterior al límite del historial comprimido ya está archivado ahí
+            LocalDate limite = historico.getLimite();
+            if (limite != null) {
+                transacciones.removeIf(transaccion -> transaccion.getFecha().isBefore(limite));
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return transacciones;
+    }
+
+    /**
+     * Pasa al historial comprimido las transacciones anteriores a
+     * {@code limite} (un inicio de mes) y las quita del archivo de
+     * transacciones o de los segmentos.
+     */
+    private void archivarAntiguas(LocalDate limite) throws IOException {
+        LocalDate actual = historico.getLimite();
+        if (actual != null && !limite.isAfter(actual)) {
+            return;
+        }
+        List<Transaccion> antiguas = new ArrayList<>();
+        List<Transaccion> recientes = new ArrayList<>();
+        if (segmentos != null) {
+            antiguas = segmentos.leerAnteriores(YearMonth.from(limite));
+            if (actual != null) {
+                antiguas.removeIf(transaccion -> transaccion.getFecha().isBefore(actual));
+            }
+        } else {
+            for (Transaccion transaccion : leerArchivoTransacciones()) {
+                (transaccion.getFecha().isBefore(limite) ? antiguas : recientes).add(transaccion);
+            }
+        }
+
+        long bytes = historico.archivar(antiguas, limite);
+        if (antiguas.isEmpty()) {
+            return;
+        }
+        if (segmentos == null) {
+            escribirAtomicamente(rutaTransacciones, temporal -> formato.escribirTransacciones(recientes, temporal));
+        }
+        System.out.println("Historial comprimido: " + antiguas.size() + " transacciones anteriores a " + limite
+                + " archivadas en " + bytes + " bytes.");
+    }
+
+    /**
+     * Carga las transacciones desde los segmentos mensuales: las de meses
+     * anteriores al actual (todas, con el historial perezoso) quedan en disco
+     * y solo se cuentan.
+     */
+    private List<Transaccion> cargarSegmentos(Map<String, Integer> archivadasPorCuenta) {
+        try {
+            if (historico.getLimite() != null) {
+                segmentos.eliminarAnteriores(YearMonth.from(historico.getLimite()));
+            }
+            YearMonth limite = historialPerezoso ? YearMonth.from(SIN_LIMITE) : YearMonth.now();
+            return segmentos.cargar(limite, archivadasPorCuenta);
+        } catch (IOException e) {
+            System.err.println("Error al cargar los segmentos de transacciones: " + e.getMessage());
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
+
+    @Override
+    public LocalDate getInicioEnMemoria() {
+        if (segmentos != null) {
+            return segmentos.getLimiteArchivo().atDay(1);
+        }
+        return historialPerezoso ? SIN_LIMITE : historico.getLimite();
+    }
+
+    // Sincronizado con las escrituras, que agregan sobre el mismo archivo que se lee
+    @Override
+    public synchronized List<Transaccion> leerTransaccionesArchivadas(Cuenta cuenta) {
+        List<Transaccion> transacciones = historico.leer(cuenta.getCodigo(), null, null);
+        if (segmentos != null) {
+            transacciones.addAll(segmentos.leerArchivadas(cuenta.getCodigo()));
+        } else if (historialPerezoso) {
+            // Sin índice por cuenta hay que recorrer el archivo completo
+            for (Transaccion transaccion : leerArchivoTransacciones()) {
+                if (transaccion.getCodigoCuenta().equals(cuenta.getCodigo())) {
+                    transacciones.add(transaccion);
+                }
+            }
+        }
+        return transacciones;
+    }
+
+    // Mismo origen que leerTransaccionesArchivadas: primero lo comprimido, después lo que quedó en disco
+    @Override
+    public synchronized void recorrerTransaccionesArchivadas(Consumer<Transaccion> destino) {
+        historico.recorrer(destino);
+        if (segmentos != null) {
+            segmentos.recorrerArchivadas(destino);
+        } else if (historialPerezoso) {
+            leerArchivoTransacciones().forEach(destino);
+        }
+    }
+
+    /**
+     * Con el archivo único las transacciones se escriben al final del mismo
+     * archivo, sin copiarlo, así que el costo depende de lo nuevo y no del
+     * historial. Antes se guarda un registro para deshacer con la longitud
+     * actual y la cola que la escritura puede reemplazar: si la escritura
+     * falla, el archivo vuelve a quedar como estaba; si el proceso cae a
+     * medias, se restaura al abrir el repositorio (la bitácora todavía tiene
+     * esas transacciones, porque solo se vacía después de guardar).
+     */
+    @Override
+    public synchronized long agregarTransacciones(List<Transaccion> nuevas) throws IOException {
+        if (segmentos != null) {
+            return segmentos.agregar(nuevas);
+        }
+        if (!new File(rutaTransacciones).exists()) {
+            escribirAtomicamente(rutaTransacciones, temporal -> formato.escribirTransacciones(nuevas, temporal));
+            return tamanoArchivo(rutaTransacciones);
+        }
+        // Un intento anterior que no se pudo deshacer en el momento se deshace ahora
+        recuperarAgregado();
+
+        long tamanoAnterior = tamanoArchivo(rutaTransacciones);
+        Path deshacer = Paths.get(rutaTransacciones + SUFIJO_DESHACER);
+        guardarDeshacer(deshacer);
+        try {
+            formato.agregarTransacciones(nuevas, rutaTransacciones);
+        } catch (IOException | RuntimeException e) {
+            try {
+                recuperarAgregado();
+            } catch (IOException restauracion) {
+                // El registro para deshacer se queda y se vuelve a intentar antes de la próxima escritura
+                e.addSuppressed(restauracion);
+            }
+            throw e;
+        }
+        Files.delete(deshacer);
+        sincronizarDirectorio(deshacer);
+        return tamanoArchivo(rutaTransacciones) - tamanoAnterior;
+    }
+
+    /**
+     * Escribe el registro para deshacer como [longitud (long)][largo de la
+     * cola (int)][cola][CRC32 (int)] y lo publica con un renombrado atómico
+     * antes de tocar el archivo de transacciones.
+     */
+    private void guardarDeshacer(Path deshacer) throws IOException {
+        byte[] cola;
+        long longitud;
+        try (FileChannel canal = FileChannel.open(Paths.get(rutaTransacciones), StandardOpenOption.READ)) {
+            longitud = canal.size();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(longitud, TAMANO_COLA));
+            canal.position(longitud - buffer.capacity());
+            while (buffer.hasRemaining() && canal.read(buffer) >= 0) {
+                // Leer hasta llenar la cola
+            }
+            cola = buffer.array();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(cola.length + 16);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(longitud);
+        out.writeInt(cola.length);
+        out.write(cola);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        byte[] registro = bytes.toByteArray();
+        escribirAtomicamente(deshacer.toString(), temporal -> {
+            try (FileOutputStream salida = new FileOutputStream(temporal)) {
+                salida.write(registro);
+                salida.getChannel().force(true);
+            }
+        });
+    }
+
+    /**
+     * Si quedó un registro para deshacer, devuelve el archivo de transacciones
+     * a la longitud y la cola que tenía antes de la escritura al final. Un
+     * registro dañado solo puede venir de una caída mientras se escribía el
+     * propio registro, antes de tocar el archivo, así que solo se borra.
+     */
+    private void recuperarAgregado() throws IOException {
+        Path deshacer = Paths.get(rutaTransacciones + SUFIJO_DESHACER);
+        if (!Files.exists(deshacer)) {
+            return;
+        }
+        byte[] registro = Files.readAllBytes(deshacer);
+        if (registroDeshacerValido(registro)) {
+            ByteBuffer buffer = ByteBuffer.wrap(registro);
+            long longitud = buffer.getLong();
+            int largoCola = buffer.getInt();
+            ByteBuffer cola = ByteBuffer.wrap(registro, buffer.position(), largoCola);
+            try (FileChannel canal = FileChannel.open(Paths.get(rutaTransacciones), StandardOpenOption.WRITE)) {
+                long posicion = longitud - largoCola;
+                while (cola.hasRemaining()) {
+                    posicion += canal.write(cola, posicion);
+                }
+                canal.truncate(longitud);
+                canal.force(true);
+            }
+            System.out.println("Escritura incompleta de transacciones deshecha: el archivo vuelve a " + longitud
+                    + " bytes.");
+        }
+        Files.delete(deshacer);
+        sincronizarDirectorio(deshacer);
+    }
+
+    private static boolean registroDeshacerValido(byte[] registro) {
+        int fijo = Long.BYTES + Integer.BYTES;
+        if (registro.length < fijo + Integer.BYTES) {
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(registro);
+        long longitud = buffer.getLong();
+        int largoCola = buffer.getInt();
+        if (longitud < 0 || largoCola < 0 || largoCola > longitud
+                || registro.length != fijo + largoCola + Integer.BYTES) {
+            return false;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(registro, 0, registro.length - Integer.BYTES);
+        return buffer.getInt(registro.length - Integer.BYTES) == (int) crc.getValue();
+    }
+
+    @Override
+    public synchronized long reescribirTransacciones(List<Transaccion> enMemoria,
+            Map<String, Integer> archivadasPorCuenta) throws IOException {
+        // Lo archivado solo se conserva para cuentas que siguen teniendo historial archivado
+        Set<String> conArchivadas = new HashSet<>();
+        archivadasPorCuenta.forEach((codigo, archivadas) -> {
+            if (archivadas > 0) {
+                conArchivadas.add(codigo);
+            }
+        });
+        long bytes = historico.reescribir(conArchivadas::contains);
+        if (segmentos == null) {
+            List<Transaccion> todas = new ArrayList<>();
+            if (historialPerezoso && !conArchivadas.isEmpty()) {
+                for (Transaccion transaccion : leerArchivoTransacciones()) {
+                    if (conArchivadas.contains(transaccion.getCodigoCuenta())) {
+                        todas.add(transaccion);
+                    }
+                }
+            }
+            todas.addAll(enMemoria);
+            escribirAtomicamente(rutaTransacciones, temporal -> formato.escribirTransacciones(todas, temporal));
+            return bytes + tamanoArchivo(rutaTransacciones);
+        }
+        return bytes + segmentos.reescribir(enMemoria, conArchivadas::contains);
+    }
+
+    // Métodos auxiliares de archivos
+
+    /**
+     * Publica un archivo ya escrito y sincronizado renombrándolo sobre el
+     * definitivo. El renombrado es atómico, así que ante una caída el archivo
+     * definitivo queda con la versión anterior completa o con la nueva
+     * completa, nunca a medio escribir.
+     */
+    static void reemplazarAtomicamente(String temporal, String destino) throws IOException {
+        Path rutaDestino = Paths.get(destino);
+        Files.move(Paths.get(temporal), rutaDestino, StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+        // Sincronizar el directorio para que el renombrado también sea durable
+        sincronizarDirectorio(rutaDestino);
+    }
+
+    // Hace durables los renombrados y borrados dentro del directorio del archivo
+    static void sincronizarDirectorio(Path archivo) {
+        try (FileChannel directorio = FileChannel.open(archivo.toAbsolutePath().getParent(),
+                StandardOpenOption.READ)) {
+            directorio.force(true);
+        } catch (IOException e) {
+            // Algunos sistemas no permiten abrir directorios; el cambio ya se hizo
+        }
+    }
+
+    // Escribe el archivo en un temporal y lo publica solo si la escritura terminó sin errores
+    private static void escribirAtomicamente(String destino, EscrituraArchivo escritura) throws IOException {
+        File archivo = new File(destino);
+        if (!archivo.getParentFile().exists()) {
+            archivo.getParentFile().mkdirs();
+        }
+        String temporal = destino + SUFIJO_TEMPORAL;
+        try {
+            escritura.escribir(temporal);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(Paths.get(temporal));
+            throw e;
+        }
+        reemplazarAtomicamente(temporal, destino);
+    }
+
+    private static long tamanoArchivo(String ruta) {
+        return new File(ruta).length();
+    }
+}
@@ -0,0 +1,146 @@
+package servicios;
+
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import modelos.Cliente;
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Almacenamiento de clientes, cuentas y transacciones. PersistenciaDatos se
+ * encarga de la bitácora, del registro de cambios y de los checkpoints, y
+ * delega en un repositorio la carga inicial y el guardado de lo que cambió.
+ *
+ * Los métodos de guardado devuelven la cantidad de bytes escritos, o 0 si el
+ * repositorio no lo puede medir. Si un guardado falla lanzan la excepción y
+ * no dejan nada a medias a la vista de la siguiente carga, para que
+ * PersistenciaDatos conserve los cambios y la bitácora hasta el próximo
+ * intento.
+ */
+public interface RepositorioBanco {
+
+    // Límite de carga cuando el historial completo queda en el repositorio
+    LocalDate SIN_LIMITE = LocalDate.of(9999, 12, 31);
+
+    String getNombre();
+
+    // Prepara el almacenamiento (conversiones, esquema, conexión) antes de cargar
+    void abrir() throws IOException;
+
+    // Indica si el almacenamiento todavía no tiene datos
+    boolean estaVacio();
+
+    List<Cliente> cargarClientes();
+
+    /**
+     * Crea las cuentas agrupadas por la identificación de su cliente, sin
+     * asociarlas todavía, para poder cargarlas al mismo tiempo que los
+     * clientes (ver {@link #enlazarCuentas}).
+     */
+    Map<Long, List<Cuenta>> cargarCuentas();
+
+    /**
+     * Devuelve las transacciones que se mantienen en memoria. De las
+     * transacciones archivadas (anteriores a {@link #getInicioEnMemoria()})
+     * solo se acumula en {@code archivadasPorCuenta} cuántas tiene cada cuenta.
+     */
+    List<Transaccion> cargarTransacciones(Map<String, Integer> archivadasPorCuenta);
+
+    /**
+     * Fecha desde la cual las transacciones están en memoria, o null si están
+     * todas. Con el historial perezoso es {@link #SIN_LIMITE}: al arrancar no
+     * se carga ninguna transacción y las nuevas salen de memoria una vez
+     * guardadas.
+     */
+    LocalDate getInicioEnMemoria();
+
+    // Transacciones archivadas de la cuenta, en orden cronológico
+    List<Transaccion> leerTransaccionesArchivadas(Cuenta cuenta);
+
+    /**
+     * Entrega en una sola pasada las transacciones archivadas de todas las
+     * cuentas: las mismas que {@link #leerTransaccionesArchivadas} devolvería
+     * para cada una y, dentro de cada cuenta, en el mismo orden.
+     */
+    void recorrerTransaccionesArchivadas(Consumer<Transaccion> destino);
+
+    long guardarClientes(Collection<Cliente> modificados, List<Cliente> todos) throws IOException;
+
+    long guardarCuentas(Collection<Cuenta> modificadas, List<Cuenta> todas) throws IOException;
+
+    long agregarTransacciones(List<Transaccion> nuevas) throws IOException;
+
+    /**
+     * Reescribe el historial a partir de las transacciones en memoria de las
+     * cuentas. {@code archivadasPorCuenta} tiene una entrada por cada cuenta
+     * que se conserva, con la cantidad de transacciones archivadas; lo
+     * archivado se conserva solo para las que tienen más de cero (se usa al
+     * eliminar cuentas).
+     */
+    long reescribirTransacciones(List<Transaccion> enMemoria, Map<String, Integer> archivadasPorCuenta)
+            throws IOException;
+
+    void cerrar();
+
+    /**
+     * Asocia cada cuenta a su cliente, en el orden en que se leyeron, y
+     * devuelve todas las cuentas. Las cuentas cuyo cliente no existe quedan
+     * sin asociar.
+     */
+    static List<Cuenta> enlazarCuentas(Map<Long, List<Cuenta>> cuentasPorCliente, List<Cliente> clientes) {
+        IndiceClientes clientesPorId = new IndiceClientes(clientes.size());
+        for (Cliente cliente : clientes) {
+            clientesPorId.agregar(cliente);
+        }
+        List<Cuenta> cuentas = new ArrayList<>();
+        for (Map.Entry<Long, List<Cuenta>> entrada : cuentasPorCliente.entrySet()) {
+            Cliente cliente = clientesPorId.buscar(entrada.getKey());
+            if (cliente == null) {
+                System.err.println("Advertencia: Cliente con identificación " + entrada.getKey()
+                        + " no encontrado. Sus cuentas no se asociarán a ningún cliente.");
+            }
+            for (Cuenta cuenta : entrada.getValue()) {
+                if (cliente != null) {
+                    cuenta.setCliente(cliente);
+                    cliente.getMisCuentas().add(cuenta);
+                }
+                cuentas.add(cuenta);
+            }
+        }
+        return cuentas;
+    }
+
+    /**
+     * Indica si el historial se deja en el repositorio y se lee bajo demanda
+     * (-Dbanco.historial=perezoso) o se carga completo al arrancar
+     * (-Dbanco.historial=completo). Por defecto es perezoso solo si el
+     * repositorio puede leer el historial de una cuenta con un índice, sin
+     * recorrer todas las transacciones.
+     */
+    static boolean historialPerezoso(boolean conIndicePorCuenta) {
+        String porDefecto = conIndicePorCuenta ? "perezoso" : "completo";
+        return !Configuracion.obtener("banco.historial", porDefecto).equalsIgnoreCase("completo");
+    }
+
+    /**
+     * Devuelve el repositorio indicado con -Dbanco.repositorio: "archivos"
+     * (por defecto) o "jdbc".
+     */
+    static RepositorioBanco segunConfiguracion() {
+        String nombre = Configuracion.obtener("banco.repositorio", "archivos");
+        if (nombre.equalsIgnoreCase("jdbc")) {
+            return new RepositorioJDBC(Configuracion.obtener("banco.jdbc.url", RepositorioJDBC.URL_POR_DEFECTO),
+                    Configuracion.obtener("banco.jdbc.usuario", ""), Configuracion.obtener("banco.jdbc.clave", ""));
+        }
+        if (!nombre.equalsIgnoreCase("archivos")) {
+            System.err.println("Repositorio desconocido: " + nombre + ", se usan archivos.");
+        }
+        return new RepositorioArchivos();
+    }
+}
@@ -0,0 +1,456 @@
+package servicios;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import modelos.Cliente;
+import modelos.ClienteFisico;
+import modelos.ClienteJuridico;
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Repositorio sobre una base de datos embebida accedida por JDBC. En lugar
+ * de reescribir archivos completos, actualiza solo las filas de los clientes
+ * y cuentas que cambiaron, inserta las transacciones nuevas en lote y
+ * consulta el historial archivado con un índice por cuenta y fecha.
+ *
+ * El controlador JDBC no se incluye en lib; se elige con la URL
+ * (-Dbanco.jdbc.url) y el jar correspondiente en el classpath. El esquema
+ * usa solo SQL estándar para funcionar con H2, Derby, SQLite u otras.
+ */
+public class RepositorioJDBC implements RepositorioBanco {
+    static final String URL_POR_DEFECTO = "jdbc:h2:./src/data/banco";
+
+    private static final String[] ESQUEMA = {
+            "CREATE TABLE clientes (identificacion BIGINT PRIMARY KEY, orden BIGINT NOT NULL,"
+                    + " tipo VARCHAR(10) NOT NULL, nombre VARCHAR(200), num_telefono VARCHAR(30),"
+                    + " correo VARCHAR(200), fecha_nacimiento DATE, max_cuentas INTEGER,"
+                    + " tipo_negocio VARCHAR(200), razon_social VARCHAR(200))",
+            "CREATE TABLE cuentas (codigo VARCHAR(30) PRIMARY KEY, orden BIGINT NOT NULL, estatus VARCHAR(20),"
+                    + " saldo DOUBLE PRECISION, identificacion BIGINT, pin VARCHAR(200))",
+            "CREATE TABLE transacciones (secuencia BIGINT PRIMARY KEY, codigo_cuenta VARCHAR(30) NOT NULL,"
+                    + " fecha DATE NOT NULL, tipo VARCHAR(50), monto DOUBLE PRECISION, comision SMALLINT)",
+            "CREATE INDEX idx_transacciones_cuenta ON transacciones (codigo_cuenta, fecha)",
+            "CREATE INDEX idx_transacciones_fecha ON transacciones (fecha)" };
+
+    private final String url;
+    private final String usuario;
+    private final String clave;
+    private final boolean historialPerezoso;
+    private Connection conexion;
+
+    // Próximos valores de las columnas de orden, para conservar el orden de inserción
+    private long siguienteOrdenCliente;
+    private long siguienteOrdenCuenta;
+    private long siguienteSecuencia;
+    private LocalDate inicioEnMemoria = YearMonth.now().atDay(1);
+
+    public RepositorioJDBC(String url, String usuario, String clave) {
+        this.url = url;
+        this.usuario = usuario;
+        this.clave = clave;
+        this.historialPerezoso = RepositorioBanco.historialPerezoso(true);
+    }
+
+    @Override
+    public String getNombre() {
+        return "jdbc (" + url + ")";
+    }
+
+    @Override
+    public synchronized void abrir() throws IOException {
+        try {
+            String driver = Configuracion.obtener("banco.jdbc.driver", "");
+            if (!driver.isEmpty()) {
+                Class.forName(driver);
+            }
+            conexion = DriverManager.getConnection(url, usuario, clave);
+            conexion.setAutoCommit(false);
+            crearEsquema();
+            siguienteOrdenCliente = consultarMaximo("SELECT MAX(orden) FROM clientes") + 1;
+            siguienteOrdenCuenta = consultarMaximo("SELECT MAX(orden) FROM cuentas") + 1;
+            siguienteSecuencia = consultarMaximo("SELECT MAX(secuencia) FROM transacciones") + 1;
+        } catch (SQLException | ClassNotFoundException e) {
+            throw new IOException("No se pudo abrir la base de datos " + url + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void crearEsquema() throws SQLException {
+        try (Statement consulta = conexion.createStatement()) {
+            consulta.executeQuery("SELECT 1 FROM clientes WHERE 1 = 0").close();
+            return;
+        } catch (SQLException e) {
+            // La tabla no existe todavía
+            conexion.rollback();
+        }
+        try (Statement sentencia = conexion.createStatement()) {
+            for (String ddl : ESQUEMA) {
+                sentencia.executeUpdate(ddl);
+            }
+        }
+        conexion.commit();
+        System.out.println("Esquema creado en " + url);
+    }
+
+    private long consultarMaximo(String sql) throws SQLException {
+        try (Statement consulta = conexion.createStatement(); ResultSet resultado = consulta.executeQuery(sql)) {
+            return resultado.next() ? resultado.getLong(1) : 0;
+        }
+    }
+
+    @Override
+    public synchronized boolean estaVacio() {
+        try {
+            return consultarMaximo("SELECT COUNT(*) FROM clientes") == 0;
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void cerrar() {
+        if (conexion == null) {
+            return;
+        }
+        try {
+            conexion.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        conexion = null;
+    }
+
+    // Métodos para manejar clientes
+
+    @Override
+    public synchronized List<Cliente> cargarClientes() {
+        List<Cliente> clientes = new ArrayList<>();
+        String sql = "SELECT tipo, nombre, identificacion, num_telefono, correo, fecha_nacimiento, max_cuentas,"
+                + " tipo_negocio, razon_social FROM clientes ORDER BY orden";
+        try (Statement consulta = conexion.createStatement(); ResultSet fila = consulta.executeQuery(sql)) {
+            while (fila.next()) {
+                String tipo = fila.getString("tipo");
+                String nombre = fila.getString("nombre");
+                long identificacion = fila.getLong("identificacion");
+                String numTelefono = fila.getString("num_telefono");
+                String correoElectronico = fila.getString("correo");
+                if (tipo.equals("fisico")) {
+                    clientes.add(new ClienteFisico(nombre, identificacion, numTelefono, correoElectronico,
+                            fila.getDate("fecha_nacimiento").toLocalDate(), fila.getInt("max_cuentas")));
+                } else if (tipo.equals("juridico")) {
+                    clientes.add(new ClienteJuridico(nombre, identificacion, numTelefono, correoElectronico,
+                            fila.getString("tipo_negocio"), fila.getString("razon_social")));
+                }
+            }
+            conexion.commit();
+            System.out.println("Clientes cargados correctamente: " + clientes.size() + " clientes encontrados.");
+        } catch (SQLException e) {
+            System.err.println("Error al cargar los clientes: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return clientes;
+    }
+
+    // Solo se actualizan (o insertan) las filas de los clientes modificados
+    @Override
+    public synchronized long guardarClientes(Collection<Cliente> modificados, List<Cliente> todos) throws IOException {
+        String actualizar = "UPDATE clientes SET tipo = ?, nombre = ?, num_telefono = ?, correo = ?,"
+                + " fecha_nacimiento = ?, max_cuentas = ?, tipo_negocio = ?, razon_social = ?"
+                + " WHERE identificacion = ?";
+        String insertar = "INSERT INTO clientes (tipo, nombre, num_telefono, correo, fecha_nacimiento,"
+                + " max_cuentas, tipo_negocio, razon_social, identificacion, orden)"
+                + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement update = conexion.prepareStatement(actualizar);
+                PreparedStatement insert = conexion.prepareStatement(insertar)) {
+            for (Cliente cliente : modificados) {
+                asignarCliente(update, cliente);
+                if (update.executeUpdate() == 0) {
+                    asignarCliente(insert, cliente);
+                    insert.setLong(10, siguienteOrdenCliente++);
+                    insert.executeUpdate();
+                }
+            }
+            conexion.commit();
+        } catch (SQLException e) {
+            throw deshacer(e);
+        }
+        return 0;
+    }
+
+    private static void asignarCliente(PreparedStatement sentencia, Cliente cliente) throws SQLException {
+        sentencia.setString(2, cliente.getNombre());
+        sentencia.setString(3, cliente.getNumTelefono());
+        sentencia.setString(4, cliente.getCorreoElectronico());
+        if (cliente instanceof ClienteFisico) {
+            ClienteFisico clienteFisico = (ClienteFisico) cliente;
+            sentencia.setString(1, "fisico");
+            sentencia.setDate(5, java.sql.Date.valueOf(clienteFisico.getFechaNacimiento()));
+            sentencia.setInt(6, clienteFisico.getMaxCuentas());
+            sentencia.setNull(7, Types.VARCHAR);
+            sentencia.setNull(8, Types.VARCHAR);
+        } else {
+            ClienteJuridico clienteJuridico = (ClienteJuridico) cliente;
+            sentencia.setString(1, "juridico");
+            sentencia.setNull(5, Types.DATE);
+            sentencia.setNull(6, Types.INTEGER);
+            sentencia.setString(7, clienteJuridico.getTipoNegocio());
+            sentencia.setString(8, clienteJuridico.getRazonSocial());
+        }
+        sentencia.setLong(9, cliente.getIdentificacion());
+    }
+
+    // Métodos para manejar cuentas
+
+    @Override
+    public synchronized Map<Long, List<Cuenta>> cargarCuentas() {
+        Map<Long, List<Cuenta>> cuentasPorCliente = new LinkedHashMap<>();
+        String sql = "SELECT codigo, estatus, saldo, identificacion, pin FROM cuentas ORDER BY orden";
+        try (Statement consulta = conexion.createStatement(); ResultSet fila = consulta.executeQuery(sql)) {
+            while (fila.next()) {
+                String pinEncriptado = fila.getString("pin");
+                String pin = "";
+                try {
+                    pin = CryptoUtils.desencriptar(pinEncriptado);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+
+                Cuenta cuenta = new Cuenta(fila.getDouble("saldo"), fila.getString("codigo"), pin, null,
+                        fila.getString("estatus"));
+                cuenta.setPinCifrado(pinEncriptado);
+                cuentasPorCliente.computeIfAbsent(fila.getLong("identificacion"), k -> new ArrayList<>()).add(cuenta);
+            }
+            conexion.commit();
+        } catch (SQLException e) {
+            System.err.println("Error al cargar las cuentas: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return cuentasPorCliente;
+    }
+
+    @Override
+    public synchronized long guardarCuentas(Collection<Cuenta> modificadas, List<Cuenta> todas) throws IOException {
+        String actualizar = "UPDATE cuentas SET estatus = ?, saldo = ?, identificacion = ?, pin = ? WHERE codigo = ?";
+        String insertar = "INSERT INTO cuentas (estatus, saldo, identificacion, pin, codigo, orden)"
+                + " VALUES (?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement update = conexion.prepareStatement(actualizar);
+                PreparedStatement insert = conexion.prepareStatement(insertar)) {
+            for (Cuenta cuenta : modificadas) {
+                asignarCuenta(update, cuenta);
+                if (update.executeUpdate() == 0) {
+                    asignarCuenta(insert, cuenta);
+                    insert.setLong(6, siguienteOrdenCuenta++);
+                    insert.executeUpdate();
+                }
+            }
+            conexion.commit();
+        } catch (SQLException e) {
+            throw deshacer(e);
+        }
+        return 0;
+    }
+
+    private static void asignarCuenta(PreparedStatement sentencia, Cuenta cuenta) throws SQLException {
+        String pinEncriptado = cuenta.getPinCifrado();
+        if (pinEncriptado == null) {
+            try {
+                pinEncriptado = CryptoUtils.encriptar(cuenta.getPin());
+            } catch (Exception e) {
+                throw new SQLException("No se pudo cifrar el PIN de la cuenta " + cuenta.getCodigo(), e);
+            }
+            cuenta.setPinCifrado(pinEncriptado);
+        }
+        sentencia.setString(1, cuenta.getEstatus());
+        sentencia.setDouble(2, cuenta.getSaldo());
+        sentencia.setLong(3, cuenta.getIdentificacionCliente());
+        sentencia.setString(4, pinEncriptado);
+        sentencia.setString(5, cuenta.getCodigo());
+    }
+
+    // Métodos para manejar transacciones
+
+    /**
+     * Carga en memoria las transacciones del mes actual (ninguna con el
+     * historial perezoso); de las anteriores solo se cuentan las de cada
+     * cuenta.
+     */
+    @Override
+    public synchronized List<Transaccion> cargarTransacciones(Map<String, Integer> archivadasPorCuenta) {
+        inicioEnMemoria = historialPerezoso ? SIN_LIMITE : YearMonth.now().atDay(1);
+        List<Transaccion> transacciones = new ArrayList<>();
+        String contar = "SELECT codigo_cuenta, COUNT(*) FROM transacciones WHERE fecha < ? GROUP BY codigo_cuenta";
+        String recientes = "SELECT fecha, tipo, monto, comision, codigo_cuenta FROM transacciones"
+                + " WHERE fecha >= ? ORDER BY secuencia";
+        try (PreparedStatement conteo = conexion.prepareStatement(contar);
+                PreparedStatement consulta = conexion.prepareStatement(recientes)) {
+            conteo.setDate(1, java.sql.Date.valueOf(inicioEnMemoria));
+            try (ResultSet fila = conteo.executeQuery()) {
+                while (fila.next()) {
+                    archivadasPorCuenta.merge(fila.getString(1), fila.getInt(2), Integer::sum);
+                }
+            }
+            consulta.setDate(1, java.sql.Date.valueOf(inicioEnMemoria));
+            leerTransacciones(consulta, transacciones::add);
+            conexion.commit();
+        } catch (SQLException e) {
+            System.err.println("Error al cargar las transacciones: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return transacciones;
+    }
+
+    @Override
+    public synchronized LocalDate getInicioEnMemoria() {
+        return inicioEnMemoria;
+    }
+
+    @Override
+    public synchronized List<Transaccion> leerTransaccionesArchivadas(Cuenta cuenta) {
+        List<Transaccion> transacciones = new ArrayList<>();
+        String sql = "SELECT fecha, tipo, monto, comision, codigo_cuenta FROM transacciones"
+                + " WHERE codigo_cuenta = ? AND fecha < ? ORDER BY secuencia";
+        try (PreparedStatement consulta = conexion.prepareStatement(sql)) {
+            consulta.setString(1, cuenta.getCodigo());
+            consulta.setDate(2, java.sql.Date.valueOf(inicioEnMemoria));
+            leerTransacciones(consulta, transacciones::add);
+            conexion.commit();
+        } catch (SQLException e) {
+            System.err.println("Error al leer el historial de " + cuenta.getCodigo() + ": " + e.getMessage());
+            e.printStackTrace();
+        }
+        return transacciones;
+    }
+
+    @Override
+    public synchronized void recorrerTransaccionesArchivadas(Consumer<Transaccion> destino) {
+        String sql = "SELECT fecha, tipo, monto, comision, codigo_cuenta FROM transacciones"
+                + " WHERE fecha < ? ORDER BY secuencia";
+        try (PreparedStatement consulta = conexion.prepareStatement(sql)) {
+            consulta.setDate(1, java.sql.Date.valueOf(inicioEnMemoria));
+            leerTransacciones(consulta, destino);
+            conexion.commit();
+        } catch (SQLException e) {
+            System.err.println("Error al recorrer el historial archivado: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void leerTransacciones(PreparedStatement consulta, Consumer<Transaccion> destino)
+            throws SQLException {
+        Map<String, String> textos = new HashMap<>();
+        try (ResultSet fila = consulta.executeQuery()) {
+            while (fila.next()) {
+                String tipo = textos.computeIfAbsent(fila.getString("tipo"), t -> t);
+                String numeroCuenta = textos.computeIfAbsent(fila.getString("codigo_cuenta"), t -> t);
+                Transaccion transaccion = new Transaccion(tipo, fila.getDouble("monto"), numeroCuenta,
+                        fila.getInt("comision") != 0);
+                transaccion.setFecha(fila.getDate("fecha").toLocalDate());
+                destino.accept(transaccion);
+            }
+        }
+    }
+
+    @Override
+    public synchronized long agregarTransacciones(List<Transaccion> nuevas) throws IOException {
+        long secuenciaInicial = siguienteSecuencia;
+        try {
+            insertarTransacciones(nuevas);
+            conexion.commit();
+        } catch (SQLException e) {
+            siguienteSecuencia = secuenciaInicial;
+            throw deshacer(e);
+        }
+        return 0;
+    }
+
+    private void insertarTransacciones(List<Transaccion> transacciones) throws SQLException {
+        String sql = "INSERT INTO transacciones (secuencia, codigo_cuenta, fecha, tipo, monto, comision)"
+                + " VALUES (?, ?, ?, ?, ?, ?)";
+        try (PreparedStatement insert = conexion.prepareStatement(sql)) {
+            int enLote = 0;
+            for (Transaccion transaccion : transacciones) {
+                insert.setLong(1, siguienteSecuencia++);
+                insert.setString(2, transaccion.getCodigoCuenta());
+                insert.setDate(3, java.sql.Date.valueOf(transaccion.getFecha()));
+                insert.setString(4, transaccion.getTipo());
+                insert.setDouble(5, transaccion.getMonto());
+                insert.setInt(6, transaccion.getComision() ? 1 : 0);
+                insert.addBatch();
+                if (++enLote == 500) {
+                    insert.executeBatch();
+                    enLote = 0;
+                }
+            }
+            if (enLote > 0) {
+                insert.executeBatch();
+            }
+        }
+    }
+
+    /**
+     * Reemplaza las transacciones en memoria y borra lo archivado de las
+     * cuentas que ya no tienen historial archivado o que no están en
+     * {@code archivadasPorCuenta}, todo en una sola transacción de base de
+     * datos.
+     */
+    @Override
+    public synchronized long reescribirTransacciones(List<Transaccion> enMemoria,
+            Map<String, Integer> archivadasPorCuenta) throws IOException {
+        long secuenciaInicial = siguienteSecuencia;
+        try (PreparedStatement borrarRecientes = conexion.prepareStatement(
+                "DELETE FROM transacciones WHERE fecha >= ?");
+                PreparedStatement conArchivadas = conexion.prepareStatement(
+                        "SELECT DISTINCT codigo_cuenta FROM transacciones WHERE fecha < ?");
+                PreparedStatement borrarArchivadas = conexion.prepareStatement(
+                        "DELETE FROM transacciones WHERE codigo_cuenta = ? AND fecha < ?")) {
+            borrarRecientes.setDate(1, java.sql.Date.valueOf(inicioEnMemoria));
+            borrarRecientes.executeUpdate();
+
+            conArchivadas.setDate(1, java.sql.Date.valueOf(inicioEnMemoria));
+            try (ResultSet fila = conArchivadas.executeQuery()) {
+                while (fila.next()) {
+                    String codigo = fila.getString(1);
+                    if (archivadasPorCuenta.getOrDefault(codigo, 0) == 0) {
+                        borrarArchivadas.setString(1, codigo);
+                        borrarArchivadas.setDate(2, java.sql.Date.valueOf(inicioEnMemoria));
+                        borrarArchivadas.addBatch();
+                    }
+                }
+            }
+            borrarArchivadas.executeBatch();
+            insertarTransacciones(enMemoria);
+            conexion.commit();
+        } catch (SQLException e) {
+            siguienteSecuencia = secuenciaInicial;
+            throw deshacer(e);
+        }
+        return 0;
+    }
+
+    // Deshace la transacción de base de datos y devuelve el error para que el guardado lo informe
+    private IOException deshacer(SQLException error) {
+        try {
+            conexion.rollback();
+        } catch (SQLException e) {
+            error.addSuppressed(e);
+        }
+        return new IOException("Error al guardar en la base de datos: " + error.getMessage(), error);
+    }
+}
@@ -0,0 +1,75 @@
+package servicios;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Lo que una operación del motor cambió en una cuenta, para deshacerlo si la
+ * bitácora no confirma la operación. El saldo se devuelve por diferencia y
+ * no volviendo al valor anterior: con el secuenciador la confirmación llega
+ * cuando otras operaciones sobre la cuenta ya pudieron aplicarse encima.
+ */
+public class RespaldoCuenta {
+    private final Cuenta cuenta;
+    private final double saldo;
+    private final String pin;
+    private final String estatus;
+    // Copia del historial en memoria, solo para operaciones que lo borran
+    private final List<Transaccion> historial;
+    private final int archivadas;
+
+    private double diferencia;
+    private String pinNuevo;
+    private String estatusNuevo;
+    private boolean historialBorrado;
+
+    // Se toma al empezar la operación, en el hilo que la aplica
+    public RespaldoCuenta(Cuenta cuenta, boolean conHistorial) {
+        this.cuenta = cuenta;
+        this.saldo = cuenta.getSaldo();
+        this.pin = cuenta.getPin();
+        this.estatus = cuenta.getEstatus();
+        this.historial = conHistorial ? new ArrayList<>(cuenta.getTransacciones()) : null;
+        this.archivadas = cuenta.getTransaccionesArchivadas();
+    }
+
+    // Anota lo que cambió; se llama al terminar la operación, en el mismo hilo
+    public void terminar() {
+        diferencia = cuenta.getSaldo() - saldo;
+        pinNuevo = cuenta.getPin();
+        estatusNuevo = cuenta.getEstatus();
+        historialBorrado = historial != null && cuenta.getCantidadTransacciones() < archivadas + historial.size();
+    }
+
+    /**
+     * Deshace los cambios anotados; se llama dentro del motor de la cuenta.
+     * El PIN y el estatus vuelven a su valor solo si nadie los cambió después.
+     *
+     * @param agregadas transacciones que agregó la operación, por identidad
+     */
+    public void deshacer(Set<Transaccion> agregadas) {
+        if (diferencia != 0) {
+            cuenta.setSaldo(cuenta.getSaldo() - diferencia);
+        }
+        if (!Objects.equals(pin, pinNuevo) && Objects.equals(cuenta.getPin(), pinNuevo)) {
+            cuenta.setPin(pin);
+        }
+        if (!Objects.equals(estatus, estatusNuevo) && Objects.equals(cuenta.getEstatus(), estatusNuevo)) {
+            cuenta.setEstatus(estatus);
+        }
+        cuenta.getTransacciones().removeIf(agregadas::contains);
+        if (historialBorrado) {
+            cuenta.getTransacciones().addAll(0, historial);
+            cuenta.setTransaccionesArchivadas(archivadas);
+        }
+    }
+
+    public Cuenta getCuenta() {
+        return cuenta;
+    }
+}
@@ -0,0 +1,29 @@
+package servicios;
+
+/**
+ * Resultado de un reporte de transacciones para un tipo: cuántas hay, la
+ * suma de sus montos y la suma de las comisiones cobradas.
+ */
+public class ResumenTransacciones {
+    private final long cantidad;
+    private final double monto;
+    private final double comisiones;
+
+    public ResumenTransacciones(long cantidad, double monto, double comisiones) {
+        this.cantidad = cantidad;
+        this.monto = monto;
+        this.comisiones = comisiones;
+    }
+
+    public long getCantidad() {
+        return cantidad;
+    }
+
+    public double getMonto() {
+        return monto;
+    }
+
+    public double getComisiones() {
+        return comisiones;
+    }
+}
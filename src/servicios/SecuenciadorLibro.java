@@ -0,0 +1,144 @@
+package servicios;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Motor de un solo escritor (-Dbanco.motor=secuenciador). Los hilos de las
+ * solicitudes publican cada operación en un anillo de casillas creado al
+ * arrancar, y un único hilo del libro las aplica en orden de secuencia y
+ * devuelve el resultado a quien la publicó. Como nadie más cambia saldos ni
+ * historiales, no hay candados por cuenta ni contención en las cuentas más
+ * usadas, y el orden de la secuencia es el mismo orden de la bitácora. Los
+ * checkpoints también publican aquí las copias del historial y la
+ * liberación de lo guardado, así que el hilo del libro sigue siendo el único
+ * que cambia las cuentas.
+ *
+ * El hilo del libro no espera la escritura a disco: deja los registros de la
+ * bitácora encolados y cada solicitud confirma los suyos en su propio hilo
+ * antes de responder, así las escrituras de varias operaciones se agrupan.
+ */
+public class SecuenciadorLibro implements MotorCuentas {
+    // Vueltas activas antes de dormir mientras se espera una casilla o un resultado
+    private static final int VUELTAS_ANTES_DE_DORMIR = 100;
+
+    private static final class Casilla {
+        // Secuencia publicada en la casilla, la que ya se aplicó y la que la dejó libre
+        volatile long publicada = -1;
+        volatile long aplicada = -1;
+        volatile long liberada;
+
+        Supplier<?> operacion;
+        Thread solicitante;
+        Object resultado;
+        Throwable error;
+        List<CompletableFuture<Void>> escrituras;
+    }
+
+    private final Casilla[] anillo;
+    private final int mascara;
+    private final AtomicLong siguiente = new AtomicLong();
+    private final Thread hiloLibro;
+
+    public SecuenciadorLibro(int capacidad) {
+        int tamano = Integer.highestOneBit(Math.max(2, Math.min(capacidad, 1 << 20)) * 2 - 1);
+        anillo = new Casilla[tamano];
+        for (int i = 0; i < tamano; i++) {
+            anillo[i] = new Casilla();
+            // La primera vuelta encuentra todas las casillas libres
+            anillo[i].liberada = i - tamano;
+        }
+        mascara = tamano - 1;
+        hiloLibro = new Thread(this::aplicarEnOrden, "secuenciador-libro");
+        hiloLibro.setDaemon(true);
+        hiloLibro.start();
+    }
+
+    @Override
+    public <T> T ejecutar(String codigo, Supplier<T> operacion) {
+        return publicar(operacion);
+    }
+
+    // El hilo del libro es el único que aplica operaciones, así que dos cuentas no necesitan nada extra
+    @Override
+    public <T> T ejecutar(String codigoA, String codigoB, Supplier<T> operacion) {
+        return publicar(operacion);
+    }
+
+    public int getCapacidad() {
+        return anillo.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T publicar(Supplier<T> operacion) {
+        // Una operación que ya corre en el libro y llama a otra la aplica directamente
+        if (Thread.currentThread() == hiloLibro) {
+            return operacion.get();
+        }
+
+        long secuencia = siguiente.getAndIncrement();
+        Casilla casilla = anillo[(int) (secuencia & mascara)];
+        // Esperar a que el solicitante de la vuelta anterior termine con la casilla
+        for (int vueltas = 0; casilla.liberada != secuencia - anillo.length; vueltas++) {
+            esperar(vueltas);
+        }
+        casilla.operacion = operacion;
+        casilla.solicitante = Thread.currentThread();
+        casilla.publicada = secuencia;
+        LockSupport.unpark(hiloLibro);
+
+        for (int vueltas = 0; casilla.aplicada != secuencia; vueltas++) {
+            esperar(vueltas);
+        }
+        Object resultado = casilla.resultado;
+        Throwable error = casilla.error;
+        List<CompletableFuture<Void>> escrituras = casilla.escrituras;
+        casilla.operacion = null;
+        casilla.solicitante = null;
+        casilla.resultado = null;
+        casilla.error = null;
+        casilla.escrituras = null;
+        casilla.liberada = secuencia;
+
+        // La respuesta sale solo cuando la bitácora tiene los registros de la operación
+        PersistenciaDatos.confirmarEscrituras(escrituras);
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        return (T) resultado;
+    }
+
+    private void aplicarEnOrden() {
+        for (long secuencia = 0;; secuencia++) {
+            Casilla casilla = anillo[(int) (secuencia & mascara)];
+            while (casilla.publicada != secuencia) {
+                LockSupport.park(this);
+            }
+            Supplier<?> operacion = casilla.operacion;
+            Object[] resultado = new Object[1];
+            try {
+                casilla.escrituras = PersistenciaDatos.ejecutarSinConfirmar(() -> resultado[0] = operacion.get());
+                casilla.resultado = resultado[0];
+            } catch (Throwable e) {
+                casilla.error = e;
+            }
+            Thread solicitante = casilla.solicitante;
+            casilla.aplicada = secuencia;
+            LockSupport.unpark(solicitante);
+        }
+    }
+
+    private static void esperar(int vueltas) {
+        if (vueltas < VUELTAS_ANTES_DE_DORMIR) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(10_000);
+        }
+    }
+}
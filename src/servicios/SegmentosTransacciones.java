@@ -0,0 +1,476 @@
+package servicios;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.YearMonth;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import modelos.Transaccion;
+
+/**
+ * Almacena las transacciones en un segmento por mes ({@code AAAA-MM.seg}),
+ * cada uno acompañado de un índice pequeño ({@code AAAA-MM.idx}) con las
+ * posiciones de los registros de cada cuenta.
+ *
+ * Al cargar solo se leen por completo los segmentos desde el mes indicado;
+ * de los meses anteriores se lee únicamente el índice, para conocer cuántas
+ * transacciones tiene cada cuenta. El historial de esos meses se consulta
+ * bajo demanda mapeando el segmento en memoria y leyendo solo los registros
+ * de la cuenta pedida.
+ *
+ * Los registros usan la misma codificación que {@link FormatoBinario}. El
+ * índice se puede reconstruir recorriendo el segmento, así que si falta (por
+ * ejemplo, por una caída durante una reescritura) se regenera al cargar.
+ */
+public class SegmentosTransacciones {
+
+    private static final String EXTENSION_SEGMENTO = ".seg";
+    private static final String EXTENSION_INDICE = ".idx";
+    private static final String SUFIJO_TEMPORAL = ".tmp";
+    private static final int MAGICO_INDICE = 0x43424958; // "CBIX"
+    private static final short VERSION_INDICE = 1;
+
+    private final File directorio;
+    private final TreeMap<YearMonth, Indice> indices = new TreeMap<>();
+    // Los meses anteriores a este no se cargan en memoria
+    private YearMonth limiteArchivo = YearMonth.now();
+
+    public SegmentosTransacciones(String directorio) {
+        this.directorio = new File(directorio);
+    }
+
+    public boolean existe() {
+        return directorio.isDirectory();
+    }
+
+    public synchronized YearMonth getLimiteArchivo() {
+        return limiteArchivo;
+    }
+
+    /**
+     * Lee los índices de todos los segmentos y devuelve las transacciones de
+     * los meses desde {@code limite} en adelante. Para los meses anteriores
+     * solo acumula en {@code archivadasPorCuenta} la cantidad de transacciones
+     * de cada cuenta.
+     */
+    public synchronized List<Transaccion> cargar(YearMonth limite, Map<String, Integer> archivadasPorCuenta)
+            throws IOException {
+        limiteArchivo = limite;
+        indices.clear();
+        List<Transaccion> transacciones = new ArrayList<>();
+        for (YearMonth mes : mesesEnDisco()) {
+            indices.put(mes, leerIndice(mes));
+        }
+
+        Map<String, String> textos = new HashMap<>();
+        for (Map.Entry<YearMonth, Indice> entrada : indices.entrySet()) {
+            Indice indice = entrada.getValue();
+            if (entrada.getKey().isBefore(limite)) {
+                for (Map.Entry<String, List<Integer>> cuenta : indice.posiciones.entrySet()) {
+                    archivadasPorCuenta.merge(cuenta.getKey(), cuenta.getValue().size(), Integer::sum);
+                }
+            } else {
+                ByteBuffer segmento = mapear(entrada.getKey(), indice.longitud);
+                while (segmento.hasRemaining()) {
+                    transacciones.add(leerRegistro(segmento, textos));
+                }
+            }
+        }
+        return transacciones;
+    }
+
+    /**
+     * Devuelve, en orden cronológico, las transacciones de la cuenta que
+     * están en los segmentos de meses anteriores al límite de carga.
+     */
+    public synchronized List<Transaccion> leerArchivadas(String codigoCuenta) {
+        List<Transaccion> transacciones = new ArrayList<>();
+        Map<String, String> textos = new HashMap<>();
+        for (Map.Entry<YearMonth, Indice> entrada : indices.headMap(limiteArchivo).entrySet()) {
+            List<Integer> posiciones = entrada.getValue().posiciones.get(codigoCuenta);
+            if (posiciones == null) {
+                continue;
+            }
+            try {
+                ByteBuffer segmento = mapear(entrada.getKey(), entrada.getValue().longitud);
+                for (int posicion : posiciones) {
+                    segmento.position(posicion);
+                    transacciones.add(leerRegistro(segmento, textos));
+                }
+            } catch (IOException e) {
+                System.err.println("Error al leer el segmento " + entrada.getKey() + ": " + e.getMessage());
+            }
+        }
+        return transacciones;
+    }
+
+    // Recorre completos los segmentos anteriores al límite de carga, sin pasar por las posiciones del índice
+    public synchronized void recorrerArchivadas(Consumer<Transaccion> destino) {
+        Map<String, String> textos = new HashMap<>();
+        for (Map.Entry<YearMonth, Indice> entrada : indices.headMap(limiteArchivo).entrySet()) {
+            try {
+                ByteBuffer segmento = mapear(entrada.getKey(), entrada.getValue().longitud);
+                while (segmento.hasRemaining()) {
+                    destino.accept(leerRegistro(segmento, textos));
+                }
+            } catch (IOException e) {
+                System.err.println("Error al leer el segmento " + entrada.getKey() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Devuelve todas las transacciones de los segmentos de meses anteriores a
+     * {@code hasta}, para pasarlas al historial comprimido.
+     */
+    public synchronized List<Transaccion> leerAnteriores(YearMonth hasta) throws IOException {
+        List<Transaccion> transacciones = new ArrayList<>();
+        Map<String, String> textos = new HashMap<>();
+        for (YearMonth mes : mesesEnDisco().headSet(hasta)) {
+            ByteBuffer segmento = mapear(mes, leerIndice(mes).longitud);
+            while (segmento.hasRemaining()) {
+                transacciones.add(leerRegistro(segmento, textos));
+            }
+        }
+        return transacciones;
+    }
+
+    // Borra los segmentos de meses anteriores a hasta, que ya están en el historial comprimido
+    public synchronized void eliminarAnteriores(YearMonth hasta) throws IOException {
+        for (YearMonth mes : mesesEnDisco().headSet(hasta)) {
+            Files.deleteIfExists(rutaIndice(mes));
+            Files.deleteIfExists(rutaSegmento(mes));
+            indices.remove(mes);
+        }
+    }
+
+    /**
+     * Agrega las transacciones al final del segmento de su mes. Devuelve la
+     * cantidad de bytes escritos. Si falla la escritura de algún mes, los
+     * meses ya escritos se deshacen, para que el reintento del guardado no
+     * los duplique.
+     */
+    public synchronized long agregar(List<Transaccion> transacciones) throws IOException {
+        Map<YearMonth, Indice> anteriores = new HashMap<>();
+        long bytes = 0;
+        try {
+            for (Map.Entry<YearMonth, List<Transaccion>> entrada : agruparPorMes(transacciones).entrySet()) {
+                anteriores.put(entrada.getKey(), indice(entrada.getKey()));
+                bytes += agregarASegmento(entrada.getKey(), entrada.getValue());
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Map.Entry<YearMonth, Indice> anterior : anteriores.entrySet()) {
+                try {
+                    deshacerSegmento(anterior.getKey(), anterior.getValue());
+                } catch (IOException deshacer) {
+                    e.addSuppressed(deshacer);
+                }
+            }
+            throw e;
+        }
+        return bytes;
+    }
+
+    // Devuelve el segmento a la longitud y el índice que tenía antes de agregar (null si no existía)
+    private void deshacerSegmento(YearMonth mes, Indice anterior) throws IOException {
+        if (anterior == null) {
+            Files.deleteIfExists(rutaIndice(mes));
+            Files.deleteIfExists(rutaSegmento(mes));
+            indices.remove(mes);
+            return;
+        }
+        if (Files.exists(rutaSegmento(mes))) {
+            try (FileChannel canal = FileChannel.open(rutaSegmento(mes), StandardOpenOption.WRITE)) {
+                canal.truncate(anterior.longitud);
+                canal.force(true);
+            }
+        }
+        escribirIndice(mes, anterior);
+        indices.put(mes, anterior);
+    }
+
+    /**
+     * Reescribe los segmentos a partir del estado en memoria. Los meses
+     * cargados en memoria se reescriben con {@code enMemoria}; de los meses
+     * archivados solo se reescriben los que tienen registros de cuentas para
+     * las que {@code conservarArchivadas} es falso (por ejemplo, cuentas
+     * eliminadas). Devuelve la cantidad de bytes escritos.
+     */
+    public synchronized long reescribir(List<Transaccion> enMemoria, Predicate<String> conservarArchivadas)
+            throws IOException {
+        long bytes = 0;
+        for (Map.Entry<YearMonth, Indice> entrada : new ArrayList<>(indices.headMap(limiteArchivo).entrySet())) {
+            Indice indice = entrada.getValue();
+            if (indice.posiciones.keySet().stream().allMatch(conservarArchivadas)) {
+                continue;
+            }
+            List<Transaccion> conservadas = new ArrayList<>();
+            ByteBuffer segmento = mapear(entrada.getKey(), indice.longitud);
+            Map<String, String> textos = new HashMap<>();
+            while (segmento.hasRemaining()) {
+                Transaccion transaccion = leerRegistro(segmento, textos);
+                if (conservarArchivadas.test(transaccion.getCodigoCuenta())) {
+                    conservadas.add(transaccion);
+                }
+            }
+            bytes += reescribirSegmento(entrada.getKey(), conservadas);
+        }
+
+        Map<YearMonth, List<Transaccion>> porMes = agruparPorMes(enMemoria);
+        for (YearMonth mes : new ArrayList<>(indices.tailMap(limiteArchivo).keySet())) {
+            porMes.putIfAbsent(mes, new ArrayList<>());
+        }
+        for (Map.Entry<YearMonth, List<Transaccion>> entrada : porMes.entrySet()) {
+            if (entrada.getKey().isBefore(limiteArchivo)) {
+                // Transacciones todavía no guardadas de un mes archivado: se agregan a su segmento
+                bytes += agregarASegmento(entrada.getKey(), entrada.getValue());
+            } else {
+                bytes += reescribirSegmento(entrada.getKey(), entrada.getValue());
+            }
+        }
+        return bytes;
+    }
+
+    private long agregarASegmento(YearMonth mes, List<Transaccion> transacciones) throws IOException {
+        if (!directorio.exists()) {
+            directorio.mkdirs();
+        }
+        Indice indice = indice(mes);
+        if (indice == null) {
+            indice = new Indice();
+        }
+        Indice nuevo = indice.copiar();
+        byte[] datos = codificar(transacciones, nuevo);
+
+        try (FileChannel canal = FileChannel.open(rutaSegmento(mes), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            // Descartar lo que haya quedado de una escritura incompleta anterior
+            canal.truncate(indice.longitud);
+            canal.position(indice.longitud);
+            ByteBuffer buffer = ByteBuffer.wrap(datos);
+            while (buffer.hasRemaining()) {
+                canal.write(buffer);
+            }
+            canal.force(true);
+        }
+        escribirIndice(mes, nuevo);
+        indices.put(mes, nuevo);
+        return datos.length;
+    }
+
+    /**
+     * Índice del mes, leído del disco si el segmento existe pero todavía no se
+     * cargó (por ejemplo, al agregar sin haber llamado a {@link #cargar}), o
+     * null si el segmento no existe.
+     */
+    private Indice indice(YearMonth mes) throws IOException {
+        Indice indice = indices.get(mes);
+        if (indice == null && Files.exists(rutaSegmento(mes))) {
+            indice = leerIndice(mes);
+            indices.put(mes, indice);
+        }
+        return indice;
+    }
+
+    private long reescribirSegmento(YearMonth mes, List<Transaccion> transacciones) throws IOException {
+        Path segmento = rutaSegmento(mes);
+        Path indice = rutaIndice(mes);
+        // Sin índice, un segmento a medio reemplazar se vuelve a indexar al cargar
+        Files.deleteIfExists(indice);
+        if (transacciones.isEmpty()) {
+            Files.deleteIfExists(segmento);
+            indices.remove(mes);
+            return 0;
+        }
+
+        if (!directorio.exists()) {
+            directorio.mkdirs();
+        }
+        Indice nuevo = new Indice();
+        byte[] datos = codificar(transacciones, nuevo);
+        String temporal = segmento + SUFIJO_TEMPORAL;
+        try (FileOutputStream salida = new FileOutputStream(temporal)) {
+            salida.write(datos);
+            salida.getChannel().force(true);
+        }
+        RepositorioArchivos.reemplazarAtomicamente(temporal, segmento.toString());
+        escribirIndice(mes, nuevo);
+        indices.put(mes, nuevo);
+        return datos.length;
+    }
+
+    // Codifica los registros con prefijo de longitud y anota sus posiciones en el índice
+    private static byte[] codificar(List<Transaccion> transacciones, Indice indice) throws IOException {
+        ByteArrayOutputStream datos = new ByteArrayOutputStream();
+        ByteArrayOutputStream bufferRegistro = new ByteArrayOutputStream();
+        DataOutputStream registro = new DataOutputStream(bufferRegistro);
+        DataOutputStream salida = new DataOutputStream(datos);
+        for (Transaccion transaccion : transacciones) {
+            bufferRegistro.reset();
+            FormatoBinario.escribirTransaccion(registro, transaccion);
+            indice.agregar(transaccion.getCodigoCuenta(), (int) (indice.longitud + datos.size()));
+            salida.writeInt(bufferRegistro.size());
+            bufferRegistro.writeTo(salida);
+        }
+        indice.longitud += datos.size();
+        return datos.toByteArray();
+    }
+
+    private static Transaccion leerRegistro(ByteBuffer segmento, Map<String, String> textos) {
+        int longitud = segmento.getInt();
+        ByteBuffer registro = segmento.slice();
+        registro.limit(longitud);
+        segmento.position(segmento.position() + longitud);
+        return FormatoBinario.leerTransaccion(registro, textos);
+    }
+
+    private TreeSet<YearMonth> mesesEnDisco() {
+        TreeSet<YearMonth> meses = new TreeSet<>();
+        File[] archivos = directorio.listFiles((dir, nombre) -> nombre.endsWith(EXTENSION_SEGMENTO));
+        if (archivos == null) {
+            return meses;
+        }
+        for (File archivo : archivos) {
+            String nombre = archivo.getName();
+            try {
+                meses.add(YearMonth.parse(nombre.substring(0, nombre.length() - EXTENSION_SEGMENTO.length())));
+            } catch (DateTimeParseException e) {
+                System.err.println("Advertencia: segmento con nombre inválido: " + nombre);
+            }
+        }
+        return meses;
+    }
+
+    private MappedByteBuffer mapear(YearMonth mes, long longitud) throws IOException {
+        try (FileChannel canal = FileChannel.open(rutaSegmento(mes), StandardOpenOption.READ)) {
+            return canal.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(longitud, canal.size()));
+        }
+    }
+
+    private static Map<YearMonth, List<Transaccion>> agruparPorMes(List<Transaccion> transacciones) {
+        Map<YearMonth, List<Transaccion>> porMes = new TreeMap<>();
+        for (Transaccion transaccion : transacciones) {
+            porMes.computeIfAbsent(YearMonth.from(transaccion.getFecha()), k -> new ArrayList<>()).add(transaccion);
+        }
+        return porMes;
+    }
+
+    // Métodos para manejar índices
+
+    private Indice leerIndice(YearMonth mes) throws IOException {
+        File archivo = rutaIndice(mes).toFile();
+        if (archivo.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(archivo)))) {
+                if (in.readInt() == MAGICO_INDICE && in.readShort() == VERSION_INDICE) {
+                    Indice indice = new Indice();
+                    indice.longitud = in.readLong();
+                    int cuentas = in.readInt();
+                    for (int i = 0; i < cuentas; i++) {
+                        String codigo = in.readUTF();
+                        int cantidad = in.readInt();
+                        List<Integer> posiciones = new ArrayList<>(cantidad);
+                        for (int j = 0; j < cantidad; j++) {
+                            posiciones.add(in.readInt());
+                        }
+                        indice.posiciones.put(codigo, posiciones);
+                    }
+                    return indice;
+                }
+            } catch (IOException e) {
+                System.err.println("Índice dañado para " + mes + ", se reconstruye: " + e.getMessage());
+            }
+        }
+        Indice indice = reconstruirIndice(mes);
+        escribirIndice(mes, indice);
+        return indice;
+    }
+
+    // Recorre el segmento completo; un registro incompleto al final se descarta
+    private Indice reconstruirIndice(YearMonth mes) throws IOException {
+        Indice indice = new Indice();
+        ByteBuffer segmento = mapear(mes, Long.MAX_VALUE);
+        Map<String, String> textos = new HashMap<>();
+        while (segmento.remaining() >= Integer.BYTES) {
+            int posicion = segmento.position();
+            int longitud = segmento.getInt(posicion);
+            if (longitud < 0 || longitud > segmento.remaining() - Integer.BYTES) {
+                break;
+            }
+            Transaccion transaccion = leerRegistro(segmento, textos);
+            indice.agregar(transaccion.getCodigoCuenta(), posicion);
+            indice.longitud = segmento.position();
+        }
+        System.out.println("Índice del segmento " + mes + " reconstruido.");
+        return indice;
+    }
+
+    private void escribirIndice(YearMonth mes, Indice indice) throws IOException {
+        String destino = rutaIndice(mes).toString();
+        String temporal = destino + SUFIJO_TEMPORAL;
+        try (FileOutputStream archivo = new FileOutputStream(temporal)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(archivo));
+            out.writeInt(MAGICO_INDICE);
+            out.writeShort(VERSION_INDICE);
+            out.writeLong(indice.longitud);
+            out.writeInt(indice.posiciones.size());
+            for (Map.Entry<String, List<Integer>> entrada : indice.posiciones.entrySet()) {
+                out.writeUTF(entrada.getKey());
+                out.writeInt(entrada.getValue().size());
+                for (int posicion : entrada.getValue()) {
+                    out.writeInt(posicion);
+                }
+            }
+            out.flush();
+            archivo.getChannel().force(true);
+        }
+        RepositorioArchivos.reemplazarAtomicamente(temporal, destino);
+    }
+
+    private Path rutaSegmento(YearMonth mes) {
+        return new File(directorio, mes + EXTENSION_SEGMENTO).toPath();
+    }
+
+    private Path rutaIndice(YearMonth mes) {
+        return new File(directorio, mes + EXTENSION_INDICE).toPath();
+    }
+
+    // Posiciones de los registros de cada cuenta dentro de un segmento
+    private static class Indice {
+        private long longitud;
+        private final Map<String, List<Integer>> posiciones = new HashMap<>();
+
+        void agregar(String codigoCuenta, int posicion) {
+            posiciones.computeIfAbsent(codigoCuenta, k -> new ArrayList<>()).add(posicion);
+        }
+
+        Indice copiar() {
+            Indice copia = new Indice();
+            copia.longitud = longitud;
+            for (Map.Entry<String, List<Integer>> entrada : posiciones.entrySet()) {
+                copia.posiciones.put(entrada.getKey(), new ArrayList<>(entrada.getValue()));
+            }
+            return copia;
+        }
+    }
+}
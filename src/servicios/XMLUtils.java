@@ -1,28 +1,37 @@
 package servicios;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-
-import controladores.ClienteControlador;
 import modelos.Cliente;
 import modelos.ClienteFisico;
 import modelos.ClienteJuridico;
@@ -32,107 +41,68 @@ import modelos.Transaccion;
 public class XMLUtils {
 
     // Método para escribir clientes a un archivo XML
-    public static void escribirClientesAArchivoXML(List<Cliente> listaClientes, String rutaArchivo) {
-        try {
-            DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-            Document doc = docBuilder.newDocument();
-
-            Element rootElement = doc.createElement("clientes");
-            doc.appendChild(rootElement);
+    public static void escribirClientesAArchivoXML(List<Cliente> listaClientes, String rutaArchivo)
+            throws IOException {
+        escribirClientesAArchivoXML(listaClientes, rutaArchivo, true);
+    }
 
+    public static void escribirClientesAArchivoXML(List<Cliente> listaClientes, String rutaArchivo,
+            boolean indentar) throws IOException {
+        try (EscritorXML escritor = new EscritorXML(rutaArchivo, "clientes", indentar)) {
             for (Cliente cliente : listaClientes) {
-                Element clienteElement = doc.createElement("cliente");
+                escritor.iniciarRegistro("cliente");
 
                 // Atributo tipo para diferenciar entre fisico y juridico
                 if (cliente instanceof ClienteFisico) {
-                    clienteElement.setAttribute("tipo", "fisico");
+                    escritor.atributo("tipo", "fisico");
                     ClienteFisico clienteFisico = (ClienteFisico) cliente;
-                    agregarElemento(doc, clienteElement, "fechaNacimiento",
-                            clienteFisico.getFechaNacimiento().toString());
-                    agregarElemento(doc, clienteElement, "maxCuentas", String.valueOf(clienteFisico.getMaxCuentas()));
+                    escritor.campo("fechaNacimiento", clienteFisico.getFechaNacimiento().toString());
+                    escritor.campo("maxCuentas", String.valueOf(clienteFisico.getMaxCuentas()));
                 } else if (cliente instanceof ClienteJuridico) {
-                    clienteElement.setAttribute("tipo", "juridico");
+                    escritor.atributo("tipo", "juridico");
                     ClienteJuridico clienteJuridico = (ClienteJuridico) cliente;
-                    agregarElemento(doc, clienteElement, "tipoNegocio", clienteJuridico.getTipoNegocio());
-                    agregarElemento(doc, clienteElement, "razonSocial", clienteJuridico.getRazonSocial());
+                    escritor.campo("tipoNegocio", clienteJuridico.getTipoNegocio());
+                    escritor.campo("razonSocial", clienteJuridico.getRazonSocial());
                 }
 
-                agregarElemento(doc, clienteElement, "nombre", cliente.getNombre());
-                agregarElemento(doc, clienteElement, "identificacion", String.valueOf(cliente.getIdentificacion()));
-                agregarElemento(doc, clienteElement, "numTelefono", String.valueOf(cliente.getNumTelefono()));
-                agregarElemento(doc, clienteElement, "correoElectronico", cliente.getCorreoElectronico());
+                escritor.campo("nombre", cliente.getNombre());
+                escritor.campo("identificacion", String.valueOf(cliente.getIdentificacion()));
+                escritor.campo("numTelefono", String.valueOf(cliente.getNumTelefono()));
+                escritor.campo("correoElectronico", cliente.getCorreoElectronico());
 
-                rootElement.appendChild(clienteElement);
+                escritor.terminarRegistro();
             }
-
-            // Escribir el contenido en el archivo XML
-            try (FileOutputStream fos = new FileOutputStream(new File(rutaArchivo))) {
-                TransformerFactory transformerFactory = TransformerFactory.newInstance();
-                Transformer transformer = transformerFactory.newTransformer();
-                transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-                DOMSource source = new DOMSource(doc);
-                StreamResult result = new StreamResult(fos);
-                transformer.transform(source, result);
-            }
-        } catch (ParserConfigurationException | TransformerException | IOException e) {
-            e.printStackTrace();
+        } catch (XMLStreamException e) {
+            throw new IOException("Error al escribir " + rutaArchivo, e);
         }
     }
 
-    // Método auxiliar para agregar un elemento a un cliente
-    private static void agregarElemento(Document doc, Element clienteElement, String nombre, String valor) {
-        Element element = doc.createElement(nombre);
-        element.appendChild(doc.createTextNode(valor));
-        clienteElement.appendChild(element);
-    }
-
     // Método para leer clientes desde un archivo XML
     public static List<Cliente> leerClientesDesdeArchivoXML(String rutaArchivo) {
         List<Cliente> listaClientes = new ArrayList<>();
 
         try {
-            File inputFile = new File(rutaArchivo);
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(inputFile);
-            doc.getDocumentElement().normalize();
-
-            NodeList nList = doc.getElementsByTagName("cliente");
-
-            for (int i = 0; i < nList.getLength(); i++) {
-                Node nodo = nList.item(i);
-                if (nodo.getNodeType() == Node.ELEMENT_NODE) {
-                    Element elementoCliente = (Element) nodo;
-                    String tipo = elementoCliente.getAttribute("tipo");
-
-                    String nombre = elementoCliente.getElementsByTagName("nombre").item(0).getTextContent();
-                    long identificacion = Long
-                            .parseLong(elementoCliente.getElementsByTagName("identificacion").item(0).getTextContent());
-                    String numTelefono = elementoCliente.getElementsByTagName("numTelefono").item(0).getTextContent();
-                    String correoElectronico = elementoCliente.getElementsByTagName("correoElectronico").item(0)
-                            .getTextContent();
-
-                    // Verifica el tipo y crea el objeto correspondiente
-                    if (tipo.equals("fisico")) {
-                        LocalDate fechaNacimiento = LocalDate.parse(
-                                elementoCliente.getElementsByTagName("fechaNacimiento").item(0).getTextContent());
-                        int maxCuentas = Integer
-                                .parseInt(elementoCliente.getElementsByTagName("maxCuentas").item(0).getTextContent());
-                        Cliente cliente = new ClienteFisico(nombre, identificacion, numTelefono, correoElectronico,
-                                fechaNacimiento, maxCuentas);
-                        listaClientes.add(cliente);
-                    } else if (tipo.equals("juridico")) {
-                        String tipoNegocio = elementoCliente.getElementsByTagName("tipoNegocio").item(0)
-                                .getTextContent();
-                        String razonSocial = elementoCliente.getElementsByTagName("razonSocial").item(0)
-                                .getTextContent();
-                        Cliente cliente = new ClienteJuridico(nombre, identificacion, numTelefono, correoElectronico,
-                                tipoNegocio, razonSocial);
-                        listaClientes.add(cliente);
-                    }
+            leerRegistros(rutaArchivo, "cliente", campos -> {
+                String tipo = campos.getOrDefault("@tipo", "");
+
+                String nombre = campos.get("nombre");
+                long identificacion = Long.parseLong(campos.get("identificacion"));
+                String numTelefono = campos.get("numTelefono");
+                String correoElectronico = campos.get("correoElectronico");
+
+                // Verifica el tipo y crea el objeto correspondiente
+                if (tipo.equals("fisico")) {
+                    LocalDate fechaNacimiento = LocalDate.parse(campos.get("fechaNacimiento"));
+                    int maxCuentas = Integer.parseInt(campos.get("maxCuentas"));
+                    listaClientes.add(new ClienteFisico(nombre, identificacion, numTelefono, correoElectronico,
+                            fechaNacimiento, maxCuentas));
+                } else if (tipo.equals("juridico")) {
+                    String tipoNegocio = campos.get("tipoNegocio");
+                    String razonSocial = campos.get("razonSocial");
+                    listaClientes.add(new ClienteJuridico(nombre, identificacion, numTelefono, correoElectronico,
+                            tipoNegocio, razonSocial));
                 }
-            }
+            });
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -141,214 +111,447 @@ public class XMLUtils {
     }
 
     // Método para escribir cuentas a un archivo XML
-    public static void escribirCuentasAArchivoXML(List<Cuenta> listaCuentas, String rutaArchivo) {
-        try {
-            DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-            Document doc = docBuilder.newDocument();
-
-            Element rootElement = doc.createElement("cuentas");
-            doc.appendChild(rootElement);
+    public static void escribirCuentasAArchivoXML(List<Cuenta> listaCuentas, String rutaArchivo)
+            throws IOException {
+        escribirCuentasAArchivoXML(listaCuentas, rutaArchivo, true);
+    }
 
+    public static void escribirCuentasAArchivoXML(List<Cuenta> listaCuentas, String rutaArchivo, boolean indentar)
+            throws IOException {
+        try (EscritorXML escritor = new EscritorXML(rutaArchivo, "cuentas", indentar)) {
             for (Cuenta cuenta : listaCuentas) {
-                Element cuentaElement = doc.createElement("cuenta");
-                rootElement.appendChild(cuentaElement);
-
-                Element codigo = doc.createElement("codigo");
-                codigo.appendChild(doc.createTextNode(cuenta.getCodigo()));
-                cuentaElement.appendChild(codigo);
-
-                Element estatus = doc.createElement("estatus");
-                estatus.appendChild(doc.createTextNode(cuenta.getEstatus()));
-                cuentaElement.appendChild(estatus);
-
-                Element saldo = doc.createElement("saldo");
-                saldo.appendChild(doc.createTextNode(cuenta.getSaldoFormateado()));
-                cuentaElement.appendChild(saldo);
+                escritor.iniciarRegistro("cuenta");
+                escritor.campo("codigo", cuenta.getCodigo());
+                escritor.campo("estatus", cuenta.getEstatus());
+                escritor.campo("saldo", cuenta.getSaldoFormateado());
+                escritor.campo("identificacion", String.valueOf(cuenta.getMiCliente().getIdentificacion()));
+
+                String pinEncriptado = cuenta.getPinCifrado();
+                if (pinEncriptado == null) {
+                    // Sin el PIN cifrado la cuenta no se puede guardar; un PIN vacío la dejaría inutilizable
+                    try {
+                        pinEncriptado = CryptoUtils.encriptar(cuenta.getPin());
+                    } catch (Exception e) {
+                        throw new IOException("No se pudo cifrar el PIN de la cuenta " + cuenta.getCodigo(), e);
+                    }
+                    cuenta.setPinCifrado(pinEncriptado);
+                }
+                escritor.campo("pin", pinEncriptado);
+                escritor.terminarRegistro();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Error al escribir " + rutaArchivo, e);
+        }
+    }
 
-                Element identificacion = doc.createElement("identificacion");
-                identificacion
-                        .appendChild(doc.createTextNode(String.valueOf(cuenta.getMiCliente().getIdentificacion())));
-                cuentaElement.appendChild(identificacion);
+    // Método para leer cuentas desde un archivo XML
+    /**
+     * Lee las cuentas agrupadas por la identificación de su cliente, sin
+     * asociarlas todavía (ver {@link RepositorioBanco#enlazarCuentas}).
+     */
+    public static Map<Long, List<Cuenta>> leerCuentasDesdeArchivoXML(String rutaArchivo) {
+        Map<Long, List<Cuenta>> cuentasPorCliente = new LinkedHashMap<>();
 
-                Element pin = doc.createElement("pin");
-                String pinEncriptado = "";
+        try {
+            leerRegistros(rutaArchivo, "cuenta", campos -> {
+                // Obtención de valores de acuerdo a la estructura XML dada
+                String codigo = campos.getOrDefault("codigo", "");
+                String estatus = campos.getOrDefault("estatus", "");
+                String saldoFormateado = campos.getOrDefault("saldo", "").replace(",", ".");
+                double saldo = saldoFormateado.isEmpty() ? 0.0 : Double.parseDouble(saldoFormateado);
+                String pinEncriptado = campos.getOrDefault("pin", "");
+                String pin = "";
                 try {
-                    pinEncriptado = CryptoUtils.encriptar(cuenta.getPin());
+                    pin = CryptoUtils.desencriptar(pinEncriptado);
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
-                pin.appendChild(doc.createTextNode(pinEncriptado));
-                cuentaElement.appendChild(pin);
-            }
 
-            // Escribir el contenido en el archivo XML
-            try (FileOutputStream fos = new FileOutputStream(new File(rutaArchivo))) {
-                TransformerFactory transformerFactory = TransformerFactory.newInstance();
-                Transformer transformer = transformerFactory.newTransformer();
-                transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-                DOMSource source = new DOMSource(doc);
-                StreamResult result = new StreamResult(fos);
-                transformer.transform(source, result);
-            }
-        } catch (ParserConfigurationException | TransformerException | IOException e) {
+                String identificacionStr = campos.getOrDefault("identificacion", "");
+                long identificacion = identificacionStr.isEmpty() ? -1 : Long.parseLong(identificacionStr);
+
+                // Crear la cuenta con los valores obtenidos; el cliente se asocia después
+                Cuenta cuenta = new Cuenta(saldo, codigo, pin, null, estatus);
+                cuenta.setPinCifrado(pinEncriptado);
+                cuentasPorCliente.computeIfAbsent(identificacion, k -> new ArrayList<>()).add(cuenta);
+            });
+        } catch (Exception e) {
+            System.err.println("Error al leer el archivo XML: " + e.getMessage());
             e.printStackTrace();
         }
+
+        return cuentasPorCliente;
     }
 
-    // Método para leer cuentas desde un archivo XML
-    public static void leerCuentasDesdeArchivoXML(String rutaArchivo, ClienteControlador clienteControlador) {
-        List<Cuenta> listaCuentas = new ArrayList<>();
+    // Método para escribir transacciones a un archivo XML
+    public static void escribirTransaccionesAArchivoXML(List<Transaccion> transacciones, String rutaArchivo)
+            throws IOException {
+        escribirTransaccionesAArchivoXML(transacciones, rutaArchivo, true);
+    }
 
-        try {
-            DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-            Document doc = docBuilder.parse(new File(rutaArchivo));
+    public static void escribirTransaccionesAArchivoXML(List<Transaccion> transacciones, String rutaArchivo,
+            boolean indentar) throws IOException {
+        try (EscritorXML escritor = new EscritorXML(rutaArchivo, "transacciones", indentar)) {
+            escribirTransacciones(escritor, transacciones);
+        } catch (XMLStreamException e) {
+            throw new IOException("Error al escribir " + rutaArchivo, e);
+        }
+    }
 
-            NodeList listaNodosCuenta = doc.getElementsByTagName("cuenta");
+    /**
+     * Agrega transacciones al final de un archivo existente sin reescribirlo:
+     * se ubica la etiqueta de cierre, se escriben los nuevos registros en esa
+     * posición y se vuelve a cerrar el elemento raíz.
+     */
+    public static void agregarTransaccionesAArchivoXML(List<Transaccion> transacciones, String rutaArchivo)
+            throws IOException {
+        long posicionCierre = buscarCierre(rutaArchivo, "</transacciones>");
+        if (posicionCierre < 0) {
+            // Un archivo existente sin cierre está dañado: reescribirlo completo perdería el historial
+            if (new File(rutaArchivo).length() > 0) {
+                throw new IOException("El archivo " + rutaArchivo + " no termina en </transacciones>");
+            }
+            escribirTransaccionesAArchivoXML(transacciones, rutaArchivo);
+            return;
+        }
+        try (EscritorXML escritor = new EscritorXML(rutaArchivo, "transacciones", true, posicionCierre)) {
+            escribirTransacciones(escritor, transacciones);
+        } catch (XMLStreamException e) {
+            throw new IOException("Error al escribir " + rutaArchivo, e);
+        }
+    }
 
-            for (int i = 0; i < listaNodosCuenta.getLength(); i++) {
-                Node nodoCuenta = listaNodosCuenta.item(i);
+    private static void escribirTransacciones(EscritorXML escritor, List<Transaccion> transacciones)
+            throws XMLStreamException {
+        for (Transaccion transaccion : transacciones) {
+            escritor.iniciarRegistro("transaccion");
+            escritor.campo("fecha", transaccion.getFecha().toString());
+            escritor.campo("tipo", transaccion.getTipo());
+            escritor.campo("monto", String.valueOf(transaccion.getMonto()));
+            escritor.campo("comision", String.valueOf(transaccion.getComision()));
+            escritor.campo("numeroCuenta", transaccion.getCodigoCuenta());
+            escritor.terminarRegistro();
+        }
+    }
 
-                if (nodoCuenta.getNodeType() == Node.ELEMENT_NODE) {
-                    Element elementoCuenta = (Element) nodoCuenta;
+    // Devuelve la posición (en bytes) de la etiqueta de cierre, o -1 si no se encuentra
+    private static long buscarCierre(String rutaArchivo, String etiquetaCierre) {
+        File archivo = new File(rutaArchivo);
+        if (!archivo.exists()) {
+            return -1;
+        }
+        try (FileChannel canal = FileChannel.open(archivo.toPath(), StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            int leer = (int) Math.min(tamano, 4096);
+            ByteBuffer cola = ByteBuffer.allocate(leer);
+            canal.read(cola, tamano - leer);
+            String texto = new String(cola.array(), 0, cola.position(), StandardCharsets.ISO_8859_1);
+            int indice = texto.lastIndexOf(etiquetaCierre);
+            if (indice < 0) {
+                return -1;
+            }
+            // Conservar el salto de línea que precede a la etiqueta
+            while (indice > 0 && (texto.charAt(indice - 1) == '\n' || texto.charAt(indice - 1) == '\r'
+                    || texto.charAt(indice - 1) == ' ')) {
+                indice--;
+            }
+            return tamano - leer + indice;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
 
-                    // Obtención de valores de acuerdo a la estructura XML dada
-                    String codigo = getTagValue("codigo", elementoCuenta);
-                    String estatus = getTagValue("estatus", elementoCuenta);
-                    String saldoFormateado = getTagValue("saldo", elementoCuenta).replace(",", ".");
-                    double saldo = saldoFormateado.isEmpty() ? 0.0 : Double.parseDouble(saldoFormateado);
-                    String pinEncriptado = getTagValue("pin", elementoCuenta);
-                    String pin = "";
-                    try {
-                        pin = CryptoUtils.desencriptar(pinEncriptado);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+    /**
+     * Lee las transacciones desde un archivo XML. Si el archivo es grande se
+     * divide en partes que empiezan en un elemento {@code <transaccion>} y se
+     * leen en paralelo (ver {@link CargaParalela}).
+     */
+    public static List<Transaccion> leerTransaccionesDesdeArchivoXML(String rutaArchivo) {
+        try (FileChannel canal = FileChannel.open(Paths.get(rutaArchivo), StandardOpenOption.READ)) {
+            long tamano = canal.size();
+            int partes = CargaParalela.partesPara(tamano);
+            if (partes > 1 && tamano < Integer.MAX_VALUE) {
+                ByteBuffer mapa = canal.map(FileChannel.MapMode.READ_ONLY, 0, tamano);
+                int[] limites = dividirEnRegistros(mapa, "transaccion", partes);
+                if (limites != null) {
+                    return CargaParalela.leerPorPartes(limites.length - 1,
+                            parte -> leerTransacciones(fragmento(mapa, limites[parte], limites[parte + 1])));
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+        try (InputStream in = new BufferedInputStream(new FileInputStream(rutaArchivo), 64 * 1024)) {
+            return leerTransacciones(in);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return new ArrayList<>();
+        }
+    }
 
-                    String identificacionStr = getTagValue("identificacion", elementoCuenta);
-                    int identificacion = identificacionStr.isEmpty() ? -1 : Integer.parseInt(identificacionStr);
+    private static List<Transaccion> leerTransacciones(InputStream in) {
+        List<Transaccion> transacciones = new ArrayList<>();
+        try {
+            leerRegistros(in, "transaccion", campos -> {
+                // Leer los datos del XML
+                double monto = Double.parseDouble(campos.get("monto"));
+                String tipo = campos.get("tipo");
+                String numeroCuenta = campos.get("numeroCuenta");
+                LocalDate fecha = LocalDate.parse(campos.get("fecha"));
+                boolean comision = Boolean.parseBoolean(campos.get("comision"));
+
+                Transaccion transaccion = new Transaccion(tipo, monto, numeroCuenta, comision);
+                transaccion.setFecha(fecha);
+
+                transacciones.add(transaccion);
+            });
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return transacciones;
+    }
 
-                    // Buscar el cliente asociado
-                    Cliente cliente = clienteControlador.buscarClientePorIdentificacion(identificacion).orElse(null);
-                    if (cliente == null) {
-                        System.err.println("Advertencia: Cliente con identificación " + identificacion
-                                + " no encontrado. La cuenta no se asociará a ningún cliente.");
-                    }
+    /**
+     * Recorre el archivo en una sola pasada con un {@link XMLStreamReader} y
+     * entrega al consumidor los campos de cada elemento {@code etiqueta}
+     * (nombre del hijo -> texto, atributos con prefijo "@"). El mapa se
+     * reutiliza entre registros, por lo que la memoria usada no depende del
+     * tamaño del archivo.
+     */
+    private static void leerRegistros(String rutaArchivo, String etiqueta, Consumer<Map<String, String>> consumidor)
+            throws IOException, XMLStreamException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(rutaArchivo), 64 * 1024)) {
+            leerRegistros(in, etiqueta, consumidor);
+        }
+    }
 
-                    // Crear la cuenta con los valores obtenidos
-                    Cuenta cuenta = new Cuenta(saldo, codigo, pin, cliente, estatus);
-                    listaCuentas.add(cuenta);
+    private static void leerRegistros(InputStream in, String etiqueta, Consumer<Map<String, String>> consumidor)
+            throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
 
-                    if (cliente != null) {
-                        cliente.getMisCuentas().add(cuenta);
+        Map<String, String> campos = new HashMap<>();
+        XMLStreamReader reader = factory.createXMLStreamReader(in);
+        try {
+            boolean dentroDeRegistro = false;
+            while (reader.hasNext()) {
+                int evento = reader.next();
+                if (evento == XMLStreamConstants.START_ELEMENT) {
+                    String nombre = reader.getLocalName();
+                    if (nombre.equals(etiqueta)) {
+                        dentroDeRegistro = true;
+                        campos.clear();
+                        for (int i = 0; i < reader.getAttributeCount(); i++) {
+                            campos.put("@" + reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                        }
+                    } else if (dentroDeRegistro) {
+                        campos.put(nombre, reader.getElementText().trim());
                     }
+                } else if (evento == XMLStreamConstants.END_ELEMENT && dentroDeRegistro
+                        && reader.getLocalName().equals(etiqueta)) {
+                    dentroDeRegistro = false;
+                    consumidor.accept(campos);
                 }
             }
-        } catch (Exception e) {
-            System.err.println("Error al leer el archivo XML: " + e.getMessage());
-            e.printStackTrace();
+        } finally {
+            reader.close();
         }
     }
 
-    // Método auxiliar para obtener el valor de una etiqueta de manera segura
-    private static String getTagValue(String tag, Element element) {
-        NodeList nodeList = element.getElementsByTagName(tag);
-        if (nodeList != null && nodeList.getLength() > 0) {
-            Node node = nodeList.item(0);
-            if (node != null) {
-                return node.getTextContent().trim();
+    /**
+     * Divide la región entre el primer {@code <etiqueta>} y el último
+     * {@code </etiqueta>} en partes que empiezan en un registro. Devuelve las
+     * posiciones de inicio de cada parte seguidas del final, o null si el
+     * archivo no tiene registros.
+     */
+    private static int[] dividirEnRegistros(ByteBuffer mapa, String etiqueta, int partes) {
+        byte[] apertura = ("<" + etiqueta).getBytes(StandardCharsets.UTF_8);
+        byte[] cierre = ("</" + etiqueta + ">").getBytes(StandardCharsets.UTF_8);
+        int inicio = buscarApertura(mapa, apertura, 0, mapa.limit());
+        int fin = buscarUltimo(mapa, cierre);
+        if (inicio < 0 || fin < inicio) {
+            return null;
+        }
+        fin += cierre.length;
+
+        List<Integer> limites = new ArrayList<>();
+        limites.add(inicio);
+        for (int i = 1; i < partes; i++) {
+            int desde = (int) (inicio + (long) (fin - inicio) * i / partes);
+            int posicion = buscarApertura(mapa, apertura, Math.max(desde, limites.get(limites.size() - 1) + 1), fin);
+            if (posicion < 0) {
+                break;
             }
+            limites.add(posicion);
         }
-        return "";
+        limites.add(fin);
+        return limites.stream().mapToInt(Integer::intValue).toArray();
     }
 
-    // Método para escribir transacciones a un archivo XML
-    public static void escribirTransaccionesAArchivoXML(List<Transaccion> transacciones, String rutaArchivo) {
-        try {
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.newDocument();
+    // Busca "<etiqueta" seguido de '>', espacio o '/', para no confundirla con otra que empiece igual
+    private static int buscarApertura(ByteBuffer mapa, byte[] apertura, int desde, int hasta) {
+        for (int i = desde; i <= hasta - apertura.length - 1; i++) {
+            if (coincide(mapa, apertura, i)) {
+                byte siguiente = mapa.get(i + apertura.length);
+                if (siguiente == '>' || siguiente == '/' || siguiente == ' ' || siguiente == '\t'
+                        || siguiente == '\n' || siguiente == '\r') {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
 
-            Element rootElement = doc.createElement("transacciones");
-            doc.appendChild(rootElement);
+    private static int buscarUltimo(ByteBuffer mapa, byte[] patron) {
+        for (int i = mapa.limit() - patron.length; i >= 0; i--) {
+            if (coincide(mapa, patron, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean coincide(ByteBuffer mapa, byte[] patron, int posicion) {
+        for (int j = 0; j < patron.length; j++) {
+            if (mapa.get(posicion + j) != patron[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-            for (Transaccion transaccion : transacciones) {
-                Element transaccionElement = doc.createElement("transaccion");
+    // Documento XML formado por los registros de una parte envueltos en un elemento raíz
+    private static InputStream fragmento(ByteBuffer mapa, int desde, int hasta) {
+        ByteBuffer region = mapa.duplicate();
+        region.limit(hasta).position(desde);
+        return new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream("<registros>".getBytes(StandardCharsets.UTF_8)),
+                new EntradaBuffer(region.slice()),
+                new ByteArrayInputStream("</registros>".getBytes(StandardCharsets.UTF_8)))));
+    }
 
-                Element fechaElement = doc.createElement("fecha");
-                fechaElement.appendChild(doc.createTextNode(transaccion.getFecha().toString()));
-                transaccionElement.appendChild(fechaElement);
+    // Flujo de lectura sobre un buffer, sin copiarlo
+    private static class EntradaBuffer extends InputStream {
+        private final ByteBuffer buffer;
 
-                Element tipoElement = doc.createElement("tipo");
-                tipoElement.appendChild(doc.createTextNode(transaccion.getTipo()));
-                transaccionElement.appendChild(tipoElement);
+        EntradaBuffer(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
 
-                Element montoElement = doc.createElement("monto");
-                montoElement.appendChild(doc.createTextNode(String.valueOf(transaccion.getMonto())));
-                transaccionElement.appendChild(montoElement);
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
 
-                Element comisionElement = doc.createElement("comision");
-                comisionElement.appendChild(doc.createTextNode(String.valueOf(transaccion.getComision())));
-                transaccionElement.appendChild(comisionElement);
+        @Override
+        public int read(byte[] destino, int desde, int longitud) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int leidos = Math.min(longitud, buffer.remaining());
+            buffer.get(destino, desde, leidos);
+            return leidos;
+        }
+    }
 
-                Element numeroCuentaElement = doc.createElement("numeroCuenta");
-                numeroCuentaElement.appendChild(doc.createTextNode(transaccion.getCodigoCuenta()));
-                transaccionElement.appendChild(numeroCuentaElement);
+    /**
+     * Escritor de archivos con la forma raíz -> registros -> campos. Escribe
+     * directamente con un {@link XMLStreamWriter} sobre un canal con buffer,
+     * sin construir el documento en memoria. La indentación es opcional y usa
+     * el mismo formato de cuatro espacios que tenían los archivos existentes.
+     */
+    private static class EscritorXML implements AutoCloseable {
+        private static final int TAMANO_BUFFER = 64 * 1024;
+
+        private static final String[] SANGRIAS = { "\n", "\n    ", "\n        " };
+
+        private final FileChannel canal;
+        private final Writer salida;
+        private final XMLStreamWriter writer;
+        private final boolean indentar;
+        private final String raiz;
+        private final boolean anexando;
+
+        EscritorXML(String rutaArchivo, String raiz, boolean indentar) throws IOException, XMLStreamException {
+            this(rutaArchivo, raiz, indentar, -1);
+        }
 
-                rootElement.appendChild(transaccionElement);
+        // Con posicionCierre >= 0 se continúa un archivo existente desde esa posición
+        EscritorXML(String rutaArchivo, String raiz, boolean indentar, long posicionCierre)
+                throws IOException, XMLStreamException {
+            if (posicionCierre >= 0) {
+                canal = FileChannel.open(Paths.get(rutaArchivo), StandardOpenOption.WRITE);
+                canal.truncate(posicionCierre);
+                canal.position(posicionCierre);
+            } else {
+                canal = FileChannel.open(Paths.get(rutaArchivo), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            this.salida = new BufferedWriter(Channels.newWriter(canal, StandardCharsets.UTF_8), TAMANO_BUFFER);
+            this.writer = XMLOutputFactory.newInstance().createXMLStreamWriter(salida);
+            this.indentar = indentar;
+            this.raiz = raiz;
+            this.anexando = posicionCierre >= 0;
+            if (!anexando) {
+                writer.writeStartDocument("UTF-8", "1.0");
+                saltoDeLinea(0);
+                writer.writeStartElement(raiz);
             }
+        }
 
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            Transformer transformer = transformerFactory.newTransformer();
-            DOMSource source = new DOMSource(doc);
-            StreamResult result = new StreamResult(new File(rutaArchivo));
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.transform(source, result);
-        } catch (Exception e) {
-            e.printStackTrace();
+        void iniciarRegistro(String nombre) throws XMLStreamException {
+            saltoDeLinea(1);
+            writer.writeStartElement(nombre);
         }
-    }
 
-    // Método para leer transacciones desde un archivo XML
-    public static List<Transaccion> leerTransaccionesDesdeArchivoXML(String rutaArchivo) {
-        List<Transaccion> transacciones = new ArrayList<>();
-        try {
-            File archivoXML = new File(rutaArchivo);
-            DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-            Document doc = dBuilder.parse(archivoXML);
-            doc.getDocumentElement().normalize();
-
-            NodeList transaccionNodes = doc.getElementsByTagName("transaccion");
-
-            for (int i = 0; i < transaccionNodes.getLength(); i++) {
-                Node transaccionNode = transaccionNodes.item(i);
-
-                if (transaccionNode.getNodeType() == Node.ELEMENT_NODE) {
-                    Element transaccionElement = (Element) transaccionNode;
-
-                    // Leer los datos del XML
-                    double monto = Double
-                            .parseDouble(transaccionElement.getElementsByTagName("monto").item(0).getTextContent());
-                    String tipo = transaccionElement.getElementsByTagName("tipo").item(0).getTextContent();
-                    String numeroCuenta = transaccionElement.getElementsByTagName("numeroCuenta").item(0)
-                            .getTextContent();
-                    String fechaStr = transaccionElement.getElementsByTagName("fecha").item(0).getTextContent();
-                    LocalDate fecha = LocalDate.parse(fechaStr); // Asegúrate de que el formato sea compatible
-                    boolean comision = Boolean
-                            .parseBoolean(transaccionElement.getElementsByTagName("comision").item(0).getTextContent());
-
-                    Transaccion transaccion = new Transaccion(tipo, monto, numeroCuenta, comision);
-                    transaccion.setFecha(fecha);
-
-                    transacciones.add(transaccion);
+        void atributo(String nombre, String valor) throws XMLStreamException {
+            writer.writeAttribute(nombre, valor);
+        }
+
+        void campo(String nombre, String valor) throws XMLStreamException {
+            saltoDeLinea(2);
+            writer.writeStartElement(nombre);
+            writer.writeCharacters(valor);
+            writer.writeEndElement();
+        }
+
+        void terminarRegistro() throws XMLStreamException {
+            saltoDeLinea(1);
+            writer.writeEndElement();
+        }
+
+        private void saltoDeLinea(int nivel) throws XMLStreamException {
+            if (indentar) {
+                writer.writeCharacters(SANGRIAS[nivel]);
+            }
+        }
+
+        @Override
+        public void close() throws IOException, XMLStreamException {
+            try {
+                saltoDeLinea(0);
+                if (anexando) {
+                    // El elemento raíz fue abierto en una escritura anterior
+                    writer.flush();
+                    salida.write("</" + raiz + ">");
+                } else {
+                    writer.writeEndElement();
+                    writer.writeEndDocument();
                 }
+                saltoDeLinea(0);
+                writer.flush();
+                writer.close();
+                // Asegurar que el contenido quede en disco antes de publicarlo
+                salida.flush();
+                canal.force(true);
+            } finally {
+                salida.close();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
         }
-        return transacciones;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,39 @@
+#!/bin/sh
+# Compila el código y las pruebas de test/ y ejecuta cada clase *Prueba en un
+# directorio de trabajo temporal propio, porque los datos se guardan en
+# src/data relativo al directorio de trabajo.
+#
+# Uso: test/ejecutar.sh [Prueba...]     (por ejemplo: test/ejecutar.sh BitacoraPrueba)
+# Las opciones de java se pasan con JAVA_OPTS (por ejemplo -Dbanco.motor=secuenciador).
+
+raiz=$(cd "$(dirname "$0")/.." && pwd)
+trabajo=$(mktemp -d)
+trap 'rm -rf "$trabajo"' EXIT
+
+mkdir -p "$trabajo/clases"
+if ! javac -encoding UTF-8 -nowarn -d "$trabajo/clases" -cp "$raiz/lib/*" \
+    $(find "$raiz/src" "$raiz/test" -name '*.java'); then
+    echo "No se pudieron compilar las pruebas."
+    exit 1
+fi
+
+fallidas=""
+for archivo in $(cd "$raiz/test" && find . -name '*Prueba.java' | sort); do
+    clase=$(echo "$archivo" | sed 's|^\./||; s|\.java$||; s|/|.|g')
+    nombre=${clase##*.}
+    if [ $# -gt 0 ] && ! echo " $* " | grep -q " $nombre "; then
+        continue
+    fi
+    datos=$(mktemp -d "$trabajo/datos.XXXXXX")
+    mkdir -p "$datos/src/data"
+    echo "== $clase"
+    if ! (cd "$datos" && java $JAVA_OPTS -cp "$trabajo/clases:$raiz/lib/*" "$clase"); then
+        fallidas="$fallidas $nombre"
+    fi
+done
+
+if [ -n "$fallidas" ]; then
+    echo "Pruebas fallidas:$fallidas"
+    exit 1
+fi
+echo "Todas las pruebas pasaron."
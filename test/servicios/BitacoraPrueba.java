@@ -0,0 +1,174 @@
+package servicios;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import modelos.Cliente;
+import modelos.ClienteJuridico;
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Reproducción de la bitácora: los registros confirmados se aplican sobre la
+ * instantánea sin repetir lo que ya tiene, y un registro incompleto o con el
+ * CRC dañado corta la reproducción ahí y se descarta del archivo. Vaciar
+ * hasta un corte conserva lo registrado después.
+ */
+public class BitacoraPrueba {
+    private static final String RUTA = "src/data/prueba.log";
+    private static final int REGISTROS = 20;
+
+    public static void main(String[] args) throws IOException {
+        reproducirConfirmados();
+        noRepetirLoGuardado();
+        descartarRegistroIncompleto();
+        cortarEnCrcDanado();
+        seguirDespuesDeTruncar();
+        conservarDespuesDelCorte();
+        Comprobar.terminar("BitacoraPrueba");
+    }
+
+    private static void reproducirConfirmados() {
+        new File(RUTA).delete();
+        escribirDepositos(estadoInicial(), REGISTROS);
+
+        List<Cliente> clientes = estadoInicial();
+        RegistroCambios cambios = new RegistroCambios();
+        int aplicados = new Bitacora(RUTA).reproducir(clientes, cambios);
+        Comprobar.iguales(REGISTROS, aplicados, "registros aplicados");
+        Comprobar.iguales(REGISTROS, cuenta(clientes).getTransacciones().size(), "transacciones reproducidas");
+        Comprobar.iguales(1000.0 + 10 * REGISTROS, cuenta(clientes).getSaldo(), "saldo reproducido");
+        Comprobar.iguales(REGISTROS, cambios.extraer().getTransaccionesNuevas().size(),
+                "transacciones marcadas como nuevas");
+    }
+
+    // Una instantánea que ya tiene las transacciones no las vuelve a agregar
+    private static void noRepetirLoGuardado() {
+        new File(RUTA).delete();
+        List<Cliente> guardados = estadoInicial();
+        escribirDepositos(guardados, REGISTROS);
+
+        RegistroCambios cambios = new RegistroCambios();
+        new Bitacora(RUTA).reproducir(guardados, cambios);
+        Comprobar.iguales(REGISTROS, cuenta(guardados).getTransacciones().size(),
+                "transacciones sin repetir al reproducir sobre lo guardado");
+        Comprobar.que(cambios.extraer().getTransaccionesNuevas().isEmpty(), "nada nuevo que guardar");
+    }
+
+    private static void descartarRegistroIncompleto() throws IOException {
+        new File(RUTA).delete();
+        escribirDepositos(estadoInicial(), REGISTROS);
+        long tamano = new File(RUTA).length();
+        try (RandomAccessFile archivo = new RandomAccessFile(RUTA, "rw")) {
+            archivo.setLength(tamano - 3);
+        }
+
+        List<Cliente> clientes = estadoInicial();
+        int aplicados = new Bitacora(RUTA).reproducir(clientes, new RegistroCambios());
+        Comprobar.iguales(REGISTROS - 1, aplicados, "registros aplicados antes del incompleto");
+        Comprobar.que(new File(RUTA).length() < tamano - 3, "registro incompleto descartado del archivo");
+
+        // La numeración sigue después de lo reproducido, así que lo nuevo se lee
+        Bitacora bitacora = new Bitacora(RUTA);
+        bitacora.reproducir(estadoInicial(), new RegistroCambios());
+        escribirDepositos(bitacora, clientes, 1);
+        Comprobar.iguales(REGISTROS, new Bitacora(RUTA).reproducir(estadoInicial(), new RegistroCambios()),
+                "registros aplicados después de seguir escribiendo");
+    }
+
+    private static void cortarEnCrcDanado() throws IOException {
+        new File(RUTA).delete();
+        escribirDepositos(estadoInicial(), REGISTROS);
+        // Todos los registros miden lo mismo: se daña el contenido del quinto
+        long cabecera = Integer.BYTES + Short.BYTES + Long.BYTES;
+        long registro = (new File(RUTA).length() - cabecera) / REGISTROS;
+        try (RandomAccessFile archivo = new RandomAccessFile(RUTA, "rw")) {
+            long posicion = cabecera + 4 * registro + registro - 2;
+            archivo.seek(posicion);
+            int valor = archivo.read();
+            archivo.seek(posicion);
+            archivo.write(valor ^ 0xFF);
+        }
+
+        List<Cliente> clientes = estadoInicial();
+        int aplicados = new Bitacora(RUTA).reproducir(clientes, new RegistroCambios());
+        Comprobar.iguales(4, aplicados, "registros aplicados antes del CRC dañado");
+        Comprobar.iguales(4, cuenta(clientes).getTransacciones().size(), "transacciones antes del CRC dañado");
+    }
+
+    private static void seguirDespuesDeTruncar() {
+        new File(RUTA).delete();
+        List<Cliente> guardados = estadoInicial();
+        Bitacora bitacora = new Bitacora(RUTA);
+        escribirDepositos(bitacora, guardados, REGISTROS);
+        bitacora.truncar();
+        escribirDepositos(bitacora, guardados, 1);
+        bitacora.cerrar();
+
+        List<Cliente> clientes = estadoInicial();
+        int aplicados = new Bitacora(RUTA).reproducir(clientes, new RegistroCambios());
+        Comprobar.iguales(1, aplicados, "registros después del truncado");
+        Comprobar.iguales(cuenta(guardados).getSaldo(), cuenta(clientes).getSaldo(), "saldo del último registro");
+    }
+
+    // Lo registrado mientras se escribía la instantánea queda en la bitácora, con su numeración
+    private static void conservarDespuesDelCorte() {
+        new File(RUTA).delete();
+        List<Cliente> guardados = estadoInicial();
+        Bitacora bitacora = new Bitacora(RUTA);
+        escribirDepositos(bitacora, guardados, REGISTROS);
+        Bitacora.Corte corte = bitacora.marcarCorte();
+        escribirDepositos(bitacora, guardados, 5);
+        bitacora.truncarHasta(corte);
+        escribirDepositos(bitacora, guardados, 1);
+        bitacora.cerrar();
+
+        List<Cliente> clientes = estadoInicial();
+        int aplicados = new Bitacora(RUTA).reproducir(clientes, new RegistroCambios());
+        Comprobar.iguales(6, aplicados, "registros después del corte");
+        Comprobar.iguales(cuenta(guardados).getSaldo(), cuenta(clientes).getSaldo(), "saldo después del corte");
+        Comprobar.que(!new File(RUTA + ".tmp").exists(), "el temporal del corte no queda");
+
+        // Un corte sin nada después deja la bitácora vacía
+        bitacora = new Bitacora(RUTA);
+        bitacora.reproducir(estadoInicial(), new RegistroCambios());
+        bitacora.truncarHasta(bitacora.marcarCorte());
+        escribirDepositos(bitacora, guardados, 1);
+        bitacora.cerrar();
+        Comprobar.iguales(1, new Bitacora(RUTA).reproducir(estadoInicial(), new RegistroCambios()),
+                "registros después de un corte al final");
+    }
+
+    private static List<Cliente> estadoInicial() {
+        Cliente cliente = new ClienteJuridico("Empresa", 1L, "88887777", "empresa@correo.com", "Comercio",
+                "Empresa S.A.");
+        cliente.agregarCuenta(new Cuenta(1000, "cta-1", "1234", cliente, "Activa"));
+        List<Cliente> clientes = new ArrayList<>();
+        clientes.add(cliente);
+        return clientes;
+    }
+
+    private static Cuenta cuenta(List<Cliente> clientes) {
+        return clientes.get(0).getMisCuentas().get(0);
+    }
+
+    private static void escribirDepositos(List<Cliente> clientes, int cantidad) {
+        Bitacora bitacora = new Bitacora(RUTA);
+        escribirDepositos(bitacora, clientes, cantidad);
+        bitacora.cerrar();
+    }
+
+    // Igual que un depósito: la transacción entra a la cuenta y después se registra
+    private static void escribirDepositos(Bitacora bitacora, List<Cliente> clientes, int cantidad) {
+        Cuenta cuenta = cuenta(clientes);
+        for (int i = 0; i < cantidad; i++) {
+            Transaccion transaccion = new Transaccion("Depósito", 10, cuenta.getCodigo(), false);
+            cuenta.agregarTransaccion(transaccion);
+            cuenta.setSaldo(cuenta.getSaldo() + 10);
+            bitacora.confirmar(bitacora.registrarMovimiento(cuenta, transaccion));
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package servicios;
+
+import java.util.Objects;
+
+/**
+ * Verificaciones de las pruebas de test/, que son programas con main (ver
+ * test/ejecutar.sh). Cada verificación fallida se informa en System.err y
+ * {@link #terminar} sale con código 1 si hubo alguna.
+ */
+public final class Comprobar {
+    private static int verificaciones;
+    private static int fallas;
+
+    private Comprobar() {
+    }
+
+    public static void que(boolean condicion, String descripcion) {
+        verificaciones++;
+        if (!condicion) {
+            fallas++;
+            System.err.println("FALLA: " + descripcion);
+        }
+    }
+
+    public static void iguales(Object esperado, Object obtenido, String descripcion) {
+        que(Objects.equals(esperado, obtenido), descripcion + " (esperado " + esperado + ", obtenido " + obtenido
+                + ")");
+    }
+
+    // Informa el resultado de la prueba y sale con código 1 si algo falló
+    public static void terminar(String prueba) {
+        System.out.println(prueba + ": " + verificaciones + " verificaciones, " + fallas + " fallas.");
+        System.exit(fallas == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,126 @@
+package servicios;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import controladores.ClienteControlador;
+import controladores.CuentaControlador;
+import controladores.TransaccionesControlador;
+import modelos.Cliente;
+import modelos.ClienteJuridico;
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Operaciones que la bitácora no confirma (modo FSYNC): la solicitud falla
+ * con {@link BitacoraNoConfirmadaException} y la memoria queda como estaba,
+ * sin saldos, transacciones, altas ni cambios de contacto a medias que el
+ * siguiente guardado pudiera escribir.
+ */
+public class DeshacerPrueba {
+    private static final String RUTA_BITACORA = "src/data/bitacora.log";
+    private static final String RUTA_TRANSACCIONES = "src/data/transacciones.xml";
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("banco.checkpoint.intervaloSeg", "3600");
+        System.setProperty("banco.checkpoint.mutaciones", "1000000");
+        System.setProperty("banco.historial", "completo");
+        Cliente cliente = new ClienteJuridico("Empresa", 1L, "88887777", "empresa@correo.com", "Comercio",
+                "Empresa S.A.");
+        List<Cuenta> cuentas = new ArrayList<>();
+        for (int i = 1; i <= 2; i++) {
+            Cuenta cuenta = new Cuenta(1000, "cta-" + i, "1234", cliente, "Activa");
+            cliente.agregarCuenta(cuenta);
+            cuentas.add(cuenta);
+        }
+        RepositorioArchivos repositorio = new RepositorioArchivos();
+        repositorio.guardarClientes(List.of(cliente), List.of(cliente));
+        repositorio.guardarCuentas(cuentas, cuentas);
+        repositorio.agregarTransacciones(List.of(transaccion(1), transaccion(2), transaccion(3)));
+
+        ClienteControlador clienteControlador = new ClienteControlador();
+        PersistenciaDatos.cargarDatos(clienteControlador);
+        CuentaControlador cuentaControlador = clienteControlador.getCuentaControlador();
+        Cuenta cta1 = cuentaControlador.obtenerCuentaPorNumero("cta-1").get();
+        Cuenta cta2 = cuentaControlador.obtenerCuentaPorNumero("cta-2").get();
+        Comprobar.iguales(3, cta1.getTransacciones().size(), "historial cargado");
+
+        // Un directorio en la ruta de la bitácora hace fallar todas sus escrituras
+        new File(RUTA_BITACORA).delete();
+        new File(RUTA_BITACORA).mkdir();
+
+        TransaccionesControlador transacciones = clienteControlador.getTransaccionesControlador();
+        Comprobar.que(falla(() -> transacciones.realizarDepositoColones("cta-1", 50)), "el depósito no confirmado falla");
+        Comprobar.iguales(1000.0, cta1.getSaldo(), "depósito: el saldo vuelve");
+        Comprobar.iguales(3, cta1.getTransacciones().size(), "depósito: la transacción se quita");
+
+        Comprobar.que(falla(() -> cuentaControlador.transferir("cta-1", "cta-2", 300)),
+                "la transferencia no confirmada falla");
+        Comprobar.iguales(1000.0, cta1.getSaldo(), "transferencia: saldo de origen");
+        Comprobar.iguales(1000.0, cta2.getSaldo(), "transferencia: saldo de destino");
+
+        Comprobar.que(falla(() -> cuentaControlador.eliminarCuenta("cta-1")), "la eliminación no confirmada falla");
+        Comprobar.iguales("Activa", cta1.getEstatus(), "eliminación: estatus");
+        Comprobar.iguales(1000.0, cta1.getSaldo(), "eliminación: saldo");
+        Comprobar.iguales(3, cta1.getCantidadTransacciones(), "eliminación: historial");
+
+        Comprobar.que(!cuentaControlador.cambiarPinCuenta(cta1, "9999"), "el cambio de PIN no confirmado falla");
+        Comprobar.iguales("1234", cta1.getPin(), "cambio de PIN: el PIN vuelve");
+
+        Comprobar.que(falla(() -> clienteControlador.actualizarTelefono(1L, "60001111")),
+                "el cambio de teléfono no confirmado falla");
+        Comprobar.iguales("88887777", clienteControlador.buscarClientePorIdentificacion(1L).get().getNumTelefono(),
+                "cambio de teléfono: el teléfono vuelve");
+
+        Comprobar.que(falla(() -> clienteControlador.crearClienteJuridico("Otra", 2L, "70001111", "otra@correo.com",
+                "Comercio", "Otra S.A.")), "el alta de cliente no confirmada falla");
+        Comprobar.que(!clienteControlador.buscarClientePorIdentificacion(2L).isPresent(),
+                "alta de cliente: el cliente sale del índice");
+        Comprobar.iguales(1, clienteControlador.obtenerClientes().size(), "alta de cliente: la lista no cambia");
+
+        int cuentasAntes = cuentaControlador.contarCuentas();
+        Comprobar.que(cuentaControlador.crearCuenta(500, "4321", cliente(clienteControlador)) == null,
+                "el alta de cuenta no confirmada falla");
+        Comprobar.iguales(cuentasAntes, cuentaControlador.contarCuentas(), "alta de cuenta: el índice no cambia");
+        Comprobar.iguales(2, cliente(clienteControlador).getMisCuentas().size(),
+                "alta de cuenta: el cliente no cambia");
+
+        // Con la bitácora otra vez disponible todo vuelve a funcionar
+        new File(RUTA_BITACORA).delete();
+        transacciones.realizarDepositoColones("cta-1", 50);
+        Comprobar.que(clienteControlador.crearClienteJuridico("Otra", 2L, "70001111", "otra@correo.com", "Comercio",
+                "Otra S.A."), "el alta de cliente se puede repetir");
+        Comprobar.que(PersistenciaDatos.guardarCambios(clienteControlador.obtenerClientes()), "los cambios se guardan");
+        PersistenciaDatos.cerrar();
+
+        Comprobar.iguales(1050.0, repositorio.cargarCuentas().get(1L).stream()
+                .filter(cuenta -> cuenta.getCodigo().equals("cta-1")).findFirst().get().getSaldo(),
+                "solo el depósito confirmado se guarda");
+        Comprobar.iguales(4, FormatoSnapshot.segun("xml").leerTransacciones(RUTA_TRANSACCIONES).size(),
+                "ninguna transacción deshecha se guarda");
+        Comprobar.iguales(2, repositorio.cargarClientes().size(), "clientes guardados");
+        Comprobar.terminar("DeshacerPrueba");
+    }
+
+    private static boolean falla(Runnable operacion) {
+        try {
+            operacion.run();
+            return false;
+        } catch (BitacoraNoConfirmadaException e) {
+            return true;
+        }
+    }
+
+    private static Cliente cliente(ClienteControlador clienteControlador) {
+        return clienteControlador.buscarClientePorIdentificacion(1L).get();
+    }
+
+    private static Transaccion transaccion(int i) {
+        Transaccion transaccion = new Transaccion("Depósito", 10 * i, "cta-1", false);
+        transaccion.setFecha(LocalDate.now().minusDays(i));
+        return transaccion;
+    }
+}
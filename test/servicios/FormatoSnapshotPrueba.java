@@ -0,0 +1,122 @@
+package servicios;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import modelos.Cliente;
+import modelos.ClienteFisico;
+import modelos.ClienteJuridico;
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Ida y vuelta de la instantánea en XML y en binario: lo que se escribe se
+ * lee igual, también un archivo de transacciones que se lee por partes en
+ * paralelo y uno al que se le agregan transacciones al final.
+ */
+public class FormatoSnapshotPrueba {
+    // Suficientes para pasar el tamaño mínimo de una parte y leer el archivo por partes
+    private static final int TRANSACCIONES = 100_000;
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("banco.carga.hilos", "4");
+        for (String nombre : new String[] { "xml", "binario" }) {
+            probarFormato(FormatoSnapshot.segun(nombre));
+        }
+        Comprobar.terminar("FormatoSnapshotPrueba");
+    }
+
+    private static void probarFormato(FormatoSnapshot formato) throws IOException {
+        String prefijo = "src/data/prueba-" + formato.getNombre();
+        String rutaClientes = prefijo + "-clientes" + formato.getExtension();
+        String rutaCuentas = prefijo + "-cuentas" + formato.getExtension();
+        String rutaTransacciones = prefijo + "-transacciones" + formato.getExtension();
+
+        ClienteFisico fisico = new ClienteFisico("María Peña", 101L, "88887777", "maria@correo.com",
+                LocalDate.of(1990, 5, 17), 3);
+        ClienteJuridico juridico = new ClienteJuridico("Peña & Hijos <S.A.>", 202L, "22223333",
+                "ventas@pena.com", "Comercio", "Peña \"y\" Hijos");
+        List<Cliente> clientes = List.of(fisico, juridico);
+        formato.escribirClientes(clientes, rutaClientes);
+        List<Cliente> clientesLeidos = formato.leerClientes(rutaClientes);
+        Comprobar.iguales(describirClientes(clientes), describirClientes(clientesLeidos),
+                formato.getNombre() + ": clientes");
+
+        Cuenta cuentaFisico = new Cuenta(1500.25, "cta-1", "1234", fisico, "Activa");
+        Cuenta cuentaJuridico = new Cuenta(0, "cta-2", "9876", juridico, "Eliminada");
+        formato.escribirCuentas(List.of(cuentaFisico, cuentaJuridico), rutaCuentas);
+        Map<Long, List<Cuenta>> cuentasLeidas = formato.leerCuentas(rutaCuentas);
+        Comprobar.iguales(describir(cuentaFisico), describir(cuentasLeidas.get(101L).get(0)),
+                formato.getNombre() + ": cuenta del cliente físico");
+        Comprobar.iguales(describir(cuentaJuridico), describir(cuentasLeidas.get(202L).get(0)),
+                formato.getNombre() + ": cuenta del cliente jurídico");
+
+        List<Transaccion> transacciones = new ArrayList<>();
+        for (int i = 0; i < TRANSACCIONES; i++) {
+            transacciones.add(transaccion(i));
+        }
+        formato.escribirTransacciones(transacciones, rutaTransacciones);
+        Comprobar.que(CargaParalela.partesPara(new File(rutaTransacciones).length()) > 1,
+                formato.getNombre() + ": el archivo de transacciones se lee por partes");
+        Comprobar.iguales(describirTransacciones(transacciones),
+                describirTransacciones(formato.leerTransacciones(rutaTransacciones)),
+                formato.getNombre() + ": transacciones");
+
+        List<Transaccion> nuevas = List.of(transaccion(TRANSACCIONES), transaccion(TRANSACCIONES + 1));
+        formato.agregarTransacciones(nuevas, rutaTransacciones);
+        transacciones.addAll(nuevas);
+        Comprobar.iguales(describirTransacciones(transacciones),
+                describirTransacciones(formato.leerTransacciones(rutaTransacciones)),
+                formato.getNombre() + ": transacciones agregadas al final");
+
+        String rutaNueva = prefijo + "-nuevas" + formato.getExtension();
+        formato.agregarTransacciones(nuevas, rutaNueva);
+        Comprobar.iguales(describirTransacciones(nuevas), describirTransacciones(formato.leerTransacciones(rutaNueva)),
+                formato.getNombre() + ": agregar crea el archivo si no existe");
+    }
+
+    private static Transaccion transaccion(int i) {
+        String[] tipos = { "Depósito", "Retiro", "Transferencia & comisión" };
+        Transaccion transaccion = new Transaccion(tipos[i % tipos.length], 10 + i * 0.25, "cta-" + (1 + i % 7),
+                i % 1000 == 0);
+        transaccion.setFecha(LocalDate.of(2024, 1, 1).plusDays(i / 100));
+        return transaccion;
+    }
+
+    private static String describirClientes(List<Cliente> clientes) {
+        StringBuilder texto = new StringBuilder();
+        for (Cliente cliente : clientes) {
+            texto.append(cliente.getTipo()).append('|').append(cliente.getNombre()).append('|')
+                    .append(cliente.getIdentificacion()).append('|').append(cliente.getNumTelefono()).append('|')
+                    .append(cliente.getCorreoElectronico());
+            if (cliente instanceof ClienteFisico) {
+                ClienteFisico fisico = (ClienteFisico) cliente;
+                texto.append('|').append(fisico.getFechaNacimiento()).append('|').append(fisico.getMaxCuentas());
+            } else {
+                ClienteJuridico juridico = (ClienteJuridico) cliente;
+                texto.append('|').append(juridico.getTipoNegocio()).append('|').append(juridico.getRazonSocial());
+            }
+            texto.append('\n');
+        }
+        return texto.toString();
+    }
+
+    private static String describir(Cuenta cuenta) {
+        return cuenta.getCodigo() + "|" + cuenta.getSaldo() + "|" + cuenta.getPin() + "|" + cuenta.getEstatus();
+    }
+
+    // Una línea por transacción; si algo difiere, el mensaje muestra la cantidad leída
+    private static String describirTransacciones(List<Transaccion> transacciones) {
+        StringBuilder texto = new StringBuilder();
+        for (Transaccion transaccion : transacciones) {
+            texto.append(transaccion.getTipo()).append('|').append(transaccion.getMonto()).append('|')
+                    .append(transaccion.getCodigoCuenta()).append('|').append(transaccion.getComision()).append('|')
+                    .append(transaccion.getFecha()).append('\n');
+        }
+        return transacciones.size() + " transacciones, hash " + texto.toString().hashCode();
+    }
+}
@@ -0,0 +1,101 @@
+package servicios;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import modelos.Cliente;
+import modelos.ClienteJuridico;
+
+/**
+ * {@link IndiceClientes} comparado con un HashMap: búsquedas después de
+ * crecer varias veces, identificaciones extremas (0, negativas, los límites
+ * de long), repetidas, las que no están y después de quitar algunas.
+ */
+public class IndiceClientesPrueba {
+    private static final int CLIENTES = 20_000;
+
+    public static void main(String[] args) {
+        IndiceClientes indice = new IndiceClientes();
+        Map<Long, Cliente> esperados = new HashMap<>();
+        List<Cliente> lista = new ArrayList<>();
+        Random azar = new Random(16L);
+        long[] extremas = { 0L, -1L, Long.MIN_VALUE, Long.MAX_VALUE, 1L << 32, -(1L << 32) };
+        for (long identificacion : extremas) {
+            agregar(indice, esperados, lista, identificacion);
+        }
+        // Consecutivas y múltiplos de la capacidad, que con un mal mezclado caerían juntas
+        for (int i = 0; i < CLIENTES; i++) {
+            long identificacion = i % 3 == 0 ? 100_000_000L + i : i % 3 == 1 ? (long) i << 20 : azar.nextLong();
+            agregar(indice, esperados, lista, identificacion);
+        }
+        Comprobar.iguales(esperados.size(), indice.getCantidad(), "cantidad después de crecer");
+        comprobarBusquedas(indice, esperados, "después de agregar");
+
+        Cliente repetido = cliente(extremas[2]);
+        Comprobar.que(!indice.agregar(repetido), "una identificación repetida no se agrega");
+        Comprobar.que(indice.buscar(extremas[2]) == esperados.get(extremas[2]), "se conserva el primer cliente");
+        Comprobar.iguales(esperados.size(), indice.getCantidad(), "la cantidad no cambia con un repetido");
+
+        int distintos = 0;
+        for (int i = 0; i < 10_000; i++) {
+            long identificacion = azar.nextLong();
+            if (indice.buscar(identificacion) != esperados.get(identificacion)) {
+                distintos++;
+            }
+        }
+        Comprobar.iguales(0, distintos, "las identificaciones que no están devuelven null");
+
+        IndiceClientes reconstruido = new IndiceClientes();
+        reconstruido.reconstruir(lista);
+        Comprobar.iguales(esperados.size(), reconstruido.getCantidad(), "cantidad después de reconstruir");
+        comprobarBusquedas(reconstruido, esperados, "después de reconstruir");
+
+        // Quitar uno de cada tres no debe cortar las secuencias de sondeo de los que quedan
+        for (int i = 0; i < lista.size(); i += 3) {
+            Cliente quitado = lista.get(i);
+            Comprobar.que(reconstruido.quitar(quitado), "quitar " + quitado.getIdentificacion());
+            esperados.remove(quitado.getIdentificacion());
+        }
+        Comprobar.que(!reconstruido.quitar(cliente(extremas[1])),
+                "otro cliente con la misma identificación no se quita");
+        Comprobar.iguales(esperados.size(), reconstruido.getCantidad(), "cantidad después de quitar");
+        comprobarBusquedas(reconstruido, esperados, "después de quitar");
+        int quitadosEncontrados = 0;
+        for (int i = 0; i < lista.size(); i += 3) {
+            if (reconstruido.buscar(lista.get(i).getIdentificacion()) != null) {
+                quitadosEncontrados++;
+            }
+        }
+        Comprobar.iguales(0, quitadosEncontrados, "los quitados ya no se encuentran");
+        Comprobar.terminar("IndiceClientesPrueba");
+    }
+
+    private static void agregar(IndiceClientes indice, Map<Long, Cliente> esperados, List<Cliente> lista,
+            long identificacion) {
+        Cliente cliente = cliente(identificacion);
+        boolean nuevo = !esperados.containsKey(identificacion);
+        Comprobar.iguales(nuevo, indice.agregar(cliente), "agregar " + identificacion);
+        if (nuevo) {
+            esperados.put(identificacion, cliente);
+            lista.add(cliente);
+        }
+    }
+
+    private static void comprobarBusquedas(IndiceClientes indice, Map<Long, Cliente> esperados, String caso) {
+        int encontrados = 0;
+        for (Map.Entry<Long, Cliente> entrada : esperados.entrySet()) {
+            if (indice.buscar(entrada.getKey()) == entrada.getValue()) {
+                encontrados++;
+            }
+        }
+        Comprobar.iguales(esperados.size(), encontrados, caso + ": clientes encontrados");
+    }
+
+    private static Cliente cliente(long identificacion) {
+        return new ClienteJuridico("Empresa " + identificacion, identificacion, "88887777", "empresa@correo.com",
+                "Comercio", "Empresa S.A.");
+    }
+}
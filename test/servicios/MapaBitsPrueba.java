@@ -0,0 +1,124 @@
+package servicios;
+
+import java.util.BitSet;
+import java.util.Random;
+
+/**
+ * Intersección, unión y diferencia de {@link MapaBits} comparadas con
+ * {@link BitSet}, con grupos que quedan como arreglo, como mapa de bits y
+ * que cruzan el límite entre los dos.
+ */
+public class MapaBitsPrueba {
+    private static final Random azar = new Random(20240601L);
+
+    public static void main(String[] args) {
+        valoresSueltos();
+        // Pocos valores por grupo (arreglos), muchos (mapas de bits) y mezclados
+        for (int densidad : new int[] { 50, 3000, 4096, 5000, 40000 }) {
+            for (int intento = 0; intento < 3; intento++) {
+                BitSet a = conjunto(densidad);
+                BitSet b = conjunto(densidad / 2 + azar.nextInt(8000));
+                comparar(a, b, "densidad " + densidad);
+            }
+        }
+        // Dos mapas de bits cuya intersección vuelve a ser un arreglo
+        BitSet a = new BitSet();
+        BitSet b = new BitSet();
+        a.set(0, 10000);
+        b.set(9000, 20000);
+        comparar(a, b, "mapas con poca intersección");
+        comparar(new BitSet(), a, "vacío");
+        resultadosIndependientes();
+        Comprobar.terminar("MapaBitsPrueba");
+    }
+
+    private static void valoresSueltos() {
+        MapaBits mapa = new MapaBits();
+        int[] valores = { 0, 65535, 65536, 1 << 20, Integer.MAX_VALUE, 7, 7 };
+        for (int valor : valores) {
+            mapa.agregar(valor);
+        }
+        Comprobar.iguales(6L, mapa.getCantidad(), "cantidad sin repetidos");
+        for (int valor : valores) {
+            Comprobar.que(mapa.contiene(valor), "contiene " + valor);
+        }
+        Comprobar.que(!mapa.contiene(8) && !mapa.contiene(65537), "no contiene lo que no se agregó");
+        Comprobar.iguales("{0, 7, 65535, 65536, 1048576, 2147483647}", aBitSet(mapa).toString(),
+                "recorrido en orden creciente");
+    }
+
+    private static void comparar(BitSet a, BitSet b, String caso) {
+        MapaBits mapaA = aMapa(a);
+        MapaBits mapaB = aMapa(b);
+        Comprobar.iguales((long) a.cardinality(), mapaA.getCantidad(), caso + ": cantidad");
+        Comprobar.iguales(a, aBitSet(mapaA), caso + ": valores");
+
+        BitSet y = (BitSet) a.clone();
+        y.and(b);
+        BitSet o = (BitSet) a.clone();
+        o.or(b);
+        BitSet sin = (BitSet) a.clone();
+        sin.andNot(b);
+        comprobar(y, mapaA.y(mapaB), caso + ": intersección");
+        comprobar(y, mapaB.y(mapaA), caso + ": intersección invertida");
+        comprobar(o, mapaA.o(mapaB), caso + ": unión");
+        comprobar(o, mapaB.o(mapaA), caso + ": unión invertida");
+        comprobar(sin, mapaA.sin(mapaB), caso + ": diferencia");
+        Comprobar.iguales(a, aBitSet(mapaA), caso + ": las operaciones no cambian los operandos");
+    }
+
+    private static void comprobar(BitSet esperado, MapaBits obtenido, String caso) {
+        Comprobar.iguales((long) esperado.cardinality(), obtenido.getCantidad(), caso + ", cantidad");
+        Comprobar.que(esperado.equals(aBitSet(obtenido)), caso + ", valores");
+        Comprobar.iguales(esperado.isEmpty(), obtenido.estaVacio(), caso + ", vacío");
+    }
+
+    // Agregar al resultado de una operación no cambia los mapas de los que salió
+    private static void resultadosIndependientes() {
+        BitSet a = conjunto(5000);
+        BitSet b = conjunto(100);
+        MapaBits mapaA = aMapa(a);
+        MapaBits mapaB = aMapa(b);
+        MapaBits union = mapaA.o(mapaB);
+        MapaBits diferencia = mapaA.sin(mapaB);
+        for (int valor = 0; valor < 300000; valor += 3) {
+            union.agregar(valor);
+            diferencia.agregar(valor);
+        }
+        Comprobar.iguales(a, aBitSet(mapaA), "los resultados no comparten grupos con el primer operando");
+        Comprobar.iguales(b, aBitSet(mapaB), "los resultados no comparten grupos con el segundo operando");
+    }
+
+    // Valores en los primeros cuatro grupos de 65536, con la densidad indicada por grupo
+    private static BitSet conjunto(int porGrupo) {
+        BitSet conjunto = new BitSet();
+        for (int grupo = 0; grupo < 4; grupo++) {
+            if (azar.nextInt(4) == 0) {
+                continue;
+            }
+            for (int i = 0; i < porGrupo; i++) {
+                conjunto.set(grupo * 65536 + azar.nextInt(65536));
+            }
+        }
+        return conjunto;
+    }
+
+    private static MapaBits aMapa(BitSet conjunto) {
+        MapaBits mapa = new MapaBits();
+        conjunto.stream().forEach(mapa::agregar);
+        return mapa;
+    }
+
+    // null si el recorrido no sale en orden creciente
+    private static BitSet aBitSet(MapaBits mapa) {
+        BitSet conjunto = new BitSet();
+        int[] anterior = { -1 };
+        boolean[] ordenado = { true };
+        mapa.recorrer(valor -> {
+            ordenado[0] &= valor > anterior[0];
+            anterior[0] = valor;
+            conjunto.set(valor);
+        });
+        return ordenado[0] ? conjunto : null;
+    }
+}
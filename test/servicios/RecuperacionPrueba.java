@@ -0,0 +1,158 @@
+package servicios;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import controladores.ClienteControlador;
+import modelos.Cliente;
+import modelos.ClienteFisico;
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Recuperación ante fallas de escritura: un archivo que no se pudo escribir
+ * no se publica, una escritura al final que quedó a medias se deshace al
+ * abrir el repositorio y un guardado fallido conserva sus cambios y la
+ * bitácora para el siguiente intento.
+ */
+public class RecuperacionPrueba {
+    private static final String RUTA_CLIENTES = "src/data/clientes.xml";
+    private static final String RUTA_TRANSACCIONES = "src/data/transacciones.xml";
+    // Lo mismo que RepositorioArchivos guarda de la cola del archivo antes de agregar
+    private static final int TAMANO_COLA = 4096;
+
+    public static void main(String[] args) throws IOException {
+        // Sin checkpoints durante la prueba: los guardados se piden a mano
+        System.setProperty("banco.checkpoint.intervaloSeg", "3600");
+        System.setProperty("banco.checkpoint.mutaciones", "1000000");
+        noPublicarEscrituraFallida();
+        deshacerAgregadoIncompleto();
+        descartarRegistroDeshacerDanado();
+        reintentarGuardadoFallido();
+        Comprobar.terminar("RecuperacionPrueba");
+    }
+
+    private static void noPublicarEscrituraFallida() throws IOException {
+        RepositorioArchivos repositorio = new RepositorioArchivos();
+        List<Cliente> clientes = List.of(cliente("88887777"));
+        repositorio.guardarClientes(clientes, clientes);
+        byte[] antes = Files.readAllBytes(Paths.get(RUTA_CLIENTES));
+
+        // Un directorio en la ruta del temporal hace fallar la escritura
+        new File(RUTA_CLIENTES + ".tmp").mkdir();
+        List<Cliente> cambiados = List.of(cliente("60001111"));
+        boolean fallo = false;
+        try {
+            repositorio.guardarClientes(cambiados, cambiados);
+        } catch (IOException e) {
+            fallo = true;
+        }
+        Comprobar.que(fallo, "la escritura fallida se informa");
+        Comprobar.que(!new File(RUTA_CLIENTES + ".tmp").exists(), "el temporal se borra");
+        Comprobar.que(Arrays.equals(antes, Files.readAllBytes(Paths.get(RUTA_CLIENTES))),
+                "el archivo anterior queda intacto");
+        Comprobar.iguales("88887777", repositorio.cargarClientes().get(0).getNumTelefono(),
+                "se carga la versión anterior");
+    }
+
+    /**
+     * Simula una caída a mitad de una escritura al final: el archivo ya tiene
+     * lo agregado, pero el registro para deshacer sigue ahí. Al abrir, el
+     * archivo vuelve a lo que tenía antes.
+     */
+    private static void deshacerAgregadoIncompleto() throws IOException {
+        RepositorioArchivos repositorio = new RepositorioArchivos();
+        repositorio.agregarTransacciones(List.of(transaccion(1), transaccion(2), transaccion(3)));
+        byte[] antes = Files.readAllBytes(Paths.get(RUTA_TRANSACCIONES));
+        repositorio.agregarTransacciones(List.of(transaccion(4), transaccion(5)));
+        Comprobar.que(Files.readAllBytes(Paths.get(RUTA_TRANSACCIONES)).length > antes.length,
+                "las transacciones se agregan al final");
+
+        Files.write(Paths.get(RUTA_TRANSACCIONES + ".deshacer"), registroDeshacer(antes));
+        new RepositorioArchivos().abrir();
+        Comprobar.que(Arrays.equals(antes, Files.readAllBytes(Paths.get(RUTA_TRANSACCIONES))),
+                "el archivo vuelve a como estaba antes de agregar");
+        Comprobar.que(!new File(RUTA_TRANSACCIONES + ".deshacer").exists(), "el registro para deshacer se borra");
+        Comprobar.iguales(3, FormatoSnapshot.segun("xml").leerTransacciones(RUTA_TRANSACCIONES).size(),
+                "transacciones después de deshacer");
+    }
+
+    // Un registro dañado viene de una caída antes de tocar el archivo: solo se borra
+    private static void descartarRegistroDeshacerDanado() throws IOException {
+        byte[] antes = Files.readAllBytes(Paths.get(RUTA_TRANSACCIONES));
+        byte[] registro = registroDeshacer(Arrays.copyOf(antes, antes.length / 2));
+        registro[registro.length - 1] ^= 0xFF;
+        Files.write(Paths.get(RUTA_TRANSACCIONES + ".deshacer"), registro);
+
+        new RepositorioArchivos().abrir();
+        Comprobar.que(Arrays.equals(antes, Files.readAllBytes(Paths.get(RUTA_TRANSACCIONES))),
+                "un registro para deshacer dañado no toca el archivo");
+        Comprobar.que(!new File(RUTA_TRANSACCIONES + ".deshacer").exists(), "el registro dañado se borra");
+    }
+
+    private static void reintentarGuardadoFallido() throws IOException {
+        Files.delete(Paths.get(RUTA_TRANSACCIONES));
+        RepositorioArchivos repositorio = new RepositorioArchivos();
+        Cliente cliente = cliente("88887777");
+        Cuenta cuenta = new Cuenta(100, "cta-1", "1234", cliente, "Activa");
+        cliente.agregarCuenta(cuenta);
+        repositorio.guardarClientes(List.of(cliente), List.of(cliente));
+        repositorio.guardarCuentas(List.of(cuenta), List.of(cuenta));
+
+        ClienteControlador clienteControlador = new ClienteControlador();
+        PersistenciaDatos.cargarDatos(clienteControlador);
+        clienteControlador.actualizarTelefono(101L, "60001111");
+        clienteControlador.getTransaccionesControlador().realizarDepositoColones("cta-1", 50);
+
+        new File(RUTA_CLIENTES + ".tmp").mkdir();
+        Comprobar.que(!PersistenciaDatos.guardarCambios(clienteControlador.obtenerClientes()),
+                "el guardado fallido devuelve false");
+        Comprobar.iguales("88887777", repositorio.cargarClientes().get(0).getNumTelefono(),
+                "el cambio no se publica si el guardado falla");
+
+        // El temporal ya se borró, así que el reintento escribe lo que quedó pendiente
+        Comprobar.que(PersistenciaDatos.guardarCambios(clienteControlador.obtenerClientes()),
+                "el reintento se guarda");
+        PersistenciaDatos.cerrar();
+        Comprobar.iguales("60001111", repositorio.cargarClientes().get(0).getNumTelefono(),
+                "teléfono guardado en el reintento");
+        Comprobar.iguales(150.0, repositorio.cargarCuentas().get(101L).get(0).getSaldo(),
+                "saldo guardado en el reintento");
+        Comprobar.iguales(1, FormatoSnapshot.segun("xml").leerTransacciones(RUTA_TRANSACCIONES).size(),
+                "el depósito se guarda una sola vez");
+        Comprobar.iguales(0, new Bitacora("src/data/bitacora.log").reproducir(repositorio.cargarClientes(),
+                new RegistroCambios()), "la bitácora queda vacía después del reintento");
+    }
+
+    // [longitud (long)][largo de la cola (int)][cola][CRC32 (int)], como RepositorioArchivos
+    private static byte[] registroDeshacer(byte[] anterior) throws IOException {
+        int largoCola = Math.min(anterior.length, TAMANO_COLA);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(anterior.length);
+        out.writeInt(largoCola);
+        out.write(anterior, anterior.length - largoCola, largoCola);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    private static Cliente cliente(String numTelefono) {
+        return new ClienteFisico("María Peña", 101L, numTelefono, "maria@correo.com", LocalDate.of(1990, 5, 17), 3);
+    }
+
+    private static Transaccion transaccion(int i) {
+        Transaccion transaccion = new Transaccion("Depósito", 10 * i, "cta-1", false);
+        transaccion.setFecha(LocalDate.of(2024, 1, i));
+        return transaccion;
+    }
+}
@@ -0,0 +1,224 @@
+package servicios;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import modelos.Cliente;
+import modelos.ClienteFisico;
+import modelos.ClienteJuridico;
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * Lo que cualquier {@link RepositorioBanco} tiene que cumplir: lo guardado se
+ * vuelve a cargar igual, los guardados parciales actualizan solo lo que
+ * cambió, al reescribir el historial se conserva lo archivado solo de las
+ * cuentas que lo siguen teniendo y el recorrido de lo archivado entrega lo
+ * mismo que la lectura por cuenta.
+ *
+ * Se prueba RepositorioArchivos con sus formatos y formas de guardar las
+ * transacciones. RepositorioJDBC se prueba solo si se indica una base vacía
+ * con -Dbanco.jdbc.url (y -Dbanco.jdbc.driver si hace falta), con el
+ * controlador en el classpath.
+ */
+public class RepositorioPrueba {
+    private static final String[][] VARIANTES = {
+            { "xml", "archivo", "perezoso", "0" },
+            { "binario", "archivo", "completo", "0" },
+            { "xml", "archivo", "completo", "365" },
+            { "xml", "segmentos", "perezoso", "0" },
+            { "binario", "segmentos", "completo", "0" } };
+
+    // Transacciones en memoria de la última carga
+    private static List<Transaccion> cargadasEnMemoria = new ArrayList<>();
+
+    public static void main(String[] args) throws IOException {
+        for (String[] variante : VARIANTES) {
+            System.setProperty("banco.formato", variante[0]);
+            System.setProperty("banco.transacciones", variante[1]);
+            System.setProperty("banco.historial", variante[2]);
+            System.setProperty("banco.historico.dias", variante[3]);
+            borrar(new File("src/data"));
+            new File("src/data").mkdirs();
+            probar(RepositorioArchivos::new);
+        }
+
+        if (Configuracion.obtener("banco.jdbc.url", "").isEmpty()) {
+            System.out.println("RepositorioJDBC: sin -Dbanco.jdbc.url, se omite.");
+        } else {
+            System.setProperty("banco.repositorio", "jdbc");
+            System.setProperty("banco.historial", "perezoso");
+            probar(RepositorioBanco::segunConfiguracion);
+        }
+        Comprobar.terminar("RepositorioPrueba");
+    }
+
+    private static void probar(Supplier<RepositorioBanco> nuevo) throws IOException {
+        RepositorioBanco repositorio = nuevo.get();
+        String nombre = repositorio.getNombre();
+        System.out.println("== " + nombre);
+        repositorio.abrir();
+        Comprobar.que(repositorio.estaVacio(), nombre + ": vacío al empezar");
+
+        ClienteFisico fisico = new ClienteFisico("María Peña", 101L, "88887777", "maria@correo.com",
+                LocalDate.of(1990, 5, 17), 3);
+        ClienteJuridico juridico = new ClienteJuridico("Peña & Hijos", 202L, "22223333", "ventas@pena.com",
+                "Comercio", "Peña y Hijos S.A.");
+        List<Cliente> clientes = List.of(fisico, juridico);
+        List<Cuenta> cuentas = new ArrayList<>();
+        cuentas.add(new Cuenta(1500.25, "cta-1", "1234", fisico, "Activa"));
+        cuentas.add(new Cuenta(300, "cta-2", "5678", juridico, "Activa"));
+        cuentas.add(new Cuenta(0, "cta-3", "9876", fisico, "Activa"));
+        Map<String, List<Transaccion>> historial = new HashMap<>();
+        List<Transaccion> transacciones = new ArrayList<>();
+        // Meses anteriores y el actual, para que cada variante deje una parte archivada o en disco
+        LocalDate[] fechas = { LocalDate.of(2020, 1, 15), LocalDate.of(2021, 6, 3), LocalDate.now() };
+        for (LocalDate fecha : fechas) {
+            for (Cuenta cuenta : cuentas) {
+                transacciones.add(transaccion(historial, cuenta, "Depósito", fecha));
+            }
+        }
+        repositorio.guardarClientes(clientes, clientes);
+        repositorio.guardarCuentas(cuentas, cuentas);
+        repositorio.agregarTransacciones(transacciones);
+        repositorio.cerrar();
+
+        repositorio = nuevo.get();
+        repositorio.abrir();
+        Comprobar.que(!repositorio.estaVacio(), nombre + ": con datos después de guardar");
+        comprobarCarga(repositorio, nombre + ": primera carga", clientes, cuentas, historial);
+        repositorio.cerrar();
+
+        // Guardado parcial: un cliente, una cuenta y dos transacciones nuevas
+        fisico.setNumTelefono("60001111");
+        cuentas.get(0).setSaldo(2000);
+        List<Transaccion> nuevas = List.of(transaccion(historial, cuentas.get(0), "Retiro", LocalDate.now()),
+                transaccion(historial, cuentas.get(1), "Depósito", LocalDate.now()));
+        repositorio = nuevo.get();
+        repositorio.abrir();
+        repositorio.guardarClientes(List.of(fisico), clientes);
+        repositorio.guardarCuentas(List.of(cuentas.get(0)), cuentas);
+        repositorio.agregarTransacciones(nuevas);
+        repositorio.cerrar();
+
+        repositorio = nuevo.get();
+        repositorio.abrir();
+        Map<String, Integer> archivadas = comprobarCarga(repositorio, nombre + ": después de guardar cambios",
+                clientes, cuentas, historial);
+        // Se elimina cta-2, como CuentaControlador.eliminarCuenta, y cta-3 deja de conservarse
+        cuentas.get(1).setEstatus("Eliminada");
+        cuentas.get(1).setSaldo(0);
+        historial.put("cta-2", new ArrayList<>());
+        historial.put("cta-3", new ArrayList<>());
+        List<Transaccion> enMemoria = new ArrayList<>();
+        for (Transaccion transaccion : cargadasEnMemoria) {
+            if (transaccion.getCodigoCuenta().equals("cta-1")) {
+                enMemoria.add(transaccion);
+            }
+        }
+        Map<String, Integer> conservadas = new HashMap<>();
+        conservadas.put("cta-1", archivadas.getOrDefault("cta-1", 0));
+        conservadas.put("cta-2", 0);
+        repositorio.guardarCuentas(List.of(cuentas.get(1)), cuentas);
+        repositorio.reescribirTransacciones(enMemoria, conservadas);
+        repositorio.cerrar();
+
+        repositorio = nuevo.get();
+        repositorio.abrir();
+        comprobarCarga(repositorio, nombre + ": después de reescribir el historial", clientes, cuentas, historial);
+        repositorio.cerrar();
+    }
+
+    /**
+     * Carga todo del repositorio y lo compara con lo esperado. El historial
+     * de cada cuenta es lo archivado más lo que quedó en memoria, y lo
+     * archivado tiene que coincidir con la cantidad informada al cargar.
+     */
+    private static Map<String, Integer> comprobarCarga(RepositorioBanco repositorio, String descripcion,
+            List<Cliente> clientes, List<Cuenta> cuentas, Map<String, List<Transaccion>> historial) {
+        List<Cliente> clientesLeidos = repositorio.cargarClientes();
+        Comprobar.iguales(describirClientes(clientes), describirClientes(clientesLeidos), descripcion + ", clientes");
+        List<Cuenta> cuentasLeidas = RepositorioBanco.enlazarCuentas(repositorio.cargarCuentas(), clientesLeidos);
+        Comprobar.iguales(describirCuentas(cuentas), describirCuentas(cuentasLeidas), descripcion + ", cuentas");
+
+        Map<String, Integer> archivadas = new HashMap<>();
+        cargadasEnMemoria = repositorio.cargarTransacciones(archivadas);
+        Map<String, List<Transaccion>> recorridas = new HashMap<>();
+        repositorio.recorrerTransaccionesArchivadas(transaccion -> recorridas
+                .computeIfAbsent(transaccion.getCodigoCuenta(), k -> new ArrayList<>()).add(transaccion));
+        for (Cuenta cuenta : cuentasLeidas) {
+            List<Transaccion> leidas = repositorio.leerTransaccionesArchivadas(cuenta);
+            Comprobar.iguales(archivadas.getOrDefault(cuenta.getCodigo(), 0), leidas.size(),
+                    descripcion + ", archivadas contadas de " + cuenta.getCodigo());
+            Comprobar.iguales(describirTransacciones(leidas),
+                    describirTransacciones(recorridas.getOrDefault(cuenta.getCodigo(), new ArrayList<>())),
+                    descripcion + ", archivadas recorridas de " + cuenta.getCodigo());
+            for (Transaccion transaccion : cargadasEnMemoria) {
+                if (transaccion.getCodigoCuenta().equals(cuenta.getCodigo())) {
+                    leidas.add(transaccion);
+                }
+            }
+            Comprobar.iguales(describirTransacciones(historial.get(cuenta.getCodigo())),
+                    describirTransacciones(leidas), descripcion + ", historial de " + cuenta.getCodigo());
+        }
+        return archivadas;
+    }
+
+    private static Transaccion transaccion(Map<String, List<Transaccion>> historial, Cuenta cuenta, String tipo,
+            LocalDate fecha) {
+        List<Transaccion> deCuenta = historial.computeIfAbsent(cuenta.getCodigo(), k -> new ArrayList<>());
+        Transaccion transaccion = new Transaccion(tipo, 10 + deCuenta.size(), cuenta.getCodigo(), false);
+        transaccion.setFecha(fecha);
+        deCuenta.add(transaccion);
+        return transaccion;
+    }
+
+    private static String describirClientes(List<Cliente> clientes) {
+        StringBuilder texto = new StringBuilder();
+        for (Cliente cliente : clientes) {
+            texto.append(cliente.getTipo()).append('|').append(cliente.getNombre()).append('|')
+                    .append(cliente.getIdentificacion()).append('|').append(cliente.getNumTelefono()).append('|')
+                    .append(cliente.getCorreoElectronico()).append('\n');
+        }
+        return texto.toString();
+    }
+
+    // Por código, porque al enlazarlas las cuentas quedan agrupadas por cliente
+    private static String describirCuentas(List<Cuenta> cuentas) {
+        List<Cuenta> ordenadas = new ArrayList<>(cuentas);
+        ordenadas.sort(Comparator.comparing(Cuenta::getCodigo));
+        StringBuilder texto = new StringBuilder();
+        for (Cuenta cuenta : ordenadas) {
+            texto.append(cuenta.getCodigo()).append('|').append(cuenta.getSaldo()).append('|')
+                    .append(cuenta.getPin()).append('|').append(cuenta.getEstatus()).append('|')
+                    .append(cuenta.getIdentificacionCliente()).append('\n');
+        }
+        return texto.toString();
+    }
+
+    private static String describirTransacciones(List<Transaccion> transacciones) {
+        StringBuilder texto = new StringBuilder();
+        for (Transaccion transaccion : transacciones) {
+            texto.append(transaccion.getTipo()).append('|').append(transaccion.getMonto()).append('|')
+                    .append(transaccion.getFecha()).append(';');
+        }
+        return texto.toString();
+    }
+
+    private static void borrar(File archivo) {
+        File[] contenido = archivo.listFiles();
+        if (contenido != null) {
+            for (File hijo : contenido) {
+                borrar(hijo);
+            }
+        }
+        archivo.delete();
+    }
+}
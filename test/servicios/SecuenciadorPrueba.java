@@ -0,0 +1,151 @@
+package servicios;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import modelos.Cuenta;
+import modelos.Transaccion;
+
+/**
+ * {@link SecuenciadorLibro}: las operaciones se aplican una a la vez en el
+ * hilo del libro y en el orden en que cada hilo las publicó, cada solicitante
+ * recibe su resultado o su excepción, una operación anidada no se bloquea y
+ * la respuesta sale cuando la bitácora ya tiene lo registrado.
+ */
+public class SecuenciadorPrueba {
+    private static final int HILOS = 8;
+    private static final int OPERACIONES_POR_HILO = 2000;
+
+    // Estado que solo toca el hilo del libro, sin candados a propósito
+    private static int aplicadas;
+    private static final List<long[]> orden = new ArrayList<>();
+    private static final Set<String> hilosQueAplicaron = new HashSet<>();
+
+    public static void main(String[] args) throws InterruptedException {
+        Comprobar.iguales(128, new SecuenciadorLibro(100).getCapacidad(), "capacidad redondeada a potencia de dos");
+        // Con dos casillas el anillo da muchas vueltas mientras los hilos esperan su turno
+        SecuenciadorLibro secuenciador = new SecuenciadorLibro(2);
+        Comprobar.iguales(2, secuenciador.getCapacidad(), "capacidad mínima");
+        aplicarEnOrden(secuenciador);
+        propagarErrores(secuenciador);
+        aplicarAnidadas(secuenciador);
+        confirmarBitacora(secuenciador);
+        Comprobar.terminar("SecuenciadorPrueba");
+    }
+
+    private static void aplicarEnOrden(SecuenciadorLibro secuenciador) throws InterruptedException {
+        List<Thread> hilos = new ArrayList<>();
+        List<List<Integer>> resultados = new ArrayList<>();
+        for (int h = 0; h < HILOS; h++) {
+            long hilo = h;
+            List<Integer> propios = new ArrayList<>();
+            resultados.add(propios);
+            hilos.add(new Thread(() -> {
+                for (int i = 0; i < OPERACIONES_POR_HILO; i++) {
+                    long paso = i;
+                    propios.add(secuenciador.ejecutar("cta-" + hilo, () -> {
+                        hilosQueAplicaron.add(Thread.currentThread().getName());
+                        orden.add(new long[] { hilo, paso });
+                        return ++aplicadas;
+                    }));
+                }
+            }));
+        }
+        hilos.forEach(Thread::start);
+        for (Thread hilo : hilos) {
+            hilo.join();
+        }
+        // Lo que escribió el hilo del libro se lee después de la última respuesta
+        int total = secuenciador.ejecutar("cta-0", () -> aplicadas);
+
+        Comprobar.iguales(HILOS * OPERACIONES_POR_HILO, total, "ninguna operación se pierde ni se repite");
+        Comprobar.iguales(Set.of("secuenciador-libro"), hilosQueAplicaron, "todas se aplican en el hilo del libro");
+        long[] ultimoPaso = new long[HILOS];
+        Arrays.fill(ultimoPaso, -1);
+        int desordenadas = 0;
+        for (long[] operacion : orden) {
+            if (operacion[1] != ultimoPaso[(int) operacion[0]] + 1) {
+                desordenadas++;
+            }
+            ultimoPaso[(int) operacion[0]] = operacion[1];
+        }
+        Comprobar.iguales(0, desordenadas, "las operaciones de cada hilo se aplican en el orden publicado");
+
+        Set<Integer> vistos = new HashSet<>();
+        int crecientes = 0;
+        for (List<Integer> propios : resultados) {
+            vistos.addAll(propios);
+            for (int i = 1; i < propios.size(); i++) {
+                if (propios.get(i) > propios.get(i - 1)) {
+                    crecientes++;
+                }
+            }
+        }
+        Comprobar.iguales(HILOS * OPERACIONES_POR_HILO, vistos.size(), "cada solicitante recibe su propio resultado");
+        Comprobar.iguales(HILOS * (OPERACIONES_POR_HILO - 1), crecientes,
+                "los resultados de cada hilo siguen el orden de la secuencia");
+    }
+
+    private static void propagarErrores(SecuenciadorLibro secuenciador) {
+        IllegalStateException excepcion = new IllegalStateException("prueba");
+        Throwable recibida = null;
+        try {
+            secuenciador.ejecutar("cta-1", () -> {
+                throw excepcion;
+            });
+        } catch (IllegalStateException e) {
+            recibida = e;
+        }
+        Comprobar.que(recibida == excepcion, "la excepción de la operación llega al solicitante");
+
+        AssertionError error = new AssertionError("prueba");
+        recibida = null;
+        try {
+            secuenciador.ejecutar("cta-1", "cta-2", () -> {
+                throw error;
+            });
+        } catch (AssertionError e) {
+            recibida = e;
+        }
+        Comprobar.que(recibida == error, "un Error de la operación llega al solicitante");
+        Comprobar.iguales("sigue", secuenciador.ejecutar("cta-1", () -> "sigue"), "el libro sigue después de un error");
+    }
+
+    private static void aplicarAnidadas(SecuenciadorLibro secuenciador) throws InterruptedException {
+        AtomicReference<String> interna = new AtomicReference<>();
+        Thread solicitante = new Thread(() -> interna.set(secuenciador.ejecutar("cta-1", "cta-2",
+                () -> secuenciador.ejecutar("cta-1", () -> Thread.currentThread().getName()))));
+        solicitante.setDaemon(true);
+        solicitante.start();
+        solicitante.join(30_000);
+        Comprobar.iguales("secuenciador-libro", interna.get(),
+                "una operación anidada se aplica directamente en el hilo del libro");
+    }
+
+    // La respuesta sale cuando los registros de la operación ya están en la bitácora
+    private static void confirmarBitacora(SecuenciadorLibro secuenciador) {
+        File bitacora = new File("src/data/bitacora.log");
+        Cuenta cuenta = new Cuenta(1000, "cta-1", "1234", null, "Activa");
+        int confirmadas = 0;
+        for (int i = 0; i < 50; i++) {
+            long antes = bitacora.length();
+            secuenciador.ejecutar(cuenta.getCodigo(), () -> {
+                Transaccion deposito = new Transaccion("Depósito", 10, cuenta.getCodigo(), false);
+                cuenta.agregarTransaccion(deposito);
+                cuenta.depositar(10, 0);
+                PersistenciaDatos.registrarMovimiento(cuenta, deposito);
+                return null;
+            });
+            if (bitacora.length() > antes) {
+                confirmadas++;
+            }
+        }
+        PersistenciaDatos.cerrar();
+        Comprobar.iguales(50, confirmadas, "cada respuesta sale con su registro ya escrito en la bitácora");
+    }
+}
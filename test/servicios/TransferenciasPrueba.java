@@ -0,0 +1,161 @@
+package servicios;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import controladores.ClienteControlador;
+import modelos.Cliente;
+import modelos.ClienteJuridico;
+import modelos.Cuenta;
+
+/**
+ * Transferencias concurrentes en sentidos opuestos: con los dos motores
+ * ningún saldo queda a medias a la vista de otra operación, la suma no
+ * cambia y no hay bloqueo mutuo. Al final, lo mismo de punta a punta por
+ * CuentaControlador, guardando y volviendo a cargar los saldos.
+ */
+public class TransferenciasPrueba {
+    private static final int CUENTAS = 6;
+    private static final int SALDO_INICIAL = 1000;
+    private static final int HILOS = 8;
+    private static final int TRANSFERENCIAS_POR_HILO = 5000;
+
+    public static void main(String[] args) throws Exception {
+        // Pocas franjas, para que cuentas de pares distintos compartan candado
+        probarMotor(new CandadosCuentas(4), "bloqueos");
+        probarMotor(new SecuenciadorLibro(64), "secuenciador");
+        probarControlador();
+        Comprobar.terminar("TransferenciasPrueba");
+    }
+
+    /**
+     * Cada par de cuentas (cta-1 y cta-2, cta-3 y cta-4...) recibe
+     * transferencias en los dos sentidos desde varios hilos, mientras otro
+     * hilo lee la suma del par dentro del motor: nunca debe ver un lado
+     * aplicado sin el otro.
+     */
+    private static void probarMotor(MotorCuentas motor, String nombre) throws InterruptedException {
+        List<Cuenta> cuentas = new ArrayList<>();
+        for (int i = 1; i <= CUENTAS; i++) {
+            cuentas.add(new Cuenta(SALDO_INICIAL, "cta-" + i, "1234", null, "Activa"));
+        }
+        AtomicBoolean terminado = new AtomicBoolean();
+        AtomicInteger sumasDistintas = new AtomicInteger();
+        AtomicInteger saldosNegativos = new AtomicInteger();
+        Thread lector = new Thread(() -> {
+            while (!terminado.get()) {
+                for (int par = 0; par < CUENTAS; par += 2) {
+                    Cuenta a = cuentas.get(par);
+                    Cuenta b = cuentas.get(par + 1);
+                    double suma = motor.ejecutar(a.getCodigo(), b.getCodigo(), () -> a.getSaldo() + b.getSaldo());
+                    if (suma != 2 * SALDO_INICIAL) {
+                        sumasDistintas.incrementAndGet();
+                    }
+                }
+            }
+        });
+        lector.start();
+
+        ExecutorService hilos = Executors.newFixedThreadPool(HILOS);
+        for (int h = 0; h < HILOS; h++) {
+            hilos.execute(() -> {
+                ThreadLocalRandom azar = ThreadLocalRandom.current();
+                for (int i = 0; i < TRANSFERENCIAS_POR_HILO; i++) {
+                    int par = azar.nextInt(CUENTAS / 2) * 2;
+                    boolean haciaAdelante = azar.nextBoolean();
+                    Cuenta origen = cuentas.get(haciaAdelante ? par : par + 1);
+                    Cuenta destino = cuentas.get(haciaAdelante ? par + 1 : par);
+                    int monto = 1 + azar.nextInt(50);
+                    motor.ejecutar(origen.getCodigo(), destino.getCodigo(), () -> {
+                        if (origen.getSaldo() >= monto) {
+                            origen.retirar(monto, 0);
+                            destino.depositar(monto, 0);
+                        }
+                        if (origen.getSaldo() < 0 || destino.getSaldo() < 0) {
+                            saldosNegativos.incrementAndGet();
+                        }
+                        return null;
+                    });
+                }
+            });
+        }
+        hilos.shutdown();
+        boolean terminaron = hilos.awaitTermination(2, TimeUnit.MINUTES);
+        terminado.set(true);
+        lector.join(10_000);
+
+        Comprobar.que(terminaron, nombre + ": las transferencias terminan sin bloqueo mutuo");
+        Comprobar.iguales(0, sumasDistintas.get(), nombre + ": lecturas con una transferencia a medias");
+        Comprobar.iguales(0, saldosNegativos.get(), nombre + ": saldos negativos");
+        double total = 0;
+        for (Cuenta cuenta : cuentas) {
+            total += cuenta.getSaldo();
+        }
+        Comprobar.iguales((double) CUENTAS * SALDO_INICIAL, total, nombre + ": la suma de los saldos no cambia");
+    }
+
+    private static void probarControlador() throws IOException, InterruptedException {
+        System.setProperty("banco.checkpoint.intervaloSeg", "3600");
+        Cliente cliente = new ClienteJuridico("Empresa", 1L, "88887777", "empresa@correo.com", "Comercio",
+                "Empresa S.A.");
+        List<Cuenta> cuentas = new ArrayList<>();
+        for (int i = 1; i <= CUENTAS; i++) {
+            Cuenta cuenta = new Cuenta(SALDO_INICIAL, "cta-" + i, "1234", cliente, "Activa");
+            cliente.agregarCuenta(cuenta);
+            cuentas.add(cuenta);
+        }
+        RepositorioArchivos repositorio = new RepositorioArchivos();
+        repositorio.guardarClientes(List.of(cliente), List.of(cliente));
+        repositorio.guardarCuentas(cuentas, cuentas);
+
+        ClienteControlador clienteControlador = new ClienteControlador();
+        PersistenciaDatos.cargarDatos(clienteControlador);
+        ExecutorService hilos = Executors.newFixedThreadPool(HILOS);
+        for (int h = 0; h < HILOS; h++) {
+            int hilo = h;
+            hilos.execute(() -> {
+                ThreadLocalRandom azar = ThreadLocalRandom.current();
+                for (int i = 0; i < 200; i++) {
+                    // La mitad de los hilos va de cta-1 a cta-2 y la otra mitad al revés
+                    String origen = "cta-" + (hilo % 2 == 0 ? 1 : 2);
+                    String destino = "cta-" + (hilo % 2 == 0 ? 2 : 1);
+                    clienteControlador.getCuentaControlador().transferir(origen, destino, 1 + azar.nextInt(50));
+                }
+            });
+        }
+        hilos.shutdown();
+        Comprobar.que(hilos.awaitTermination(2, TimeUnit.MINUTES),
+                "controlador: las transferencias terminan sin bloqueo mutuo");
+
+        double enMemoria = 0;
+        for (Cliente cargado : clienteControlador.obtenerClientes()) {
+            for (Cuenta cuenta : cargado.getMisCuentas()) {
+                enMemoria += cuenta.getSaldo();
+            }
+        }
+        Comprobar.iguales((double) CUENTAS * SALDO_INICIAL, enMemoria, "controlador: suma de los saldos en memoria");
+        Comprobar.que(PersistenciaDatos.guardarCambios(clienteControlador.obtenerClientes()),
+                "controlador: los saldos se guardan");
+        PersistenciaDatos.cerrar();
+
+        double guardado = 0;
+        for (Map.Entry<Long, List<Cuenta>> entrada : repositorio.cargarCuentas().entrySet()) {
+            for (Cuenta cuenta : entrada.getValue()) {
+                guardado += cuenta.getSaldo();
+                Cuenta enControlador = clienteControlador.getCuentaControlador()
+                        .obtenerCuentaPorNumero(cuenta.getCodigo()).get();
+                Comprobar.iguales(enControlador.getSaldo(), cuenta.getSaldo(),
+                        "controlador: saldo guardado de " + cuenta.getCodigo());
+            }
+        }
+        Comprobar.iguales((double) CUENTAS * SALDO_INICIAL, guardado, "controlador: suma de los saldos guardados");
+    }
+}